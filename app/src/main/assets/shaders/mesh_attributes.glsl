@@ -0,0 +1,28 @@
+// The stored vertex attributes of the object meshes and the uniforms that decode them, see
+// MeshData. Prepended to the object vertex shaders by ObjectRenderer, after the define
+// OCTAHEDRAL_NORMALS.
+
+uniform vec3 u_PositionScale;
+uniform vec3 u_PositionBias;
+uniform vec4 u_TexCoordScaleBias;
+
+attribute vec4 a_Position;
+#if OCTAHEDRAL_NORMALS
+attribute vec2 a_Normal;
+#else
+attribute vec3 a_Normal;
+#endif
+attribute vec2 a_TexCoord;
+
+vec3 decodeNormal() {
+#if OCTAHEDRAL_NORMALS
+    // Unfold the octahedral encoding, see MeshQuantizer.
+    vec3 n = vec3(a_Normal, 1.0 - abs(a_Normal.x) - abs(a_Normal.y));
+    float t = max(-n.z, 0.0);
+    n.x += n.x >= 0.0 ? -t : t;
+    n.y += n.y >= 0.0 ? -t : t;
+    return n;
+#else
+    return a_Normal;
+#endif
+}
@@ -16,17 +16,17 @@
 uniform mat4 u_ModelView;
 uniform mat4 u_ModelViewProjection;
 
-attribute vec4 a_Position;
-attribute vec3 a_Normal;
-attribute vec2 a_TexCoord;
+// The stored vertex attributes and decodeNormal() are declared in mesh_attributes.glsl, which
+// ObjectRenderer prepends together with the define OCTAHEDRAL_NORMALS.
 
 varying vec3 v_ViewPosition;
 varying vec3 v_ViewNormal;
 varying vec2 v_TexCoord;
 
 void main() {
-    v_ViewPosition = (u_ModelView * a_Position).xyz;
-    v_ViewNormal = normalize((u_ModelView * vec4(a_Normal, 0.0)).xyz);
-    v_TexCoord = a_TexCoord;
-    gl_Position = u_ModelViewProjection * a_Position;
+    vec4 position = vec4(a_Position.xyz * u_PositionScale + u_PositionBias, 1.0);
+    v_ViewPosition = (u_ModelView * position).xyz;
+    v_ViewNormal = normalize((u_ModelView * vec4(decodeNormal(), 0.0)).xyz);
+    v_TexCoord = a_TexCoord * u_TexCoordScaleBias.xy + u_TexCoordScaleBias.zw;
+    gl_Position = u_ModelViewProjection * position;
 }
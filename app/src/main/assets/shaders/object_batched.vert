@@ -0,0 +1,28 @@
+// OpenGL ES 2.0 fallback for object_instanced.vert. The vertex buffer holds several copies of the
+// mesh, each tagged with its copy number in a_InstanceIndex, which selects the model matrix from a
+// uniform array. Up to MAX_INSTANCES objects are drawn per draw call.
+
+uniform mat4 u_View;
+uniform mat4 u_Projection;
+uniform mat4 u_Model[MAX_INSTANCES];
+uniform vec4 u_LightDirection;
+
+// The stored vertex attributes and decodeNormal() are declared in mesh_attributes.glsl, which
+// ObjectRenderer prepends together with the defines OCTAHEDRAL_NORMALS and MAX_INSTANCES.
+attribute float a_InstanceIndex;
+
+varying vec3 v_ViewPosition;
+varying vec3 v_ViewNormal;
+varying vec3 v_ViewLightDirection;
+varying vec2 v_TexCoord;
+
+void main() {
+    mat4 modelView = u_View * u_Model[int(a_InstanceIndex)];
+    vec4 position = vec4(a_Position.xyz * u_PositionScale + u_PositionBias, 1.0);
+    vec4 viewPosition = modelView * position;
+    v_ViewPosition = viewPosition.xyz;
+    v_ViewNormal = normalize((modelView * vec4(decodeNormal(), 0.0)).xyz);
+    v_ViewLightDirection = normalize((modelView * u_LightDirection).xyz);
+    v_TexCoord = a_TexCoord * u_TexCoordScaleBias.xy + u_TexCoordScaleBias.zw;
+    gl_Position = u_Projection * viewPosition;
+}
@@ -0,0 +1,27 @@
+// Draws many copies of the object in a single instanced draw call. The model matrix is a
+// per-instance attribute (vertex attrib divisor 1), so the model-view and model-view-projection
+// matrices are built here instead of once per object on the CPU.
+
+uniform mat4 u_View;
+uniform mat4 u_Projection;
+uniform vec4 u_LightDirection;
+
+// The stored vertex attributes and decodeNormal() are declared in mesh_attributes.glsl, which
+// ObjectRenderer prepends together with the define OCTAHEDRAL_NORMALS.
+attribute mat4 a_Model;
+
+varying vec3 v_ViewPosition;
+varying vec3 v_ViewNormal;
+varying vec3 v_ViewLightDirection;
+varying vec2 v_TexCoord;
+
+void main() {
+    mat4 modelView = u_View * a_Model;
+    vec4 position = vec4(a_Position.xyz * u_PositionScale + u_PositionBias, 1.0);
+    vec4 viewPosition = modelView * position;
+    v_ViewPosition = viewPosition.xyz;
+    v_ViewNormal = normalize((modelView * vec4(decodeNormal(), 0.0)).xyz);
+    v_ViewLightDirection = normalize((modelView * u_LightDirection).xyz);
+    v_TexCoord = a_TexCoord * u_TexCoordScaleBias.xy + u_TexCoordScaleBias.zw;
+    gl_Position = u_Projection * viewPosition;
+}
@@ -1,18 +1,36 @@
 package com.example.dannyjiang.myfirstar;
 
+import android.app.ActivityManager;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.util.Log;
-import android.view.MotionEvent;
 import android.view.WindowManager;
 import android.widget.Toast;
 
 import com.example.dannyjiang.myfirstar.rendering.BackgroundRenderer;
+import com.example.dannyjiang.myfirstar.rendering.DepthSorter;
+import com.example.dannyjiang.myfirstar.rendering.FrustumCuller;
+import com.example.dannyjiang.myfirstar.rendering.GlCapabilities;
+import com.example.dannyjiang.myfirstar.rendering.GlErrorPolicy;
+import com.example.dannyjiang.myfirstar.rendering.GlStateCache;
+import com.example.dannyjiang.myfirstar.rendering.GpuResourceCache;
+import com.example.dannyjiang.myfirstar.rendering.GpuTimer;
+import com.example.dannyjiang.myfirstar.rendering.MeshData;
 import com.example.dannyjiang.myfirstar.rendering.ObjectRenderer;
 import com.example.dannyjiang.myfirstar.rendering.PlaneRenderer;
+import com.example.dannyjiang.myfirstar.rendering.PlaneTracker;
+import com.example.dannyjiang.myfirstar.rendering.PointCloudRenderer;
+import com.example.dannyjiang.myfirstar.rendering.RenderQueue;
+import com.example.dannyjiang.myfirstar.rendering.SpatialHashGrid;
+import com.example.dannyjiang.myfirstar.rendering.TextureData;
+import com.example.dannyjiang.myfirstar.utils.AnchorStore;
+import com.example.dannyjiang.myfirstar.utils.AssetLoader;
 import com.example.dannyjiang.myfirstar.utils.CameraPermissionHelper;
+import com.example.dannyjiang.myfirstar.utils.FramePipeline;
+import com.example.dannyjiang.myfirstar.utils.FrameProfiler;
+import com.example.dannyjiang.myfirstar.utils.GestureRing;
 import com.example.dannyjiang.myfirstar.utils.TapHelper;
 import com.google.ar.core.Anchor;
 import com.google.ar.core.ArCoreApk;
@@ -21,13 +39,16 @@ import com.google.ar.core.Frame;
 import com.google.ar.core.HitResult;
 import com.google.ar.core.Plane;
 import com.google.ar.core.Point;
+import com.google.ar.core.PointCloud;
+import com.google.ar.core.Pose;
 import com.google.ar.core.Session;
 import com.google.ar.core.Trackable;
 import com.google.ar.core.TrackingState;
 import com.google.ar.core.exceptions.CameraNotAvailableException;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -36,9 +57,76 @@ public class MyFirstArActivity extends AppCompatActivity implements GLSurfaceVie
 
     private static final String TAG = MyFirstArActivity.class.getSimpleName();
 
+    // 同时存在的Anchor数量上限。所有的Virtual Object通过drawInstances批量绘制，
+    // 因此上限提高后每帧的绘制开销不会随Anchor数量线性增长
+    private static final int MAX_ANCHORS = 2000;
+    // Anchor数量达到上限时一次detach多少个Anchor, 挑选要detach的Anchor需要遍历所有Anchor,
+    // 一次多detach一些, 之后的ANCHOR_EVICTION_BATCH次点击就不需要再遍历
+    private static final int ANCHOR_EVICTION_BATCH = MAX_ANCHORS / 32;
+    // 先detach不在Tracking状态的Anchor, 再detach离开屏幕最久的Anchor
+    private static final AnchorStore.EvictionPolicy ANCHOR_EVICTION_POLICY =
+            AnchorStore.notTrackingFirst(AnchorStore.LEAST_RECENTLY_VISIBLE);
+    // anchorGrid中格子的边长(米), ARCore调整Anchor的Pose时移动超过多少米才更新anchorGrid,
+    // 以及点击位置附近多少米之内已经有Anchor时不再重复放置
+    private static final float ANCHOR_GRID_CELL_SIZE = 0.5f;
+    private static final float ANCHOR_MOVE_THRESHOLD = 0.01f;
+    private static final float MIN_ANCHOR_SPACING = 0.05f;
+
+    // 场景数据比绘制提前多少帧准备: 0表示在GL线程中准备并在同一帧绘制,
+    // 1表示在worker线程中准备下一帧的数据, 同时GL线程绘制上一帧准备好的数据
+    private static final int SCENE_LATENCY_FRAMES = 1;
+
+    // onDrawFrame中被统计耗时的各个阶段
+    private static final int STAGE_WAIT = 0;
+    private static final int STAGE_UPDATE = 1;
+    private static final int STAGE_HIT_TEST = 2;
+    private static final int STAGE_BACKGROUND = 3;
+    private static final int STAGE_PREPARE = 4;
+    private static final int STAGE_PLANES = 5;
+    private static final int STAGE_OBJECTS = 6;
+    private static final int STAGE_POINT_CLOUD = 7;
+    private static final int STAGE_UPLOAD = 8;
+    private static final int STAGE_BLENDED = 9;
+    // 每个阶段保留最近多少帧的耗时, 以及Debug版本每隔多少帧输出一次统计结果
+    private static final int PROFILE_HISTORY_FRAMES = 240;
+    private static final int PROFILE_LOG_INTERVAL_FRAMES = 600;
+    // Projection Matrix的近平面和远平面(米)
+    private static final float Z_NEAR = 0.1f;
+    private static final float Z_FAR = 100.0f;
+    // 60Hz屏幕两帧之间的时间间隔(纳秒)
+    private static final long FRAME_BUDGET_NANOS = 16666667L;
+    // 是否绘制ARCore的特征点(Point Cloud), 只在Debug版本中用来观察Tracking的质量
+    private static final boolean SHOW_POINT_CLOUD = BuildConfig.DEBUG;
+    // glGetError会让很多驱动等待GPU执行完毕, 因此Release版本绘制时不检查GL错误,
+    // Debug版本每隔若干帧调用glGetError检查一次
+    private static final GlErrorPolicy.Mode GL_ERROR_MODE =
+            BuildConfig.DEBUG ? GlErrorPolicy.Mode.SAMPLED : GlErrorPolicy.Mode.OFF;
+    private static final int GL_ERROR_SAMPLE_INTERVAL_FRAMES = 30;
+    // 在worker线程中读取和解码模型的线程数, 以及GL线程每帧最多用多少时间(纳秒)上传加载好的模型,
+    // 超出预算的模型留到下一帧上传, 避免模型加载期间Camera背景出现卡顿
+    private static final int ASSET_LOADER_THREADS = 2;
+    private static final long ASSET_UPLOAD_BUDGET_NANOS = 4000000L;
+    // 可以放置的Virtual Object模型(OBJ文件, Texture)以及各自的材质(ambient, diffuse, specular, specularPower)
+    // 每次点击依次放置下一个模型。项目中目前只有andy一个模型, 所以两行使用同样的文件, 只是材质不同,
+    // 这是有意保留的: 文件只加载一次, 第二个模型直接共享第一个模型已经上传的Program, Mesh和Texture,
+    // 用来演示resourceCache的共享。添加其它模型时在这里加一行即可
+    private static final String[][] MODEL_ASSETS = {
+            {"models/andy.obj", "models/andy.png"},
+            {"models/andy.obj", "models/andy.png"},
+    };
+    private static final float[][] MODEL_MATERIALS = {
+            {0.0f, 2.0f, 0.5f, 6.0f},
+            {0.0f, 1.5f, 1.0f, 32.0f},
+    };
+    // Renderer释放之后没有被任何Renderer使用的Program, Mesh和Texture最多占用多少显存,
+    // 超出时释放最久没有使用的, 见releaseObjectRenderers
+    private static final long GPU_RESOURCE_BUDGET_BYTES = 32L * 1024 * 1024;
+
     // Surface View
     private GLSurfaceView surfaceView;
     private TapHelper tapHelper;
+    // 每帧从tapHelper中取出的手势, 重复使用
+    private GestureRing.Batch gestures;
 
     /*
      * AR world
@@ -49,12 +137,92 @@ public class MyFirstArActivity extends AppCompatActivity implements GLSurfaceVie
     private final BackgroundRenderer backgroundRenderer = new BackgroundRenderer();
     // 用来绘制AR Plane的Renderer封装类
     private final PlaneRenderer planeRenderer = new PlaneRenderer();
-    // 用来绘制Virtual Object的Renderer封装类
-    private final ObjectRenderer virtualObject = new ObjectRenderer();
+    // 用来绘制Virtual Object的Renderer封装类, 每个模型一个, 见MODEL_ASSETS
+    private final ObjectRenderer[] virtualObjects = createObjectRenderers(MODEL_ASSETS.length);
+    // 用来绘制Virtual Object阴影的Renderer封装类
+    private final ObjectRenderer virtualObjectShadow = new ObjectRenderer();
+    // 用来绘制特征点(Point Cloud)的Renderer封装类
+    private final PointCloudRenderer pointCloudRenderer = new PointCloudRenderer();
     // Anchors created from taps used for object placing.
-    private final ArrayList<Anchor> anchors = new ArrayList<>();
-    // Temporary matrix allocated here to reduce number of allocations for each frame.
-    private final float[] anchorMatrix = new float[16];
+    // 同时记录每个Anchor上放置的模型在virtualObjects中的下标, 以及下一次点击放置的模型
+    private final AnchorStore<Anchor> anchors = new AnchorStore<>(
+            MAX_ANCHORS, ANCHOR_EVICTION_BATCH, ANCHOR_EVICTION_POLICY,
+            new AnchorStore.Detacher<Anchor>() {
+                @Override
+                public void detach(Anchor anchor, int id) {
+                    anchor.detach();
+                    anchorGrid.remove(id);
+                }
+            });
+    // 按照位置索引anchors中的Anchor(以AnchorStore的id区分), 用来查找附近的Anchor, 以及整格地剔除
+    // 由准备场景数据的线程更新, GL线程只在等待该线程准备完毕之后使用
+    private final SpatialHashGrid anchorGrid =
+            new SpatialHashGrid(ANCHOR_GRID_CELL_SIZE, ANCHOR_MOVE_THRESHOLD);
+    private int nextModel;
+    // onDrawFrame每帧都会执行，因此其中用到的数组都在这里预先分配好，避免每帧分配对象引起GC卡顿
+    private final float[] projmtx = new float[16];
+    private final float[] viewmtx = new float[16];
+    // 用来剔除屏幕之外的Virtual Object, 以及同时包含Virtual Object模型和阴影的包围球(加载模型时计算一次)
+    // 只在准备场景数据的线程中使用
+    private final FrustumCuller frustumCuller = new FrustumCuller();
+    private final float[][] virtualObjectBounds = new float[MODEL_ASSETS.length][4];
+    private final float[] shadowBounds = new float[4];
+    // 按照与Camera的距离排序Anchor Matrix, 只在准备场景数据的线程中使用
+    private final DepthSorter depthSorter = new DepthSorter();
+    // anchorGrid整格剔除时格子向外扩展的距离: 包围球最远到达离Anchor多远, 加上ANCHOR_MOVE_THRESHOLD
+    private float anchorCullMargin = ANCHOR_MOVE_THRESHOLD;
+    // Camera的位置, 用来计算Anchor与Camera的距离, 只在准备场景数据的线程中使用
+    private final float[] cameraPosition = new float[3];
+
+    // 在worker线程中加载Plane, Virtual Object和阴影的模型与Texture, 再分多帧上传到GPU,
+    // 所以Camera背景可以立即开始绘制。下面的标志表示对应的Renderer是否已经上传完毕, 只在GL线程中使用
+    private final AssetLoader assetLoader = new AssetLoader(ASSET_LOADER_THREADS);
+    private boolean planesReady;
+    private final boolean[] virtualObjectReady = new boolean[MODEL_ASSETS.length];
+    private boolean shadowReady;
+    // 所有Renderer共享的Program, Mesh和Texture, 同一个文件只上传一次
+    private final GpuResourceCache resourceCache =
+            new GpuResourceCache(GPU_RESOURCE_BUDGET_BYTES);
+    // 所有Renderer每帧把绘制命令加入renderQueue, 排序后统一提交: 按Pass, Program, Texture,
+    // Mesh排序减少状态切换, 不透明的命令从近到远, 需要混合的命令从远到近。只在GL线程中使用
+    private final RenderQueue renderQueue = new RenderQueue();
+
+    // 在worker线程中根据ARCore的Frame准备场景数据(Planes排序, Anchor Matrix, 视锥体剔除)
+    // GL线程只负责绘制已经准备好的SceneSnapshot
+    private final FramePipeline<SceneSnapshot> scenePipeline =
+            new FramePipeline<>(
+                    new SceneSnapshot(MAX_ANCHORS, MODEL_ASSETS.length),
+                    new SceneSnapshot(MAX_ANCHORS, MODEL_ASSETS.length),
+                    new FramePipeline.Producer<SceneSnapshot>() {
+                        @Override
+                        public void produce(SceneSnapshot scene) {
+                            prepareScene(scene);
+                        }
+                    },
+                    SCENE_LATENCY_FRAMES);
+    // 交给scenePipeline准备的Frame, 在下一次session.update()之前有效
+    private Frame pendingFrame;
+    // 跨帧保存的Planes, 每帧只处理ARCore报告有变化的Plane, 只在准备场景数据的线程中使用
+    // 例外: 有Frame没有经过prepareScene(例如Camera暂停时, 或者Session重新开始时)时, 这些Frame中的
+    // Plane变化已经丢失, GL线程和UI线程调用requestRescan, 下一次准备场景数据时重新读取所有的Plane
+    private final PlaneTracker planeTracker = new PlaneTracker();
+
+    // 统计每一帧各个阶段的CPU耗时, 如果设备支持, 同时通过GpuTimer统计GPU耗时
+    private final FrameProfiler frameProfiler =
+            new FrameProfiler(
+                    PROFILE_HISTORY_FRAMES,
+                    FRAME_BUDGET_NANOS,
+                    "wait",
+                    "update",
+                    "hitTest",
+                    "background",
+                    "prepare",
+                    "planes",
+                    "objects",
+                    "pointCloud",
+                    "upload",
+                    "blended");
+    private GpuTimer gpuTimer;
 
     // Permission stuff
     private boolean installRequested;
@@ -67,11 +235,30 @@ public class MyFirstArActivity extends AppCompatActivity implements GLSurfaceVie
         // 初始化GLSurfaceView，并跟TapHelper绑定
         surfaceView = findViewById(R.id.glSurfaceView);
         tapHelper = new TapHelper(/*context=*/ this);
+        gestures = tapHelper.createBatch();
         surfaceView.setOnTouchListener(tapHelper);
 
         // 配置GLSurfaceView基本属性, 并设置renderer.
         surfaceView.setPreserveEGLContextOnPause(true);
-        surfaceView.setEGLContextClientVersion(2);
+        // 设备支持OpenGL ES 3.0时创建3.0的context，ObjectRenderer可以使用Instancing一次绘制所有的Virtual Object
+        ActivityManager activityManager = getSystemService(ActivityManager.class);
+        boolean supportsGles30 =
+                activityManager.getDeviceConfigurationInfo().reqGlEsVersion >= 0x30000;
+        surfaceView.setEGLContextClientVersion(supportsGles30 ? 3 : 2);
+        GlErrorPolicy.setMode(GL_ERROR_MODE, GL_ERROR_SAMPLE_INTERVAL_FRAMES);
+        // renderQueue提交时每个Pass作为一个阶段统计耗时
+        renderQueue.setPassListener(
+                new RenderQueue.PassListener() {
+                    @Override
+                    public void beginPass(int pass) {
+                        beginStage(stageOfPass(pass));
+                    }
+
+                    @Override
+                    public void endPass(int pass) {
+                        endStage(stageOfPass(pass));
+                    }
+                });
         surfaceView.setEGLConfigChooser(8, 8, 8, 8, 16, 0); // Alpha used for plane blending.
         surfaceView.setRenderer(this);
         surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
@@ -106,6 +293,8 @@ public class MyFirstArActivity extends AppCompatActivity implements GLSurfaceVie
             }
         }
 
+        // Session暂停期间的Plane变化不会通过getUpdatedTrackables报告
+        planeTracker.requestRescan();
         try {
             session.resume();
         } catch (CameraNotAvailableException e) {
@@ -136,29 +325,226 @@ public class MyFirstArActivity extends AppCompatActivity implements GLSurfaceVie
         if (session != null) {
             // 注意：顺序不能改变！必须先暂停GLSurfaceView, 否则GLSurfaceView会继续调用Session的update方法。
             // 但是Session已经pause状态，所以会报SessionPausedException异常
+            if (isFinishing()) {
+                // 退出时GL context会随GLSurfaceView一起销毁, 在此之前先在GL线程中释放所有Renderer
+                // GLSurfaceView在暂停之前会先执行queueEvent加入的任务, 此时GL context仍然有效
+                surfaceView.queueEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        releaseObjectRenderers();
+                    }
+                });
+            }
             surfaceView.onPause();
+            // 同理, worker线程可能还在读取上一帧的数据, 需要等它结束之后再暂停Session
+            scenePipeline.awaitIdle();
             session.pause();
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // 结束scenePipeline中准备场景数据的worker线程
+        scenePipeline.shutdown();
+        // 结束assetLoader中加载模型的worker线程
+        assetLoader.shutdown();
+    }
+
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        // 新创建的GL context中的状态与GlStateCache中记录的状态无关
+        GlStateCache.get().invalidate();
         GLES20.glClearColor(0.1f, 0.1f, 0.1f, 1.0f);
+        GlCapabilities capabilities = GlCapabilities.query();
+        // 之前的GL context中还没有上传的模型不再需要, 所有模型都要在新的context中重新上传
+        assetLoader.cancel();
+        // 缓存中的GL对象属于之前的context, 已经随之销毁, 不能再通过Renderer的release删除,
+        // 否则会在新的context中删除同名的对象, 因此直接清空
+        resourceCache.clear();
+        planesReady = false;
+        Arrays.fill(virtualObjectReady, false);
+        shadowReady = false;
 
         try {
-            // 初始化用来画背景以及Virtual Object的OpenGL设置
+            // 初始化用来画背景的OpenGL设置, 背景需要立即绘制, 因此直接在GL线程中创建
             // 主要包括各种OpenGL需要使用的textureId, Texture Coordinates, Shader, Program等
             backgroundRenderer.createOnGlThread(this);
 
-            // 初始化用来绘制Plane的Renderer对象
-            planeRenderer.createOnGlThread(/*context=*/ this, "models/trigrid.png");
+            // 初始化用来绘制特征点的Renderer对象, 它只有一个Shader, 不需要加载任何文件
+            if (SHOW_POINT_CLOUD) {
+                pointCloudRenderer.createOnGlThread(/*context=*/ this);
+            }
 
-            // 初始化用来绘制3D Virtual Object的Renderer对象
-            virtualObject.createOnGlThread(/*context=*/ this, "models/andy.obj", "models/andy.png");
-            virtualObject.setMaterialProperties(0.0f, 2.0f, 0.5f, 6.0f);
+            if (GpuTimer.isSupported(capabilities)) {
+                gpuTimer = new GpuTimer(frameProfiler);
+            }
         } catch (IOException e) {
             Log.e(TAG, "Failed to read an asset file", e);
         }
+
+        loadAssets(capabilities);
+    }
+
+    /**
+     * 在assetLoader的worker线程中读取和解码Plane, Virtual Object以及阴影的Texture和模型,
+     * 之后由drawFrame在GL线程中逐个上传, 每个Renderer上传完毕之后才开始绘制
+     * 设备支持压缩Texture格式(ASTC, ETC2, ETC1)并且存在对应的KTX文件时, 优先加载压缩后的Texture
+     */
+    private void loadAssets(final GlCapabilities capabilities) {
+        // 初始化用来绘制Plane的Renderer对象
+        assetLoader.load(
+                new AssetLoader.Loader<TextureData>() {
+                    @Override
+                    public TextureData load() throws IOException {
+                        return TextureData.decode(
+                                MyFirstArActivity.this, "models/trigrid.png", capabilities);
+                    }
+                },
+                new AssetLoader.Uploader<TextureData>() {
+                    @Override
+                    public void upload(TextureData gridTexture) throws IOException {
+                        planeRenderer.createOnGlThread(MyFirstArActivity.this, gridTexture);
+                        planesReady = true;
+                    }
+                });
+
+        // 初始化用来绘制3D Virtual Object的Renderer对象
+        for (int model = 0; model < virtualObjects.length; model++) {
+            ObjectRenderer virtualObject = virtualObjects[model];
+            // 使用量化后的顶点格式，每个顶点只占16字节，降低绘制时的显存带宽
+            virtualObject.setVertexFormat(MeshData.FORMAT_QUANTIZED);
+            // 生成3级LOD(Level of Detail)，远处的Virtual Object使用简化后的模型绘制
+            virtualObject.setLevelOfDetailCount(3);
+            float[] material = MODEL_MATERIALS[model];
+            virtualObject.setMaterialProperties(material[0], material[1], material[2], material[3]);
+        }
+        // 使用同样文件的模型只加载一次, 由第一个使用这些文件的模型负责加载,
+        // 加载好的Model在上传时交给所有使用这些文件的Renderer,
+        // 避免同时解析同一个OBJ文件两次, 以及两次加载同时写同一个Mesh缓存文件
+        for (int i = 0; i < virtualObjects.length; i++) {
+            if (findFirstModelWithAssets(i) != i) {
+                continue;
+            }
+            final int firstModel = i;
+            assetLoader.load(
+                    new AssetLoader.Loader<ObjectRenderer.Model>() {
+                        @Override
+                        public ObjectRenderer.Model load() throws IOException {
+                            return virtualObjects[firstModel].loadModel(
+                                    MyFirstArActivity.this,
+                                    capabilities,
+                                    MODEL_ASSETS[firstModel][0],
+                                    MODEL_ASSETS[firstModel][1]);
+                        }
+                    },
+                    new AssetLoader.Uploader<ObjectRenderer.Model>() {
+                        @Override
+                        public void upload(ObjectRenderer.Model loaded) throws IOException {
+                            for (int model = firstModel; model < virtualObjects.length; model++) {
+                                if (findFirstModelWithAssets(model) != firstModel) {
+                                    continue;
+                                }
+                                virtualObjects[model].createOnGlThread(
+                                        MyFirstArActivity.this, resourceCache, loaded);
+                                virtualObjectReady[model] = true;
+                            }
+                            updateVirtualObjectBounds();
+                        }
+                    });
+        }
+
+        // 初始化用来绘制阴影的Renderer对象, 阴影模型和Virtual Object使用同样的加载流程
+        // 阴影只是一个平面, 不需要LOD
+        virtualObjectShadow.setVertexFormat(MeshData.FORMAT_QUANTIZED);
+        virtualObjectShadow.setBlendMode(ObjectRenderer.BlendMode.Shadow);
+        virtualObjectShadow.setMaterialProperties(1.0f, 0.0f, 0.0f, 1.0f);
+        assetLoader.load(
+                new AssetLoader.Loader<ObjectRenderer.Model>() {
+                    @Override
+                    public ObjectRenderer.Model load() throws IOException {
+                        return virtualObjectShadow.loadModel(
+                                MyFirstArActivity.this,
+                                capabilities,
+                                "models/andy_shadow.obj",
+                                "models/andy_shadow.png");
+                    }
+                },
+                new AssetLoader.Uploader<ObjectRenderer.Model>() {
+                    @Override
+                    public void upload(ObjectRenderer.Model model) throws IOException {
+                        virtualObjectShadow.createOnGlThread(
+                                MyFirstArActivity.this, resourceCache, model);
+                        shadowReady = true;
+                        updateVirtualObjectBounds();
+                    }
+                });
+    }
+
+    /**
+     * 释放所有Virtual Object和阴影的Renderer对resourceCache中Program, Mesh和Texture的引用,
+     * 然后把显存预算降为0, 删除这些不再被使用的GL对象
+     * 必须在GL context仍然有效时在GL线程中调用
+     */
+    private void releaseObjectRenderers() {
+        // 还没有上传的模型不再需要
+        assetLoader.cancel();
+        for (int model = 0; model < virtualObjects.length; model++) {
+            virtualObjects[model].release();
+            virtualObjectReady[model] = false;
+        }
+        virtualObjectShadow.release();
+        shadowReady = false;
+        resourceCache.setBudgetBytes(0);
+    }
+
+    /**
+     * 返回第一个和model使用同样OBJ文件和Texture的模型的下标, 没有更早的模型时返回model本身
+     * 所有Virtual Object的顶点格式和LOD设置相同, 因此同样的文件加载出的Model可以共享
+     */
+    private static int findFirstModelWithAssets(int model) {
+        for (int i = 0; i < model; i++) {
+            if (Arrays.equals(MODEL_ASSETS[i], MODEL_ASSETS[model])) {
+                return i;
+            }
+        }
+        return model;
+    }
+
+    /**
+     * 阴影和Virtual Object使用同一个Anchor Matrix, 剔除时使用同时包含两者的包围球
+     * 在GL线程上传模型时调用, 此时worker线程没有在准备场景数据
+     */
+    private void updateVirtualObjectBounds() {
+        if (shadowReady) {
+            virtualObjectShadow.getBoundingSphere(shadowBounds);
+        }
+        for (int model = 0; model < virtualObjects.length; model++) {
+            float[] bounds = virtualObjectBounds[model];
+            if (virtualObjectReady[model]) {
+                virtualObjects[model].getBoundingSphere(bounds);
+                if (shadowReady) {
+                    FrustumCuller.encloseSpheres(bounds, shadowBounds, bounds);
+                }
+            } else if (shadowReady) {
+                System.arraycopy(shadowBounds, 0, bounds, 0, 4);
+            }
+        }
+        float extent = 0;
+        for (float[] bounds : virtualObjectBounds) {
+            float center = (float) Math.sqrt(
+                    bounds[0] * bounds[0] + bounds[1] * bounds[1] + bounds[2] * bounds[2]);
+            extent = Math.max(extent, center + bounds[3]);
+        }
+        anchorCullMargin = extent + ANCHOR_MOVE_THRESHOLD;
+    }
+
+    private static ObjectRenderer[] createObjectRenderers(int count) {
+        ObjectRenderer[] renderers = new ObjectRenderer[count];
+        for (int i = 0; i < count; i++) {
+            renderers[i] = new ObjectRenderer();
+        }
+        return renderers;
     }
 
     @Override
@@ -172,6 +558,24 @@ public class MyFirstArActivity extends AppCompatActivity implements GLSurfaceVie
 
     @Override
     public void onDrawFrame(GL10 gl) {
+        frameProfiler.beginFrame();
+        GlErrorPolicy.beginFrame();
+        drawFrame();
+        frameProfiler.endFrame();
+        if (gpuTimer != null) {
+            // 读取之前几帧已经完成的GPU计时结果, 不会等待GPU
+            gpuTimer.collect();
+        }
+        if (BuildConfig.DEBUG
+                && frameProfiler.getFrameCount() % PROFILE_LOG_INTERVAL_FRAMES == 0) {
+            logFrameProfile();
+        }
+    }
+
+    private void drawFrame() {
+        // glClear清除深度缓冲时受glDepthMask影响, 而上一帧最后绘制的阴影关闭了深度写入
+        GlStateCache glState = GlStateCache.get();
+        glState.depthMask(true);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
         if (session == null) {
@@ -179,94 +583,332 @@ public class MyFirstArActivity extends AppCompatActivity implements GLSurfaceVie
         }
 
         try {
+            // 等待worker线程准备完上一帧的场景数据, 因为session.update()之后上一帧的Frame就失效了
+            // 点击事件也会修改anchors, 所以也必须在等待之后处理
+            beginStage(STAGE_WAIT);
+            scenePipeline.awaitProduced();
+            endStage(STAGE_WAIT);
+
+            // 上传worker线程已经加载好的模型, 每帧不超过ASSET_UPLOAD_BUDGET_NANOS
+            // 上传会绕过GlStateCache修改GL的状态, 因此必须在下面的glState.invalidate()之前进行
+            if (!assetLoader.isIdle()) {
+                beginStage(STAGE_UPLOAD);
+                try {
+                    assetLoader.runUploads(ASSET_UPLOAD_BUDGET_NANOS);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to read an asset file", e);
+                }
+                endStage(STAGE_UPLOAD);
+            }
+
             // 将在'createOnGlThread'方法中已经初始化好的Texture Handle(句柄)传给AR Session
             // 如果没有设置此句柄，则会显示黑屏。
+            beginStage(STAGE_UPDATE);
             session.setCameraTextureName(backgroundRenderer.getTextureId());
 
             // 通过AR Session获取当前手机摄像头(Camera)的当前帧(Frame)。
             Frame frame = session.update();
+            // session.update()会在GL线程中更新Camera的Texture, 绕过GlStateCache修改了GL的状态
+            glState.invalidate();
+            endStage(STAGE_UPDATE);
             // 通过当前帧Frame对象，可以获取ARCore所捕捉到的Camera对象
             Camera camera = frame.getCamera();
 
             /**
-             * 使用TapHelper从队列中获取一次点击事件，并根据此点击事件的坐标创建一个Anchor
+             * 使用TapHelper一次取出上一帧之后的所有手势, 并根据每个点击事件的坐标创建一个Anchor
              * Anchor可以自行记录它在AR世界中的位置，后续绘制Virtual Object时就可以
              * 根据此Anchor来确定Virtual Object的位置，
              * 具体API为：anchor.getPose().toMatrix(anchorMatrix, 0); 通过这一行代码
              * 就可以将Anchor所对应的位置保存在anchorMatrix数组中
              */
-            MotionEvent tap = tapHelper.poll();
-            if (tap != null && camera.getTrackingState() == TrackingState.TRACKING) {
-                for (HitResult hit : frame.hitTest(tap)) {
-                    // Check if any plane was hit, and if it was hit inside the plane polygon
-                    Trackable trackable = hit.getTrackable();
-                    // Creates an anchor if a plane or an oriented point was hit.
-                    if ((trackable instanceof Plane
-                            && ((Plane) trackable).isPoseInPolygon(hit.getHitPose())
-                            && (PlaneRenderer.calculateDistanceToPlane(hit.getHitPose(), camera.getPose())
-                            > 0))
-                            || (trackable instanceof Point
-                            && ((Point) trackable).getOrientationMode()
-                            == Point.OrientationMode.ESTIMATED_SURFACE_NORMAL)) {
-                        // 如果队列的长度已经等于20，则将第一个Anchor给detach掉, 并从队里中移除
-                        if (anchors.size() >= 20) {
-                            anchors.get(0).detach();
-                            anchors.remove(0);
-                        }
-                        // 使用HitResult创建出一个Anchor对象，并添加到队列中
-                        // 因为HitResult是由点击事件MotionEvent而创建出的
-                        // 所以此Anchor会记录它所在AR World中的具体位置
-                        anchors.add(hit.createAnchor());
-                        break;
+            beginStage(STAGE_HIT_TEST);
+            int gestureCount = tapHelper.drain(gestures);
+            if (camera.getTrackingState() == TrackingState.TRACKING) {
+                for (int i = 0; i < gestureCount; i++) {
+                    // 目前只有点击会放置Virtual Object, 拖动和缩放手势被忽略
+                    if (gestures.getType(i) == GestureRing.TAP) {
+                        placeAnchor(frame, camera, gestures.getX(i), gestures.getY(i));
                     }
                 }
             }
+            endStage(STAGE_HIT_TEST);
 
             // 将当前帧Frame当做背景来draw到SurfaceView上，因此我们能在手机屏幕上看到摄像头中的实时内容
-            backgroundRenderer.draw(frame);
+            // 所有绘制命令先加入renderQueue, 在这一帧的最后统一排序提交
+            renderQueue.clear();
+            backgroundRenderer.enqueue(renderQueue, frame);
 
             // 在具体使用Camera对象之前需要先判断当前Camera是否处于Tracking状态
             // 如果不是，则不需要绘制3D Virtual Object
             if (camera.getTrackingState() == TrackingState.PAUSED) {
+                // 这一帧中的Plane变化不会交给planeTracker
+                planeTracker.requestRescan();
+                renderQueue.submit();
                 return;
             }
+            // ARCore的Session, Frame和Camera同一时间只能由一个线程使用: 从produceNext()开始,
+            // 直到下一帧的awaitProduced()返回, 都交给准备场景数据的线程使用,
+            // 因此GL线程需要从ARCore读取的数据都必须在produceNext()之前读取
+
+            // 绘制时使用当前帧的Camera Matrix, 这样Virtual Object和背景中的画面始终是对齐的
             // Get projection matrix.
-            float[] projmtx = new float[16];
-            camera.getProjectionMatrix(projmtx, 0, 0.1f, 100.0f);
+            camera.getProjectionMatrix(projmtx, 0, Z_NEAR, Z_FAR);
 
             // Get camera matrix and draw.
-            float[] viewmtx = new float[16];
             camera.getViewMatrix(viewmtx, 0);
+            renderQueue.setCamera(viewmtx, projmtx, Z_FAR);
+
+            // 绘制ARCore检测到的特征点, 特征点没有更新时不会重新上传到GPU
+            if (SHOW_POINT_CLOUD) {
+                beginStage(STAGE_POINT_CLOUD);
+                PointCloud pointCloud = frame.acquirePointCloud();
+                try {
+                    pointCloudRenderer.update(pointCloud);
+                } finally {
+                    // 必须释放PointCloud, 否则ARCore很快会因为资源耗尽而抛出异常
+                    pointCloud.release();
+                }
+                endStage(STAGE_POINT_CLOUD);
+                pointCloudRenderer.enqueue(renderQueue);
+            }
+
+            // 把当前帧交给scenePipeline准备场景数据, 延迟为1帧时这一步在worker线程中进行,
+            // 下面绘制的是上一帧准备好的SceneSnapshot, 其中的Planes已经复制了绘制需要的Pose和Polygon
+            beginStage(STAGE_PREPARE);
+            pendingFrame = frame;
+            scenePipeline.produceNext();
+            SceneSnapshot scene = scenePipeline.getFront();
+            endStage(STAGE_PREPARE);
 
             // 绘制ARCore识别出的Planes.
-            planeRenderer.drawPlanes(
-                    session.getAllTrackables(Plane.class), camera.getDisplayOrientedPose(), projmtx);
-
-            // Compute lighting from average intensity of the image.
-            // The first three components are color scaling factors.
-            // The last one is the average pixel intensity in gamma space.
-            final float[] colorCorrectionRgba = new float[4];
-            frame.getLightEstimate().getColorCorrection(colorCorrectionRgba, 0);
-
-            /*
-             * 遍历Anchor集合，并根据集合所对应的Matrix
-             * 将所有的Virtual Object绘制到GLSurfaceView中
-             */
-            for (Anchor anchor : anchors) {
-                if (anchor.getTrackingState() != TrackingState.TRACKING) {
+            if (planesReady) {
+                planeRenderer.enqueuePlanes(renderQueue, scene.planes);
+            }
+
+            // 每个模型通过一条命令将它所有可见的Virtual Object绘制到GLSurfaceView中
+            for (int model = 0; model < virtualObjects.length; model++) {
+                if (!virtualObjectReady[model]) {
                     continue;
                 }
+                int first = scene.modelFirstAnchor[model];
+                virtualObjects[model].enqueueInstances(
+                        renderQueue,
+                        scene.anchorMatrices,
+                        first,
+                        scene.modelFirstAnchor[model + 1] - first,
+                        scene.colorCorrectionRgba);
+            }
+            // 所有阴影通过一条命令批量绘制, 只需要一次Program绑定和一次Blend状态切换
+            if (shadowReady) {
+                virtualObjectShadow.enqueueInstances(
+                        renderQueue,
+                        scene.shadowMatrices,
+                        0,
+                        scene.anchorCount,
+                        scene.colorCorrectionRgba);
+            }
+
+            renderQueue.submit();
+        } catch (CameraNotAvailableException e) {
+            // Camera暂时被其它App占用, 跳过这一帧, 下一帧重新调用session.update()
+            Log.e(TAG, "Camera not available during onDrawFrame", e);
+        }
+        // 其它异常(例如scenePipeline中准备场景数据时的异常, 或者renderQueue提交时的异常)不在这里捕获,
+        // 以免吞掉程序错误
+    }
+
+    /**
+     * 在点击位置(x, y)命中的Plane或者Point上创建一个Anchor, 并放置下一个模型
+     */
+    private void placeAnchor(Frame frame, Camera camera, float x, float y) {
+        for (HitResult hit : frame.hitTest(x, y)) {
+            // Check if any plane was hit, and if it was hit inside the plane polygon
+            Trackable trackable = hit.getTrackable();
+            // Creates an anchor if a plane or an oriented point was hit.
+            if ((trackable instanceof Plane
+                    && ((Plane) trackable).isPoseInPolygon(hit.getHitPose())
+                    && (PlaneRenderer.calculateDistanceToPlane(hit.getHitPose(), camera.getPose())
+                    > 0))
+                    || (trackable instanceof Point
+                    && ((Point) trackable).getOrientationMode()
+                    == Point.OrientationMode.ESTIMATED_SURFACE_NORMAL)) {
+                // 点击位置附近已经有Anchor时不再重复放置
+                Pose hitPose = hit.getHitPose();
+                if (anchorGrid.findNearest(hitPose.tx(), hitPose.ty(), hitPose.tz(),
+                        MIN_ANCHOR_SPACING) != SpatialHashGrid.NONE) {
+                    return;
+                }
+                // 使用HitResult创建出一个Anchor对象，并添加到anchors中
+                // 因为HitResult是由点击事件的坐标而创建出的
+                // 所以此Anchor会记录它所在AR World中的具体位置
+                // 如果Anchor的数量已经等于MAX_ANCHORS, anchors会按照ANCHOR_EVICTION_POLICY
+                // 先detach掉一批Anchor
+                anchors.add(hit.createAnchor(), nextModel);
+                nextModel = (nextModel + 1) % virtualObjects.length;
+                // 新的Anchor总是在最后, 立即加入anchorGrid, 同一帧中的下一次点击就能找到它
+                anchorGrid.update(anchors.getId(anchors.size() - 1),
+                        hitPose.tx(), hitPose.ty(), hitPose.tz());
+                return;
+            }
+        }
+    }
 
-                // 将Anchor所对应的Matrix(可以理解为位置Position)填充到anchorMatrix数组中
-                anchor.getPose().toMatrix(anchorMatrix, 0);
+    /**
+     * 根据pendingFrame准备一帧的场景数据, 由scenePipeline在worker线程(或者GL线程)中调用
+     * 调用期间GL线程不会使用Session, Frame和Camera, 也不会修改anchors
+     */
+    private void prepareScene(SceneSnapshot scene) {
+        Frame frame = pendingFrame;
+        Camera camera = frame.getCamera();
+        camera.getProjectionMatrix(scene.projectionMatrix, 0, Z_NEAR, Z_FAR);
+        camera.getViewMatrix(scene.viewMatrix, 0);
+
+        // 将ARCore识别出的Planes按照与Camera的距离排序: planeTracker只处理这一帧中有变化的Plane,
+        // 再在上一帧的顺序上做插入排序, 然后把可见的Planes复制到scene中
+        Pose cameraPose = camera.getDisplayOrientedPose();
+        if (planeTracker.isRescanNeeded()) {
+            planeTracker.clear();
+            planeTracker.update(session.getAllTrackables(Plane.class), cameraPose);
+        } else {
+            planeTracker.update(frame.getUpdatedTrackables(Plane.class), cameraPose);
+        }
+        scene.planes.update(planeTracker);
+
+        // Compute lighting from average intensity of the image.
+        // The first three components are color scaling factors.
+        // The last one is the average pixel intensity in gamma space.
+        frame.getLightEstimate().getColorCorrection(scene.colorCorrectionRgba, 0);
+
+        /*
+         * 遍历Anchor集合，将所有处于Tracking状态并且在视锥体(Frustum)之内的Anchor所对应的Matrix
+         * 按照Anchor上放置的模型分组, 依次填充到scene.anchorMatrices数组中
+         * 同时把每个Anchor的Tracking状态, 与Camera的距离以及是否可见记录到anchors中, 供detach时挑选
+         */
+        frustumCuller.setCamera(scene.viewMatrix, scene.projectionMatrix);
+        camera.getPose().getTranslation(cameraPosition, 0);
+        anchors.beginFrame();
+        // 先对anchorGrid的每个格子做一次视锥体检测, 格子完全在视锥体之外或之内时, 其中的Anchor不需要逐个检测
+        anchorGrid.cull(frustumCuller, anchorCullMargin);
+        int instanceCount = 0;
+        for (int model = 0; model < virtualObjects.length; model++) {
+            scene.modelFirstAnchor[model] = instanceCount;
+            for (int i = 0; i < anchors.size(); i++) {
+                if (anchors.getModel(i) != model) {
+                    continue;
+                }
+                Anchor anchor = anchors.get(i);
+                if (anchor.getTrackingState() != TrackingState.TRACKING) {
+                    anchors.update(i, false, anchors.getCameraDistance(i), false);
+                    continue;
+                }
 
-                // 根据已经填充的Matrix更新Virtual Object的ModelMatrix
-                virtualObject.updateModelMatrix(anchorMatrix, 1.0f);
-                // 绘制Virtual Object
-                virtualObject.draw(viewmtx, projmtx, colorCorrectionRgba);
+                // 将Anchor所对应的Matrix(可以理解为位置Position)填充到anchorMatrices数组中
+                int offset = instanceCount * 16;
+                anchor.getPose().toMatrix(scene.anchorMatrices, offset);
+                float x = scene.anchorMatrices[offset + 12];
+                float y = scene.anchorMatrices[offset + 13];
+                float z = scene.anchorMatrices[offset + 14];
+                // 只有移动超过ANCHOR_MOVE_THRESHOLD的Anchor才会更新anchorGrid
+                int id = anchors.getId(i);
+                anchorGrid.update(id, x, y, z);
+                // 位于Camera背后或者屏幕之外的Virtual Object不需要绘制, 下一个Anchor会覆盖它的Matrix
+                int cellVisibility = anchorGrid.getVisibility(id);
+                boolean visible = cellVisibility == FrustumCuller.INSIDE
+                        || (cellVisibility == FrustumCuller.INTERSECTING
+                        && frustumCuller.isSphereVisible(
+                                scene.anchorMatrices, offset, virtualObjectBounds[model]));
+                float dx = x - cameraPosition[0];
+                float dy = y - cameraPosition[1];
+                float dz = z - cameraPosition[2];
+                // 只用来比较远近, 因此直接使用距离的平方
+                anchors.update(i, true, dx * dx + dy * dy + dz * dz, visible);
+                if (visible) {
+                    instanceCount++;
+                }
             }
-        } catch (Exception e) {
+            // 不透明的模型从近到远绘制, 被遮挡的像素在深度测试时就被丢弃, 不需要执行Fragment Shader;
+            // 需要混合的模型从远到近绘制, 混合的结果才正确
+            int first = scene.modelFirstAnchor[model];
+            depthSorter.sort(scene.anchorMatrices, first, instanceCount - first, scene.viewMatrix,
+                    virtualObjects[model].getBlendMode() == null);
+        }
+        scene.modelFirstAnchor[virtualObjects.length] = instanceCount;
+        scene.anchorCount = instanceCount;
+        // 阴影需要混合, 所有模型的阴影一起从远到近排序
+        System.arraycopy(scene.anchorMatrices, 0, scene.shadowMatrices, 0, instanceCount * 16);
+        depthSorter.sort(scene.shadowMatrices, 0, instanceCount, scene.viewMatrix,
+                virtualObjectShadow.getBlendMode() == null);
+    }
 
+    private static int stageOfPass(int pass) {
+        switch (pass) {
+            case RenderQueue.PASS_BACKGROUND:
+                return STAGE_BACKGROUND;
+            case RenderQueue.PASS_PLANES:
+                return STAGE_PLANES;
+            case RenderQueue.PASS_BLENDED:
+                return STAGE_BLENDED;
+            default:
+                return STAGE_OBJECTS;
+        }
+    }
+
+    private void beginStage(int stage) {
+        frameProfiler.beginStage(stage);
+        if (gpuTimer != null) {
+            gpuTimer.begin(stage);
+        }
+    }
+
+    private void endStage(int stage) {
+        if (gpuTimer != null) {
+            gpuTimer.end();
+        }
+        frameProfiler.endStage(stage);
+    }
+
+    /**
+     * 输出最近若干帧的统计结果(各阶段耗时的p50/p95/p99以及掉帧数)
+     * 需要收集线上数据时, 可以把dump的结果写到文件或者上传, 而不是输出到Logcat
+     */
+    private void logFrameProfile() {
+        StringBuilder profile = new StringBuilder();
+        try {
+            frameProfiler.dump(profile);
+            GlStateCache glState = GlStateCache.get();
+            profile.append(
+                    String.format(
+                            Locale.US,
+                            "GL state calls issued %d, avoided %d\n",
+                            glState.getIssuedCallCount(),
+                            glState.getAvoidedCallCount()));
+            profile.append(
+                    String.format(
+                            Locale.US,
+                            "Draw commands %d, program changes %d, texture changes %d,"
+                                    + " mesh changes %d\n",
+                            renderQueue.getSubmittedCommandCount(),
+                            renderQueue.getProgramChangeCount(),
+                            renderQueue.getTextureChangeCount(),
+                            renderQueue.getMeshChangeCount()));
+            profile.append(
+                    String.format(
+                            Locale.US,
+                            "GPU resources %d KB, hits %d, misses %d, evictions %d\n",
+                            resourceCache.getGpuBytes() / 1024,
+                            resourceCache.getHitCount(),
+                            resourceCache.getMissCount(),
+                            resourceCache.getEvictionCount()));
+            profile.append(
+                    String.format(
+                            Locale.US,
+                            "Anchors %d, evicted %d, dropped gestures %d\n",
+                            anchors.size(),
+                            anchors.getEvictionCount(),
+                            tapHelper.getDroppedCount()));
+        } catch (IOException e) {
+            // StringBuilder不会抛出IOException
         }
+        Log.d(TAG, profile.toString());
     }
 }
@@ -0,0 +1,31 @@
+package com.example.dannyjiang.myfirstar;
+
+import com.example.dannyjiang.myfirstar.rendering.SortedPlanes;
+
+/**
+ * 一帧需要绘制的场景数据：排好序的Planes, 通过视锥体剔除之后的Anchor Matrix以及光照估计
+ * 这些数据由FramePipeline在worker线程中准备好, GL线程只负责读取并绘制
+ * 所有数组都是预先分配好的, 每帧重复使用
+ */
+final class SceneSnapshot {
+    // 准备这一帧数据时Camera的view/projection matrix, 用于视锥体剔除
+    final float[] viewMatrix = new float[16];
+    final float[] projectionMatrix = new float[16];
+    // 光照估计, 前三个分量是颜色校正系数, 最后一个是平均亮度
+    final float[] colorCorrectionRgba = new float[4];
+    // 可见的Anchor所对应的Matrix, 每个16个float, 按照Anchor上放置的模型分组:
+    // 模型i的Matrix是第modelFirstAnchor[i]个到第modelFirstAnchor[i + 1] - 1个
+    final float[] anchorMatrices;
+    final int[] modelFirstAnchor;
+    int anchorCount;
+    // 同样的anchorCount个Matrix, 按照从远到近的顺序排列, 用来绘制需要混合(Blending)的阴影
+    final float[] shadowMatrices;
+    // 按照与Camera的距离排好序的Planes, 包括绘制需要的Pose和Polygon, 绘制时不需要再调用ARCore
+    final SortedPlanes planes = new SortedPlanes();
+
+    SceneSnapshot(int maxAnchors, int modelCount) {
+        anchorMatrices = new float[maxAnchors * 16];
+        shadowMatrices = new float[maxAnchors * 16];
+        modelFirstAnchor = new int[modelCount + 1];
+    }
+}
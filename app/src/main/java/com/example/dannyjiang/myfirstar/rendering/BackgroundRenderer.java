@@ -50,8 +50,18 @@ public class BackgroundRenderer {
 
   private int quadPositionParam;
   private int quadTexCoordParam;
+  private int quadVertexAttribArrays;
   private int textureId = -1;
 
+  // Draws the command added by enqueue(), which already read the frame.
+  private final RenderQueue.Executor drawExecutor =
+      new RenderQueue.Executor() {
+        @Override
+        public void execute(RenderQueue queue, int payload) {
+          drawQuad();
+        }
+      };
+
   public BackgroundRenderer() {}
 
   public int getTextureId() {
@@ -100,21 +110,14 @@ public class BackgroundRenderer {
     bbTexCoordsTransformed.order(ByteOrder.nativeOrder());
     quadTexCoordTransformed = bbTexCoordsTransformed.asFloatBuffer();
 
-    int vertexShader =
-        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_NAME);
-    int fragmentShader =
-        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_NAME);
-
-    quadProgram = GLES20.glCreateProgram();
-    GLES20.glAttachShader(quadProgram, vertexShader);
-    GLES20.glAttachShader(quadProgram, fragmentShader);
-    GLES20.glLinkProgram(quadProgram);
-    GLES20.glUseProgram(quadProgram);
-
-    ShaderUtil.checkGLError(TAG, "Program creation");
+    quadProgram =
+        ProgramCache.createProgram(context, TAG, VERTEX_SHADER_NAME, FRAGMENT_SHADER_NAME);
 
     quadPositionParam = GLES20.glGetAttribLocation(quadProgram, "a_Position");
     quadTexCoordParam = GLES20.glGetAttribLocation(quadProgram, "a_TexCoord");
+    quadVertexAttribArrays =
+        GlStateCache.vertexAttribMask(quadPositionParam)
+            | GlStateCache.vertexAttribMask(quadTexCoordParam);
 
     ShaderUtil.checkGLError(TAG, "Program parameters");
   }
@@ -129,20 +132,33 @@ public class BackgroundRenderer {
    * @param frame The last {@code Frame} returned by {@link Session#update()}.
    */
   public void draw(Frame frame) {
+    updateTexCoords(frame);
+    drawQuad();
+  }
+
+  private void updateTexCoords(Frame frame) {
     // If display rotation changed (also includes view size change), we need to re-query the uv
     // coordinates for the screen rect, as they may have changed as well.
     if (frame.hasDisplayGeometryChanged()) {
       frame.transformDisplayUvCoords(quadTexCoord, quadTexCoordTransformed);
     }
+  }
 
+  private void drawQuad() {
     // No need to test or write depth, the screen quad has arbitrary depth, and is expected
-    // to be drawn first.
-    GLES20.glDisable(GLES20.GL_DEPTH_TEST);
-    GLES20.glDepthMask(false);
+    // to be drawn first. The renderers drawn next set the depth state they need.
+    GlStateCache state = GlStateCache.get();
+    state.disable(GLES20.GL_DEPTH_TEST);
+    state.depthMask(false);
+    state.disable(GLES20.GL_BLEND);
 
-    GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
+    state.activeTexture(GLES20.GL_TEXTURE0);
+    state.bindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureId);
 
-    GLES20.glUseProgram(quadProgram);
+    state.useProgram(quadProgram);
+
+    // The vertices are read from client memory, which requires no buffer to be bound.
+    state.bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
     // Set the vertex positions.
     GLES20.glVertexAttribPointer(
@@ -158,20 +174,27 @@ public class BackgroundRenderer {
         quadTexCoordTransformed);
 
     // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(quadPositionParam);
-    GLES20.glEnableVertexAttribArray(quadTexCoordParam);
+    state.setVertexAttribArrays(quadVertexAttribArrays);
 
     GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
 
-    // Disable vertex arrays
-    GLES20.glDisableVertexAttribArray(quadPositionParam);
-    GLES20.glDisableVertexAttribArray(quadTexCoordParam);
-
-    // Restore the depth state for further drawing.
-    GLES20.glDepthMask(true);
-    GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+    GlErrorPolicy.check(TAG, "Draw");
+  }
 
-    ShaderUtil.checkGLError(TAG, "Draw");
+  /**
+   * Adds a command to {@code queue} that draws the AR background image like {@link #draw} when
+   * the queue is submitted. The background is in {@link RenderQueue#PASS_BACKGROUND}, so it is
+   * drawn before the virtual content of the other passes. {@code frame} is only read here, so
+   * another thread may use the session until the queue is submitted.
+   *
+   * @param frame The last {@code Frame} returned by {@link Session#update()}.
+   */
+  public void enqueue(RenderQueue queue, Frame frame) {
+    updateTexCoords(frame);
+    queue.add(
+        RenderQueue.key(RenderQueue.PASS_BACKGROUND, quadProgram, textureId, 0, 0),
+        drawExecutor,
+        0);
   }
 
   private static final float[] QUAD_COORDS =
@@ -0,0 +1,89 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+/**
+ * Orders the model matrices of instances by the depth of their origin in view space. Opaque
+ * objects are drawn front to back, so the depth test rejects the fragments of hidden objects before
+ * they are shaded, and blended objects back to front, so they blend correctly.
+ *
+ * <p>The depths are turned into integer keys whose unsigned order is the order of the floats and
+ * sorted with {@link KeySorter}, which is stable, so instances at the same depth keep their order.
+ * The scratch arrays are reused, so sorting does not allocate once they have grown to the number of
+ * instances. Not thread-safe.
+ */
+public final class DepthSorter {
+  private static final int FLOATS_PER_MATRIX = 16;
+
+  private int[] keys = new int[0];
+  private int[] indices = new int[0];
+  private final KeySorter keySorter = new KeySorter();
+  private float[] sortedMatrices = new float[0];
+
+  /**
+   * Sorts the matrices of objects {@code first} to {@code first + count - 1} in place.
+   *
+   * @param modelMatrices Consecutive 4x4 model-to-world matrices, 16 floats per object.
+   * @param first Index of the first matrix to sort.
+   * @param count Number of matrices to sort.
+   * @param viewMatrix A 4x4 view matrix, in column-major order.
+   * @param frontToBack True to put the closest object first, false to put it last.
+   */
+  public void sort(
+      float[] modelMatrices, int first, int count, float[] viewMatrix, boolean frontToBack) {
+    if (count < 2) {
+      return;
+    }
+    ensureCapacity(count);
+
+    float[] v = viewMatrix;
+    for (int i = 0; i < count; ++i) {
+      int offset = (first + i) * FLOATS_PER_MATRIX;
+      float x = modelMatrices[offset + 12];
+      float y = modelMatrices[offset + 13];
+      float z = modelMatrices[offset + 14];
+      // The camera looks down -z in view space, so the depth is minus the view space z.
+      float depth = -(v[2] * x + v[6] * y + v[10] * z + v[14]);
+      int key = sortableKey(depth);
+      keys[i] = frontToBack ? key : ~key;
+      indices[i] = i;
+    }
+
+    keySorter.sort(keys, indices, count);
+
+    boolean sorted = true;
+    for (int i = 0; i < count && sorted; ++i) {
+      sorted = indices[i] == i;
+    }
+    if (sorted) {
+      return;
+    }
+    for (int i = 0; i < count; ++i) {
+      System.arraycopy(
+          modelMatrices,
+          (first + indices[i]) * FLOATS_PER_MATRIX,
+          sortedMatrices,
+          i * FLOATS_PER_MATRIX,
+          FLOATS_PER_MATRIX);
+    }
+    System.arraycopy(
+        sortedMatrices, 0, modelMatrices, first * FLOATS_PER_MATRIX, count * FLOATS_PER_MATRIX);
+  }
+
+  /**
+   * Returns an integer whose order as an unsigned integer is the order of {@code value}: the sign
+   * bit is flipped for positive floats, and all bits for negative ones.
+   */
+  static int sortableKey(float value) {
+    int bits = Float.floatToIntBits(value);
+    return bits ^ ((bits >> 31) | Integer.MIN_VALUE);
+  }
+
+  private void ensureCapacity(int count) {
+    if (keys.length >= count) {
+      return;
+    }
+    int capacity = Math.max(2 * keys.length, count);
+    keys = new int[capacity];
+    indices = new int[capacity];
+    sortedMatrices = new float[capacity * FLOATS_PER_MATRIX];
+  }
+}
@@ -0,0 +1,158 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+/**
+ * Tests bounding spheres against the view frustum of a camera, so objects outside of the screen
+ * can be skipped before any draw call is made. The planes are extracted once per frame from the
+ * view projection matrix, see {@link #setCamera}. No method allocates, so the culler can be used
+ * for every object in every frame.
+ */
+public final class FrustumCuller {
+  /** Result of {@link #classifyBox}: the box is entirely outside of the frustum. */
+  public static final int OUTSIDE = 0;
+  /** Result of {@link #classifyBox}: the box may be partly inside of the frustum. */
+  public static final int INTERSECTING = 1;
+  /** Result of {@link #classifyBox}: the box is entirely inside of the frustum. */
+  public static final int INSIDE = 2;
+
+  private static final int PLANE_COUNT = 6;
+  private static final int FLOATS_PER_MATRIX = 16;
+
+  // Normalized planes (a, b, c, d) in world space, with the inside where a*x + b*y + c*z + d >= 0.
+  private final float[] planes = new float[PLANE_COUNT * 4];
+  private final float[] viewProjection = new float[16];
+
+  /**
+   * Extracts the frustum planes of a camera.
+   *
+   * @param viewMatrix A 4x4 view matrix, in column-major order.
+   * @param projectionMatrix A 4x4 projection matrix, in column-major order.
+   */
+  public void setCamera(float[] viewMatrix, float[] projectionMatrix) {
+    Matrices.multiply(viewProjection, 0, projectionMatrix, 0, viewMatrix, 0);
+    Matrices.extractFrustumPlanes(planes, 0, viewProjection, 0);
+  }
+
+  /**
+   * Returns false if a sphere is entirely outside of the frustum. Spheres close to a corner of the
+   * frustum may be reported as visible although they are not.
+   *
+   * @param modelMatrices Model-to-world matrices, in column-major order.
+   * @param offset Offset of the model matrix in {@code modelMatrices}.
+   * @param boundingSphere Center x, y, z and radius of the sphere, in model space.
+   */
+  public boolean isSphereVisible(float[] modelMatrices, int offset, float[] boundingSphere) {
+    float[] m = modelMatrices;
+    float cx = boundingSphere[0];
+    float cy = boundingSphere[1];
+    float cz = boundingSphere[2];
+    float wx = m[offset] * cx + m[offset + 4] * cy + m[offset + 8] * cz + m[offset + 12];
+    float wy = m[offset + 1] * cx + m[offset + 5] * cy + m[offset + 9] * cz + m[offset + 13];
+    float wz = m[offset + 2] * cx + m[offset + 6] * cy + m[offset + 10] * cz + m[offset + 14];
+
+    // The largest axis scale of the model matrix bounds the scaled radius.
+    float scaleSquared =
+        Math.max(
+            lengthSquared(m[offset], m[offset + 1], m[offset + 2]),
+            Math.max(
+                lengthSquared(m[offset + 4], m[offset + 5], m[offset + 6]),
+                lengthSquared(m[offset + 8], m[offset + 9], m[offset + 10])));
+    float radius = boundingSphere[3] * (float) Math.sqrt(scaleSquared);
+
+    for (int i = 0; i < PLANE_COUNT * 4; i += 4) {
+      if (planes[i] * wx + planes[i + 1] * wy + planes[i + 2] * wz + planes[i + 3] < -radius) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Tests an axis-aligned box in world space against the frustum, e.g. a cell of a spatial index
+   * to accept or reject all objects in it at once. Like {@link #isSphereVisible}, boxes close to a
+   * corner of the frustum may be reported as intersecting although they are outside.
+   *
+   * @return {@link #OUTSIDE}, {@link #INTERSECTING} or {@link #INSIDE}.
+   */
+  public int classifyBox(
+      float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+    int result = INSIDE;
+    for (int i = 0; i < PLANE_COUNT * 4; i += 4) {
+      float a = planes[i];
+      float b = planes[i + 1];
+      float c = planes[i + 2];
+      // The corner farthest along the plane normal, and the one farthest against it.
+      float farthest =
+          a * (a > 0 ? maxX : minX) + b * (b > 0 ? maxY : minY) + c * (c > 0 ? maxZ : minZ);
+      if (farthest + planes[i + 3] < 0) {
+        return OUTSIDE;
+      }
+      float nearest =
+          a * (a > 0 ? minX : maxX) + b * (b > 0 ? minY : maxY) + c * (c > 0 ? minZ : maxZ);
+      if (nearest + planes[i + 3] < 0) {
+        result = INTERSECTING;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Moves the model matrices of the visible objects to the front of {@code modelMatrices},
+   * keeping their order.
+   *
+   * @param modelMatrices Consecutive 4x4 model-to-world matrices, 16 floats per object.
+   * @param count Number of matrices to test.
+   * @param boundingSphere Center x, y, z and radius of the object, in model space.
+   * @return The number of visible objects.
+   */
+  public int cull(float[] modelMatrices, int count, float[] boundingSphere) {
+    int visibleCount = 0;
+    for (int i = 0; i < count; ++i) {
+      if (isSphereVisible(modelMatrices, i * FLOATS_PER_MATRIX, boundingSphere)) {
+        if (visibleCount != i) {
+          System.arraycopy(
+              modelMatrices,
+              i * FLOATS_PER_MATRIX,
+              modelMatrices,
+              visibleCount * FLOATS_PER_MATRIX,
+              FLOATS_PER_MATRIX);
+        }
+        ++visibleCount;
+      }
+    }
+    return visibleCount;
+  }
+
+  /**
+   * Stores the smallest sphere enclosing two spheres in {@code out}, e.g. to cull an object and
+   * its shadow with one test. {@code out} may be one of the inputs.
+   *
+   * @param first Center x, y, z and radius of the first sphere.
+   * @param second Center x, y, z and radius of the second sphere.
+   * @param out Receives center x, y, z and radius of the enclosing sphere.
+   */
+  public static void encloseSpheres(float[] first, float[] second, float[] out) {
+    float dx = second[0] - first[0];
+    float dy = second[1] - first[1];
+    float dz = second[2] - first[2];
+    float distance = (float) Math.sqrt(lengthSquared(dx, dy, dz));
+    if (distance + second[3] <= first[3]) {
+      System.arraycopy(first, 0, out, 0, 4);
+      return;
+    }
+    if (distance + first[3] <= second[3]) {
+      System.arraycopy(second, 0, out, 0, 4);
+      return;
+    }
+    // The enclosing sphere touches both spheres on the line through their centers.
+    float radius = 0.5f * (distance + first[3] + second[3]);
+    float t = (radius - first[3]) / distance;
+    out[0] = first[0] + dx * t;
+    out[1] = first[1] + dy * t;
+    out[2] = first[2] + dz * t;
+    out[3] = radius;
+  }
+
+  private static float lengthSquared(float x, float y, float z) {
+    return x * x + y * y + z * z;
+  }
+}
@@ -0,0 +1,53 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import android.opengl.GLES20;
+
+/** Version and extension information of the current OpenGL ES context. */
+public final class GlCapabilities {
+  private final int majorVersion;
+  private final String extensions;
+
+  private GlCapabilities(int majorVersion, String extensions) {
+    this.majorVersion = majorVersion;
+    this.extensions = extensions;
+  }
+
+  /**
+   * Queries the capabilities of the context that is current on the calling thread. Must be called
+   * on the OpenGL thread.
+   */
+  public static GlCapabilities query() {
+    String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+    return new GlCapabilities(
+        parseMajorVersion(GLES20.glGetString(GLES20.GL_VERSION)),
+        " " + (extensions == null ? "" : extensions) + " ");
+  }
+
+  // GL_VERSION is of the form "OpenGL ES <major>.<minor> <vendor-specific information>".
+  private static int parseMajorVersion(String version) {
+    if (version == null) {
+      return 2;
+    }
+    for (int i = 0; i < version.length(); ++i) {
+      if (Character.isDigit(version.charAt(i))) {
+        return Character.digit(version.charAt(i), 10);
+      }
+    }
+    return 2;
+  }
+
+  /** Returns the major version of the context, e.g. 3 for an OpenGL ES 3.2 context. */
+  public int getMajorVersion() {
+    return majorVersion;
+  }
+
+  /** Returns true if the context supports the OpenGL ES 3.0 API. */
+  public boolean isGles30() {
+    return majorVersion >= 3;
+  }
+
+  /** Returns true if the context advertises the named extension, e.g. "GL_OES_texture_npot". */
+  public boolean hasExtension(String name) {
+    return extensions.contains(" " + name + " ");
+  }
+}
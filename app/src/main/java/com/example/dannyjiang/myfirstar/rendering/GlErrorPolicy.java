@@ -0,0 +1,83 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+/**
+ * Decides when the renderers check for OpenGL errors while drawing. {@code glGetError} makes many
+ * drivers wait for the GPU, so per-frame checks go through {@link #check} instead of {@link
+ * ShaderUtil#checkGLError}, which stays in use for one-time setup.
+ *
+ * <p>Polling {@code glGetError} is the only way errors are detected. KHR_debug callbacks are not
+ * used: the Java binding {@code GLES32.glDebugMessageCallback} is not implemented on Android and
+ * throws {@link UnsupportedOperationException}, so installing one would take a native shim.
+ *
+ * <p>Must only be used on the OpenGL thread.
+ */
+public final class GlErrorPolicy {
+  /** When {@link #check} queries OpenGL errors. */
+  public enum Mode {
+    /** Never, for release builds. */
+    OFF,
+    /** In one frame out of every sample interval frames. */
+    SAMPLED,
+    /** In every frame. */
+    FULL
+  }
+
+  private static Mode mode = Mode.FULL;
+  private static int sampleIntervalFrames = 1;
+  private static long frameNumber;
+  private static boolean checkingFrame = true;
+
+  private GlErrorPolicy() {}
+
+  /**
+   * Sets when errors are checked, from the next {@link #beginFrame} on.
+   *
+   * @param mode When to check.
+   * @param sampleIntervalFrames With {@link Mode#SAMPLED}, errors are checked in one frame out of
+   *     this many. Ignored otherwise.
+   */
+  public static void setMode(Mode mode, int sampleIntervalFrames) {
+    if (sampleIntervalFrames < 1) {
+      throw new IllegalArgumentException("Sample interval must be positive");
+    }
+    GlErrorPolicy.mode = mode;
+    GlErrorPolicy.sampleIntervalFrames = sampleIntervalFrames;
+  }
+
+  public static Mode getMode() {
+    return mode;
+  }
+
+  /** Marks the start of a frame, and decides whether errors are checked in it. */
+  public static void beginFrame() {
+    ++frameNumber;
+    switch (mode) {
+      case FULL:
+        checkingFrame = true;
+        break;
+      case SAMPLED:
+        checkingFrame = frameNumber % sampleIntervalFrames == 0;
+        break;
+      default:
+        checkingFrame = false;
+        break;
+    }
+  }
+
+  /** Returns true if {@link #check} queries errors in the current frame. */
+  public static boolean isCheckingFrame() {
+    return checkingFrame;
+  }
+
+  /**
+   * Checks for OpenGL errors like {@link ShaderUtil#checkGLError}, if the mode checks the current
+   * frame.
+   *
+   * @throws RuntimeException If an OpenGL error is detected.
+   */
+  public static void check(String tag, String label) {
+    if (isCheckingFrame()) {
+      ShaderUtil.checkGLError(tag, label);
+    }
+  }
+}
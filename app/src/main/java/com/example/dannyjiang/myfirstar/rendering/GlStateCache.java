@@ -0,0 +1,324 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+/**
+ * Shadows the OpenGL state the renderers change every frame, and drops calls that would set a
+ * value that is already set. Renderers set the state they need before drawing instead of resetting
+ * it afterwards, so consecutive renderers that need the same state issue no calls at all.
+ *
+ * <p>All renderers of a context must go through the same cache, see {@link #get()}, and must only
+ * be called on the OpenGL thread. Code that changes the tracked state directly, e.g. ARCore when
+ * it updates the camera texture, must be followed by {@link #invalidate()}.
+ */
+public final class GlStateCache {
+  private static final GlStateCache instance = new GlStateCache();
+
+  // Value of tracked bindings and switches that are not known.
+  private static final int UNKNOWN = -1;
+  private static final int MAX_TEXTURE_UNITS = 8;
+  private static final int MAX_VERTEX_ATTRIBS = 32;
+
+  private int program;
+  private int activeTextureUnit;
+  private final int[] texture2dBindings = new int[MAX_TEXTURE_UNITS];
+  private final int[] textureExternalBindings = new int[MAX_TEXTURE_UNITS];
+  private int arrayBuffer;
+  private int elementArrayBuffer;
+
+  // 1 when enabled, 0 when disabled.
+  private int depthTest;
+  private int blend;
+  private int cullFace;
+  private int depthMask;
+  private int blendSrcRgb;
+  private int blendDstRgb;
+  private int blendSrcAlpha;
+  private int blendDstAlpha;
+
+  // Bit i is set if vertex attribute array i is enabled, if it is known.
+  private int enabledVertexAttribArrays;
+  private int knownVertexAttribArrays;
+  // Arrays that were ever enabled through the cache, all others are disabled.
+  private int usedVertexAttribArrays;
+
+  private long issuedCallCount;
+  private long avoidedCallCount;
+
+  private GlStateCache() {
+    invalidate();
+  }
+
+  /** Returns the cache shared by all renderers. */
+  public static GlStateCache get() {
+    return instance;
+  }
+
+  /** Forgets the tracked state, so the next call for each state is issued. */
+  public void invalidate() {
+    program = UNKNOWN;
+    activeTextureUnit = UNKNOWN;
+    for (int i = 0; i < MAX_TEXTURE_UNITS; ++i) {
+      texture2dBindings[i] = UNKNOWN;
+      textureExternalBindings[i] = UNKNOWN;
+    }
+    arrayBuffer = UNKNOWN;
+    elementArrayBuffer = UNKNOWN;
+    depthTest = UNKNOWN;
+    blend = UNKNOWN;
+    cullFace = UNKNOWN;
+    depthMask = UNKNOWN;
+    blendSrcRgb = UNKNOWN;
+    blendDstRgb = UNKNOWN;
+    blendSrcAlpha = UNKNOWN;
+    blendDstAlpha = UNKNOWN;
+    knownVertexAttribArrays = 0;
+  }
+
+  /** Returns the number of OpenGL calls issued through the cache. */
+  public long getIssuedCallCount() {
+    return issuedCallCount;
+  }
+
+  /** Returns the number of OpenGL calls dropped because they would not have changed the state. */
+  public long getAvoidedCallCount() {
+    return avoidedCallCount;
+  }
+
+  public void useProgram(int program) {
+    if (this.program == program) {
+      ++avoidedCallCount;
+      return;
+    }
+    GLES20.glUseProgram(program);
+    this.program = program;
+    ++issuedCallCount;
+  }
+
+  /** @param textureUnit One of the GL_TEXTURE* units, e.g. GL_TEXTURE0. */
+  public void activeTexture(int textureUnit) {
+    int unit = textureUnit - GLES20.GL_TEXTURE0;
+    if (unit == activeTextureUnit) {
+      ++avoidedCallCount;
+      return;
+    }
+    GLES20.glActiveTexture(textureUnit);
+    activeTextureUnit = unit >= 0 && unit < MAX_TEXTURE_UNITS ? unit : UNKNOWN;
+    ++issuedCallCount;
+  }
+
+  /**
+   * Binds a texture to the active unit. Only GL_TEXTURE_2D and GL_TEXTURE_EXTERNAL_OES bindings of
+   * the first units are tracked, others are always issued.
+   */
+  public void bindTexture(int target, int texture) {
+    int[] bindings = getTextureBindings(target);
+    if (bindings != null && activeTextureUnit != UNKNOWN) {
+      if (bindings[activeTextureUnit] == texture) {
+        ++avoidedCallCount;
+        return;
+      }
+      bindings[activeTextureUnit] = texture;
+    }
+    GLES20.glBindTexture(target, texture);
+    ++issuedCallCount;
+  }
+
+  /** Binds a buffer. Only GL_ARRAY_BUFFER and GL_ELEMENT_ARRAY_BUFFER are tracked. */
+  public void bindBuffer(int target, int buffer) {
+    if (target == GLES20.GL_ARRAY_BUFFER) {
+      if (arrayBuffer == buffer) {
+        ++avoidedCallCount;
+        return;
+      }
+      arrayBuffer = buffer;
+    } else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+      if (elementArrayBuffer == buffer) {
+        ++avoidedCallCount;
+        return;
+      }
+      elementArrayBuffer = buffer;
+    }
+    GLES20.glBindBuffer(target, buffer);
+    ++issuedCallCount;
+  }
+
+  /**
+   * Deletes buffers. Deleting a bound buffer binds 0 in its place, and its name may be reused by
+   * the next buffer that is created, so buffers must be deleted through the cache.
+   */
+  public void deleteBuffers(int count, int[] buffers, int offset) {
+    for (int i = offset; i < offset + count; ++i) {
+      if (buffers[i] == arrayBuffer) {
+        arrayBuffer = 0;
+      }
+      if (buffers[i] == elementArrayBuffer) {
+        elementArrayBuffer = 0;
+      }
+    }
+    GLES20.glDeleteBuffers(count, buffers, offset);
+    ++issuedCallCount;
+  }
+
+  /**
+   * Deletes textures. Deleting a bound texture binds 0 in its place, and its name may be reused by
+   * the next texture that is created, so textures must be deleted through the cache.
+   */
+  public void deleteTextures(int count, int[] textures, int offset) {
+    for (int i = offset; i < offset + count; ++i) {
+      for (int unit = 0; unit < MAX_TEXTURE_UNITS; ++unit) {
+        if (texture2dBindings[unit] == textures[i]) {
+          texture2dBindings[unit] = 0;
+        }
+        if (textureExternalBindings[unit] == textures[i]) {
+          textureExternalBindings[unit] = 0;
+        }
+      }
+    }
+    GLES20.glDeleteTextures(count, textures, offset);
+    ++issuedCallCount;
+  }
+
+  /**
+   * Deletes a program. A program in use is only deleted once another one is used, so its name is
+   * forgotten to have the next {@link #useProgram} issued even if the name is reused.
+   */
+  public void deleteProgram(int program) {
+    if (this.program == program) {
+      this.program = UNKNOWN;
+    }
+    GLES20.glDeleteProgram(program);
+    ++issuedCallCount;
+  }
+
+  /** Enables a capability. Only GL_DEPTH_TEST, GL_BLEND and GL_CULL_FACE are tracked. */
+  public void enable(int capability) {
+    if (!setCapability(capability, 1)) {
+      ++avoidedCallCount;
+      return;
+    }
+    GLES20.glEnable(capability);
+    ++issuedCallCount;
+  }
+
+  /** Disables a capability. Only GL_DEPTH_TEST, GL_BLEND and GL_CULL_FACE are tracked. */
+  public void disable(int capability) {
+    if (!setCapability(capability, 0)) {
+      ++avoidedCallCount;
+      return;
+    }
+    GLES20.glDisable(capability);
+    ++issuedCallCount;
+  }
+
+  public void depthMask(boolean enabled) {
+    int value = enabled ? 1 : 0;
+    if (depthMask == value) {
+      ++avoidedCallCount;
+      return;
+    }
+    GLES20.glDepthMask(enabled);
+    depthMask = value;
+    ++issuedCallCount;
+  }
+
+  public void blendFunc(int source, int destination) {
+    blendFuncSeparate(source, destination, source, destination);
+  }
+
+  public void blendFuncSeparate(
+      int sourceRgb, int destinationRgb, int sourceAlpha, int destinationAlpha) {
+    if (blendSrcRgb == sourceRgb
+        && blendDstRgb == destinationRgb
+        && blendSrcAlpha == sourceAlpha
+        && blendDstAlpha == destinationAlpha) {
+      ++avoidedCallCount;
+      return;
+    }
+    GLES20.glBlendFuncSeparate(sourceRgb, destinationRgb, sourceAlpha, destinationAlpha);
+    blendSrcRgb = sourceRgb;
+    blendDstRgb = destinationRgb;
+    blendSrcAlpha = sourceAlpha;
+    blendDstAlpha = destinationAlpha;
+    ++issuedCallCount;
+  }
+
+  /**
+   * Enables exactly the vertex attribute arrays of a mask and disables the others, issuing calls
+   * only for arrays whose state changes.
+   *
+   * @param mask Bit i set to enable array i, see {@link #vertexAttribMask(int)}.
+   */
+  public void setVertexAttribArrays(int mask) {
+    usedVertexAttribArrays |= mask;
+    // Arrays never enabled through the cache are still disabled, as created.
+    int known = knownVertexAttribArrays | ~usedVertexAttribArrays;
+    int changed = ((enabledVertexAttribArrays ^ mask) | ~known) & usedVertexAttribArrays;
+    avoidedCallCount += Integer.bitCount(mask & ~changed);
+    for (int location = 0; changed != 0; ++location, changed >>>= 1) {
+      if ((changed & 1) == 0) {
+        continue;
+      }
+      if ((mask & (1 << location)) != 0) {
+        GLES20.glEnableVertexAttribArray(location);
+      } else {
+        GLES20.glDisableVertexAttribArray(location);
+      }
+      ++issuedCallCount;
+    }
+    enabledVertexAttribArrays = mask;
+    knownVertexAttribArrays = usedVertexAttribArrays;
+  }
+
+  /**
+   * Returns the {@link #setVertexAttribArrays} bit of an attribute location. Attributes that are
+   * not active in their program have location -1 and no bit.
+   */
+  public static int vertexAttribMask(int location) {
+    if (location < 0) {
+      return 0;
+    }
+    if (location >= MAX_VERTEX_ATTRIBS) {
+      throw new IllegalArgumentException("Vertex attribute location out of range: " + location);
+    }
+    return 1 << location;
+  }
+
+  /** Records a capability, returns false if it already had this value. */
+  private boolean setCapability(int capability, int value) {
+    switch (capability) {
+      case GLES20.GL_DEPTH_TEST:
+        if (depthTest == value) {
+          return false;
+        }
+        depthTest = value;
+        return true;
+      case GLES20.GL_BLEND:
+        if (blend == value) {
+          return false;
+        }
+        blend = value;
+        return true;
+      case GLES20.GL_CULL_FACE:
+        if (cullFace == value) {
+          return false;
+        }
+        cullFace = value;
+        return true;
+      default:
+        return true;
+    }
+  }
+
+  private int[] getTextureBindings(int target) {
+    switch (target) {
+      case GLES20.GL_TEXTURE_2D:
+        return texture2dBindings;
+      case GLES11Ext.GL_TEXTURE_EXTERNAL_OES:
+        return textureExternalBindings;
+      default:
+        return null;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shares programs, meshes and textures between renderers, keyed by the assets they were created
+ * from, so that a model drawn by several renderers is uploaded once. Each resource counts the
+ * renderers that use it. Resources no renderer uses stay cached until the GPU memory of all
+ * resources exceeds the budget, and are then released least recently used first.
+ *
+ * <p>Resources that are in use are never released, so the budget may be exceeded while they are.
+ * Must only be used on the OpenGL thread.
+ */
+public final class GpuResourceCache {
+  /** An OpenGL object, or a group of them, that can be shared through the cache. */
+  public interface Resource {
+    /** Returns the GPU memory used by the resource, in bytes. */
+    long getGpuBytes();
+
+    /** Deletes the OpenGL objects of the resource. Called on the OpenGL thread. */
+    void release();
+  }
+
+  private static final class Entry {
+    final Resource resource;
+    int referenceCount = 1;
+
+    Entry(Resource resource) {
+      this.resource = resource;
+    }
+  }
+
+  // In access order, so iteration starts at the least recently used entry.
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long budgetBytes;
+  private long gpuBytes;
+  private long hitCount;
+  private long missCount;
+  private long evictionCount;
+
+  /** @param budgetBytes GPU memory that unused resources may be kept cached in. */
+  public GpuResourceCache(long budgetBytes) {
+    setBudgetBytes(budgetBytes);
+  }
+
+  /** Sets the GPU memory that unused resources may be kept cached in, and evicts down to it. */
+  public void setBudgetBytes(long budgetBytes) {
+    if (budgetBytes < 0) {
+      throw new IllegalArgumentException("Budget must not be negative");
+    }
+    this.budgetBytes = budgetBytes;
+    trim();
+  }
+
+  public long getBudgetBytes() {
+    return budgetBytes;
+  }
+
+  /** Returns the GPU memory of all cached resources, in use or not. */
+  public long getGpuBytes() {
+    return gpuBytes;
+  }
+
+  /** Returns the number of {@link #acquire} calls that found their resource. */
+  public long getHitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of {@link #acquire} calls that did not find their resource. */
+  public long getMissCount() {
+    return missCount;
+  }
+
+  /** Returns the number of resources released to stay within the budget. */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Returns the resource cached under a key and adds a reference to it, or returns null if there
+   * is none. The caller must {@link #release} the reference when it no longer uses the resource.
+   */
+  @SuppressWarnings("unchecked")
+  public <T extends Resource> T acquire(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      ++missCount;
+      return null;
+    }
+    ++hitCount;
+    ++entry.referenceCount;
+    return (T) entry.resource;
+  }
+
+  /**
+   * Caches a new resource with one reference, held by the caller.
+   *
+   * @throws IllegalStateException If a resource is already cached under the key.
+   */
+  public void put(String key, Resource resource) {
+    if (entries.containsKey(key)) {
+      throw new IllegalStateException("Resource already cached: " + key);
+    }
+    entries.put(key, new Entry(resource));
+    gpuBytes += resource.getGpuBytes();
+    trim();
+  }
+
+  /**
+   * Removes a reference added by {@link #acquire} or {@link #put}. The resource stays cached
+   * until it is evicted.
+   */
+  public void release(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null || entry.referenceCount == 0) {
+      throw new IllegalStateException("Resource not referenced: " + key);
+    }
+    --entry.referenceCount;
+    trim();
+  }
+
+  /**
+   * Forgets all resources without releasing them, for when the OpenGL context they belong to is
+   * lost together with its objects.
+   */
+  public void clear() {
+    entries.clear();
+    gpuBytes = 0;
+  }
+
+  /** Releases unused resources, least recently used first, until the cache fits the budget. */
+  private void trim() {
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (gpuBytes > budgetBytes && iterator.hasNext()) {
+      Entry entry = iterator.next().getValue();
+      if (entry.referenceCount > 0) {
+        continue;
+      }
+      iterator.remove();
+      gpuBytes -= entry.resource.getGpuBytes();
+      entry.resource.release();
+      ++evictionCount;
+    }
+  }
+}
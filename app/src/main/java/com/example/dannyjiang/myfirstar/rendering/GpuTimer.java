@@ -0,0 +1,100 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import com.example.dannyjiang.myfirstar.utils.FrameProfiler;
+
+import java.util.Arrays;
+
+/**
+ * Measures the GPU time of the stages of a {@link FrameProfiler} with GL_EXT_disjoint_timer_query
+ * and records it there. Results are read a few frames later, only once they are available, so
+ * timing never stalls the pipeline. Stages must not overlap, since only one timer query can be
+ * active at a time. All methods must be called on the OpenGL thread.
+ */
+public final class GpuTimer {
+  private static final String EXTENSION = "GL_EXT_disjoint_timer_query";
+  // Tokens of GL_EXT_disjoint_timer_query, not defined by GLES30.
+  private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+  private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+  // Queries in flight per stage. A stage skips timing a frame if all of them are still pending.
+  private static final int QUERIES_PER_STAGE = 4;
+
+  private final FrameProfiler profiler;
+  private final int[] queries;
+  private final boolean[] pending;
+  private final int[] nextQuery;
+  private final int[] result = new int[1];
+  private int activeQuery = -1;
+
+  /** Returns true if the context can time GPU work, which needs OpenGL ES 3.0 and the extension. */
+  public static boolean isSupported(GlCapabilities capabilities) {
+    return capabilities.isGles30() && capabilities.hasExtension(EXTENSION);
+  }
+
+  /** Creates the timer queries for all stages of {@code profiler}, see {@link #isSupported}. */
+  public GpuTimer(FrameProfiler profiler) {
+    this.profiler = profiler;
+    int stageCount = profiler.getStageCount();
+    queries = new int[stageCount * QUERIES_PER_STAGE];
+    pending = new boolean[queries.length];
+    nextQuery = new int[stageCount];
+    GLES30.glGenQueries(queries.length, queries, 0);
+    // Clear the disjoint flag, it is set when the context is created.
+    GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, result, 0);
+  }
+
+  /**
+   * Starts timing the GPU commands of a stage. Ends the previous stage first if it was not ended,
+   * e.g. because drawing it threw.
+   */
+  public void begin(int stage) {
+    end();
+    int query = stage * QUERIES_PER_STAGE + nextQuery[stage];
+    if (pending[query]) {
+      activeQuery = -1;
+      return;
+    }
+    GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, queries[query]);
+    activeQuery = query;
+  }
+
+  /** Stops timing the stage started by {@link #begin}. */
+  public void end() {
+    if (activeQuery < 0) {
+      return;
+    }
+    GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+    pending[activeQuery] = true;
+    int stage = activeQuery / QUERIES_PER_STAGE;
+    nextQuery[stage] = (nextQuery[stage] + 1) % QUERIES_PER_STAGE;
+    activeQuery = -1;
+  }
+
+  /**
+   * Records the results of all finished queries in the profiler. Call once per frame. All pending
+   * results are dropped if the GPU reported a disjoint operation, e.g. a frequency change, since
+   * the previous call.
+   */
+  public void collect() {
+    GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, result, 0);
+    if (result[0] != 0) {
+      Arrays.fill(pending, false);
+      return;
+    }
+    for (int i = 0; i < queries.length; ++i) {
+      if (!pending[i]) {
+        continue;
+      }
+      GLES30.glGetQueryObjectuiv(queries[i], GLES30.GL_QUERY_RESULT_AVAILABLE, result, 0);
+      if (result[0] == 0) {
+        continue;
+      }
+      pending[i] = false;
+      GLES30.glGetQueryObjectuiv(queries[i], GLES30.GL_QUERY_RESULT, result, 0);
+      profiler.recordGpuTime(i / QUERIES_PER_STAGE, result[0] & 0xffffffffL);
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import java.util.Arrays;
+
+/**
+ * Sorts int or long keys as unsigned integers, moving an array of indices with them, for {@link
+ * DepthSorter} and {@link RenderQueue}. Few keys are sorted with an insertion sort, more with an
+ * LSD radix sort one byte at a time, which skips the bytes all keys share. Both are stable, so
+ * equal keys keep their order.
+ *
+ * <p>The scratch arrays of the radix sort are reused, so sorting does not allocate once they have
+ * grown to the number of keys. Not thread-safe.
+ */
+final class KeySorter {
+  // Below this count an insertion sort is faster than the passes of the radix sort.
+  private static final int INSERTION_SORT_THRESHOLD = 32;
+  private static final int RADIX_BITS = 8;
+  private static final int RADIX = 1 << RADIX_BITS;
+
+  private int[] scratchIntKeys = new int[0];
+  private long[] scratchLongKeys = new long[0];
+  private int[] scratchIndices = new int[0];
+  private final int[] bucketCounts = new int[RADIX];
+
+  /** Sorts the first {@code count} keys as unsigned integers, moving the indices with them. */
+  void sort(int[] keys, int[] indices, int count) {
+    if (count < INSERTION_SORT_THRESHOLD) {
+      insertionSort(keys, indices, count);
+    } else {
+      radixSort(keys, indices, count);
+    }
+  }
+
+  /** Sorts the first {@code count} keys as unsigned longs, moving the indices with them. */
+  void sort(long[] keys, int[] indices, int count) {
+    if (count < INSERTION_SORT_THRESHOLD) {
+      insertionSort(keys, indices, count);
+    } else {
+      radixSort(keys, indices, count);
+    }
+  }
+
+  /** Like {@link #sort(int[], int[], int)}, with an insertion sort whatever the count. */
+  static void insertionSort(int[] keys, int[] indices, int count) {
+    for (int i = 1; i < count; ++i) {
+      int key = keys[i];
+      int index = indices[i];
+      int j = i - 1;
+      while (j >= 0 && keys[j] + Integer.MIN_VALUE > key + Integer.MIN_VALUE) {
+        keys[j + 1] = keys[j];
+        indices[j + 1] = indices[j];
+        --j;
+      }
+      keys[j + 1] = key;
+      indices[j + 1] = index;
+    }
+  }
+
+  /** Like {@link #sort(long[], int[], int)}, with an insertion sort whatever the count. */
+  static void insertionSort(long[] keys, int[] indices, int count) {
+    for (int i = 1; i < count; ++i) {
+      long key = keys[i];
+      int index = indices[i];
+      int j = i - 1;
+      while (j >= 0 && keys[j] + Long.MIN_VALUE > key + Long.MIN_VALUE) {
+        keys[j + 1] = keys[j];
+        indices[j + 1] = indices[j];
+        --j;
+      }
+      keys[j + 1] = key;
+      indices[j + 1] = index;
+    }
+  }
+
+  /** Like {@link #sort(int[], int[], int)}, with a radix sort whatever the count. */
+  void radixSort(int[] keys, int[] indices, int count) {
+    if (scratchIntKeys.length < count) {
+      scratchIntKeys = new int[Math.max(2 * scratchIntKeys.length, count)];
+    }
+    ensureScratchIndices(count);
+    int[] sourceKeys = keys;
+    int[] sourceIndices = indices;
+    int[] targetKeys = scratchIntKeys;
+    int[] targetIndices = scratchIndices;
+    for (int shift = 0; shift < 32; shift += RADIX_BITS) {
+      Arrays.fill(bucketCounts, 0);
+      for (int i = 0; i < count; ++i) {
+        ++bucketCounts[(sourceKeys[i] >>> shift) & (RADIX - 1)];
+      }
+      // Skips the byte if all keys share it, as the high bytes of nearby depths often do.
+      if (bucketCounts[(sourceKeys[0] >>> shift) & (RADIX - 1)] == count) {
+        continue;
+      }
+      toBucketStarts();
+      for (int i = 0; i < count; ++i) {
+        int slot = bucketCounts[(sourceKeys[i] >>> shift) & (RADIX - 1)]++;
+        targetKeys[slot] = sourceKeys[i];
+        targetIndices[slot] = sourceIndices[i];
+      }
+      int[] swap = sourceKeys;
+      sourceKeys = targetKeys;
+      targetKeys = swap;
+      swap = sourceIndices;
+      sourceIndices = targetIndices;
+      targetIndices = swap;
+    }
+    if (sourceKeys != keys) {
+      System.arraycopy(sourceKeys, 0, keys, 0, count);
+      System.arraycopy(sourceIndices, 0, indices, 0, count);
+    }
+  }
+
+  /** Like {@link #sort(long[], int[], int)}, with a radix sort whatever the count. */
+  void radixSort(long[] keys, int[] indices, int count) {
+    if (scratchLongKeys.length < count) {
+      scratchLongKeys = new long[Math.max(2 * scratchLongKeys.length, count)];
+    }
+    ensureScratchIndices(count);
+    long[] sourceKeys = keys;
+    int[] sourceIndices = indices;
+    long[] targetKeys = scratchLongKeys;
+    int[] targetIndices = scratchIndices;
+    for (int shift = 0; shift < 64; shift += RADIX_BITS) {
+      Arrays.fill(bucketCounts, 0);
+      for (int i = 0; i < count; ++i) {
+        ++bucketCounts[(int) (sourceKeys[i] >>> shift) & (RADIX - 1)];
+      }
+      // Skips the byte if all keys share it, e.g. the unused high bits of render queue ids.
+      if (bucketCounts[(int) (sourceKeys[0] >>> shift) & (RADIX - 1)] == count) {
+        continue;
+      }
+      toBucketStarts();
+      for (int i = 0; i < count; ++i) {
+        int slot = bucketCounts[(int) (sourceKeys[i] >>> shift) & (RADIX - 1)]++;
+        targetKeys[slot] = sourceKeys[i];
+        targetIndices[slot] = sourceIndices[i];
+      }
+      long[] swapKeys = sourceKeys;
+      sourceKeys = targetKeys;
+      targetKeys = swapKeys;
+      int[] swapIndices = sourceIndices;
+      sourceIndices = targetIndices;
+      targetIndices = swapIndices;
+    }
+    if (sourceKeys != keys) {
+      System.arraycopy(sourceKeys, 0, keys, 0, count);
+      System.arraycopy(sourceIndices, 0, indices, 0, count);
+    }
+  }
+
+  /** Turns the counts of the buckets into the slot each bucket starts at. */
+  private void toBucketStarts() {
+    int start = 0;
+    for (int bucket = 0; bucket < RADIX; ++bucket) {
+      int bucketCount = bucketCounts[bucket];
+      bucketCounts[bucket] = start;
+      start += bucketCount;
+    }
+  }
+
+  private void ensureScratchIndices(int count) {
+    if (scratchIndices.length < count) {
+      scratchIndices = new int[Math.max(2 * scratchIndices.length, count)];
+    }
+  }
+}
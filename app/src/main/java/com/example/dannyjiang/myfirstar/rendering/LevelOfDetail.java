@@ -0,0 +1,90 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+/**
+ * Level of detail policy shared by mesh conversion and drawing. Level 0 is the full mesh and
+ * every further level keeps {@link #TRIANGLE_RATIO} of the triangles of the previous one. A level
+ * is selected from the projected size of the bounding sphere: each time the size halves, the
+ * projected area and so the pixels per triangle drop to a quarter, and the next level is used.
+ */
+public final class LevelOfDetail {
+  /** Fraction of the triangles of the previous level kept by each level. */
+  public static final float TRIANGLE_RATIO = 0.25f;
+
+  /**
+   * Projected bounding sphere diameter, as a fraction of the viewport height, below which level 1
+   * is drawn. The threshold halves for every further level.
+   */
+  public static final float FIRST_LEVEL_SCREEN_SIZE = 0.25f;
+
+  private LevelOfDetail() {}
+
+  /** Returns the number of indices level {@code level} is simplified to. */
+  public static int getTargetIndexCount(int indexCount, int level) {
+    double triangles = indexCount / 3 * Math.pow(TRIANGLE_RATIO, level);
+    return 3 * Math.max(1, (int) triangles);
+  }
+
+  /**
+   * Returns the diameter of a bounding sphere projected to the screen, as a fraction of the
+   * viewport height. Does not allocate, so it can be called for every object in every frame.
+   *
+   * @param modelMatrices Model-to-world matrices, in column-major order.
+   * @param offset Offset of the model matrix in {@code modelMatrices}.
+   * @param boundingSphere Center x, y, z and radius of the sphere, in model space.
+   * @param viewMatrix A 4x4 view matrix, in column-major order.
+   * @param projectionMatrix A 4x4 perspective projection matrix, in column-major order.
+   * @return The projected size, or infinity if the camera is inside the sphere.
+   */
+  public static float computeScreenSize(
+      float[] modelMatrices,
+      int offset,
+      float[] boundingSphere,
+      float[] viewMatrix,
+      float[] projectionMatrix) {
+    float[] m = modelMatrices;
+    float cx = boundingSphere[0];
+    float cy = boundingSphere[1];
+    float cz = boundingSphere[2];
+    float wx = m[offset] * cx + m[offset + 4] * cy + m[offset + 8] * cz + m[offset + 12];
+    float wy = m[offset + 1] * cx + m[offset + 5] * cy + m[offset + 9] * cz + m[offset + 13];
+    float wz = m[offset + 2] * cx + m[offset + 6] * cy + m[offset + 10] * cz + m[offset + 14];
+
+    float[] v = viewMatrix;
+    float vx = v[0] * wx + v[4] * wy + v[8] * wz + v[12];
+    float vy = v[1] * wx + v[5] * wy + v[9] * wz + v[13];
+    float vz = v[2] * wx + v[6] * wy + v[10] * wz + v[14];
+
+    // The largest axis scale of the model matrix bounds the scaled radius.
+    float scaleSquared =
+        Math.max(
+            lengthSquared(m[offset], m[offset + 1], m[offset + 2]),
+            Math.max(
+                lengthSquared(m[offset + 4], m[offset + 5], m[offset + 6]),
+                lengthSquared(m[offset + 8], m[offset + 9], m[offset + 10])));
+    float radiusSquared = boundingSphere[3] * boundingSphere[3] * scaleSquared;
+
+    // The distance to the center, rather than the depth, keeps the level stable while the camera
+    // turns.
+    float tangentSquared = lengthSquared(vx, vy, vz) - radiusSquared;
+    if (tangentSquared <= 0.0f) {
+      return Float.POSITIVE_INFINITY;
+    }
+    // projectionMatrix[5] is the cotangent of half the vertical field of view.
+    return (float) Math.sqrt(radiusSquared / tangentSquared) * projectionMatrix[5];
+  }
+
+  /** Returns the level to draw for a projected size, see {@link #computeScreenSize}. */
+  public static int selectLevel(float screenSize, int levelCount) {
+    int level = 0;
+    float threshold = FIRST_LEVEL_SCREEN_SIZE;
+    while (level < levelCount - 1 && screenSize < threshold) {
+      ++level;
+      threshold *= 0.5f;
+    }
+    return level;
+  }
+
+  private static float lengthSquared(float x, float y, float z) {
+    return x * x + y * y + z * z;
+  }
+}
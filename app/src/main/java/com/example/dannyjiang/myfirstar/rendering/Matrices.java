@@ -0,0 +1,202 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+/**
+ * 4x4 matrix math on flat float arrays holding many column-major matrices, 16 floats each, in the
+ * layout of {@link android.opengl.Matrix}. Unlike android.opengl.Matrix, whose methods are native,
+ * these are plain Java: a call costs no JNI transition, and the batched methods transform all
+ * matrices of an array in one call.
+ *
+ * <p>The loops hold the shared matrix in locals and compute each output column from one input
+ * column with straight-line arithmetic, without branches or calls. No method allocates. Whether a
+ * JIT unrolls or vectorizes these loops is up to the VM and has not been measured on ART; the
+ * benchmark module compares them with a Java port of multiplyMM on the host JVM.
+ */
+public final class Matrices {
+  private static final int FLOATS_PER_MATRIX = 16;
+
+  private Matrices() {}
+
+  /** Sets the matrix at {@code offset} to the identity. */
+  public static void setIdentity(float[] matrix, int offset) {
+    for (int i = 0; i < FLOATS_PER_MATRIX; ++i) {
+      matrix[offset + i] = (i % 5 == 0) ? 1.0f : 0.0f;
+    }
+  }
+
+  /**
+   * Stores {@code lhs * rhs} in {@code out}, like {@link android.opengl.Matrix#multiplyMM}.
+   * {@code out} may be {@code rhs}, but must not overlap {@code lhs}.
+   */
+  public static void multiply(
+      float[] out, int outOffset, float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+    multiplyBatch(out, outOffset, lhs, lhsOffset, rhs, rhsOffset, 1);
+  }
+
+  /**
+   * Multiplies {@code count} consecutive matrices by the same matrix from the left, e.g. model
+   * matrices by the view matrix. {@code out} may be {@code matrices} at the same offset, to
+   * transform them in place, but must not overlap {@code lhs}.
+   *
+   * @param out Receives the {@code count} products, starting at {@code outOffset}.
+   * @param lhs The matrix to multiply by, at {@code lhsOffset}.
+   * @param matrices The matrices to multiply, the first at {@code offset}.
+   * @param count Number of matrices to multiply.
+   */
+  public static void multiplyBatch(
+      float[] out,
+      int outOffset,
+      float[] lhs,
+      int lhsOffset,
+      float[] matrices,
+      int offset,
+      int count) {
+    float l0 = lhs[lhsOffset];
+    float l1 = lhs[lhsOffset + 1];
+    float l2 = lhs[lhsOffset + 2];
+    float l3 = lhs[lhsOffset + 3];
+    float l4 = lhs[lhsOffset + 4];
+    float l5 = lhs[lhsOffset + 5];
+    float l6 = lhs[lhsOffset + 6];
+    float l7 = lhs[lhsOffset + 7];
+    float l8 = lhs[lhsOffset + 8];
+    float l9 = lhs[lhsOffset + 9];
+    float l10 = lhs[lhsOffset + 10];
+    float l11 = lhs[lhsOffset + 11];
+    float l12 = lhs[lhsOffset + 12];
+    float l13 = lhs[lhsOffset + 13];
+    float l14 = lhs[lhsOffset + 14];
+    float l15 = lhs[lhsOffset + 15];
+    int end = offset + count * FLOATS_PER_MATRIX;
+    int o = outOffset;
+    // Each column of the product is lhs times the column of the same index, so a column can be
+    // written over once it is read.
+    for (int m = offset; m < end; m += 4, o += 4) {
+      float x = matrices[m];
+      float y = matrices[m + 1];
+      float z = matrices[m + 2];
+      float w = matrices[m + 3];
+      out[o] = l0 * x + l4 * y + l8 * z + l12 * w;
+      out[o + 1] = l1 * x + l5 * y + l9 * z + l13 * w;
+      out[o + 2] = l2 * x + l6 * y + l10 * z + l14 * w;
+      out[o + 3] = l3 * x + l7 * y + l11 * z + l15 * w;
+    }
+  }
+
+  /**
+   * Computes the model view and model view projection matrices of {@code count} objects, as two
+   * {@link android.opengl.Matrix#multiplyMM} calls per object would.
+   *
+   * @param viewMatrix A 4x4 view matrix.
+   * @param projectionMatrix A 4x4 projection matrix.
+   * @param modelMatrices Consecutive model-to-world matrices.
+   * @param first Index of the first model matrix.
+   * @param count Number of model matrices.
+   * @param modelViewMatrices Receives the {@code count} model view matrices, from index 0.
+   * @param modelViewProjectionMatrices Receives the {@code count} model view projection matrices,
+   *     from index 0.
+   */
+  public static void concatenate(
+      float[] viewMatrix,
+      float[] projectionMatrix,
+      float[] modelMatrices,
+      int first,
+      int count,
+      float[] modelViewMatrices,
+      float[] modelViewProjectionMatrices) {
+    multiplyBatch(
+        modelViewMatrices, 0, viewMatrix, 0, modelMatrices, first * FLOATS_PER_MATRIX, count);
+    multiplyBatch(
+        modelViewProjectionMatrices, 0, projectionMatrix, 0, modelViewMatrices, 0, count);
+  }
+
+  /**
+   * Transforms the same direction by the upper 3x3 of {@code count} matrices and normalizes the
+   * results, e.g. a light direction to view space, or the up axis of planes to their normals. This
+   * is the normal transform of matrices without non-uniform scale, such as poses and model view
+   * matrices of rigid objects.
+   *
+   * @param out Receives x, y and z of each transformed direction, starting at {@code outOffset}.
+   * @param matrices The matrices, the first at {@code offset}.
+   * @param count Number of matrices.
+   * @param direction The direction, x, y and z at {@code directionOffset}.
+   */
+  public static void transformNormals(
+      float[] out,
+      int outOffset,
+      float[] matrices,
+      int offset,
+      int count,
+      float[] direction,
+      int directionOffset) {
+    float x = direction[directionOffset];
+    float y = direction[directionOffset + 1];
+    float z = direction[directionOffset + 2];
+    int end = offset + count * FLOATS_PER_MATRIX;
+    int o = outOffset;
+    for (int m = offset; m < end; m += FLOATS_PER_MATRIX, o += 3) {
+      float nx = matrices[m] * x + matrices[m + 4] * y + matrices[m + 8] * z;
+      float ny = matrices[m + 1] * x + matrices[m + 5] * y + matrices[m + 9] * z;
+      float nz = matrices[m + 2] * x + matrices[m + 6] * y + matrices[m + 10] * z;
+      float reciprocalLength = 1.0f / (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+      out[o] = nx * reciprocalLength;
+      out[o + 1] = ny * reciprocalLength;
+      out[o + 2] = nz * reciprocalLength;
+    }
+  }
+
+  /**
+   * Stores the inverse of a rigid transform, a rotation followed by a translation such as a pose,
+   * in {@code out}. Cheaper than {@link android.opengl.Matrix#invertM}, which inverts any matrix.
+   * {@code out} must not overlap {@code matrix}.
+   */
+  public static void invertRigid(float[] out, int outOffset, float[] matrix, int offset) {
+    // The inverse rotation is the transpose, the inverse translation minus the translation
+    // rotated by it.
+    float tx = matrix[offset + 12];
+    float ty = matrix[offset + 13];
+    float tz = matrix[offset + 14];
+    for (int column = 0; column < 3; ++column) {
+      int o = outOffset + 4 * column;
+      int m = offset + column;
+      out[o] = matrix[m];
+      out[o + 1] = matrix[m + 4];
+      out[o + 2] = matrix[m + 8];
+      out[o + 3] = 0.0f;
+    }
+    int o = outOffset;
+    int m = offset;
+    out[o + 12] = -(matrix[m] * tx + matrix[m + 1] * ty + matrix[m + 2] * tz);
+    out[o + 13] = -(matrix[m + 4] * tx + matrix[m + 5] * ty + matrix[m + 6] * tz);
+    out[o + 14] = -(matrix[m + 8] * tx + matrix[m + 9] * ty + matrix[m + 10] * tz);
+    out[o + 15] = 1.0f;
+  }
+
+  /**
+   * Extracts the six planes of the view frustum of a view projection matrix: left, right, bottom,
+   * top, near and far. Each plane is stored as a, b, c, d, normalized, with the inside where {@code
+   * a * x + b * y + c * z + d >= 0} in the space the matrix transforms from.
+   *
+   * @param planes Receives 24 floats, starting at {@code planesOffset}.
+   * @param viewProjection A 4x4 view projection matrix, at {@code offset}.
+   */
+  public static void extractFrustumPlanes(
+      float[] planes, int planesOffset, float[] viewProjection, int offset) {
+    // A point is inside the clip volume if -w <= x, y, z <= w, where w is the fourth row of the
+    // view projection matrix applied to it. Each inequality is a plane.
+    float[] m = viewProjection;
+    for (int i = 0; i < 6; ++i) {
+      int row = offset + i / 2;
+      float sign = (i % 2 == 0) ? 1.0f : -1.0f;
+      float a = m[offset + 3] + sign * m[row];
+      float b = m[offset + 7] + sign * m[row + 4];
+      float c = m[offset + 11] + sign * m[row + 8];
+      float d = m[offset + 15] + sign * m[row + 12];
+      float length = (float) Math.sqrt(a * a + b * b + c * c);
+      int base = planesOffset + 4 * i;
+      planes[base] = a / length;
+      planes[base + 1] = b / length;
+      planes[base + 2] = c / length;
+      planes[base + 3] = d / length;
+    }
+  }
+}
@@ -0,0 +1,269 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Renderable triangle mesh in the layout it is uploaded to OpenGL: one interleaved vertex block and
+ * one block of 16-bit triangle indices, both in direct buffers.
+ *
+ * @see MeshFile
+ */
+public final class MeshData {
+  /**
+   * Vertex format: position (x, y, z), texture coordinate (u, v) and normal (x, y, z), all 32-bit
+   * floats, interleaved in that order.
+   */
+  public static final int FORMAT_FLOAT = 0;
+
+  /**
+   * Quantized vertex format, half the size of {@link #FORMAT_FLOAT}: position (x, y, z, padding) as
+   * normalized signed shorts, texture coordinate (u, v) as normalized unsigned shorts and the
+   * octahedral encoding of the normal (x, y) as normalized signed shorts. Positions and texture
+   * coordinates are decoded as {@code stored * scale + bias}, see {@link #getPositionScale()}.
+   *
+   * @see MeshQuantizer
+   */
+  public static final int FORMAT_QUANTIZED = 1;
+
+  /** Largest vertex count addressable with unsigned 16-bit indices. */
+  public static final int MAX_VERTICES = 65536;
+
+  private static final int FLOAT_STRIDE = 32;
+  private static final int FLOAT_POSITION_OFFSET = 0;
+  private static final int FLOAT_TEXCOORD_OFFSET = 12;
+  private static final int FLOAT_NORMAL_OFFSET = 20;
+
+  private static final int QUANTIZED_STRIDE = 16;
+  private static final int QUANTIZED_POSITION_OFFSET = 0;
+  private static final int QUANTIZED_TEXCOORD_OFFSET = 8;
+  private static final int QUANTIZED_NORMAL_OFFSET = 12;
+
+  private static final float[] NO_SCALE = {1.0f, 1.0f, 1.0f};
+  private static final float[] NO_BIAS = {0.0f, 0.0f, 0.0f};
+
+  private final int format;
+  private final int vertexCount;
+  private final int indexCount;
+  private final ByteBuffer vertices;
+  private final ByteBuffer indices;
+  private final float[] positionScale;
+  private final float[] positionBias;
+  private final float[] texCoordScale;
+  private final float[] texCoordBias;
+
+  /**
+   * Wraps already laid out vertex and index data. The buffers are used as is, from position zero
+   * to their limit, and must be direct and in native byte order to be uploaded without a copy.
+   */
+  public MeshData(
+      int format, int vertexCount, ByteBuffer vertices, int indexCount, ByteBuffer indices) {
+    this(format, vertexCount, vertices, indexCount, indices, NO_SCALE, NO_BIAS, NO_SCALE, NO_BIAS);
+  }
+
+  /**
+   * Wraps already laid out vertex and index data, with the transforms that decode quantized
+   * positions and texture coordinates.
+   *
+   * @param positionScale Per axis scale applied to stored positions, 3 floats.
+   * @param positionBias Per axis offset added to scaled positions, 3 floats.
+   * @param texCoordScale Scale applied to stored texture coordinates, 2 floats.
+   * @param texCoordBias Offset added to scaled texture coordinates, 2 floats.
+   */
+  public MeshData(
+      int format,
+      int vertexCount,
+      ByteBuffer vertices,
+      int indexCount,
+      ByteBuffer indices,
+      float[] positionScale,
+      float[] positionBias,
+      float[] texCoordScale,
+      float[] texCoordBias) {
+    if (!isSupportedFormat(format)) {
+      throw new IllegalArgumentException("Unknown vertex format " + format);
+    }
+    if (vertexCount > MAX_VERTICES) {
+      throw new IllegalArgumentException(
+          "Mesh has " + vertexCount + " vertices, at most " + MAX_VERTICES + " are supported");
+    }
+    if (vertices.limit() != vertexCount * getVertexStride(format)
+        || indices.limit() != indexCount * 2) {
+      throw new IllegalArgumentException("Buffer sizes do not match the vertex and index counts");
+    }
+    this.format = format;
+    this.vertexCount = vertexCount;
+    this.indexCount = indexCount;
+    this.vertices = vertices;
+    this.indices = indices;
+    this.positionScale = Arrays.copyOf(positionScale, 3);
+    this.positionBias = Arrays.copyOf(positionBias, 3);
+    this.texCoordScale = Arrays.copyOf(texCoordScale, 2);
+    this.texCoordBias = Arrays.copyOf(texCoordBias, 2);
+  }
+
+  /** Allocates an empty mesh of the given size, in native byte order, ready to be filled. */
+  public static MeshData allocate(int format, int vertexCount, int indexCount) {
+    return allocate(format, vertexCount, indexCount, NO_SCALE, NO_BIAS, NO_SCALE, NO_BIAS);
+  }
+
+  /**
+   * Allocates an empty mesh of the given size and decode transforms, in native byte order, ready
+   * to be filled.
+   */
+  public static MeshData allocate(
+      int format,
+      int vertexCount,
+      int indexCount,
+      float[] positionScale,
+      float[] positionBias,
+      float[] texCoordScale,
+      float[] texCoordBias) {
+    return new MeshData(
+        format,
+        vertexCount,
+        ByteBuffer.allocateDirect(vertexCount * getVertexStride(format))
+            .order(ByteOrder.nativeOrder()),
+        indexCount,
+        ByteBuffer.allocateDirect(indexCount * 2).order(ByteOrder.nativeOrder()),
+        positionScale,
+        positionBias,
+        texCoordScale,
+        texCoordBias);
+  }
+
+  /** Returns true if {@code format} is one of the FORMAT_* constants. */
+  public static boolean isSupportedFormat(int format) {
+    return format == FORMAT_FLOAT || format == FORMAT_QUANTIZED;
+  }
+
+  /** Returns the size in bytes of one vertex of the given format. */
+  public static int getVertexStride(int format) {
+    return format == FORMAT_QUANTIZED ? QUANTIZED_STRIDE : FLOAT_STRIDE;
+  }
+
+  public int getFormat() {
+    return format;
+  }
+
+  public int getVertexCount() {
+    return vertexCount;
+  }
+
+  public int getIndexCount() {
+    return indexCount;
+  }
+
+  public int getVertexStride() {
+    return getVertexStride(format);
+  }
+
+  public boolean isQuantized() {
+    return format == FORMAT_QUANTIZED;
+  }
+
+  /** Byte offset of the position attribute within a vertex. */
+  public int getPositionOffset() {
+    return isQuantized() ? QUANTIZED_POSITION_OFFSET : FLOAT_POSITION_OFFSET;
+  }
+
+  /** Byte offset of the texture coordinate attribute within a vertex. */
+  public int getTexCoordOffset() {
+    return isQuantized() ? QUANTIZED_TEXCOORD_OFFSET : FLOAT_TEXCOORD_OFFSET;
+  }
+
+  /** Byte offset of the normal attribute within a vertex. */
+  public int getNormalOffset() {
+    return isQuantized() ? QUANTIZED_NORMAL_OFFSET : FLOAT_NORMAL_OFFSET;
+  }
+
+  /** Per axis scale of the stored positions, all ones unless the mesh is quantized. */
+  public float[] getPositionScale() {
+    return positionScale.clone();
+  }
+
+  /** Per axis offset of the scaled positions, all zeros unless the mesh is quantized. */
+  public float[] getPositionBias() {
+    return positionBias.clone();
+  }
+
+  /** Scale of the stored texture coordinates, all ones unless the mesh is quantized. */
+  public float[] getTexCoordScale() {
+    return texCoordScale.clone();
+  }
+
+  /** Offset of the scaled texture coordinates, all zeros unless the mesh is quantized. */
+  public float[] getTexCoordBias() {
+    return texCoordBias.clone();
+  }
+
+  /**
+   * Returns a sphere enclosing all vertex positions, as center x, y, z and radius in model space.
+   * Reads every vertex, so it is meant to be called once when the mesh is loaded.
+   */
+  public float[] computeBoundingSphere() {
+    float[] position = new float[3];
+    float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+    float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+    for (int v = 0; v < vertexCount; ++v) {
+      readPosition(v, position);
+      for (int k = 0; k < 3; ++k) {
+        min[k] = Math.min(min[k], position[k]);
+        max[k] = Math.max(max[k], position[k]);
+      }
+    }
+    if (vertexCount == 0) {
+      return new float[4];
+    }
+
+    // The center of the bounding box is close enough to the optimal center for culling and level
+    // of detail selection.
+    float[] sphere = new float[4];
+    for (int k = 0; k < 3; ++k) {
+      sphere[k] = 0.5f * (min[k] + max[k]);
+    }
+    float radiusSquared = 0.0f;
+    for (int v = 0; v < vertexCount; ++v) {
+      readPosition(v, position);
+      float dx = position[0] - sphere[0];
+      float dy = position[1] - sphere[1];
+      float dz = position[2] - sphere[2];
+      radiusSquared = Math.max(radiusSquared, dx * dx + dy * dy + dz * dz);
+    }
+    sphere[3] = (float) Math.sqrt(radiusSquared);
+    return sphere;
+  }
+
+  /** Reads the decoded position of vertex {@code v}. */
+  private void readPosition(int v, float[] position) {
+    int base = v * getVertexStride() + getPositionOffset();
+    for (int k = 0; k < 3; ++k) {
+      position[k] =
+          isQuantized()
+              ? Math.max(vertices.getShort(base + 2 * k) / 32767.0f, -1.0f) * positionScale[k]
+                  + positionBias[k]
+              : vertices.getFloat(base + 4 * k);
+    }
+  }
+
+  /** Returns a new view of the interleaved vertex data, positioned at the first vertex. */
+  public ByteBuffer getVertices() {
+    ByteBuffer view = vertices.duplicate().order(vertices.order());
+    view.rewind();
+    return view;
+  }
+
+  /** Returns a new view of the raw index data, positioned at the first index. */
+  public ByteBuffer getIndexBytes() {
+    ByteBuffer view = indices.duplicate().order(indices.order());
+    view.rewind();
+    return view;
+  }
+
+  /** Returns a new view of the triangle indices. Indices are unsigned, mask them with 0xffff. */
+  public ShortBuffer getIndices() {
+    return getIndexBytes().asShortBuffer();
+  }
+}
@@ -0,0 +1,174 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Reads and writes the pre-baked binary mesh format. A mesh file is a 72 byte header followed by
+ * the interleaved vertex block and the 16-bit index block of a {@link MeshData}, so a memory mapped
+ * file can be handed to {@code glBufferData} without parsing or copying.
+ *
+ * <p>Header layout, little endian, by byte offset:
+ *
+ * <pre>
+ *    0  int      magic          "AMSH"
+ *    4  int      version        {@link #VERSION}
+ *    8  int      vertexFormat   one of the MeshData.FORMAT_* constants
+ *   12  int      vertexCount
+ *   16  int      indexCount
+ *   20  int      reserved       zero
+ *   24  long     sourceStamp    identifies the source the mesh was converted from, zero if unknown
+ *   32  float[3] positionScale  decode transforms of quantized meshes, identity otherwise
+ *   44  float[3] positionBias
+ *   56  float[2] texCoordScale
+ *   64  float[2] texCoordBias
+ *   72  end of the header, {@link #HEADER_SIZE}
+ * </pre>
+ */
+public final class MeshFile {
+  /** Conventional file extension of mesh files. */
+  public static final String EXTENSION = ".mesh";
+
+  public static final int HEADER_SIZE = 72;
+  public static final int VERSION = 2;
+
+  /** Largest index count accepted when reading, whole triangles whose index block fits an int. */
+  static final int MAX_INDICES = Integer.MAX_VALUE / 2 / 3 * 3;
+
+  // "AMSH" read as a little endian int.
+  private static final int MAGIC = 0x48534d41;
+
+  private MeshFile() {}
+
+  /**
+   * Wraps the contents of a mesh file. The returned mesh shares memory with {@code file}, which is
+   * typically a memory mapped file.
+   *
+   * @param file The complete file contents, from position zero.
+   * @throws IOException If the buffer does not hold a mesh file of a supported version, or the
+   *     file is truncated or corrupt.
+   */
+  public static MeshData read(ByteBuffer file) throws IOException {
+    ByteBuffer header = readHeader(file);
+    int format = header.getInt(8);
+    int vertexCount = header.getInt(12);
+    int indexCount = header.getInt(16);
+    if (!MeshData.isSupportedFormat(format)) {
+      throw new IOException("Unsupported vertex format " + format);
+    }
+    if (vertexCount < 0
+        || vertexCount > MeshData.MAX_VERTICES
+        || indexCount < 0
+        || indexCount > MAX_INDICES
+        || indexCount % 3 != 0) {
+      throw new IOException("Corrupt mesh header");
+    }
+
+    // The counts come from the file, the sizes are computed in long so they cannot overflow.
+    long vertexBytes = (long) vertexCount * MeshData.getVertexStride(format);
+    long indexBytes = (long) indexCount * 2;
+    if (file.limit() < HEADER_SIZE + vertexBytes + indexBytes) {
+      throw new IOException("Truncated mesh file");
+    }
+    try {
+      return new MeshData(
+          format,
+          vertexCount,
+          slice(file, HEADER_SIZE, (int) vertexBytes),
+          indexCount,
+          slice(file, HEADER_SIZE + (int) vertexBytes, (int) indexBytes),
+          readFloats(header, 32, 3),
+          readFloats(header, 44, 3),
+          readFloats(header, 56, 2),
+          readFloats(header, 64, 2));
+    } catch (RuntimeException e) {
+      // Callers fall back to the source of the mesh on IOException, whatever is wrong with it.
+      throw new IOException("Corrupt mesh file", e);
+    }
+  }
+
+  /** Returns the source stamp recorded in the header of a mesh file. */
+  public static long readSourceStamp(ByteBuffer file) throws IOException {
+    return readHeader(file).getLong(24);
+  }
+
+  /**
+   * Writes {@code mesh} as a mesh file.
+   *
+   * @param sourceStamp Value identifying the source the mesh was converted from, see {@link
+   *     #readSourceStamp(ByteBuffer)}.
+   */
+  public static void write(MeshData mesh, long sourceStamp, WritableByteChannel out)
+      throws IOException {
+    ByteBuffer vertices = mesh.getVertices();
+    ByteBuffer indices = mesh.getIndexBytes();
+    // Meshes are laid out in native order, the blocks are written out unchanged.
+    if (vertices.order() != ByteOrder.LITTLE_ENDIAN
+        || indices.order() != ByteOrder.LITTLE_ENDIAN) {
+      throw new IOException("Mesh files can only be written from little endian buffers");
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC);
+    header.putInt(VERSION);
+    header.putInt(mesh.getFormat());
+    header.putInt(mesh.getVertexCount());
+    header.putInt(mesh.getIndexCount());
+    header.putInt(0);
+    header.putLong(sourceStamp);
+    putFloats(header, mesh.getPositionScale());
+    putFloats(header, mesh.getPositionBias());
+    putFloats(header, mesh.getTexCoordScale());
+    putFloats(header, mesh.getTexCoordBias());
+    header.flip();
+
+    writeFully(header, out);
+    writeFully(vertices, out);
+    writeFully(indices, out);
+  }
+
+  private static ByteBuffer readHeader(ByteBuffer file) throws IOException {
+    if (file.limit() < HEADER_SIZE) {
+      throw new IOException("Truncated mesh file");
+    }
+    ByteBuffer header = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    if (header.getInt(0) != MAGIC) {
+      throw new IOException("Not a mesh file");
+    }
+    if (header.getInt(4) != VERSION) {
+      throw new IOException("Unsupported mesh file version " + header.getInt(4));
+    }
+    return header;
+  }
+
+  // The format stores little endian data. Mapped buffers default to big endian, but the vertex and
+  // index blocks are consumed by OpenGL in native order, which is little endian on Android devices.
+  private static ByteBuffer slice(ByteBuffer file, int offset, int length) {
+    ByteBuffer view = file.duplicate();
+    view.position(offset);
+    view.limit(offset + length);
+    return view.slice().order(ByteOrder.nativeOrder());
+  }
+
+  private static float[] readFloats(ByteBuffer header, int offset, int count) {
+    float[] values = new float[count];
+    for (int i = 0; i < count; ++i) {
+      values[i] = header.getFloat(offset + 4 * i);
+    }
+    return values;
+  }
+
+  private static void putFloats(ByteBuffer header, float[] values) {
+    for (float value : values) {
+      header.putFloat(value);
+    }
+  }
+
+  private static void writeFully(ByteBuffer buffer, WritableByteChannel out) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+}
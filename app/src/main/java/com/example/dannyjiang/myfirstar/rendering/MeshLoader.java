@@ -0,0 +1,249 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Loads meshes for OBJ assets, preferring pre-baked {@link MeshFile}s so that no OBJ parsing is
+ * needed on the OpenGL thread. For an asset "models/andy.obj" the lookup order is:
+ *
+ * <ol>
+ *   <li>the asset "models/andy.mesh", produced by {@link ObjMeshConverter#main(String[])}, which
+ *       the bakeMeshes task of the app's build.gradle runs for the models the app uses. The
+ *       names of {@link MeshData#FORMAT_QUANTIZED} meshes end in ".quantized.mesh" and the names
+ *       of simplified levels of detail in ".lod1.mesh", ".lod2.mesh" and so on, in that order;
+ *   <li>a mesh file converted on a previous run, in the app's cache directory;
+ *   <li>the OBJ asset itself, which is then converted and written to the cache directory.
+ * </ol>
+ *
+ * Mesh files are memory mapped where possible, so the returned vertex and index data can be passed
+ * straight to {@code glBufferData}.
+ */
+public final class MeshLoader {
+  private static final String TAG = MeshLoader.class.getSimpleName();
+
+  private static final String OBJ_EXTENSION = ".obj";
+  private static final String QUANTIZED_SUFFIX = ".quantized";
+  private static final String LEVEL_SUFFIX = ".lod";
+  private static final String CACHE_DIRECTORY = "meshes";
+  private static final String TEMPORARY_EXTENSION = ".tmp";
+
+  // Cache writes start after this class is loaded, older temporary files are left over.
+  private static final long CLASS_LOAD_TIME_MILLIS = System.currentTimeMillis();
+  private static boolean staleTemporaryFilesDeleted;
+
+  private MeshLoader() {}
+
+  /**
+   * Loads the full resolution mesh of an OBJ asset.
+   *
+   * @param context Context for loading assets and for accessing the cache directory.
+   * @param objAssetName Name of the OBJ file containing the model geometry.
+   * @param format The vertex format of the returned mesh, one of the MeshData.FORMAT_* constants.
+   */
+  public static MeshData load(Context context, String objAssetName, int format)
+      throws IOException {
+    return loadLevels(context, objAssetName, format, 1)[0];
+  }
+
+  /**
+   * Loads the meshes of the first {@code levelCount} levels of detail of an OBJ asset. Levels that
+   * are neither baked nor cached are all converted from a single parse of the OBJ.
+   *
+   * @param context Context for loading assets and for accessing the cache directory.
+   * @param objAssetName Name of the OBJ file containing the model geometry.
+   * @param format The vertex format of the returned meshes, one of the MeshData.FORMAT_* constants.
+   * @param levelCount The number of levels of detail, see {@link LevelOfDetail}.
+   * @return The mesh of each level, the full mesh first.
+   */
+  public static MeshData[] loadLevels(
+      Context context, String objAssetName, int format, int levelCount) throws IOException {
+    String modelName =
+        objAssetName.endsWith(OBJ_EXTENSION)
+            ? objAssetName.substring(0, objAssetName.length() - OBJ_EXTENSION.length())
+            : objAssetName;
+    // Meshes converted by an older installation of the app are stale, the OBJ may have changed.
+    long sourceStamp = getInstallStamp(context);
+    File cacheDirectory = new File(context.getCacheDir(), CACHE_DIRECTORY);
+    deleteStaleTemporaryFiles(cacheDirectory);
+
+    MeshData[] meshes = new MeshData[levelCount];
+    MeshData parsed = null;
+    for (int level = 0; level < levelCount; ++level) {
+      String baseName = getMeshBaseName(modelName, format, level);
+      File cacheFile = new File(cacheDirectory, baseName.replace('/', '_') + MeshFile.EXTENSION);
+      meshes[level] = loadBakedOrCached(context, baseName, format, sourceStamp, cacheFile);
+      if (meshes[level] != null) {
+        continue;
+      }
+      if (parsed == null) {
+        try (InputStream objInputStream = context.getAssets().open(objAssetName)) {
+          parsed = ObjMeshConverter.convert(objInputStream);
+        }
+      }
+      meshes[level] = ObjMeshConverter.convert(parsed, format, level);
+      try {
+        writeCacheFile(meshes[level], sourceStamp, cacheFile);
+      } catch (IOException e) {
+        // The cache only speeds up the next start, the mesh itself is fine.
+        Log.w(TAG, "Failed to write mesh cache " + cacheFile, e);
+      }
+    }
+    return meshes;
+  }
+
+  /** Returns the baked or the up to date cached mesh file, or null if there is neither. */
+  private static MeshData loadBakedOrCached(
+      Context context, String baseName, int format, long sourceStamp, File cacheFile)
+      throws IOException {
+    ByteBuffer bakedAsset = openAsset(context, baseName + MeshFile.EXTENSION);
+    if (bakedAsset != null) {
+      MeshData mesh = MeshFile.read(bakedAsset);
+      if (mesh.getFormat() != format) {
+        throw new IOException("Mesh asset " + baseName + " has unexpected format");
+      }
+      return mesh;
+    }
+
+    if (cacheFile.isFile()) {
+      try {
+        ByteBuffer cached = map(cacheFile);
+        if (MeshFile.readSourceStamp(cached) == sourceStamp) {
+          MeshData mesh = MeshFile.read(cached);
+          if (mesh.getFormat() == format) {
+            return mesh;
+          }
+        }
+      } catch (IOException e) {
+        Log.w(TAG, "Ignoring unreadable mesh cache " + cacheFile, e);
+      }
+    }
+    return null;
+  }
+
+  /** Returns the name of the mesh file for a model, without the extension. */
+  private static String getMeshBaseName(String modelName, int format, int level) {
+    String baseName = level > 0 ? modelName + LEVEL_SUFFIX + level : modelName;
+    return format == MeshData.FORMAT_QUANTIZED ? baseName + QUANTIZED_SUFFIX : baseName;
+  }
+
+  /**
+   * Maps an asset into memory, or reads it into a direct buffer if it is compressed. Also used for
+   * the KTX textures of {@link TextureData}. Returns null if the asset is missing.
+   */
+  static ByteBuffer openAsset(Context context, String assetName) throws IOException {
+    // Only assets stored uncompressed in the APK can be opened as a file descriptor, see the
+    // aaptOptions in build.gradle.
+    try (AssetFileDescriptor descriptor = context.getAssets().openFd(assetName);
+        FileInputStream stream = descriptor.createInputStream();
+        FileChannel channel = stream.getChannel()) {
+      return channel
+          .map(FileChannel.MapMode.READ_ONLY, descriptor.getStartOffset(), descriptor.getLength())
+          .order(ByteOrder.LITTLE_ENDIAN);
+    } catch (FileNotFoundException e) {
+      // Either missing or compressed, distinguished below.
+    }
+
+    InputStream stream;
+    try {
+      stream = context.getAssets().open(assetName);
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+    try (ReadableByteChannel channel = Channels.newChannel(stream)) {
+      ByteBuffer buffer =
+          ByteBuffer.allocateDirect(Math.max(stream.available(), MeshFile.HEADER_SIZE))
+              .order(ByteOrder.LITTLE_ENDIAN);
+      while (channel.read(buffer) >= 0) {
+        if (!buffer.hasRemaining()) {
+          ByteBuffer larger =
+              ByteBuffer.allocateDirect(buffer.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+          buffer.flip();
+          larger.put(buffer);
+          buffer = larger;
+        }
+      }
+      buffer.flip();
+      return buffer;
+    }
+  }
+
+  private static ByteBuffer map(File file) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        FileChannel channel = randomAccessFile.getChannel()) {
+      // The mapping stays valid after the channel is closed.
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  /**
+   * Deletes the temporary files of cache writes that a previous process did not finish, once per
+   * process. Files of writes in progress in this process are newer than this class.
+   */
+  private static void deleteStaleTemporaryFiles(File directory) {
+    synchronized (MeshLoader.class) {
+      if (staleTemporaryFilesDeleted) {
+        return;
+      }
+      staleTemporaryFilesDeleted = true;
+    }
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      if (file.getName().endsWith(TEMPORARY_EXTENSION)
+          && file.lastModified() < CLASS_LOAD_TIME_MILLIS
+          && !file.delete()) {
+        Log.w(TAG, "Failed to delete stale mesh cache file " + file);
+      }
+    }
+  }
+
+  private static void writeCacheFile(MeshData mesh, long sourceStamp, File cacheFile)
+      throws IOException {
+    File directory = cacheFile.getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    // Write to a temporary file first so an interrupted write never leaves a truncated mesh. The
+    // name is unique, so concurrent loads of the same mesh never write into the same file.
+    File temporaryFile = File.createTempFile(cacheFile.getName(), TEMPORARY_EXTENSION, directory);
+    try (FileOutputStream out = new FileOutputStream(temporaryFile)) {
+      MeshFile.write(mesh, sourceStamp, out.getChannel());
+    } catch (IOException | RuntimeException e) {
+      temporaryFile.delete();
+      throw e;
+    }
+    if (!temporaryFile.renameTo(cacheFile)) {
+      temporaryFile.delete();
+      throw new IOException("Cannot rename " + temporaryFile + " to " + cacheFile);
+    }
+  }
+
+  private static long getInstallStamp(Context context) {
+    try {
+      return context
+          .getPackageManager()
+          .getPackageInfo(context.getPackageName(), 0)
+          .lastUpdateTime;
+    } catch (PackageManager.NameNotFoundException e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,495 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * Reorders the triangles and vertices of a mesh for faster rendering. Runs once when a mesh is
+ * converted, see {@link ObjMeshConverter}, and does not depend on Android.
+ *
+ * <ol>
+ *   <li>{@link #optimizeVertexCache} orders triangles so that the vertices they share are still in
+ *       the post-transform vertex cache, using Tom Forsyth's linear-speed greedy algorithm.
+ *   <li>{@link #optimizeOverdraw} splits that order into clusters that start with a cold cache and
+ *       draws clusters facing away from the mesh center first, so they tend to occlude the rest.
+ *   <li>{@link #optimizeVertexFetch} renumbers vertices in the order they are first used, so vertex
+ *       fetches walk through memory linearly.
+ * </ol>
+ *
+ * {@link #analyzeVertexCache} measures the result by simulating a FIFO vertex cache.
+ */
+public final class MeshOptimizer {
+  /** FIFO cache size used for reports, a common size for mobile GPUs. */
+  public static final int DEFAULT_CACHE_SIZE = 16;
+
+  /** Overdraw threshold that keeps the cache efficiency within 5% of the cache-only order. */
+  public static final float DEFAULT_OVERDRAW_THRESHOLD = 1.05f;
+
+  // Constants of Forsyth's scoring function. The modeled LRU cache is larger than the real FIFO
+  // cache on purpose, the score only has to rank vertices by how recently they were used.
+  private static final int FORSYTH_CACHE_SIZE = 32;
+  private static final float CACHE_DECAY_POWER = 1.5f;
+  private static final float LAST_TRIANGLE_SCORE = 0.75f;
+  private static final float VALENCE_BOOST_SCALE = 2.0f;
+  private static final float VALENCE_BOOST_POWER = 0.5f;
+
+  private MeshOptimizer() {}
+
+  /** Result of simulating a FIFO post-transform vertex cache over an index buffer. */
+  public static final class VertexCacheReport {
+    private final int triangleCount;
+    private final int vertexCount;
+    private final int transformCount;
+
+    VertexCacheReport(int triangleCount, int vertexCount, int transformCount) {
+      this.triangleCount = triangleCount;
+      this.vertexCount = vertexCount;
+      this.transformCount = transformCount;
+    }
+
+    /** Number of vertex shader invocations, i.e. cache misses. */
+    public int getTransformCount() {
+      return transformCount;
+    }
+
+    /** Average cache miss ratio: transformed vertices per triangle, between 0.5 and 3. */
+    public float getAcmr() {
+      return triangleCount == 0 ? 0.0f : (float) transformCount / triangleCount;
+    }
+
+    /** Average transform to vertex ratio: transformed per referenced vertex, 1 is optimal. */
+    public float getAtvr() {
+      return vertexCount == 0 ? 0.0f : (float) transformCount / vertexCount;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "%d triangles, %d vertices: ACMR %.3f, ATVR %.3f",
+          triangleCount,
+          vertexCount,
+          getAcmr(),
+          getAtvr());
+    }
+  }
+
+  /**
+   * Applies all optimizations to a {@link MeshData#FORMAT_FLOAT} mesh and returns the optimized
+   * copy.
+   *
+   * @param overdrawThreshold Allowed increase of the ACMR for overdraw sorting, see {@link
+   *     #optimizeOverdraw}. Values below 1 skip overdraw sorting.
+   */
+  public static MeshData optimize(MeshData mesh, float overdrawThreshold) {
+    if (mesh.getFormat() != MeshData.FORMAT_FLOAT) {
+      throw new IllegalArgumentException("Only float meshes can be optimized");
+    }
+    int[] indices = readIndices(mesh);
+    int[] optimized = optimizeVertexCache(indices, mesh.getVertexCount());
+    if (overdrawThreshold >= 1.0f) {
+      optimized = optimizeOverdraw(optimized, readPositions(mesh), overdrawThreshold);
+    }
+    return optimizeVertexFetch(mesh, optimized);
+  }
+
+  /** Simulates a FIFO vertex cache of {@code cacheSize} entries over the indices of a mesh. */
+  public static VertexCacheReport analyzeVertexCache(MeshData mesh, int cacheSize) {
+    return analyzeVertexCache(readIndices(mesh), mesh.getVertexCount(), cacheSize);
+  }
+
+  /** Simulates a FIFO vertex cache of {@code cacheSize} entries over a triangle list. */
+  public static VertexCacheReport analyzeVertexCache(
+      int[] indices, int vertexCount, int cacheSize) {
+    // A vertex is cached while fewer than cacheSize misses happened since it was transformed.
+    int[] transformedAt = new int[vertexCount];
+    Arrays.fill(transformedAt, -cacheSize - 1);
+    boolean[] referenced = new boolean[vertexCount];
+    int referencedCount = 0;
+    int misses = 0;
+    for (int index : indices) {
+      if (misses - transformedAt[index] > cacheSize) {
+        transformedAt[index] = misses;
+        ++misses;
+      }
+      if (!referenced[index]) {
+        referenced[index] = true;
+        ++referencedCount;
+      }
+    }
+    return new VertexCacheReport(indices.length / 3, referencedCount, misses);
+  }
+
+  /**
+   * Returns the triangles of {@code indices} reordered for post-transform vertex cache reuse.
+   * Each step emits the triangle whose vertices score highest, favoring vertices that were used
+   * recently and vertices with few remaining triangles, which avoids leaving isolated triangles.
+   */
+  public static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+    int triangleCount = indices.length / 3;
+
+    // Triangle adjacency of every vertex, in compressed rows. The first liveValence[v] entries of
+    // a row are the triangles of v that were not emitted yet.
+    int[] liveValence = new int[vertexCount];
+    for (int index : indices) {
+      ++liveValence[index];
+    }
+    int[] adjacencyOffsets = new int[vertexCount + 1];
+    for (int v = 0; v < vertexCount; ++v) {
+      adjacencyOffsets[v + 1] = adjacencyOffsets[v] + liveValence[v];
+    }
+    int[] adjacency = new int[indices.length];
+    int[] fill = Arrays.copyOf(adjacencyOffsets, vertexCount);
+    for (int i = 0; i < indices.length; ++i) {
+      adjacency[fill[indices[i]]++] = i / 3;
+    }
+
+    int[] cachePosition = new int[vertexCount];
+    Arrays.fill(cachePosition, -1);
+    float[] vertexScore = new float[vertexCount];
+    for (int v = 0; v < vertexCount; ++v) {
+      vertexScore[v] = scoreVertex(-1, liveValence[v]);
+    }
+    float[] triangleScore = new float[triangleCount];
+    boolean[] emitted = new boolean[triangleCount];
+    int bestTriangle = -1;
+    for (int t = 0; t < triangleCount; ++t) {
+      triangleScore[t] =
+          vertexScore[indices[3 * t]] + vertexScore[indices[3 * t + 1]]
+              + vertexScore[indices[3 * t + 2]];
+      if (bestTriangle < 0 || triangleScore[t] > triangleScore[bestTriangle]) {
+        bestTriangle = t;
+      }
+    }
+
+    // The modeled cache holds up to three more entries while the new triangle is inserted.
+    int[] cache = new int[FORSYTH_CACHE_SIZE + 3];
+    int[] newCache = new int[FORSYTH_CACHE_SIZE + 3];
+    int cacheCount = 0;
+    int[] output = new int[triangleCount * 3];
+    int nextUnemitted = 0;
+
+    for (int emittedCount = 0; emittedCount < triangleCount; ++emittedCount) {
+      if (bestTriangle < 0) {
+        // No triangle touches the cache any more, continue with the next one in input order.
+        while (emitted[nextUnemitted]) {
+          ++nextUnemitted;
+        }
+        bestTriangle = nextUnemitted;
+      }
+      emitted[bestTriangle] = true;
+
+      // Emit the triangle and move its vertices to the front of the cache.
+      int newCount = 0;
+      for (int k = 0; k < 3; ++k) {
+        int v = indices[3 * bestTriangle + k];
+        output[3 * emittedCount + k] = v;
+        if (cachePosition[v] != -2) {
+          cachePosition[v] = -2;
+          newCache[newCount++] = v;
+        }
+        removeTriangle(adjacency, adjacencyOffsets[v], liveValence, v, bestTriangle);
+      }
+      for (int i = 0; i < cacheCount; ++i) {
+        if (cachePosition[cache[i]] != -2) {
+          newCache[newCount++] = cache[i];
+        }
+      }
+
+      // Rescore the cached vertices, evicted ones lose their cache bonus.
+      for (int i = 0; i < newCount; ++i) {
+        cachePosition[newCache[i]] = i < FORSYTH_CACHE_SIZE ? i : -1;
+      }
+      for (int i = 0; i < newCount; ++i) {
+        int v = newCache[i];
+        float scoreDelta = scoreVertex(cachePosition[v], liveValence[v]) - vertexScore[v];
+        vertexScore[v] += scoreDelta;
+        for (int a = adjacencyOffsets[v]; a < adjacencyOffsets[v] + liveValence[v]; ++a) {
+          triangleScore[adjacency[a]] += scoreDelta;
+        }
+      }
+      // Only triangles touching the cache changed, the next one is picked among them.
+      bestTriangle = -1;
+      for (int i = 0; i < Math.min(newCount, FORSYTH_CACHE_SIZE); ++i) {
+        int v = newCache[i];
+        for (int a = adjacencyOffsets[v]; a < adjacencyOffsets[v] + liveValence[v]; ++a) {
+          int t = adjacency[a];
+          if (bestTriangle < 0 || triangleScore[t] > triangleScore[bestTriangle]) {
+            bestTriangle = t;
+          }
+        }
+      }
+
+      int[] swap = cache;
+      cache = newCache;
+      newCache = swap;
+      cacheCount = Math.min(newCount, FORSYTH_CACHE_SIZE);
+    }
+    return output;
+  }
+
+  /**
+   * Reorders clusters of a cache optimized triangle list so that triangles facing outwards are
+   * drawn first, which lets early depth testing reject more of the triangles drawn after them.
+   *
+   * <p>The list is first split where a triangle misses the cache with all three vertices, such
+   * splits cost nothing. Those clusters are split further wherever the ACMR of the part before the
+   * split is within {@code threshold} times the ACMR of the whole cluster.
+   *
+   * @param indices Triangle list, typically the output of {@link #optimizeVertexCache}.
+   * @param positions Vertex positions, three floats per vertex.
+   * @param threshold Allowed ACMR increase, 1.05 allows 5% more vertex shader invocations.
+   */
+  public static int[] optimizeOverdraw(int[] indices, float[] positions, float threshold) {
+    int triangleCount = indices.length / 3;
+    int vertexCount = positions.length / 3;
+    if (triangleCount == 0) {
+      return indices.clone();
+    }
+
+    // Hard boundaries: triangles that miss the cache with all three vertices.
+    int[] transformedAt = new int[vertexCount];
+    Arrays.fill(transformedAt, -DEFAULT_CACHE_SIZE - 1);
+    int misses = 0;
+    int[] hardBoundaries = new int[triangleCount + 1];
+    int hardCount = 0;
+    for (int t = 0; t < triangleCount; ++t) {
+      int triangleMisses = 0;
+      for (int k = 0; k < 3; ++k) {
+        int v = indices[3 * t + k];
+        if (misses - transformedAt[v] > DEFAULT_CACHE_SIZE) {
+          transformedAt[v] = misses;
+          ++misses;
+          ++triangleMisses;
+        }
+      }
+      if (t == 0 || triangleMisses == 3) {
+        hardBoundaries[hardCount++] = t;
+      }
+    }
+    hardBoundaries[hardCount] = triangleCount;
+
+    // Soft boundaries within each hard cluster, each one measured with a cold cache.
+    int[] clusterStarts = new int[triangleCount + 1];
+    int clusterCount = 0;
+    for (int h = 0; h < hardCount; ++h) {
+      int start = hardBoundaries[h];
+      int end = hardBoundaries[h + 1];
+      float clusterThreshold =
+          threshold * countMisses(indices, start, end, transformedAt) / (end - start);
+      Arrays.fill(transformedAt, -DEFAULT_CACHE_SIZE - 1);
+      int clusterStart = start;
+      int clusterMisses = 0;
+      misses = 0;
+      for (int t = start; t < end; ++t) {
+        for (int k = 0; k < 3; ++k) {
+          int v = indices[3 * t + k];
+          if (misses - transformedAt[v] > DEFAULT_CACHE_SIZE) {
+            transformedAt[v] = misses;
+            ++misses;
+            ++clusterMisses;
+          }
+        }
+        if (t == end - 1 || clusterMisses <= clusterThreshold * (t - clusterStart + 1)) {
+          clusterStarts[clusterCount++] = clusterStart;
+          clusterStart = t + 1;
+          clusterMisses = 0;
+          // The next cluster may be drawn after any other, so it starts with a cold cache.
+          misses += DEFAULT_CACHE_SIZE + 1;
+        }
+      }
+    }
+    clusterStarts[clusterCount] = triangleCount;
+
+    // Sort key: how far the area weighted cluster center lies in front of the mesh center, along
+    // the average cluster normal.
+    float[] meshCenter = new float[3];
+    float meshArea = 0.0f;
+    float[] clusterCenters = new float[3 * clusterCount];
+    float[] clusterNormals = new float[3 * clusterCount];
+    for (int c = 0; c < clusterCount; ++c) {
+      float clusterArea = 0.0f;
+      for (int t = clusterStarts[c]; t < clusterStarts[c + 1]; ++t) {
+        int a = 3 * indices[3 * t];
+        int b = 3 * indices[3 * t + 1];
+        int d = 3 * indices[3 * t + 2];
+        float e1x = positions[b] - positions[a];
+        float e1y = positions[b + 1] - positions[a + 1];
+        float e1z = positions[b + 2] - positions[a + 2];
+        float e2x = positions[d] - positions[a];
+        float e2y = positions[d + 1] - positions[a + 1];
+        float e2z = positions[d + 2] - positions[a + 2];
+        float nx = e1y * e2z - e1z * e2y;
+        float ny = e1z * e2x - e1x * e2z;
+        float nz = e1x * e2y - e1y * e2x;
+        float area = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        clusterNormals[3 * c] += nx;
+        clusterNormals[3 * c + 1] += ny;
+        clusterNormals[3 * c + 2] += nz;
+        for (int k = 0; k < 3; ++k) {
+          clusterCenters[3 * c + k] +=
+              area * (positions[a + k] + positions[b + k] + positions[d + k]) / 3.0f;
+        }
+        clusterArea += area;
+      }
+      for (int k = 0; k < 3; ++k) {
+        meshCenter[k] += clusterCenters[3 * c + k];
+        if (clusterArea > 0.0f) {
+          clusterCenters[3 * c + k] /= clusterArea;
+        }
+      }
+      meshArea += clusterArea;
+    }
+    if (meshArea > 0.0f) {
+      for (int k = 0; k < 3; ++k) {
+        meshCenter[k] /= meshArea;
+      }
+    }
+    final float[] sortKeys = new float[clusterCount];
+    Integer[] order = new Integer[clusterCount];
+    for (int c = 0; c < clusterCount; ++c) {
+      float nx = clusterNormals[3 * c];
+      float ny = clusterNormals[3 * c + 1];
+      float nz = clusterNormals[3 * c + 2];
+      float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+      sortKeys[c] =
+          length == 0.0f
+              ? 0.0f
+              : ((clusterCenters[3 * c] - meshCenter[0]) * nx
+                      + (clusterCenters[3 * c + 1] - meshCenter[1]) * ny
+                      + (clusterCenters[3 * c + 2] - meshCenter[2]) * nz)
+                  / length;
+      order[c] = c;
+    }
+    // Stable, so clusters with equal keys keep their cache friendly order.
+    Arrays.sort(
+        order,
+        new Comparator<Integer>() {
+          @Override
+          public int compare(Integer a, Integer b) {
+            return Float.compare(sortKeys[b], sortKeys[a]);
+          }
+        });
+
+    int[] output = new int[indices.length];
+    int position = 0;
+    for (Integer c : order) {
+      int from = 3 * clusterStarts[c];
+      int length = 3 * clusterStarts[c + 1] - from;
+      System.arraycopy(indices, from, output, position, length);
+      position += length;
+    }
+    return output;
+  }
+
+  /**
+   * Returns a copy of {@code mesh} with the triangle list {@code indices} and the vertices
+   * renumbered in the order they are first referenced. Unreferenced vertices are dropped. Works
+   * for every vertex format, vertices are copied byte for byte.
+   */
+  public static MeshData optimizeVertexFetch(MeshData mesh, int[] indices) {
+    int stride = mesh.getVertexStride();
+    int[] remap = new int[mesh.getVertexCount()];
+    Arrays.fill(remap, -1);
+    int newVertexCount = 0;
+    for (int index : indices) {
+      if (remap[index] < 0) {
+        remap[index] = newVertexCount++;
+      }
+    }
+
+    MeshData optimized =
+        MeshData.allocate(
+            mesh.getFormat(),
+            newVertexCount,
+            indices.length,
+            mesh.getPositionScale(),
+            mesh.getPositionBias(),
+            mesh.getTexCoordScale(),
+            mesh.getTexCoordBias());
+    ByteBuffer source = mesh.getVertices();
+    ByteBuffer target = optimized.getVertices();
+    for (int v = 0; v < remap.length; ++v) {
+      if (remap[v] >= 0) {
+        for (int b = 0; b < stride; ++b) {
+          target.put(remap[v] * stride + b, source.get(v * stride + b));
+        }
+      }
+    }
+    ShortBuffer targetIndices = optimized.getIndices();
+    for (int index : indices) {
+      targetIndices.put((short) remap[index]);
+    }
+    return optimized;
+  }
+
+  private static float scoreVertex(int cachePosition, int liveValence) {
+    if (liveValence == 0) {
+      // No triangles left to emit, the vertex does not matter.
+      return -1.0f;
+    }
+    float score = 0.0f;
+    if (cachePosition >= 0) {
+      if (cachePosition < 3) {
+        // Used by the last triangle. Scored a bit lower than the next entries, otherwise strips
+        // of thin triangles are preferred over fans that reuse more of the cache.
+        score = LAST_TRIANGLE_SCORE;
+      } else {
+        float scale = 1.0f / (FORSYTH_CACHE_SIZE - 3);
+        score = (float) Math.pow(1.0f - (cachePosition - 3) * scale, CACHE_DECAY_POWER);
+      }
+    }
+    // Boost vertices with few remaining triangles, so they get finished.
+    score += VALENCE_BOOST_SCALE * (float) Math.pow(liveValence, -VALENCE_BOOST_POWER);
+    return score;
+  }
+
+  private static void removeTriangle(
+      int[] adjacency, int offset, int[] liveValence, int vertex, int triangle) {
+    int last = offset + liveValence[vertex] - 1;
+    for (int a = offset; a <= last; ++a) {
+      if (adjacency[a] == triangle) {
+        adjacency[a] = adjacency[last];
+        adjacency[last] = triangle;
+        --liveValence[vertex];
+        return;
+      }
+    }
+  }
+
+  private static int countMisses(int[] indices, int start, int end, int[] transformedAt) {
+    Arrays.fill(transformedAt, -DEFAULT_CACHE_SIZE - 1);
+    int misses = 0;
+    for (int i = 3 * start; i < 3 * end; ++i) {
+      if (misses - transformedAt[indices[i]] > DEFAULT_CACHE_SIZE) {
+        transformedAt[indices[i]] = misses;
+        ++misses;
+      }
+    }
+    return misses;
+  }
+
+  static int[] readIndices(MeshData mesh) {
+    ShortBuffer source = mesh.getIndices();
+    int[] indices = new int[mesh.getIndexCount()];
+    for (int i = 0; i < indices.length; ++i) {
+      indices[i] = source.get(i) & 0xffff;
+    }
+    return indices;
+  }
+
+  static float[] readPositions(MeshData mesh) {
+    ByteBuffer vertices = mesh.getVertices();
+    float[] positions = new float[3 * mesh.getVertexCount()];
+    for (int v = 0; v < mesh.getVertexCount(); ++v) {
+      int base = v * mesh.getVertexStride() + mesh.getPositionOffset();
+      for (int k = 0; k < 3; ++k) {
+        positions[3 * v + k] = vertices.getFloat(base + 4 * k);
+      }
+    }
+    return positions;
+  }
+}
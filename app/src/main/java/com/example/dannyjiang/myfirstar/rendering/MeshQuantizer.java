@@ -0,0 +1,145 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts {@link MeshData#FORMAT_FLOAT} meshes to the 16 byte {@link MeshData#FORMAT_QUANTIZED}
+ * vertex layout.
+ *
+ * <p>Positions are quantized to 16 bits per axis relative to the bounding box of the mesh, and
+ * texture coordinates relative to their range, so the error is at most 1/65534 of the extent.
+ * Normals use the octahedral encoding, which maps the unit sphere onto a square and keeps the
+ * angular error of two 16-bit components well below what is visible in shading.
+ */
+public final class MeshQuantizer {
+  private static final float SNORM_MAX = 32767.0f;
+  private static final float UNORM_MAX = 65535.0f;
+
+  private MeshQuantizer() {}
+
+  /** Returns a quantized copy of a {@link MeshData#FORMAT_FLOAT} mesh. */
+  public static MeshData quantize(MeshData mesh) {
+    if (mesh.getFormat() != MeshData.FORMAT_FLOAT) {
+      throw new IllegalArgumentException("Only float meshes can be quantized");
+    }
+    int vertexCount = mesh.getVertexCount();
+    ByteBuffer source = mesh.getVertices();
+
+    // Bounds of the positions and texture coordinates.
+    float[] min = {
+      Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+      Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY
+    };
+    float[] max = {
+      Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+      Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY
+    };
+    for (int i = 0; i < vertexCount; ++i) {
+      int base = i * mesh.getVertexStride();
+      for (int c = 0; c < 5; ++c) {
+        float value = source.getFloat(base + 4 * c);
+        min[c] = Math.min(min[c], value);
+        max[c] = Math.max(max[c], value);
+      }
+    }
+
+    // Positions are stored as [-1, 1] around the box center, texture coordinates as [0, 1] from
+    // the low corner. A degenerate axis keeps scale one so every value decodes to the bias.
+    float[] positionScale = new float[3];
+    float[] positionBias = new float[3];
+    for (int c = 0; c < 3; ++c) {
+      float halfExtent = vertexCount == 0 ? 0.0f : 0.5f * (max[c] - min[c]);
+      positionScale[c] = halfExtent > 0.0f ? halfExtent : 1.0f;
+      positionBias[c] = vertexCount == 0 ? 0.0f : min[c] + halfExtent;
+    }
+    float[] texCoordScale = new float[2];
+    float[] texCoordBias = new float[2];
+    for (int c = 0; c < 2; ++c) {
+      float range = vertexCount == 0 ? 0.0f : max[3 + c] - min[3 + c];
+      texCoordScale[c] = range > 0.0f ? range : 1.0f;
+      texCoordBias[c] = vertexCount == 0 ? 0.0f : min[3 + c];
+    }
+
+    MeshData quantized =
+        MeshData.allocate(
+            MeshData.FORMAT_QUANTIZED,
+            vertexCount,
+            mesh.getIndexCount(),
+            positionScale,
+            positionBias,
+            texCoordScale,
+            texCoordBias);
+
+    ByteBuffer target = quantized.getVertices();
+    short[] octahedral = new short[2];
+    for (int i = 0; i < vertexCount; ++i) {
+      int base = i * mesh.getVertexStride();
+      for (int c = 0; c < 3; ++c) {
+        float value = (source.getFloat(base + 4 * c) - positionBias[c]) / positionScale[c];
+        target.putShort(toSnorm(value));
+      }
+      target.putShort((short) 0);
+      for (int c = 0; c < 2; ++c) {
+        float value = (source.getFloat(base + 12 + 4 * c) - texCoordBias[c]) / texCoordScale[c];
+        target.putShort(toUnorm(value));
+      }
+      encodeOctahedral(
+          source.getFloat(base + 20), source.getFloat(base + 24), source.getFloat(base + 28),
+          octahedral);
+      target.putShort(octahedral[0]);
+      target.putShort(octahedral[1]);
+    }
+
+    quantized.getIndexBytes().put(mesh.getIndexBytes());
+    return quantized;
+  }
+
+  /**
+   * Encodes a unit vector as two normalized signed shorts. The vector is projected onto the
+   * octahedron |x| + |y| + |z| = 1, whose lower half is folded over the upper half.
+   */
+  public static void encodeOctahedral(float x, float y, float z, short[] encoded) {
+    float l1Norm = Math.abs(x) + Math.abs(y) + Math.abs(z);
+    if (l1Norm == 0.0f) {
+      encoded[0] = 0;
+      encoded[1] = 0;
+      return;
+    }
+    float u = x / l1Norm;
+    float v = y / l1Norm;
+    if (z < 0.0f) {
+      float foldedU = (1.0f - Math.abs(v)) * signNotZero(u);
+      float foldedV = (1.0f - Math.abs(u)) * signNotZero(v);
+      u = foldedU;
+      v = foldedV;
+    }
+    encoded[0] = toSnorm(u);
+    encoded[1] = toSnorm(v);
+  }
+
+  /** Decodes {@link #encodeOctahedral} output into a unit vector, as the vertex shaders do. */
+  public static void decodeOctahedral(short encodedX, short encodedY, float[] normal) {
+    float x = Math.max(encodedX / SNORM_MAX, -1.0f);
+    float y = Math.max(encodedY / SNORM_MAX, -1.0f);
+    float z = 1.0f - Math.abs(x) - Math.abs(y);
+    float t = Math.max(-z, 0.0f);
+    x += x >= 0.0f ? -t : t;
+    y += y >= 0.0f ? -t : t;
+    float reciprocalLength = 1.0f / (float) Math.sqrt(x * x + y * y + z * z);
+    normal[0] = x * reciprocalLength;
+    normal[1] = y * reciprocalLength;
+    normal[2] = z * reciprocalLength;
+  }
+
+  private static float signNotZero(float value) {
+    return value >= 0.0f ? 1.0f : -1.0f;
+  }
+
+  private static short toSnorm(float value) {
+    return (short) Math.round(Math.max(-1.0f, Math.min(1.0f, value)) * SNORM_MAX);
+  }
+
+  private static short toUnorm(float value) {
+    return (short) Math.round(Math.max(0.0f, Math.min(1.0f, value)) * UNORM_MAX);
+  }
+}
@@ -0,0 +1,515 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Reduces the triangle count of a mesh by quadric error edge collapse (Garland and Heckbert), to
+ * generate the levels of detail of a model. Does not depend on Android.
+ *
+ * <p>Vertices are only ever collapsed onto one of their neighbors, so the simplified mesh reuses a
+ * subset of the original vertices and their texture coordinates and normals stay valid. Vertices
+ * on open borders are kept in place so the outline does not shrink. On texture or normal seams,
+ * where OBJ conversion split a position into several vertices (wedges), a position only collapses
+ * along the seam, moving each wedge onto the wedge on the same side, so the mapping does not tear.
+ */
+public final class MeshSimplifier {
+  // Collapses that turn a remaining triangle by more than about 75 degrees fold the surface.
+  private static final double MIN_NORMAL_COSINE = 0.25;
+  private static final int MAX_PASSES = 100;
+
+  private MeshSimplifier() {}
+
+  /**
+   * Returns a copy of a {@link MeshData#FORMAT_FLOAT} mesh with at most about {@code
+   * targetIndexCount} indices, fewer vertices and the triangle order optimized by {@link
+   * MeshOptimizer}. The result has more indices than requested if locked vertices or the fold
+   * check prevent further collapses.
+   */
+  public static MeshData simplify(MeshData mesh, int targetIndexCount) {
+    if (mesh.getFormat() != MeshData.FORMAT_FLOAT) {
+      throw new IllegalArgumentException("Only float meshes can be simplified");
+    }
+    int vertexCount = mesh.getVertexCount();
+    float[] vertexPositions = MeshOptimizer.readPositions(mesh);
+
+    // Vertices with bit-identical positions are wedges of the same position.
+    int[] positionIds = new int[vertexCount];
+    int positionCount = groupPositions(vertexPositions, positionIds);
+    float[] positions = new float[3 * positionCount];
+    for (int v = 0; v < vertexCount; ++v) {
+      System.arraycopy(vertexPositions, 3 * v, positions, 3 * positionIds[v], 3);
+    }
+    int[] wedgeOffsets = new int[positionCount + 1];
+    int[] wedges = buildAdjacency(positionIds, positionCount, wedgeOffsets, 1);
+    int maxWedgeCount = 0;
+    for (int p = 0; p < positionCount; ++p) {
+      maxWedgeCount = Math.max(maxWedgeCount, wedgeOffsets[p + 1] - wedgeOffsets[p]);
+    }
+
+    int[] triangles = MeshOptimizer.readIndices(mesh);
+    triangles = Arrays.copyOf(triangles, removeDegenerateTriangles(triangles, null, positionIds));
+    // The fold check compares against the original normals as well, so that a triangle can not
+    // turn over in several small steps.
+    double[] originalNormals = new double[triangles.length];
+    for (int t = 0; t < triangles.length / 3; ++t) {
+      double[] normal =
+          triangleNormal(
+              positions,
+              3 * positionIds[triangles[3 * t]],
+              3 * positionIds[triangles[3 * t + 1]],
+              3 * positionIds[triangles[3 * t + 2]]);
+      System.arraycopy(normal, 0, originalNormals, 3 * t, 3);
+    }
+    double[] quadrics = computeQuadrics(triangles, positionIds, positions, positionCount);
+
+    // Reused by every pass.
+    int[] vertexRemap = new int[vertexCount];
+    for (int v = 0; v < vertexCount; ++v) {
+      vertexRemap[v] = v;
+    }
+    boolean[] locked = new boolean[positionCount];
+    boolean[] touched = new boolean[positionCount];
+    int[] neighborStamps = new int[positionCount];
+    Arrays.fill(neighborStamps, -1);
+    int stamp = 0;
+    int[] wedgeTargets = new int[maxWedgeCount];
+
+    for (int pass = 0; pass < MAX_PASSES && triangles.length > targetIndexCount; ++pass) {
+      int triangleCount = triangles.length / 3;
+      int[] cornerPositions = new int[triangles.length];
+      for (int i = 0; i < triangles.length; ++i) {
+        cornerPositions[i] = positionIds[triangles[i]];
+      }
+      int[] adjacencyOffsets = new int[positionCount + 1];
+      int[] adjacency = buildAdjacency(cornerPositions, positionCount, adjacencyOffsets, 3);
+
+      // Collect every edge once and find the open borders: edges of a single triangle.
+      Arrays.fill(locked, false);
+      int[] edges = new int[2 * triangles.length];
+      int edgeCount = 0;
+      for (int p = 0; p < positionCount; ++p) {
+        for (int a = adjacencyOffsets[p]; a < adjacencyOffsets[p + 1]; ++a) {
+          int t = adjacency[a];
+          for (int k = 0; k < 3; ++k) {
+            int q = cornerPositions[3 * t + k];
+            if (q <= p) {
+              continue;
+            }
+            int shared = countSharedTriangles(adjacency, adjacencyOffsets, cornerPositions, p, q);
+            if (shared == 1) {
+              locked[p] = true;
+              locked[q] = true;
+            }
+            // Each edge is seen once per triangle, only the first triangle records it.
+            if (firstTriangleWithEdge(adjacency, adjacencyOffsets, cornerPositions, p, q) == t) {
+              edges[2 * edgeCount] = p;
+              edges[2 * edgeCount + 1] = q;
+              ++edgeCount;
+            }
+          }
+        }
+      }
+
+      // Cost of the cheaper allowed direction of every edge, stored as from -> to.
+      final double[] costs = new double[edgeCount];
+      Integer[] order = new Integer[edgeCount];
+      int candidateCount = 0;
+      for (int e = 0; e < edgeCount; ++e) {
+        int p = edges[2 * e];
+        int q = edges[2 * e + 1];
+        double costPq =
+            locked[p] ? Double.POSITIVE_INFINITY : collapseCost(quadrics, p, q, positions);
+        double costQp =
+            locked[q] ? Double.POSITIVE_INFINITY : collapseCost(quadrics, q, p, positions);
+        if (costPq == Double.POSITIVE_INFINITY && costQp == Double.POSITIVE_INFINITY) {
+          continue;
+        }
+        if (costQp < costPq) {
+          edges[2 * e] = q;
+          edges[2 * e + 1] = p;
+        }
+        costs[e] = Math.min(costPq, costQp);
+        order[candidateCount++] = e;
+      }
+      Arrays.sort(
+          order,
+          0,
+          candidateCount,
+          new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+              return Double.compare(costs[a], costs[b]);
+            }
+          });
+
+      // Apply the cheapest collapses that do not touch each other, so every check in this pass
+      // sees the geometry it will change.
+      Arrays.fill(touched, false);
+      int removeGoal = triangleCount - targetIndexCount / 3;
+      int removed = 0;
+      int collapses = 0;
+      for (int i = 0; i < candidateCount && removed < removeGoal; ++i) {
+        int e = order[i];
+        int from = edges[2 * e];
+        int to = edges[2 * e + 1];
+        if (touched[from] || touched[to]) {
+          continue;
+        }
+        ++stamp;
+        if (!hasManifoldLink(
+            adjacency, adjacencyOffsets, cornerPositions, from, to, neighborStamps, stamp)) {
+          continue;
+        }
+        if (!findTargetWedges(
+                adjacency,
+                adjacencyOffsets,
+                cornerPositions,
+                triangles,
+                wedges,
+                wedgeOffsets,
+                from,
+                to,
+                wedgeTargets)
+            || foldsOver(
+                adjacency,
+                adjacencyOffsets,
+                cornerPositions,
+                positions,
+                originalNormals,
+                from,
+                to)) {
+          continue;
+        }
+
+        for (int w = wedgeOffsets[from]; w < wedgeOffsets[from + 1]; ++w) {
+          vertexRemap[wedges[w]] = wedgeTargets[w - wedgeOffsets[from]];
+        }
+        for (int k = 0; k < 10; ++k) {
+          quadrics[10 * to + k] += quadrics[10 * from + k];
+        }
+        for (int a = adjacencyOffsets[from]; a < adjacencyOffsets[from + 1]; ++a) {
+          for (int k = 0; k < 3; ++k) {
+            touched[cornerPositions[3 * adjacency[a] + k]] = true;
+          }
+        }
+        removed += countSharedTriangles(adjacency, adjacencyOffsets, cornerPositions, from, to);
+        ++collapses;
+      }
+      if (collapses == 0) {
+        break;
+      }
+
+      for (int i = 0; i < triangles.length; ++i) {
+        triangles[i] = vertexRemap[triangles[i]];
+      }
+      int indexCount = removeDegenerateTriangles(triangles, originalNormals, positionIds);
+      triangles = Arrays.copyOf(triangles, indexCount);
+      originalNormals = Arrays.copyOf(originalNormals, indexCount);
+    }
+
+    return MeshOptimizer.optimizeVertexFetch(
+        mesh, MeshOptimizer.optimizeVertexCache(triangles, vertexCount));
+  }
+
+  /** Assigns the same id to vertices with equal positions. Returns the number of ids. */
+  private static int groupPositions(float[] positions, int[] positionIds) {
+    int vertexCount = positionIds.length;
+    // Adding zero turns -0 into +0, which compare equal as floats but not as bits.
+    final int[] bits = new int[positions.length];
+    for (int i = 0; i < positions.length; ++i) {
+      bits[i] = Float.floatToIntBits(positions[i] + 0.0f);
+    }
+    Integer[] order = new Integer[vertexCount];
+    for (int v = 0; v < vertexCount; ++v) {
+      order[v] = v;
+    }
+    Comparator<Integer> byPosition =
+        new Comparator<Integer>() {
+          @Override
+          public int compare(Integer a, Integer b) {
+            for (int k = 0; k < 3; ++k) {
+              int result = Integer.compare(bits[3 * a + k], bits[3 * b + k]);
+              if (result != 0) {
+                return result;
+              }
+            }
+            return 0;
+          }
+        };
+    Arrays.sort(order, byPosition);
+    int positionCount = 0;
+    for (int i = 0; i < vertexCount; ++i) {
+      if (i > 0 && byPosition.compare(order[i - 1], order[i]) != 0) {
+        ++positionCount;
+      }
+      positionIds[order[i]] = positionCount;
+    }
+    return vertexCount == 0 ? 0 : positionCount + 1;
+  }
+
+  /**
+   * Accumulates the area weighted plane quadric of every triangle into its corners. A quadric is
+   * stored as the ten unique coefficients of the symmetric 4x4 matrix.
+   */
+  private static double[] computeQuadrics(
+      int[] triangles, int[] positionIds, float[] positions, int positionCount) {
+    double[] quadrics = new double[10 * positionCount];
+    for (int t = 0; t < triangles.length / 3; ++t) {
+      int a = 3 * positionIds[triangles[3 * t]];
+      int b = 3 * positionIds[triangles[3 * t + 1]];
+      int c = 3 * positionIds[triangles[3 * t + 2]];
+      double e1x = positions[b] - positions[a];
+      double e1y = positions[b + 1] - positions[a + 1];
+      double e1z = positions[b + 2] - positions[a + 2];
+      double e2x = positions[c] - positions[a];
+      double e2y = positions[c + 1] - positions[a + 1];
+      double e2z = positions[c + 2] - positions[a + 2];
+      double nx = e1y * e2z - e1z * e2y;
+      double ny = e1z * e2x - e1x * e2z;
+      double nz = e1x * e2y - e1y * e2x;
+      double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+      if (length == 0.0) {
+        continue;
+      }
+      double area = 0.5 * length;
+      nx /= length;
+      ny /= length;
+      nz /= length;
+      double d = -(nx * positions[a] + ny * positions[a + 1] + nz * positions[a + 2]);
+      double[] plane = {
+        nx * nx, nx * ny, nx * nz, nx * d, ny * ny, ny * nz, ny * d, nz * nz, nz * d, d * d
+      };
+      for (int corner : new int[] {a / 3, b / 3, c / 3}) {
+        for (int k = 0; k < 10; ++k) {
+          quadrics[10 * corner + k] += area * plane[k];
+        }
+      }
+    }
+    return quadrics;
+  }
+
+  /** Error of the combined quadric of {@code from} and {@code to} at the position of {@code to}. */
+  private static double collapseCost(double[] quadrics, int from, int to, float[] positions) {
+    double x = positions[3 * to];
+    double y = positions[3 * to + 1];
+    double z = positions[3 * to + 2];
+    double error =
+        evaluateQuadric(quadrics, 10 * from, x, y, z) + evaluateQuadric(quadrics, 10 * to, x, y, z);
+    // Rounding can make the error of a point on all planes slightly negative.
+    return Math.max(error, 0.0);
+  }
+
+  private static double evaluateQuadric(double[] q, int base, double x, double y, double z) {
+    return q[base] * x * x
+        + 2 * q[base + 1] * x * y
+        + 2 * q[base + 2] * x * z
+        + 2 * q[base + 3] * x
+        + q[base + 4] * y * y
+        + 2 * q[base + 5] * y * z
+        + 2 * q[base + 6] * y
+        + q[base + 7] * z * z
+        + 2 * q[base + 8] * z
+        + q[base + 9];
+  }
+
+  /**
+   * Returns false if {@code from} and {@code to} share neighbors other than the two opposite
+   * corners of the edge, collapsing such an edge would make the surface non-manifold.
+   */
+  private static boolean hasManifoldLink(
+      int[] adjacency,
+      int[] adjacencyOffsets,
+      int[] cornerPositions,
+      int from,
+      int to,
+      int[] neighborStamps,
+      int stamp) {
+    for (int a = adjacencyOffsets[from]; a < adjacencyOffsets[from + 1]; ++a) {
+      for (int k = 0; k < 3; ++k) {
+        neighborStamps[cornerPositions[3 * adjacency[a] + k]] = stamp;
+      }
+    }
+    int shared = 0;
+    for (int a = adjacencyOffsets[to]; a < adjacencyOffsets[to + 1]; ++a) {
+      for (int k = 0; k < 3; ++k) {
+        int q = cornerPositions[3 * adjacency[a] + k];
+        if (q != from && q != to && neighborStamps[q] == stamp) {
+          ++shared;
+          // Count every common neighbor once.
+          neighborStamps[q] = stamp - 1;
+        }
+      }
+    }
+    return shared <= 2;
+  }
+
+  /**
+   * Finds the wedge of {@code to} that replaces each wedge of {@code from}: the one the triangles
+   * along the edge pair it with. Returns false if a wedge of {@code from} has no triangle along
+   * the edge or is paired with several wedges, which happens when the edge crosses a seam.
+   */
+  private static boolean findTargetWedges(
+      int[] adjacency,
+      int[] adjacencyOffsets,
+      int[] cornerPositions,
+      int[] triangles,
+      int[] wedges,
+      int[] wedgeOffsets,
+      int from,
+      int to,
+      int[] wedgeTargets) {
+    for (int w = wedgeOffsets[from]; w < wedgeOffsets[from + 1]; ++w) {
+      int wedge = wedges[w];
+      int target = -1;
+      for (int a = adjacencyOffsets[from]; a < adjacencyOffsets[from + 1]; ++a) {
+        int t = adjacency[a];
+        boolean usesWedge = false;
+        int toWedge = -1;
+        for (int k = 0; k < 3; ++k) {
+          usesWedge |= triangles[3 * t + k] == wedge;
+          if (cornerPositions[3 * t + k] == to) {
+            toWedge = triangles[3 * t + k];
+          }
+        }
+        if (!usesWedge || toWedge < 0) {
+          continue;
+        }
+        if (target >= 0 && target != toWedge) {
+          return false;
+        }
+        target = toWedge;
+      }
+      if (target < 0) {
+        return false;
+      }
+      wedgeTargets[w - wedgeOffsets[from]] = target;
+    }
+    return true;
+  }
+
+  /** Returns true if moving {@code from} onto {@code to} flips or folds a remaining triangle. */
+  private static boolean foldsOver(
+      int[] adjacency,
+      int[] adjacencyOffsets,
+      int[] cornerPositions,
+      float[] positions,
+      double[] originalNormals,
+      int from,
+      int to) {
+    for (int a = adjacencyOffsets[from]; a < adjacencyOffsets[from + 1]; ++a) {
+      int t = adjacency[a];
+      int corner = 0;
+      boolean removedByCollapse = false;
+      for (int k = 0; k < 3; ++k) {
+        int p = cornerPositions[3 * t + k];
+        removedByCollapse |= p == to;
+        if (p == from) {
+          corner = k;
+        }
+      }
+      if (removedByCollapse) {
+        continue;
+      }
+      int b = 3 * cornerPositions[3 * t + (corner + 1) % 3];
+      int c = 3 * cornerPositions[3 * t + (corner + 2) % 3];
+      double[] before = triangleNormal(positions, 3 * from, b, c);
+      double[] after = triangleNormal(positions, 3 * to, b, c);
+      double dot = before[0] * after[0] + before[1] * after[1] + before[2] * after[2];
+      double lengths =
+          Math.sqrt(
+              (before[0] * before[0] + before[1] * before[1] + before[2] * before[2])
+                  * (after[0] * after[0] + after[1] * after[1] + after[2] * after[2]));
+      if (dot < MIN_NORMAL_COSINE * lengths || lengths == 0.0) {
+        return true;
+      }
+      if (after[0] * originalNormals[3 * t]
+              + after[1] * originalNormals[3 * t + 1]
+              + after[2] * originalNormals[3 * t + 2]
+          <= 0.0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static double[] triangleNormal(float[] positions, int a, int b, int c) {
+    double e1x = positions[b] - positions[a];
+    double e1y = positions[b + 1] - positions[a + 1];
+    double e1z = positions[b + 2] - positions[a + 2];
+    double e2x = positions[c] - positions[a];
+    double e2y = positions[c + 1] - positions[a + 1];
+    double e2z = positions[c + 2] - positions[a + 2];
+    return new double[] {e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x};
+  }
+
+  /**
+   * Groups the elements of {@code positionIds} by position, in compressed rows: row p of the
+   * result lists {@code i / elementSize} for every i with {@code positionIds[i] == p}. Used for
+   * the triangles (element size 3) and the wedges (element size 1) of every position.
+   */
+  private static int[] buildAdjacency(
+      int[] positionIds, int positionCount, int[] adjacencyOffsets, int elementSize) {
+    for (int p : positionIds) {
+      ++adjacencyOffsets[p + 1];
+    }
+    for (int p = 0; p < positionCount; ++p) {
+      adjacencyOffsets[p + 1] += adjacencyOffsets[p];
+    }
+    int[] adjacency = new int[positionIds.length];
+    int[] fill = Arrays.copyOf(adjacencyOffsets, positionCount);
+    for (int i = 0; i < positionIds.length; ++i) {
+      adjacency[fill[positionIds[i]]++] = i / elementSize;
+    }
+    return adjacency;
+  }
+
+  private static int countSharedTriangles(
+      int[] adjacency, int[] adjacencyOffsets, int[] cornerPositions, int p, int q) {
+    int count = 0;
+    for (int a = adjacencyOffsets[p]; a < adjacencyOffsets[p + 1]; ++a) {
+      int t = adjacency[a];
+      if (cornerPositions[3 * t] == q
+          || cornerPositions[3 * t + 1] == q
+          || cornerPositions[3 * t + 2] == q) {
+        ++count;
+      }
+    }
+    return count;
+  }
+
+  private static int firstTriangleWithEdge(
+      int[] adjacency, int[] adjacencyOffsets, int[] cornerPositions, int p, int q) {
+    for (int a = adjacencyOffsets[p]; a < adjacencyOffsets[p + 1]; ++a) {
+      int t = adjacency[a];
+      if (cornerPositions[3 * t] == q
+          || cornerPositions[3 * t + 1] == q
+          || cornerPositions[3 * t + 2] == q) {
+        return t;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Moves the triangles with three distinct positions, and their normals if not null, to the front
+   * of the arrays. Returns the number of indices kept.
+   */
+  private static int removeDegenerateTriangles(
+      int[] triangles, double[] normals, int[] positionIds) {
+    int count = 0;
+    for (int t = 0; t < triangles.length / 3; ++t) {
+      int a = positionIds[triangles[3 * t]];
+      int b = positionIds[triangles[3 * t + 1]];
+      int c = positionIds[triangles[3 * t + 2]];
+      if (a != b && b != c && a != c) {
+        System.arraycopy(triangles, 3 * t, triangles, count, 3);
+        if (normals != null) {
+          System.arraycopy(normals, 3 * t, normals, count, 3);
+        }
+        count += 3;
+      }
+    }
+    return count;
+  }
+}
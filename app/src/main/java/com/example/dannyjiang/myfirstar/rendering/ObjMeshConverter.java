@@ -0,0 +1,160 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import de.javagl.obj.Obj;
+import de.javagl.obj.ObjData;
+import de.javagl.obj.ObjReader;
+import de.javagl.obj.ObjUtils;
+
+/**
+ * Converts Wavefront OBJ models to {@link MeshData}. Does not depend on Android, so it can also be
+ * run on a desktop JVM to pre-bake mesh files into the assets:
+ *
+ * <pre>
+ *   java ObjMeshConverter models/andy.obj models/andy.mesh
+ *   java ObjMeshConverter --quantized models/andy.obj models/andy.quantized.mesh
+ *   java ObjMeshConverter --quantized --lod 1 models/andy.obj models/andy.lod1.quantized.mesh
+ * </pre>
+ */
+public final class ObjMeshConverter {
+  private ObjMeshConverter() {}
+
+  /**
+   * Reads an OBJ model and converts it to a renderable mesh.
+   *
+   * @param format The vertex format of the returned mesh, one of the MeshData.FORMAT_* constants.
+   */
+  public static MeshData convert(InputStream objInputStream, int format) throws IOException {
+    return convert(objInputStream, format, 0);
+  }
+
+  /**
+   * Reads an OBJ model and converts it to a renderable mesh, simplified to a level of detail.
+   *
+   * @param format The vertex format of the returned mesh, one of the MeshData.FORMAT_* constants.
+   * @param level The level of detail, 0 for the full mesh, see {@link LevelOfDetail}.
+   */
+  public static MeshData convert(InputStream objInputStream, int format, int level)
+      throws IOException {
+    return convert(convert(objInputStream), format, level);
+  }
+
+  /**
+   * Converts a mesh returned by {@link #convert(InputStream)} to a vertex format and level of
+   * detail, so that several levels can be derived from a single parse. {@code mesh} is left
+   * unchanged.
+   *
+   * @param format The vertex format of the returned mesh, one of the MeshData.FORMAT_* constants.
+   * @param level The level of detail, 0 for the full mesh, see {@link LevelOfDetail}.
+   */
+  public static MeshData convert(MeshData mesh, int format, int level) {
+    if (level > 0) {
+      mesh =
+          MeshSimplifier.simplify(
+              mesh, LevelOfDetail.getTargetIndexCount(mesh.getIndexCount(), level));
+    }
+    return format == MeshData.FORMAT_QUANTIZED ? MeshQuantizer.quantize(mesh) : mesh;
+  }
+
+  /**
+   * Reads an OBJ model and converts it to a {@link MeshData#FORMAT_FLOAT} mesh, with triangles and
+   * vertices reordered by {@link MeshOptimizer}.
+   */
+  public static MeshData convert(InputStream objInputStream) throws IOException {
+    Obj obj = ObjReader.read(objInputStream);
+
+    // Prepare the Obj so that its structure is suitable for
+    // rendering with OpenGL:
+    // 1. Triangulate it
+    // 2. Make sure that texture coordinates are not ambiguous
+    // 3. Make sure that normals are not ambiguous
+    // 4. Convert it to single-indexed data
+    obj = ObjUtils.convertToRenderable(obj);
+
+    // Obtain the data from the OBJ, as direct buffers:
+    IntBuffer wideIndices = ObjData.getFaceVertexIndices(obj, 3);
+    FloatBuffer vertices = ObjData.getVertices(obj);
+    FloatBuffer texCoords = ObjData.getTexCoords(obj, 2);
+    FloatBuffer normals = ObjData.getNormals(obj);
+
+    int vertexCount = vertices.limit() / 3;
+    if (vertexCount > MeshData.MAX_VERTICES) {
+      throw new IOException(
+          "OBJ has " + vertexCount + " vertices, at most " + MeshData.MAX_VERTICES + " supported");
+    }
+    // Texture coordinates and normals are optional in OBJ files, missing ones are left zero.
+    boolean hasTexCoords = texCoords.limit() == 2 * vertexCount;
+    boolean hasNormals = normals.limit() == 3 * vertexCount;
+
+    MeshData mesh = MeshData.allocate(MeshData.FORMAT_FLOAT, vertexCount, wideIndices.limit());
+
+    ByteBuffer interleaved = mesh.getVertices();
+    for (int i = 0; i < vertexCount; ++i) {
+      interleaved.putFloat(vertices.get(3 * i));
+      interleaved.putFloat(vertices.get(3 * i + 1));
+      interleaved.putFloat(vertices.get(3 * i + 2));
+      interleaved.putFloat(hasTexCoords ? texCoords.get(2 * i) : 0.0f);
+      interleaved.putFloat(hasTexCoords ? texCoords.get(2 * i + 1) : 0.0f);
+      interleaved.putFloat(hasNormals ? normals.get(3 * i) : 0.0f);
+      interleaved.putFloat(hasNormals ? normals.get(3 * i + 1) : 0.0f);
+      interleaved.putFloat(hasNormals ? normals.get(3 * i + 2) : 0.0f);
+    }
+
+    // Convert int indices to shorts for GL ES 2.0 compatibility
+    ShortBuffer indices = mesh.getIndices();
+    while (wideIndices.hasRemaining()) {
+      indices.put((short) wideIndices.get());
+    }
+    return MeshOptimizer.optimize(mesh, MeshOptimizer.DEFAULT_OVERDRAW_THRESHOLD);
+  }
+
+  /**
+   * Converts the OBJ file {@code args[n]} to the mesh file {@code args[n + 1]}. The optional
+   * leading arguments {@code --quantized} and {@code --lod <level>} select {@link
+   * MeshData#FORMAT_QUANTIZED} and a simplified level of detail.
+   */
+  public static void main(String[] args) throws IOException {
+    boolean quantized = false;
+    int level = 0;
+    int first = 0;
+    try {
+      for (; first < args.length - 2; ++first) {
+        if (args[first].equals("--quantized")) {
+          quantized = true;
+        } else if (args[first].equals("--lod")) {
+          level = Integer.parseInt(args[++first]);
+        } else {
+          break;
+        }
+      }
+    } catch (NumberFormatException e) {
+      first = -1;
+    }
+    if (first < 0 || args.length - first != 2 || level < 0) {
+      System.err.println(
+          "Usage: ObjMeshConverter [--quantized] [--lod <level>] <input.obj> <output"
+              + MeshFile.EXTENSION
+              + ">");
+      System.exit(1);
+    }
+    MeshData mesh;
+    try (InputStream in = new FileInputStream(args[first])) {
+      mesh = convert(in, quantized ? MeshData.FORMAT_QUANTIZED : MeshData.FORMAT_FLOAT, level);
+    }
+    System.out.println(
+        args[first]
+            + ": "
+            + MeshOptimizer.analyzeVertexCache(mesh, MeshOptimizer.DEFAULT_CACHE_SIZE));
+    try (FileOutputStream out = new FileOutputStream(args[first + 1])) {
+      MeshFile.write(mesh, 0, out.getChannel());
+    }
+  }
+}
@@ -15,24 +15,19 @@
 package com.example.dannyjiang.myfirstar.rendering;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
-import android.opengl.GLUtils;
+import android.opengl.GLES30;
 import android.opengl.Matrix;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
-
-import de.javagl.obj.Obj;
-import de.javagl.obj.ObjData;
-import de.javagl.obj.ObjReader;
-import de.javagl.obj.ObjUtils;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
 
 /** Renders an object loaded from an OBJ file in OpenGL. */
 public class ObjectRenderer {
@@ -50,26 +45,190 @@ public class ObjectRenderer {
     Grid
   }
 
+  /**
+   * The meshes and texture of a model, loaded into memory by {@link #loadModel} and ready to upload
+   * with {@link #createOnGlThread(Context, Model)}.
+   */
+  public static final class Model {
+    private final MeshData[] levels;
+    private final TextureData texture;
+    // Keys of the uploaded meshes and texture in a GpuResourceCache.
+    private final String meshKey;
+    private final String textureKey;
+
+    private Model(MeshData[] levels, TextureData texture, String meshKey, String textureKey) {
+      this.levels = levels;
+      this.texture = texture;
+      this.meshKey = meshKey;
+      this.textureKey = textureKey;
+    }
+  }
+
   // Shader names.
   private static final String VERTEX_SHADER_NAME = "shaders/object.vert";
   private static final String FRAGMENT_SHADER_NAME = "shaders/object.frag";
+  private static final String INSTANCED_VERTEX_SHADER_NAME = "shaders/object_instanced.vert";
+  private static final String BATCHED_VERTEX_SHADER_NAME = "shaders/object_batched.vert";
+  private static final String INSTANCED_FRAGMENT_SHADER_NAME = "shaders/object_instanced.frag";
+  // Declares and decodes the stored vertex attributes, for all of the vertex shaders above.
+  private static final String MESH_ATTRIBUTES_SHADER_NAME = "shaders/mesh_attributes.glsl";
 
   private static final int COORDS_PER_VERTEX = 3;
+  private static final int NORMALS_PER_VERTEX = 3;
+  private static final int TEXCOORDS_PER_VERTEX = 2;
+  private static final int OCTAHEDRAL_NORMAL_COMPONENTS = 2;
+
+  private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+  private static final int BYTES_PER_SHORT = Short.SIZE / 8;
+  private static final int FLOATS_PER_MATRIX = 16;
+
+  // Number of model matrices uploaded per draw call on OpenGL ES 2.0. Must match MAX_INSTANCES in
+  // object_batched.vert.
+  private static final int MAX_BATCHED_INSTANCES = 16;
 
   // Note: the last component must be zero to avoid applying the translational part of the matrix.
   private static final float[] LIGHT_DIRECTION = new float[] {0.250f, 0.866f, 0.433f, 0.0f};
   private final float[] viewLightDirection = new float[4];
 
-  // Object vertex buffer variables.
-  private int vertexBufferId;
-  private int verticesBaseAddress;
-  private int texCoordsBaseAddress;
-  private int normalsBaseAddress;
-  private int indexBufferId;
-  private int indexCount;
+  /** Buffers and decode transforms of one level of detail of the model. */
+  private static class MeshLevel {
+    private int vertexBufferId;
+    private int indexBufferId;
+    private int indexCount;
+    private float[] positionScale;
+    private float[] positionBias;
+    private final float[] texCoordScaleBias = new float[4];
+
+    // OpenGL ES 2.0 batching, see createBatchBuffers().
+    private int batchCapacity;
+    private int batchVertexBufferId;
+    private int batchIndexBufferId;
+    private int batchInstanceIndexBaseAddress;
+
+    // Size of all buffers of the level.
+    private long gpuBytes;
+  }
+
+  /** A program shared through a GpuResourceCache. */
+  private static final class ProgramResource implements GpuResourceCache.Resource {
+    private final int program;
+    // The level whose decode transforms the uniforms of the program hold. Renderers sharing the
+    // program update them when they draw a different level, see setDecodeUniforms().
+    private MeshLevel decodeLevel;
+
+    ProgramResource(int program) {
+      this.program = program;
+    }
+
+    @Override
+    public long getGpuBytes() {
+      // Negligible next to meshes and textures.
+      return 0;
+    }
+
+    @Override
+    public void release() {
+      GlStateCache.get().deleteProgram(program);
+    }
+  }
+
+  /** A texture shared through a GpuResourceCache. */
+  private static final class TextureResource implements GpuResourceCache.Resource {
+    private final int texture;
+    private final long gpuBytes;
+
+    TextureResource(int texture, long gpuBytes) {
+      this.texture = texture;
+      this.gpuBytes = gpuBytes;
+    }
+
+    @Override
+    public long getGpuBytes() {
+      return gpuBytes;
+    }
+
+    @Override
+    public void release() {
+      GlStateCache.get().deleteTextures(1, new int[] {texture}, 0);
+    }
+  }
+
+  /** The levels of detail of a mesh, shared through a GpuResourceCache. */
+  private static final class MeshResource implements GpuResourceCache.Resource {
+    private final MeshLevel[] levels;
+    // Layout of the interleaved vertices, the same in every level, and the bounds of level 0.
+    private final boolean quantized;
+    private final int vertexStride;
+    private final int positionOffset;
+    private final int texCoordOffset;
+    private final int normalOffset;
+    private final float[] boundingSphere;
+
+    MeshResource(MeshLevel[] levels, MeshData mesh) {
+      this.levels = levels;
+      quantized = mesh.isQuantized();
+      vertexStride = mesh.getVertexStride();
+      positionOffset = mesh.getPositionOffset();
+      texCoordOffset = mesh.getTexCoordOffset();
+      normalOffset = mesh.getNormalOffset();
+      boundingSphere = mesh.computeBoundingSphere();
+    }
+
+    @Override
+    public long getGpuBytes() {
+      long gpuBytes = 0;
+      for (MeshLevel level : levels) {
+        gpuBytes += level.gpuBytes;
+      }
+      return gpuBytes;
+    }
+
+    @Override
+    public void release() {
+      int[] buffers = new int[4 * levels.length];
+      for (int i = 0; i < levels.length; ++i) {
+        buffers[4 * i] = levels[i].vertexBufferId;
+        buffers[4 * i + 1] = levels[i].indexBufferId;
+        // 0 unless batch buffers were created, and ignored by glDeleteBuffers.
+        buffers[4 * i + 2] = levels[i].batchVertexBufferId;
+        buffers[4 * i + 3] = levels[i].batchIndexBufferId;
+      }
+      GlStateCache.get().deleteBuffers(buffers.length, buffers, 0);
+    }
+  }
+
+  // Object vertex buffer variables. Vertex attributes are interleaved, see MeshData, and every
+  // level of detail uses the same layout.
+  private boolean quantizedVertices;
+  private int vertexStride;
+  private int positionOffset;
+  private int texCoordOffset;
+  private int normalOffset;
+
+  // Levels of detail, see LevelOfDetail. Level 0 is the full mesh.
+  private int levelCount = 1;
+  private MeshLevel[] levels;
+  private float[] boundingSphere;
+
+  // Instances of drawInstances() grouped by level: the matrices of level i are
+  // levelModelMatrices[levelFirstInstance[i] * 16] up to levelFirstInstance[i + 1].
+  private float[] levelModelMatrices = new float[MAX_BATCHED_INSTANCES * FLOATS_PER_MATRIX];
+  private int[] instanceLevels = new int[MAX_BATCHED_INSTANCES];
+  private int[] levelFirstInstance;
+  private int[] levelFill;
 
   private int program;
-  private final int[] textures = new int[1];
+
+  // Programs, texture and meshes shared with other renderers through resourceCache, and the keys
+  // they are cached under.
+  private GpuResourceCache resourceCache;
+  private ProgramResource programResource;
+  private String programKey;
+  private ProgramResource batchProgramResource;
+  private String batchProgramKey;
+  private TextureResource textureResource;
+  private String textureKey;
+  private String meshKey;
 
   // Shader location: model view projection matrix.
   private int modelViewUniform;
@@ -79,6 +238,7 @@ public class ObjectRenderer {
   private int positionAttribute;
   private int normalAttribute;
   private int texCoordAttribute;
+  private int vertexAttribArrays;
 
   // Shader location: texture sampler.
   private int textureUniform;
@@ -92,13 +252,69 @@ public class ObjectRenderer {
   // Shader location: color correction property
   private int colorCorrectionParameterUniform;
 
+  // Shader location: vertex decode transforms.
+  private int positionScaleUniform;
+  private int positionBiasUniform;
+  private int texCoordScaleBiasUniform;
+
   private BlendMode blendMode = null;
 
+  private int vertexFormat = MeshData.FORMAT_FLOAT;
+
+  // Instanced/batched drawing, see drawInstances(). On OpenGL ES 3.0 the model matrices are
+  // streamed through instanceBufferId as a per-instance attribute. On OpenGL ES 2.0 the mesh of
+  // every level is replicated batchCapacity times in its batch buffers and the model matrices are
+  // uploaded as a uniform array.
+  private boolean instancingSupported;
+  private int batchProgram;
+  private int batchViewUniform;
+  private int batchProjectionUniform;
+  private int batchModelUniform;
+  private int batchLightDirectionUniform;
+  private int batchTextureUniform;
+  private int batchMaterialParametersUniform;
+  private int batchColorCorrectionParameterUniform;
+  private int batchPositionScaleUniform;
+  private int batchPositionBiasUniform;
+  private int batchTexCoordScaleBiasUniform;
+  private int batchPositionAttribute;
+  private int batchNormalAttribute;
+  private int batchTexCoordAttribute;
+  private int batchModelAttribute;
+  private int batchInstanceIndexAttribute;
+  private int batchVertexAttribArrays;
+
+  private int instanceBufferId;
+  private FloatBuffer instanceMatrixBuffer;
+
   // Temporary matrices allocated here to reduce number of allocations for each frame.
   private final float[] modelMatrix = new float[16];
   private final float[] modelViewMatrix = new float[16];
   private final float[] modelViewProjectionMatrix = new float[16];
 
+  // Executes the commands of enqueueInstances(). The int arena holds the offset of the matrices in
+  // the float arena and their count, the float arena the matrices followed by the color correction.
+  private final float[] queuedColorCorrection = new float[4];
+  private final RenderQueue.Executor instancesExecutor =
+      new RenderQueue.Executor() {
+        @Override
+        public void execute(RenderQueue queue, int payload) {
+          int[] ints = queue.getInts();
+          float[] floats = queue.getFloats();
+          int offset = ints[payload];
+          int count = ints[payload + 1];
+          System.arraycopy(
+              floats, offset + count * FLOATS_PER_MATRIX, queuedColorCorrection, 0, 4);
+          drawInstances(
+              floats,
+              offset / FLOATS_PER_MATRIX,
+              count,
+              queue.getViewMatrix(),
+              queue.getProjectionMatrix(),
+              queuedColorCorrection);
+        }
+      };
+
   // Set some default material properties to use for lighting.
   private float ambient = 0.3f;
   private float diffuse = 1.0f;
@@ -116,18 +332,66 @@ public class ObjectRenderer {
    */
   public void createOnGlThread(Context context, String objAssetName, String diffuseTextureAssetName)
       throws IOException {
-    final int vertexShader =
-        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_NAME);
-    final int fragmentShader =
-        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_NAME);
+    createOnGlThread(
+        context,
+        loadModel(context, GlCapabilities.query(), objAssetName, diffuseTextureAssetName));
+  }
+
+  /**
+   * Loads the meshes of every level of detail and decodes the texture of a model. Uses no OpenGL,
+   * so it can run on a worker thread while the OpenGL thread keeps drawing. Must be called after
+   * {@link #setVertexFormat} and {@link #setLevelOfDetailCount}.
+   *
+   * @param context Context for loading the below-named model and texture assets.
+   * @param capabilities Capabilities of the context the model will be drawn in, which decide the
+   *     compressed texture format to load, see {@link TextureData#decode}.
+   * @param objAssetName Name of the OBJ file containing the model geometry.
+   * @param diffuseTextureAssetName Name of the PNG file containing the diffuse texture map.
+   */
+  public Model loadModel(
+      Context context,
+      GlCapabilities capabilities,
+      String objAssetName,
+      String diffuseTextureAssetName)
+      throws IOException {
+    // Pre-baked or cached meshes are memory mapped and need no parsing.
+    return new Model(
+        MeshLoader.loadLevels(context, objAssetName, vertexFormat, levelCount),
+        TextureData.decode(context, diffuseTextureAssetName, capabilities),
+        "mesh:" + objAssetName + ":" + vertexFormat + ":" + levelCount,
+        "texture:" + diffuseTextureAssetName);
+  }
 
-    program = GLES20.glCreateProgram();
-    GLES20.glAttachShader(program, vertexShader);
-    GLES20.glAttachShader(program, fragmentShader);
-    GLES20.glLinkProgram(program);
-    GLES20.glUseProgram(program);
+  /**
+   * Creates and initializes OpenGL resources needed for rendering a model returned by {@link
+   * #loadModel}, shared with no other renderer. Must be called on the OpenGL thread.
+   *
+   * @param context Context for loading the shaders.
+   * @param model The loaded model.
+   */
+  public void createOnGlThread(Context context, Model model) throws IOException {
+    createOnGlThread(context, new GpuResourceCache(0), model);
+  }
 
-    ShaderUtil.checkGLError(TAG, "Program creation");
+  /**
+   * Creates and initializes OpenGL resources needed for rendering a model returned by {@link
+   * #loadModel}. The program, texture and meshes are taken from {@code resourceCache} if another
+   * renderer already uploaded them, and are added to it otherwise. Must be called on the OpenGL
+   * thread.
+   *
+   * @param context Context for loading the shaders.
+   * @param resourceCache Cache shared by the renderers of the context.
+   * @param model The loaded model.
+   * @see #release()
+   */
+  public void createOnGlThread(Context context, GpuResourceCache resourceCache, Model model)
+      throws IOException {
+    this.resourceCache = resourceCache;
+    programKey = getProgramKey(VERTEX_SHADER_NAME, FRAGMENT_SHADER_NAME, getShaderDefines());
+    programResource =
+        acquireProgram(
+            context, programKey, VERTEX_SHADER_NAME, FRAGMENT_SHADER_NAME, getShaderDefines());
+    program = programResource.program;
 
     modelViewUniform = GLES20.glGetUniformLocation(program, "u_ModelView");
     modelViewProjectionUniform = GLES20.glGetUniformLocation(program, "u_ModelViewProjection");
@@ -135,6 +399,10 @@ public class ObjectRenderer {
     positionAttribute = GLES20.glGetAttribLocation(program, "a_Position");
     normalAttribute = GLES20.glGetAttribLocation(program, "a_Normal");
     texCoordAttribute = GLES20.glGetAttribLocation(program, "a_TexCoord");
+    vertexAttribArrays =
+        GlStateCache.vertexAttribMask(positionAttribute)
+            | GlStateCache.vertexAttribMask(normalAttribute)
+            | GlStateCache.vertexAttribMask(texCoordAttribute);
 
     textureUniform = GLES20.glGetUniformLocation(program, "u_Texture");
 
@@ -143,12 +411,69 @@ public class ObjectRenderer {
     colorCorrectionParameterUniform =
         GLES20.glGetUniformLocation(program, "u_ColorCorrectionParameters");
 
+    positionScaleUniform = GLES20.glGetUniformLocation(program, "u_PositionScale");
+    positionBiasUniform = GLES20.glGetUniformLocation(program, "u_PositionBias");
+    texCoordScaleBiasUniform = GLES20.glGetUniformLocation(program, "u_TexCoordScaleBias");
+
     ShaderUtil.checkGLError(TAG, "Program parameters");
 
-    // Read the texture.
-    Bitmap textureBitmap =
-        BitmapFactory.decodeStream(context.getAssets().open(diffuseTextureAssetName));
+    textureKey = model.textureKey;
+    textureResource = resourceCache.acquire(textureKey);
+    if (textureResource == null) {
+      textureResource = createTexture(model.texture);
+      resourceCache.put(textureKey, textureResource);
+    }
+
+    createBatchedOnGlThread(context);
+
+    meshKey = model.meshKey;
+    MeshResource meshResource = resourceCache.acquire(meshKey);
+    if (meshResource == null) {
+      MeshLevel[] meshLevels = new MeshLevel[model.levels.length];
+      for (int i = 0; i < meshLevels.length; ++i) {
+        meshLevels[i] = createLevel(model.levels[i]);
+        if (!instancingSupported) {
+          createBatchBuffers(meshLevels[i], model.levels[i]);
+        }
+      }
+      meshResource = new MeshResource(meshLevels, model.levels[0]);
+      resourceCache.put(meshKey, meshResource);
+    }
+    levels = meshResource.levels;
+    quantizedVertices = meshResource.quantized;
+    vertexStride = meshResource.vertexStride;
+    positionOffset = meshResource.positionOffset;
+    texCoordOffset = meshResource.texCoordOffset;
+    normalOffset = meshResource.normalOffset;
+    boundingSphere = meshResource.boundingSphere;
+    levelFirstInstance = new int[levels.length + 1];
+    levelFill = new int[levels.length];
+
+    Matrices.setIdentity(modelMatrix, 0);
+  }
+
+  /**
+   * Releases this renderer's references to the resources it shares with other renderers, see
+   * {@link #createOnGlThread(Context, GpuResourceCache, Model)}, and deletes the OpenGL objects
+   * it owns. The renderer must not draw afterwards. Must be called on the OpenGL thread.
+   */
+  public void release() {
+    if (resourceCache == null) {
+      return;
+    }
+    resourceCache.release(programKey);
+    resourceCache.release(batchProgramKey);
+    resourceCache.release(textureKey);
+    resourceCache.release(meshKey);
+    resourceCache = null;
+    if (instancingSupported) {
+      GlStateCache.get().deleteBuffers(1, new int[] {instanceBufferId}, 0);
+    }
+  }
 
+  /** Uploads a texture with its mipmaps. */
+  private static TextureResource createTexture(TextureData texture) {
+    int[] textures = new int[1];
     GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
     GLES20.glGenTextures(textures.length, textures, 0);
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
@@ -156,76 +481,274 @@ public class ObjectRenderer {
     GLES20.glTexParameteri(
         GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_LINEAR);
     GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-    GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, textureBitmap, 0);
-    GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+    texture.upload();
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
 
-    textureBitmap.recycle();
-
     ShaderUtil.checkGLError(TAG, "Texture loading");
+    return new TextureResource(textures[0], texture.getGpuBytes());
+  }
 
-    // Read the obj file.
-    InputStream objInputStream = context.getAssets().open(objAssetName);
-    Obj obj = ObjReader.read(objInputStream);
-
-    // Prepare the Obj so that its structure is suitable for
-    // rendering with OpenGL:
-    // 1. Triangulate it
-    // 2. Make sure that texture coordinates are not ambiguous
-    // 3. Make sure that normals are not ambiguous
-    // 4. Convert it to single-indexed data
-    obj = ObjUtils.convertToRenderable(obj);
+  /** Uploads the vertex and index buffers of one level of detail. */
+  private static MeshLevel createLevel(MeshData mesh) {
+    MeshLevel level = new MeshLevel();
 
     // OpenGL does not use Java arrays. ByteBuffers are used instead to provide data in a format
     // that OpenGL understands.
+    ByteBuffer vertices = mesh.getVertices();
+    ByteBuffer indices = mesh.getIndexBytes();
+
+    int[] buffers = new int[2];
+    GLES20.glGenBuffers(2, buffers, 0);
+    level.vertexBufferId = buffers[0];
+    level.indexBufferId = buffers[1];
+
+    // Load vertex buffer
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, level.vertexBufferId);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER, vertices.limit(), vertices, GLES20.GL_STATIC_DRAW);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+    // Load index buffer
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, level.indexBufferId);
+    level.indexCount = mesh.getIndexCount();
+    GLES20.glBufferData(
+        GLES20.GL_ELEMENT_ARRAY_BUFFER, indices.limit(), indices, GLES20.GL_STATIC_DRAW);
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+    ShaderUtil.checkGLError(TAG, "OBJ buffer load");
 
-    // Obtain the data from the OBJ, as direct buffers:
-    IntBuffer wideIndices = ObjData.getFaceVertexIndices(obj, 3);
-    FloatBuffer vertices = ObjData.getVertices(obj);
-    FloatBuffer texCoords = ObjData.getTexCoords(obj, 2);
-    FloatBuffer normals = ObjData.getNormals(obj);
+    level.gpuBytes = vertices.limit() + indices.limit();
+
+    level.positionScale = mesh.getPositionScale();
+    level.positionBias = mesh.getPositionBias();
+    float[] texCoordScale = mesh.getTexCoordScale();
+    float[] texCoordBias = mesh.getTexCoordBias();
+    level.texCoordScaleBias[0] = texCoordScale[0];
+    level.texCoordScaleBias[1] = texCoordScale[1];
+    level.texCoordScaleBias[2] = texCoordBias[0];
+    level.texCoordScaleBias[3] = texCoordBias[1];
+    return level;
+  }
+
+  /**
+   * Creates the program used by {@link #drawInstances}. Uses hardware instancing when the context
+   * supports OpenGL ES 3.0, and a uniform array batched program otherwise.
+   */
+  private void createBatchedOnGlThread(Context context) throws IOException {
+    instancingSupported = GlCapabilities.query().isGles30();
+
+    Map<String, Integer> defines = getShaderDefines();
+    defines.put("MAX_INSTANCES", MAX_BATCHED_INSTANCES);
+    String vertexShaderName =
+        instancingSupported ? INSTANCED_VERTEX_SHADER_NAME : BATCHED_VERTEX_SHADER_NAME;
+    batchProgramKey = getProgramKey(vertexShaderName, INSTANCED_FRAGMENT_SHADER_NAME, defines);
+    batchProgramResource =
+        acquireProgram(
+            context, batchProgramKey, vertexShaderName, INSTANCED_FRAGMENT_SHADER_NAME, defines);
+    batchProgram = batchProgramResource.program;
+
+    batchViewUniform = GLES20.glGetUniformLocation(batchProgram, "u_View");
+    batchProjectionUniform = GLES20.glGetUniformLocation(batchProgram, "u_Projection");
+    batchLightDirectionUniform = GLES20.glGetUniformLocation(batchProgram, "u_LightDirection");
+    batchTextureUniform = GLES20.glGetUniformLocation(batchProgram, "u_Texture");
+    batchMaterialParametersUniform =
+        GLES20.glGetUniformLocation(batchProgram, "u_MaterialParameters");
+    batchColorCorrectionParameterUniform =
+        GLES20.glGetUniformLocation(batchProgram, "u_ColorCorrectionParameters");
+    batchPositionScaleUniform = GLES20.glGetUniformLocation(batchProgram, "u_PositionScale");
+    batchPositionBiasUniform = GLES20.glGetUniformLocation(batchProgram, "u_PositionBias");
+    batchTexCoordScaleBiasUniform =
+        GLES20.glGetUniformLocation(batchProgram, "u_TexCoordScaleBias");
+
+    batchPositionAttribute = GLES20.glGetAttribLocation(batchProgram, "a_Position");
+    batchNormalAttribute = GLES20.glGetAttribLocation(batchProgram, "a_Normal");
+    batchTexCoordAttribute = GLES20.glGetAttribLocation(batchProgram, "a_TexCoord");
+    batchVertexAttribArrays =
+        GlStateCache.vertexAttribMask(batchPositionAttribute)
+            | GlStateCache.vertexAttribMask(batchNormalAttribute)
+            | GlStateCache.vertexAttribMask(batchTexCoordAttribute);
+
+    ShaderUtil.checkGLError(TAG, "Batch program parameters");
+
+    if (instancingSupported) {
+      batchModelAttribute = GLES20.glGetAttribLocation(batchProgram, "a_Model");
+      // A mat4 attribute occupies four consecutive locations, one per column.
+      for (int column = 0; column < 4; ++column) {
+        batchVertexAttribArrays |= GlStateCache.vertexAttribMask(batchModelAttribute + column);
+      }
+
+      int[] buffers = new int[1];
+      GLES20.glGenBuffers(1, buffers, 0);
+      instanceBufferId = buffers[0];
+      instanceMatrixBuffer = allocateFloatBuffer(MAX_BATCHED_INSTANCES * FLOATS_PER_MATRIX);
+      return;
+    }
+
+    batchModelUniform = GLES20.glGetUniformLocation(batchProgram, "u_Model");
+    batchInstanceIndexAttribute = GLES20.glGetAttribLocation(batchProgram, "a_InstanceIndex");
+    batchVertexAttribArrays |= GlStateCache.vertexAttribMask(batchInstanceIndexAttribute);
+  }
+
+  /**
+   * Creates the replicated buffers of one level of detail that {@link #drawInstances} draws on
+   * OpenGL ES 2.0.
+   */
+  private static void createBatchBuffers(MeshLevel level, MeshData mesh) {
+    // Replicate the mesh as many times as both the uniform array and 16-bit indices allow.
+    int vertexCount = mesh.getVertexCount();
+    int batchCapacity =
+        Math.max(1, Math.min(MAX_BATCHED_INSTANCES, MeshData.MAX_VERTICES / vertexCount));
+
+    // The interleaved copies of the mesh are followed by one float per vertex holding the number
+    // of the copy it belongs to.
+    ByteBuffer vertices = mesh.getVertices();
+    ByteBuffer batchVertices =
+        ByteBuffer.allocateDirect(
+                batchCapacity * (vertices.limit() + BYTES_PER_FLOAT * vertexCount))
+            .order(ByteOrder.nativeOrder());
+    for (int i = 0; i < batchCapacity; ++i) {
+      vertices.rewind();
+      batchVertices.put(vertices);
+    }
+    level.batchInstanceIndexBaseAddress = batchVertices.position();
+    for (int i = 0; i < batchCapacity; ++i) {
+      for (int j = 0; j < vertexCount; ++j) {
+        batchVertices.putFloat(i);
+      }
+    }
+    batchVertices.rewind();
+
+    ShortBuffer indices = mesh.getIndices();
 
-    // Convert int indices to shorts for GL ES 2.0 compatibility
-    ShortBuffer indices =
-        ByteBuffer.allocateDirect(2 * wideIndices.limit())
+    int indexCount = mesh.getIndexCount();
+    ShortBuffer batchIndices =
+        ByteBuffer.allocateDirect(BYTES_PER_SHORT * batchCapacity * indexCount)
             .order(ByteOrder.nativeOrder())
             .asShortBuffer();
-    while (wideIndices.hasRemaining()) {
-      indices.put((short) wideIndices.get());
+    for (int i = 0; i < batchCapacity; ++i) {
+      int baseVertex = i * vertexCount;
+      for (int j = 0; j < indexCount; ++j) {
+        batchIndices.put((short) (baseVertex + (indices.get(j) & 0xffff)));
+      }
     }
-    indices.rewind();
+    batchIndices.rewind();
 
     int[] buffers = new int[2];
     GLES20.glGenBuffers(2, buffers, 0);
-    vertexBufferId = buffers[0];
-    indexBufferId = buffers[1];
+    level.batchCapacity = batchCapacity;
+    level.batchVertexBufferId = buffers[0];
+    level.batchIndexBufferId = buffers[1];
 
-    // Load vertex buffer
-    verticesBaseAddress = 0;
-    texCoordsBaseAddress = verticesBaseAddress + 4 * vertices.limit();
-    normalsBaseAddress = texCoordsBaseAddress + 4 * texCoords.limit();
-    final int totalBytes = normalsBaseAddress + 4 * normals.limit();
-
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
-    GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, totalBytes, null, GLES20.GL_STATIC_DRAW);
-    GLES20.glBufferSubData(
-        GLES20.GL_ARRAY_BUFFER, verticesBaseAddress, 4 * vertices.limit(), vertices);
-    GLES20.glBufferSubData(
-        GLES20.GL_ARRAY_BUFFER, texCoordsBaseAddress, 4 * texCoords.limit(), texCoords);
-    GLES20.glBufferSubData(
-        GLES20.GL_ARRAY_BUFFER, normalsBaseAddress, 4 * normals.limit(), normals);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, level.batchVertexBufferId);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER, batchVertices.limit(), batchVertices, GLES20.GL_STATIC_DRAW);
     GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
 
-    // Load index buffer
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
-    indexCount = indices.limit();
+    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, level.batchIndexBufferId);
     GLES20.glBufferData(
-        GLES20.GL_ELEMENT_ARRAY_BUFFER, 2 * indexCount, indices, GLES20.GL_STATIC_DRAW);
+        GLES20.GL_ELEMENT_ARRAY_BUFFER,
+        BYTES_PER_SHORT * batchIndices.limit(),
+        batchIndices,
+        GLES20.GL_STATIC_DRAW);
     GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    level.gpuBytes += batchVertices.limit() + BYTES_PER_SHORT * batchIndices.limit();
 
-    ShaderUtil.checkGLError(TAG, "OBJ buffer load");
+    ShaderUtil.checkGLError(TAG, "Batch buffer load");
+  }
+
+  /** Returns a program from the resource cache, creating it if it is not cached. */
+  private ProgramResource acquireProgram(
+      Context context,
+      String key,
+      String vertexShaderName,
+      String fragmentShaderName,
+      Map<String, Integer> defines)
+      throws IOException {
+    ProgramResource resource = resourceCache.acquire(key);
+    if (resource == null) {
+      resource =
+          new ProgramResource(
+              ProgramCache.createProgram(
+                  context,
+                  TAG,
+                  vertexShaderName,
+                  fragmentShaderName,
+                  defines,
+                  MESH_ATTRIBUTES_SHADER_NAME));
+      resourceCache.put(key, resource);
+    }
+    return resource;
+  }
+
+  private static String getProgramKey(
+      String vertexShaderName, String fragmentShaderName, Map<String, Integer> defines) {
+    // Sorted, so that equal defines always give the same key.
+    return "program:"
+        + vertexShaderName
+        + ":"
+        + fragmentShaderName
+        + ":"
+        + new TreeMap<>(defines);
+  }
 
-    Matrix.setIdentityM(modelMatrix, 0);
+  private Map<String, Integer> getShaderDefines() {
+    Map<String, Integer> defines = new HashMap<>();
+    defines.put("OCTAHEDRAL_NORMALS", vertexFormat == MeshData.FORMAT_QUANTIZED ? 1 : 0);
+    return defines;
+  }
+
+  /**
+   * Uploads the transforms that decode the stored vertex attributes of a level to the current
+   * program. Each level is quantized separately, the callers only upload them when a program
+   * draws a different level than the last time.
+   */
+  private static void setDecodeUniforms(
+      int positionScaleUniform,
+      int positionBiasUniform,
+      int texCoordScaleBiasUniform,
+      MeshLevel level) {
+    GLES20.glUniform3fv(positionScaleUniform, 1, level.positionScale, 0);
+    GLES20.glUniform3fv(positionBiasUniform, 1, level.positionBias, 0);
+    GLES20.glUniform4fv(texCoordScaleBiasUniform, 1, level.texCoordScaleBias, 0);
+  }
+
+  private static FloatBuffer allocateFloatBuffer(int floats) {
+    return ByteBuffer.allocateDirect(BYTES_PER_FLOAT * floats)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+  }
+
+  /**
+   * Selects the vertex layout the model is stored in on the GPU. {@link
+   * MeshData#FORMAT_QUANTIZED} halves the vertex size and memory bandwidth of {@link
+   * MeshData#FORMAT_FLOAT} at a precision loss that is not visible at the scale of virtual objects.
+   * Must be called before {@link #loadModel} and {@link #createOnGlThread}.
+   *
+   * @param vertexFormat One of the MeshData.FORMAT_* constants.
+   */
+  public void setVertexFormat(int vertexFormat) {
+    this.vertexFormat = vertexFormat;
+  }
+
+  /**
+   * Sets the number of levels of detail, including the full mesh. Further levels are simplified
+   * versions of the model that are drawn when it covers a small part of the screen, see {@link
+   * LevelOfDetail}. Must be called before {@link #loadModel}.
+   */
+  public void setLevelOfDetailCount(int levelCount) {
+    if (levelCount < 1) {
+      throw new IllegalArgumentException("At least one level of detail is needed");
+    }
+    this.levelCount = levelCount;
+  }
+
+  /**
+   * Copies the sphere enclosing the model into {@code boundingSphere}, as center x, y, z and
+   * radius in model space. The sphere is computed once by {@link #createOnGlThread}, so copying it
+   * is cheap enough to cull objects every frame.
+   */
+  public void getBoundingSphere(float[] boundingSphere) {
+    System.arraycopy(this.boundingSphere, 0, boundingSphere, 0, 4);
   }
 
   /**
@@ -237,6 +760,11 @@ public class ObjectRenderer {
     this.blendMode = blendMode;
   }
 
+  /** Returns the blending mode, null for opaque rendering. */
+  public BlendMode getBlendMode() {
+    return blendMode;
+  }
+
   /**
    * Updates the object model matrix and applies scaling.
    *
@@ -245,12 +773,12 @@ public class ObjectRenderer {
    * @see Matrix
    */
   public void updateModelMatrix(float[] modelMatrix, float scaleFactor) {
-    float[] scaleMatrix = new float[16];
-    Matrix.setIdentityM(scaleMatrix, 0);
-    scaleMatrix[0] = scaleFactor;
-    scaleMatrix[5] = scaleFactor;
-    scaleMatrix[10] = scaleFactor;
-    Matrix.multiplyMM(this.modelMatrix, 0, modelMatrix, 0, scaleMatrix, 0);
+    // Multiplying by a uniform scale matrix from the right scales the first three columns, so no
+    // scale matrix needs to be built.
+    for (int i = 0; i < 12; ++i) {
+      this.modelMatrix[i] = modelMatrix[i] * scaleFactor;
+    }
+    System.arraycopy(modelMatrix, 12, this.modelMatrix, 12, 4);
   }
 
   /**
@@ -284,18 +812,32 @@ public class ObjectRenderer {
    */
   public void draw(float[] cameraView, float[] cameraPerspective, float[] colorCorrectionRgba) {
 
-    ShaderUtil.checkGLError(TAG, "Before draw");
+    GlErrorPolicy.check(TAG, "Before draw");
 
     // Build the ModelView and ModelViewProjection matrices
     // for calculating object position and light.
-    Matrix.multiplyMM(modelViewMatrix, 0, cameraView, 0, modelMatrix, 0);
-    Matrix.multiplyMM(modelViewProjectionMatrix, 0, cameraPerspective, 0, modelViewMatrix, 0);
-
-    GLES20.glUseProgram(program);
+    Matrices.concatenate(
+        cameraView,
+        cameraPerspective,
+        modelMatrix,
+        0,
+        1,
+        modelViewMatrix,
+        modelViewProjectionMatrix);
+
+    int levelIndex = selectLevel(modelMatrix, 0, cameraView, cameraPerspective);
+    MeshLevel level = levels[levelIndex];
+
+    GlStateCache state = GlStateCache.get();
+    state.useProgram(program);
+
+    if (programResource.decodeLevel != level) {
+      setDecodeUniforms(positionScaleUniform, positionBiasUniform, texCoordScaleBiasUniform, level);
+      programResource.decodeLevel = level;
+    }
 
     // Set the lighting environment properties.
-    Matrix.multiplyMV(viewLightDirection, 0, modelViewMatrix, 0, LIGHT_DIRECTION, 0);
-    normalizeVec3(viewLightDirection);
+    Matrices.transformNormals(viewLightDirection, 0, modelViewMatrix, 0, 1, LIGHT_DIRECTION, 0);
     GLES20.glUniform4f(
         lightingParametersUniform,
         viewLightDirection[0],
@@ -314,68 +856,379 @@ public class ObjectRenderer {
     GLES20.glUniform4f(materialParametersUniform, ambient, diffuse, specular, specularPower);
 
     // Attach the object texture.
-    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+    state.activeTexture(GLES20.GL_TEXTURE0);
+    state.bindTexture(GLES20.GL_TEXTURE_2D, textureResource.texture);
     GLES20.glUniform1i(textureUniform, 0);
 
     // Set the vertex attributes.
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vertexBufferId);
-
-    GLES20.glVertexAttribPointer(
-        positionAttribute, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, verticesBaseAddress);
-    GLES20.glVertexAttribPointer(normalAttribute, 3, GLES20.GL_FLOAT, false, 0, normalsBaseAddress);
-    GLES20.glVertexAttribPointer(
-        texCoordAttribute, 2, GLES20.GL_FLOAT, false, 0, texCoordsBaseAddress);
+    state.bindBuffer(GLES20.GL_ARRAY_BUFFER, level.vertexBufferId);
 
-    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    setVertexAttribPointers(positionAttribute, normalAttribute, texCoordAttribute);
 
     // Set the ModelViewProjection matrix in the shader.
     GLES20.glUniformMatrix4fv(modelViewUniform, 1, false, modelViewMatrix, 0);
     GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjectionMatrix, 0);
 
     // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(positionAttribute);
-    GLES20.glEnableVertexAttribArray(normalAttribute);
-    GLES20.glEnableVertexAttribArray(texCoordAttribute);
-
-    if (blendMode != null) {
-      GLES20.glDepthMask(false);
-      GLES20.glEnable(GLES20.GL_BLEND);
-      switch (blendMode) {
-        case Shadow:
-          // Multiplicative blending function for Shadow.
-          GLES20.glBlendFunc(GLES20.GL_ZERO, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-          break;
-        case Grid:
-          // Grid, additive blending function.
-          GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
-          break;
+    state.setVertexAttribArrays(vertexAttribArrays);
+
+    setBlendState(state);
+
+    state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, level.indexBufferId);
+    GLES20.glDrawElements(GLES20.GL_TRIANGLES, level.indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+
+    GlErrorPolicy.check(TAG, "After draw");
+  }
+
+  /**
+   * Draws many copies of the model, setting up the program, texture and vertex state only once.
+   * Uses one instanced draw call per level of detail on OpenGL ES 3.0, and one draw call per
+   * {@link #MAX_BATCHED_INSTANCES} objects of a level on OpenGL ES 2.0.
+   *
+   * @param modelMatrices Consecutive 4x4 model-to-world matrices, in column-major order, 16 floats
+   *     per object. Unlike {@link #draw}, no scale factor is applied.
+   * @param count Number of matrices to read from {@code modelMatrices}.
+   * @param cameraView A 4x4 view matrix, in column-major order.
+   * @param cameraPerspective A 4x4 projection matrix, in column-major order.
+   * @param colorCorrectionRgba Color correction, as returned by the frame's light estimate.
+   * @see #setBlendMode(BlendMode)
+   * @see #setMaterialProperties(float, float, float, float)
+   */
+  public void drawInstances(
+      float[] modelMatrices,
+      int count,
+      float[] cameraView,
+      float[] cameraPerspective,
+      float[] colorCorrectionRgba) {
+    drawInstances(modelMatrices, 0, count, cameraView, cameraPerspective, colorCorrectionRgba);
+  }
+
+  /**
+   * Draws many copies of the model like {@link #drawInstances(float[], int, float[], float[],
+   * float[])}, reading the matrices of objects {@code first} to {@code first + count - 1}.
+   */
+  public void drawInstances(
+      float[] modelMatrices,
+      int first,
+      int count,
+      float[] cameraView,
+      float[] cameraPerspective,
+      float[] colorCorrectionRgba) {
+    if (count <= 0) {
+      return;
+    }
+
+    GlErrorPolicy.check(TAG, "Before draw instances");
+
+    float[] groupedMatrices =
+        groupByLevel(modelMatrices, first, count, cameraView, cameraPerspective);
+
+    GlStateCache state = GlStateCache.get();
+    state.useProgram(batchProgram);
+
+    GLES20.glUniformMatrix4fv(batchViewUniform, 1, false, cameraView, 0);
+    GLES20.glUniformMatrix4fv(batchProjectionUniform, 1, false, cameraPerspective, 0);
+    GLES20.glUniform4fv(batchLightDirectionUniform, 1, LIGHT_DIRECTION, 0);
+    GLES20.glUniform4f(
+        batchColorCorrectionParameterUniform,
+        colorCorrectionRgba[0],
+        colorCorrectionRgba[1],
+        colorCorrectionRgba[2],
+        colorCorrectionRgba[3]);
+    GLES20.glUniform4f(batchMaterialParametersUniform, ambient, diffuse, specular, specularPower);
+
+    // Attach the object texture.
+    state.activeTexture(GLES20.GL_TEXTURE0);
+    state.bindTexture(GLES20.GL_TEXTURE_2D, textureResource.texture);
+    GLES20.glUniform1i(batchTextureUniform, 0);
+
+    setBlendState(state);
+    state.setVertexAttribArrays(batchVertexAttribArrays);
+
+    if (instancingSupported) {
+      drawInstanced(state, groupedMatrices, count);
+    } else {
+      drawBatched(state, groupedMatrices);
+    }
+
+    GlErrorPolicy.check(TAG, "After draw instances");
+  }
+
+  /**
+   * Adds a command to {@code queue} that draws many copies of the model like {@link
+   * #drawInstances(float[], int, int, float[], float[], float[])} when the queue is submitted, with
+   * the camera of the queue. The matrices and color correction are copied, so the arrays may be
+   * reused right away.
+   *
+   * <p>Opaque models are added to {@link RenderQueue#PASS_OPAQUE}, grouped with the commands that
+   * share their program, texture and mesh, blended models to {@link RenderQueue#PASS_BLENDED}. The
+   * depth of the command is that of the first object, so objects should be sorted with {@link
+   * DepthSorter} first: front to back puts the closest opaque object first, back to front the
+   * farthest blended one.
+   */
+  public void enqueueInstances(
+      RenderQueue queue,
+      float[] modelMatrices,
+      int first,
+      int count,
+      float[] colorCorrectionRgba) {
+    if (count <= 0) {
+      return;
+    }
+    int floatCount = count * FLOATS_PER_MATRIX;
+    int offset = queue.allocateFloats(floatCount + 4);
+    float[] floats = queue.getFloats();
+    System.arraycopy(modelMatrices, first * FLOATS_PER_MATRIX, floats, offset, floatCount);
+    System.arraycopy(colorCorrectionRgba, 0, floats, offset + floatCount, 4);
+    int payload = queue.allocateInts(2);
+    int[] ints = queue.getInts();
+    ints[payload] = offset;
+    ints[payload + 1] = count;
+
+    int depth = queue.depthOf(floats[offset + 12], floats[offset + 13], floats[offset + 14]);
+    int texture = textureResource.texture;
+    int mesh = levels[0].vertexBufferId;
+    long key =
+        blendMode == null
+            ? RenderQueue.key(RenderQueue.PASS_OPAQUE, batchProgram, texture, mesh, depth)
+            : RenderQueue.blendedKey(batchProgram, texture, mesh, depth);
+    queue.add(key, instancesExecutor, payload);
+  }
+
+  private void drawInstanced(GlStateCache state, float[] modelMatrices, int count) {
+    int floats = count * FLOATS_PER_MATRIX;
+    if (instanceMatrixBuffer.capacity() < floats) {
+      int size = instanceMatrixBuffer.capacity();
+      while (size < floats) {
+        size *= 2;
       }
+      instanceMatrixBuffer = allocateFloatBuffer(size);
     }
+    instanceMatrixBuffer.clear();
+    instanceMatrixBuffer.put(modelMatrices, 0, floats);
+    instanceMatrixBuffer.flip();
 
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexBufferId);
-    GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
-    GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+    // Respecifying the whole store lets the driver orphan the storage still in use by the
+    // previous frame instead of stalling on it.
+    state.bindBuffer(GLES20.GL_ARRAY_BUFFER, instanceBufferId);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER,
+        BYTES_PER_FLOAT * floats,
+        instanceMatrixBuffer,
+        GLES20.GL_STREAM_DRAW);
+
+    // A mat4 attribute occupies four consecutive locations, one per column.
+    for (int column = 0; column < 4; ++column) {
+      GLES30.glVertexAttribDivisor(batchModelAttribute + column, 1);
+    }
+
+    for (int i = 0; i < levels.length; ++i) {
+      int instanceCount = levelFirstInstance[i + 1] - levelFirstInstance[i];
+      if (instanceCount == 0) {
+        continue;
+      }
+      MeshLevel level = levels[i];
+      if (batchProgramResource.decodeLevel != level) {
+        setDecodeUniforms(
+            batchPositionScaleUniform,
+            batchPositionBiasUniform,
+            batchTexCoordScaleBiasUniform,
+            level);
+        batchProgramResource.decodeLevel = level;
+      }
 
-    if (blendMode != null) {
-      GLES20.glDisable(GLES20.GL_BLEND);
-      GLES20.glDepthMask(true);
+      // The matrices of the level start at its first instance.
+      state.bindBuffer(GLES20.GL_ARRAY_BUFFER, instanceBufferId);
+      for (int column = 0; column < 4; ++column) {
+        GLES20.glVertexAttribPointer(
+            batchModelAttribute + column,
+            4,
+            GLES20.GL_FLOAT,
+            false,
+            BYTES_PER_FLOAT * FLOATS_PER_MATRIX,
+            BYTES_PER_FLOAT * (FLOATS_PER_MATRIX * levelFirstInstance[i] + 4 * column));
+      }
+
+      state.bindBuffer(GLES20.GL_ARRAY_BUFFER, level.vertexBufferId);
+      setVertexAttribPointers(
+          batchPositionAttribute, batchNormalAttribute, batchTexCoordAttribute);
+
+      state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, level.indexBufferId);
+      GLES30.glDrawElementsInstanced(
+          GLES20.GL_TRIANGLES, level.indexCount, GLES20.GL_UNSIGNED_SHORT, 0, instanceCount);
     }
 
-    // Disable vertex arrays
-    GLES20.glDisableVertexAttribArray(positionAttribute);
-    GLES20.glDisableVertexAttribArray(normalAttribute);
-    GLES20.glDisableVertexAttribArray(texCoordAttribute);
+    // The divisor is per attribute location, reset it so other programs are not affected.
+    for (int column = 0; column < 4; ++column) {
+      GLES30.glVertexAttribDivisor(batchModelAttribute + column, 0);
+    }
+  }
 
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+  private void drawBatched(GlStateCache state, float[] modelMatrices) {
 
-    ShaderUtil.checkGLError(TAG, "After draw");
+    for (int i = 0; i < levels.length; ++i) {
+      int end = levelFirstInstance[i + 1];
+      if (levelFirstInstance[i] == end) {
+        continue;
+      }
+      MeshLevel level = levels[i];
+      if (batchProgramResource.decodeLevel != level) {
+        setDecodeUniforms(
+            batchPositionScaleUniform,
+            batchPositionBiasUniform,
+            batchTexCoordScaleBiasUniform,
+            level);
+        batchProgramResource.decodeLevel = level;
+      }
+
+      state.bindBuffer(GLES20.GL_ARRAY_BUFFER, level.batchVertexBufferId);
+      // The copies of the mesh are contiguous, so the interleaved attributes run through all of
+      // them.
+      setVertexAttribPointers(
+          batchPositionAttribute, batchNormalAttribute, batchTexCoordAttribute);
+      GLES20.glVertexAttribPointer(
+          batchInstanceIndexAttribute,
+          1,
+          GLES20.GL_FLOAT,
+          false,
+          0,
+          level.batchInstanceIndexBaseAddress);
+
+      state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, level.batchIndexBufferId);
+      for (int first = levelFirstInstance[i]; first < end; first += level.batchCapacity) {
+        int batchSize = Math.min(level.batchCapacity, end - first);
+        GLES20.glUniformMatrix4fv(
+            batchModelUniform, batchSize, false, modelMatrices, first * FLOATS_PER_MATRIX);
+        // Copy i of the mesh reads u_Model[i], so drawing a prefix of the index buffer draws
+        // exactly batchSize objects.
+        GLES20.glDrawElements(
+            GLES20.GL_TRIANGLES, batchSize * level.indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+      }
+    }
+  }
+
+  /** Returns the level of detail to draw an object with, see {@link LevelOfDetail}. */
+  private int selectLevel(
+      float[] modelMatrices, int offset, float[] cameraView, float[] cameraPerspective) {
+    if (levels.length == 1) {
+      return 0;
+    }
+    float screenSize =
+        LevelOfDetail.computeScreenSize(
+            modelMatrices, offset, boundingSphere, cameraView, cameraPerspective);
+    return LevelOfDetail.selectLevel(screenSize, levels.length);
   }
 
-  private static void normalizeVec3(float[] v) {
-    float reciprocalLength = 1.0f / (float) Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
-    v[0] *= reciprocalLength;
-    v[1] *= reciprocalLength;
-    v[2] *= reciprocalLength;
+  /**
+   * Selects the level of detail of every instance and sorts the model matrices by level, keeping
+   * their order within a level. Fills {@link #levelFirstInstance} and returns the sorted matrices.
+   */
+  private float[] groupByLevel(
+      float[] modelMatrices,
+      int first,
+      int count,
+      float[] cameraView,
+      float[] cameraPerspective) {
+    Arrays.fill(levelFirstInstance, 0);
+    if (levels.length == 1 && first == 0) {
+      levelFirstInstance[1] = count;
+      return modelMatrices;
+    }
+
+    if (instanceLevels.length < count) {
+      int capacity = instanceLevels.length;
+      while (capacity < count) {
+        capacity *= 2;
+      }
+      instanceLevels = new int[capacity];
+      levelModelMatrices = new float[capacity * FLOATS_PER_MATRIX];
+    }
+
+    // Counting sort: count the instances of every level, then copy each matrix to the next free
+    // slot of its level.
+    for (int i = 0; i < count; ++i) {
+      int level =
+          selectLevel(
+              modelMatrices, (first + i) * FLOATS_PER_MATRIX, cameraView, cameraPerspective);
+      instanceLevels[i] = level;
+      ++levelFirstInstance[level + 1];
+    }
+    for (int i = 0; i < levels.length; ++i) {
+      levelFirstInstance[i + 1] += levelFirstInstance[i];
+      levelFill[i] = levelFirstInstance[i];
+    }
+    for (int i = 0; i < count; ++i) {
+      System.arraycopy(
+          modelMatrices,
+          (first + i) * FLOATS_PER_MATRIX,
+          levelModelMatrices,
+          levelFill[instanceLevels[i]]++ * FLOATS_PER_MATRIX,
+          FLOATS_PER_MATRIX);
+    }
+    return levelModelMatrices;
+  }
+
+  /** Points the attributes at the interleaved vertex data of the bound GL_ARRAY_BUFFER. */
+  private void setVertexAttribPointers(
+      int positionAttribute, int normalAttribute, int texCoordAttribute) {
+    if (quantizedVertices) {
+      // See MeshData.FORMAT_QUANTIZED. The shaders decode positions and texture coordinates with
+      // the decode uniforms and normals with OCTAHEDRAL_NORMALS.
+      GLES20.glVertexAttribPointer(
+          positionAttribute,
+          COORDS_PER_VERTEX,
+          GLES20.GL_SHORT,
+          true,
+          vertexStride,
+          positionOffset);
+      GLES20.glVertexAttribPointer(
+          normalAttribute,
+          OCTAHEDRAL_NORMAL_COMPONENTS,
+          GLES20.GL_SHORT,
+          true,
+          vertexStride,
+          normalOffset);
+      GLES20.glVertexAttribPointer(
+          texCoordAttribute,
+          TEXCOORDS_PER_VERTEX,
+          GLES20.GL_UNSIGNED_SHORT,
+          true,
+          vertexStride,
+          texCoordOffset);
+      return;
+    }
+    GLES20.glVertexAttribPointer(
+        positionAttribute, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, vertexStride, positionOffset);
+    GLES20.glVertexAttribPointer(
+        normalAttribute, NORMALS_PER_VERTEX, GLES20.GL_FLOAT, false, vertexStride, normalOffset);
+    GLES20.glVertexAttribPointer(
+        texCoordAttribute,
+        TEXCOORDS_PER_VERTEX,
+        GLES20.GL_FLOAT,
+        false,
+        vertexStride,
+        texCoordOffset);
+  }
+
+  /** Sets the depth and blend state of the blend mode, opaque rendering if there is none. */
+  private void setBlendState(GlStateCache state) {
+    state.enable(GLES20.GL_DEPTH_TEST);
+    if (blendMode == null) {
+      state.depthMask(true);
+      state.disable(GLES20.GL_BLEND);
+      return;
+    }
+    state.depthMask(false);
+    state.enable(GLES20.GL_BLEND);
+    switch (blendMode) {
+      case Shadow:
+        // Multiplicative blending function for Shadow.
+        state.blendFunc(GLES20.GL_ZERO, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        break;
+      case Grid:
+        // Grid, additive blending function.
+        state.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        break;
+    }
   }
 }
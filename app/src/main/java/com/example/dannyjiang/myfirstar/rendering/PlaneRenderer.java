@@ -15,12 +15,8 @@
 package com.example.dannyjiang.myfirstar.rendering;
 
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
-import android.opengl.GLUtils;
-import android.opengl.Matrix;
 
 import com.google.ar.core.Camera;
 import com.google.ar.core.Plane;
@@ -34,10 +30,7 @@ import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /** Renders the detected AR planes. */
@@ -65,6 +58,10 @@ public class PlaneRenderer {
           * INDICES_PER_BOUNDARY_VERT
           * INITIAL_BUFFER_BOUNDARY_VERTS;
 
+  private static final int INITIAL_DRAWN_PLANES = 16;
+  // The Y axis of a plane's coordinate system, its normal.
+  private static final float[] PLANE_AXIS_Y = {0.0f, 1.0f, 0.0f};
+
   private static final float FADE_RADIUS_M = 0.25f;
   private static final float DOTS_PER_METER = 10.0f;
   private static final float EQUILATERAL_TRIANGLE_SCALE = (float) (1 / Math.sqrt(3));
@@ -80,6 +77,7 @@ public class PlaneRenderer {
   private final int[] textures = new int[1];
 
   private int planeXZPositionAlphaAttribute;
+  private int planeVertexAttribArrays;
 
   private int planeModelUniform;
   private int planeNormalUniform;
@@ -100,15 +98,114 @@ public class PlaneRenderer {
           .asShortBuffer();
 
   // Temporary lists/matrices allocated here to reduce number of allocations for each frame.
-  private final float[] modelMatrix = new float[16];
-  private final float[] modelViewMatrix = new float[16];
-  private final float[] modelViewProjectionMatrix = new float[16];
+  private final float[] viewProjectionMatrix = new float[16];
   private final float[] planeColor = new float[4];
   private final float[] planeAngleUvMatrix =
       new float[4]; // 2x2 rotation matrix applied to uv coords.
+  private final float[] cameraPoseMatrix = new float[16];
+  private final float[] cameraView = new float[16];
+  private final int[] bufferIds = new int[2];
+
+  // The planes drawn by drawPlanes(SortedPlanes, float[], float[]), as their index in the sorted
+  // planes and their mesh, and their matrices and normals, computed for all planes at once.
+  private int[] drawnPlanes = new int[INITIAL_DRAWN_PLANES];
+  private PlaneMesh[] drawnMeshes = new PlaneMesh[INITIAL_DRAWN_PLANES];
+  private float[] modelMatrices = new float[INITIAL_DRAWN_PLANES * 16];
+  private float[] modelViewProjectionMatrices = new float[INITIAL_DRAWN_PLANES * 16];
+  private float[] planeNormals = new float[INITIAL_DRAWN_PLANES * 3];
+
+  // Visible planes of the current frame, see drawPlanes(Collection, Pose, float[]).
+  private final SortedPlanes sortedPlanes = new SortedPlanes();
 
   private final Map<Plane, Integer> planeIndexMap = new HashMap<>();
 
+  private final PlaneMeshCache<Plane> planeMeshes = new PlaneMeshCache<>();
+
+  /** Vertex and index buffer of the fade-edge mesh of one plane. */
+  static class PlaneMesh {
+    int vertexBufferId;
+    int indexBufferId;
+    // Negative until the mesh is first built.
+    int indexCount = -1;
+    // Hash of the polygon and extents the buffers were built from.
+    int polygonHash;
+  }
+
+  /**
+   * The cached GPU meshes of planes, by plane and as a list of planes that can be walked without an
+   * iterator. The cache only keeps track of the meshes, deleting their buffers is up to the caller.
+   *
+   * @param <K> The type identifying planes, {@link Plane} outside of tests.
+   */
+  static final class PlaneMeshCache<K> {
+    private final Map<K, PlaneMesh> meshes = new HashMap<>();
+    private final ArrayList<K> keys = new ArrayList<>();
+
+    /** Returns the mesh of a plane, or null if it has none. */
+    PlaneMesh get(K key) {
+      return meshes.get(key);
+    }
+
+    /** Adds the mesh of a plane that has none yet. */
+    void put(K key, PlaneMesh mesh) {
+      meshes.put(key, mesh);
+      keys.add(key);
+    }
+
+    int size() {
+      return keys.size();
+    }
+
+    /** Returns the index of the mesh of a plane, or -1 if it has none. */
+    int indexOf(K key) {
+      return meshes.containsKey(key) ? keys.indexOf(key) : -1;
+    }
+
+    /** Returns the plane at {@code index}, the order changes when meshes are removed. */
+    K getKey(int index) {
+      return keys.get(index);
+    }
+
+    /** Removes the mesh of the plane at {@code index} and returns it. */
+    PlaneMesh remove(int index) {
+      // The order of the list does not matter, so move the last plane into the gap.
+      K key = keys.get(index);
+      int last = keys.size() - 1;
+      keys.set(index, keys.get(last));
+      keys.remove(last);
+      return meshes.remove(key);
+    }
+
+    /**
+     * Forgets all meshes without deleting their buffers, for when the OpenGL context was lost and
+     * took the buffers with it. The buffer names may already belong to new objects.
+     */
+    void invalidate() {
+      meshes.clear();
+      keys.clear();
+    }
+  }
+
+  /**
+   * Returns true if the mesh of a plane can be released: the plane stopped tracking for good, or
+   * was merged into another plane. Paused planes keep their mesh, they are likely to resume.
+   */
+  static boolean isPlaneMeshStale(TrackingState trackingState, boolean subsumed) {
+    return trackingState == TrackingState.STOPPED || subsumed;
+  }
+
+  // Planes of the command added by enqueuePlanes(), drawn when the queue is submitted.
+  private SortedPlanes queuedPlanes;
+  private final RenderQueue.Executor drawPlanesExecutor =
+      new RenderQueue.Executor() {
+        @Override
+        public void execute(RenderQueue queue, int payload) {
+          SortedPlanes planes = queuedPlanes;
+          queuedPlanes = null;
+          drawPlanes(planes, queue.getViewMatrix(), queue.getProjectionMatrix());
+        }
+      };
+
   public PlaneRenderer() {}
 
   /**
@@ -119,22 +216,24 @@ public class PlaneRenderer {
    * @param gridDistanceTextureName Name of the PNG file containing the grid texture.
    */
   public void createOnGlThread(Context context, String gridDistanceTextureName) throws IOException {
-    int vertexShader =
-        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_VERTEX_SHADER, VERTEX_SHADER_NAME);
-    int passthroughShader =
-        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER_NAME);
-
-    planeProgram = GLES20.glCreateProgram();
-    GLES20.glAttachShader(planeProgram, vertexShader);
-    GLES20.glAttachShader(planeProgram, passthroughShader);
-    GLES20.glLinkProgram(planeProgram);
-    GLES20.glUseProgram(planeProgram);
+    createOnGlThread(
+        context, TextureData.decode(context, gridDistanceTextureName, GlCapabilities.query()));
+  }
 
-    ShaderUtil.checkGLError(TAG, "Program creation");
+  /**
+   * Allocates and initializes OpenGL resources needed by the plane renderer from a grid texture
+   * that was decoded beforehand, e.g. on a worker thread. Must be called on the OpenGL thread.
+   *
+   * @param context Needed to access shader source.
+   * @param gridDistanceTexture The grid texture, see {@link TextureData#decode}.
+   */
+  public void createOnGlThread(Context context, TextureData gridDistanceTexture)
+      throws IOException {
+    // Meshes built in a previous context are gone with it, see PlaneMeshCache.invalidate().
+    planeMeshes.invalidate();
 
-    // Read the texture.
-    Bitmap textureBitmap =
-        BitmapFactory.decodeStream(context.getAssets().open(gridDistanceTextureName));
+    planeProgram =
+        ProgramCache.createProgram(context, TAG, VERTEX_SHADER_NAME, FRAGMENT_SHADER_NAME);
 
     GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
     GLES20.glGenTextures(textures.length, textures, 0);
@@ -143,13 +242,13 @@ public class PlaneRenderer {
     GLES20.glTexParameteri(
         GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_LINEAR);
     GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-    GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, textureBitmap, 0);
-    GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+    gridDistanceTexture.upload();
     GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
 
     ShaderUtil.checkGLError(TAG, "Texture loading");
 
     planeXZPositionAlphaAttribute = GLES20.glGetAttribLocation(planeProgram, "a_XZPositionAlpha");
+    planeVertexAttribArrays = GlStateCache.vertexAttribMask(planeXZPositionAlphaAttribute);
 
     planeModelUniform = GLES20.glGetUniformLocation(planeProgram, "u_Model");
     planeNormalUniform = GLES20.glGetUniformLocation(planeProgram, "u_Normal");
@@ -164,10 +263,82 @@ public class PlaneRenderer {
     ShaderUtil.checkGLError(TAG, "Program parameters");
   }
 
-  /** Updates the plane model transform matrix and extents. */
-  private void updatePlaneParameters(
-      float[] planeMatrix, float extentX, float extentZ, FloatBuffer boundary) {
-    System.arraycopy(planeMatrix, 0, modelMatrix, 0, 16);
+  /**
+   * Returns the GPU mesh of plane {@code index} of {@code planes}, creating it for new planes and
+   * rebuilding it only if the polygon or extents changed since it was built. ARCore only refines a
+   * polygon now and then, so most frames draw every plane from its existing buffers.
+   */
+  private PlaneMesh updatePlaneMesh(SortedPlanes planes, int index) {
+    Plane plane = planes.getPlane(index);
+    PlaneMesh mesh = planeMeshes.get(plane);
+    if (mesh == null) {
+      mesh = new PlaneMesh();
+      GLES20.glGenBuffers(2, bufferIds, 0);
+      mesh.vertexBufferId = bufferIds[0];
+      mesh.indexBufferId = bufferIds[1];
+      planeMeshes.put(plane, mesh);
+    }
+
+    float extentX = planes.getExtentX(index);
+    float extentZ = planes.getExtentZ(index);
+    FloatBuffer polygon = planes.getPolygon(index);
+    int polygonHash = hashPolygon(extentX, extentZ, polygon);
+    if (mesh.indexCount >= 0 && mesh.polygonHash == polygonHash) {
+      return mesh;
+    }
+
+    updatePlaneParameters(extentX, extentZ, polygon);
+    vertexBuffer.rewind();
+    GlStateCache state = GlStateCache.get();
+    state.bindBuffer(GLES20.GL_ARRAY_BUFFER, mesh.vertexBufferId);
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER,
+        BYTES_PER_FLOAT * vertexBuffer.limit(),
+        vertexBuffer,
+        GLES20.GL_DYNAMIC_DRAW);
+    indexBuffer.rewind();
+    state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mesh.indexBufferId);
+    GLES20.glBufferData(
+        GLES20.GL_ELEMENT_ARRAY_BUFFER,
+        BYTES_PER_SHORT * indexBuffer.limit(),
+        indexBuffer,
+        GLES20.GL_DYNAMIC_DRAW);
+    mesh.indexCount = indexBuffer.limit();
+    mesh.polygonHash = polygonHash;
+    return mesh;
+  }
+
+  /** Deletes the meshes of the dropped planes of {@code planes}, see {@link #isPlaneMeshStale}. */
+  private void releaseStalePlaneMeshes(SortedPlanes planes) {
+    for (int i = 0; i < planes.getDroppedCount(); ++i) {
+      int index = planeMeshes.indexOf(planes.getDroppedPlane(i));
+      if (index < 0) {
+        continue;
+      }
+      PlaneMesh mesh = planeMeshes.remove(index);
+      bufferIds[0] = mesh.vertexBufferId;
+      bufferIds[1] = mesh.indexBufferId;
+      GlStateCache.get().deleteBuffers(2, bufferIds, 0);
+    }
+  }
+
+  /**
+   * Hashes the polygon and extents of a plane. Unlike FloatBuffer.hashCode(), which truncates
+   * every element to an int, this sees changes of a few millimeters.
+   */
+  static int hashPolygon(float extentX, float extentZ, FloatBuffer polygon) {
+    int hash = 31 * Float.floatToIntBits(extentX) + Float.floatToIntBits(extentZ);
+    if (polygon == null) {
+      return hash;
+    }
+    for (int i = 0; i < polygon.limit(); ++i) {
+      hash = 31 * hash + Float.floatToIntBits(polygon.get(i));
+    }
+    return 31 * hash + polygon.limit();
+  }
+
+  /** Fills the client side vertex and index buffers with the fade-edge mesh of a plane. */
+  private void updatePlaneParameters(float extentX, float extentZ, FloatBuffer boundary) {
     if (boundary == null) {
       vertexBuffer.limit(0);
       indexBuffer.limit(0);
@@ -250,42 +421,27 @@ public class PlaneRenderer {
     }
   }
 
-  private void draw(float[] cameraView, float[] cameraPerspective, float[] planeNormal) {
-    // Build the ModelView and ModelViewProjection matrices
-    // for calculating cube position and light.
-    Matrix.multiplyMM(modelViewMatrix, 0, cameraView, 0, modelMatrix, 0);
-    Matrix.multiplyMM(modelViewProjectionMatrix, 0, cameraPerspective, 0, modelViewMatrix, 0);
-
+  /** Draws plane {@code drawn} of the planes collected by {@link #drawPlanes}. */
+  private void draw(int drawn, PlaneMesh mesh) {
     // Set the position of the plane
-    vertexBuffer.rewind();
+    GlStateCache state = GlStateCache.get();
+    state.bindBuffer(GLES20.GL_ARRAY_BUFFER, mesh.vertexBufferId);
     GLES20.glVertexAttribPointer(
         planeXZPositionAlphaAttribute,
         COORDS_PER_VERTEX,
         GLES20.GL_FLOAT,
         false,
         BYTES_PER_FLOAT * COORDS_PER_VERTEX,
-        vertexBuffer);
+        0);
 
     // Set the Model and ModelViewProjection matrices in the shader.
-    GLES20.glUniformMatrix4fv(planeModelUniform, 1, false, modelMatrix, 0);
-    GLES20.glUniform3f(planeNormalUniform, planeNormal[0], planeNormal[1], planeNormal[2]);
+    GLES20.glUniformMatrix4fv(planeModelUniform, 1, false, modelMatrices, drawn * 16);
+    GLES20.glUniform3fv(planeNormalUniform, 1, planeNormals, drawn * 3);
     GLES20.glUniformMatrix4fv(
-        planeModelViewProjectionUniform, 1, false, modelViewProjectionMatrix, 0);
+        planeModelViewProjectionUniform, 1, false, modelViewProjectionMatrices, drawn * 16);
 
-    indexBuffer.rewind();
-    GLES20.glDrawElements(
-        GLES20.GL_TRIANGLE_STRIP, indexBuffer.limit(), GLES20.GL_UNSIGNED_SHORT, indexBuffer);
-    ShaderUtil.checkGLError(TAG, "Drawing plane");
-  }
-
-  static class SortablePlane {
-    final float distance;
-    final Plane plane;
-
-    SortablePlane(float distance, Plane plane) {
-      this.distance = distance;
-      this.plane = plane;
-    }
+    state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mesh.indexBufferId);
+    GLES20.glDrawElements(GLES20.GL_TRIANGLE_STRIP, mesh.indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
   }
 
   /**
@@ -299,31 +455,46 @@ public class PlaneRenderer {
   public void drawPlanes(Collection<Plane> allPlanes, Pose cameraPose, float[] cameraPerspective) {
     // Planes must be sorted by distance from camera so that we draw closer planes first, and
     // they occlude the farther planes.
-    List<SortablePlane> sortedPlanes = new ArrayList<>();
+    sortedPlanes.update(allPlanes, cameraPose);
 
-    for (Plane plane : allPlanes) {
-      if (plane.getTrackingState() != TrackingState.TRACKING || plane.getSubsumedBy() != null) {
-        continue;
-      }
+    // Invert the camera pose in place rather than through Pose.inverse(), which allocates.
+    cameraPose.toMatrix(cameraPoseMatrix, 0);
+    Matrices.invertRigid(cameraView, 0, cameraPoseMatrix, 0);
 
-      float distance = calculateDistanceToPlane(plane.getCenterPose(), cameraPose);
-      if (distance < 0) { // Plane is back-facing.
-        continue;
-      }
-      sortedPlanes.add(new SortablePlane(distance, plane));
-    }
-    Collections.sort(
-        sortedPlanes,
-        new Comparator<SortablePlane>() {
-          @Override
-          public int compare(SortablePlane a, SortablePlane b) {
-            return Float.compare(a.distance, b.distance);
-          }
-        });
-
-    float[] cameraView = new float[16];
-    cameraPose.inverse().toMatrix(cameraView, 0);
+    drawPlanes(sortedPlanes, cameraView, cameraPerspective);
+
+    // Do not keep the planes of this frame reachable until the next one.
+    sortedPlanes.clear();
+  }
+
+  /**
+   * Adds a command to {@code queue} that draws planes like {@link #drawPlanes(SortedPlanes,
+   * float[], float[])} when the queue is submitted, with the camera of the queue. All planes are
+   * drawn by one command in {@link RenderQueue#PASS_PLANES}, after the opaque objects, which
+   * occlude them through the depth test.
+   *
+   * @param planes The planes to draw, closest first. They must not change until the queue is
+   *     submitted.
+   */
+  public void enqueuePlanes(RenderQueue queue, SortedPlanes planes) {
+    // Added even without planes, drawing them also releases the meshes of planes that are gone.
+    queuedPlanes = planes;
+    queue.add(
+        RenderQueue.key(RenderQueue.PASS_PLANES, planeProgram, textures[0], 0, 0),
+        drawPlanesExecutor,
+        0);
+  }
 
+  /**
+   * Draws planes that were already sorted, e.g. while the previous frame was drawn. Reads nothing
+   * from ARCore but what {@code planes} holds, so the session may be updated meanwhile.
+   *
+   * @param planes The planes to draw, closest first.
+   * @param cameraView A 4x4 view matrix, in column-major order.
+   * @param cameraPerspective The projection matrix, as returned by {@link
+   *     Camera#getProjectionMatrix(float[], int, float, float)}
+   */
+  public void drawPlanes(SortedPlanes planes, float[] cameraView, float[] cameraPerspective) {
     // Planes are drawn with additive blending, masked by the alpha channel for occlusion.
 
     // Start by clearing the alpha channel of the color buffer to 1.0.
@@ -332,42 +503,42 @@ public class PlaneRenderer {
     GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
     GLES20.glColorMask(true, true, true, true);
 
-    // Disable depth write.
-    GLES20.glDepthMask(false);
+    // Depth test, but disable depth write.
+    GlStateCache state = GlStateCache.get();
+    state.enable(GLES20.GL_DEPTH_TEST);
+    state.depthMask(false);
 
     // Additive blending, masked by alpha channel, clearing alpha channel.
-    GLES20.glEnable(GLES20.GL_BLEND);
-    GLES20.glBlendFuncSeparate(
+    state.enable(GLES20.GL_BLEND);
+    state.blendFuncSeparate(
         GLES20.GL_DST_ALPHA, GLES20.GL_ONE, // RGB (src, dest)
         GLES20.GL_ZERO, GLES20.GL_ONE_MINUS_SRC_ALPHA); // ALPHA (src, dest)
 
     // Set up the shader.
-    GLES20.glUseProgram(planeProgram);
+    state.useProgram(planeProgram);
 
     // Attach the texture.
-    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
+    state.activeTexture(GLES20.GL_TEXTURE0);
+    state.bindTexture(GLES20.GL_TEXTURE_2D, textures[0]);
     GLES20.glUniform1i(textureUniform, 0);
 
     // Shared fragment uniforms.
     GLES20.glUniform4fv(gridControlUniform, 1, GRID_CONTROL, 0);
 
     // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(planeXZPositionAlphaAttribute);
-
-    ShaderUtil.checkGLError(TAG, "Setting up to draw planes");
+    state.setVertexAttribArrays(planeVertexAttribArrays);
 
-    for (SortablePlane sortedPlane : sortedPlanes) {
-      Plane plane = sortedPlane.plane;
-      float[] planeMatrix = new float[16];
-      plane.getCenterPose().toMatrix(planeMatrix, 0);
+    GlErrorPolicy.check(TAG, "Setting up to draw planes");
 
-      float[] normal = new float[3];
-      // Get transformed Y axis of plane's coordinate system.
-      plane.getCenterPose().getTransformedAxis(1, 1.0f, normal, 0);
+    int drawnCount = collectDrawnPlanes(planes);
+    // The model view projection matrices and normals of all planes, each in a single call.
+    Matrices.multiply(viewProjectionMatrix, 0, cameraPerspective, 0, cameraView, 0);
+    Matrices.multiplyBatch(
+        modelViewProjectionMatrices, 0, viewProjectionMatrix, 0, modelMatrices, 0, drawnCount);
+    Matrices.transformNormals(planeNormals, 0, modelMatrices, 0, drawnCount, PLANE_AXIS_Y, 0);
 
-      updatePlaneParameters(
-          planeMatrix, plane.getExtentX(), plane.getExtentZ(), plane.getPolygon());
+    for (int drawn = 0; drawn < drawnCount; ++drawn) {
+      Plane plane = planes.getPlane(drawnPlanes[drawn]);
 
       // Get plane index. Keep a map to assign same indices to same planes.
       Integer planeIndex = planeIndexMap.get(plane);
@@ -393,31 +564,64 @@ public class PlaneRenderer {
       planeAngleUvMatrix[3] = +(float) Math.cos(angleRadians) * vScale;
       GLES20.glUniformMatrix2fv(planeUvMatrixUniform, 1, false, planeAngleUvMatrix, 0);
 
-      draw(cameraView, cameraPerspective, normal);
+      draw(drawn, drawnMeshes[drawn]);
+      drawnMeshes[drawn] = null;
     }
+    releaseStalePlaneMeshes(planes);
 
-    // Clean up the state we set
-    GLES20.glDisableVertexAttribArray(planeXZPositionAlphaAttribute);
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-    GLES20.glDisable(GLES20.GL_BLEND);
-    GLES20.glDepthMask(true);
+    // The state is left as is, the next renderer sets what it needs through GlStateCache.
+    GlErrorPolicy.check(TAG, "After drawing planes");
+  }
 
-    ShaderUtil.checkGLError(TAG, "Cleaning up after drawing planes");
+  /**
+   * Updates the meshes of {@code planes} and collects the planes whose mesh is not empty, with
+   * their model matrices.
+   *
+   * @return The number of planes to draw.
+   */
+  private int collectDrawnPlanes(SortedPlanes planes) {
+    if (drawnPlanes.length < planes.size()) {
+      int capacity = Math.max(2 * drawnPlanes.length, planes.size());
+      drawnPlanes = new int[capacity];
+      drawnMeshes = new PlaneMesh[capacity];
+      modelMatrices = new float[capacity * 16];
+      modelViewProjectionMatrices = new float[capacity * 16];
+      planeNormals = new float[capacity * 3];
+    }
+    int drawnCount = 0;
+    for (int i = 0; i < planes.size(); ++i) {
+      PlaneMesh mesh = updatePlaneMesh(planes, i);
+      if (mesh.indexCount == 0) {
+        continue;
+      }
+      planes.getCenterPose(i).toMatrix(modelMatrices, drawnCount * 16);
+      drawnPlanes[drawnCount] = i;
+      drawnMeshes[drawnCount] = mesh;
+      ++drawnCount;
+    }
+    return drawnCount;
   }
 
   // Calculate the normal distance to plane from cameraPose, the given planePose should have y axis
   // parallel to plane's normal, for example plane's center pose or hit test pose.
   public static float calculateDistanceToPlane(Pose planePose, Pose cameraPose) {
-    float[] normal = new float[3];
     float cameraX = cameraPose.tx();
     float cameraY = cameraPose.ty();
     float cameraZ = cameraPose.tz();
-    // Get transformed Y axis of plane's coordinate system.
-    planePose.getTransformedAxis(1, 1.0f, normal, 0);
+    // Transformed Y axis of plane's coordinate system, the second column of the rotation matrix
+    // of the pose quaternion. Computed here instead of with getTransformedAxis(), which needs an
+    // output array, because this is called for every plane and every hit test.
+    float qx = planePose.qx();
+    float qy = planePose.qy();
+    float qz = planePose.qz();
+    float qw = planePose.qw();
+    float normalX = 2 * (qx * qy - qw * qz);
+    float normalY = 1 - 2 * (qx * qx + qz * qz);
+    float normalZ = 2 * (qy * qz + qw * qx);
     // Compute dot product of plane's normal with vector from camera to plane center.
-    return (cameraX - planePose.tx()) * normal[0]
-        + (cameraY - planePose.ty()) * normal[1]
-        + (cameraZ - planePose.tz()) * normal[2];
+    return (cameraX - planePose.tx()) * normalX
+        + (cameraY - planePose.ty()) * normalY
+        + (cameraZ - planePose.tz()) * normalZ;
   }
 
   private static void colorRgbaToFloat(float[] planeColor, int colorRgba) {
@@ -0,0 +1,239 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import com.google.ar.core.Plane;
+import com.google.ar.core.Pose;
+import com.google.ar.core.TrackingState;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Keeps the planes of a session across frames, ordered by distance from the camera, from the
+ * planes ARCore reports as updated in each frame, see {@code Frame.getUpdatedTrackables()}. Only
+ * updated planes are queried through ARCore; the others keep the center pose, normal and shape
+ * read when they were last updated. Planes that stopped tracking or were subsumed by another plane
+ * are dropped as soon as they are reported, and kept in a list of dropped planes until {@link
+ * SortedPlanes#update(PlaneTracker)} takes them.
+ *
+ * <p>Distances are recomputed for every plane each frame, which is a few multiplications, and the
+ * order of the previous frame is sorted again with the insertion sort of {@link SortedPlanes},
+ * which is linear because the camera moves little between frames. Nothing is allocated once the
+ * records have grown to the number of planes. Not thread-safe, except for {@link
+ * #requestRescan()}.
+ *
+ * @see SortedPlanes#update(PlaneTracker)
+ */
+public final class PlaneTracker {
+  private static final int INITIAL_CAPACITY = 16;
+  // Center pose as translation x, y, z and rotation quaternion x, y, z, w.
+  private static final int POSE_FLOATS = 7;
+
+  /** A plane and what is needed to measure its distance, read when it was last updated. */
+  static final class TrackedPlane extends SortedPlanes.SortablePlane {
+    // Identifies the plane across frames, the Plane itself outside of tests.
+    Object id;
+    boolean tracking;
+    float centerX;
+    float centerY;
+    float centerZ;
+    float normalX;
+    float normalY;
+    float normalZ;
+
+    /**
+     * Takes the state of a plane.
+     *
+     * @param pose The center pose as translation x, y, z and rotation quaternion x, y, z, w, at
+     *     {@code offset}.
+     */
+    void set(Object id, boolean tracking, float[] pose, int offset) {
+      this.id = id;
+      this.tracking = tracking;
+      centerX = pose[offset];
+      centerY = pose[offset + 1];
+      centerZ = pose[offset + 2];
+      // The y axis of the center pose, as in PlaneRenderer.calculateDistanceToPlane().
+      float qx = pose[offset + 3];
+      float qy = pose[offset + 4];
+      float qz = pose[offset + 5];
+      float qw = pose[offset + 6];
+      normalX = 2 * (qx * qy - qw * qz);
+      normalY = 1 - 2 * (qx * qx + qz * qz);
+      normalZ = 2 * (qy * qz + qw * qx);
+    }
+
+    @Override
+    void reset() {
+      super.reset();
+      id = null;
+      tracking = false;
+    }
+  }
+
+  private TrackedPlane[] planes = createTrackedPlanes(INITIAL_CAPACITY);
+  private int size;
+  private long appliedUpdateCount;
+  // Set until the next clear(), see requestRescan().
+  private volatile boolean rescanNeeded = true;
+  private final float[] pose = new float[POSE_FLOATS];
+  private final ArrayList<Plane> droppedPlanes = new ArrayList<>();
+
+  /**
+   * Applies the planes updated in a frame, then orders all planes by their distance from the
+   * camera of that frame.
+   *
+   * @param updatedPlanes The planes updated in the frame, or all planes of the session after
+   *     {@link #clear}, see {@link #isRescanNeeded()}.
+   * @param cameraPose The pose of the camera, as returned by {@link
+   *     com.google.ar.core.Camera#getDisplayOrientedPose()}.
+   */
+  public void update(Collection<Plane> updatedPlanes, Pose cameraPose) {
+    for (Plane plane : updatedPlanes) {
+      TrackingState state = plane.getTrackingState();
+      boolean subsumed = plane.getSubsumedBy() != null;
+      Pose centerPose = null;
+      if (state != TrackingState.STOPPED && !subsumed) {
+        centerPose = plane.getCenterPose();
+        centerPose.getTranslation(pose, 0);
+        centerPose.getRotationQuaternion(pose, 3);
+      }
+      int index = apply(plane, state, subsumed, pose, 0);
+      if (index < 0) {
+        // Also planes that were never kept, their meshes may be from before the last clear().
+        droppedPlanes.add(plane);
+        continue;
+      }
+      // What SortedPlanes passes on to the renderer.
+      planes[index].plane = plane;
+      planes[index].centerPose = centerPose;
+      planes[index].setShape(plane.getExtentX(), plane.getExtentZ(), plane.getPolygon());
+    }
+    updateDistances(cameraPose.tx(), cameraPose.ty(), cameraPose.tz());
+  }
+
+  /**
+   * Applies the update of one plane, without ARCore types: drops the plane if it stopped tracking
+   * or was subsumed by another plane, and otherwise adds it or takes its new center pose.
+   *
+   * @param id Identifies the plane across frames.
+   * @param pose The center pose as translation x, y, z and rotation quaternion x, y, z, w, at
+   *     {@code offset}. Not read if the plane is dropped.
+   * @return The index of the record of the plane, or -1 if it was dropped.
+   */
+  int apply(Object id, TrackingState state, boolean subsumed, float[] pose, int offset) {
+    ++appliedUpdateCount;
+    int index = indexOf(id);
+    if (state == TrackingState.STOPPED || subsumed) {
+      if (index >= 0) {
+        remove(index);
+      }
+      return -1;
+    }
+    if (index < 0) {
+      if (size == planes.length) {
+        TrackedPlane[] grown = createTrackedPlanes(2 * planes.length);
+        System.arraycopy(planes, 0, grown, 0, size);
+        planes = grown;
+      }
+      // New planes start at the end, the next sort moves them into place.
+      index = size++;
+    }
+    planes[index].set(id, state == TrackingState.TRACKING, pose, offset);
+    return index;
+  }
+
+  /** Recomputes the distance of every plane from the camera and orders the planes by it. */
+  void updateDistances(float cameraX, float cameraY, float cameraZ) {
+    for (int i = 0; i < size; ++i) {
+      TrackedPlane tracked = planes[i];
+      tracked.distance =
+          (cameraX - tracked.centerX) * tracked.normalX
+              + (cameraY - tracked.centerY) * tracked.normalY
+              + (cameraZ - tracked.centerZ) * tracked.normalZ;
+    }
+    SortedPlanes.sortByDistance(planes, size);
+  }
+
+  /**
+   * Marks the kept planes as incomplete, because plane updates were not passed to {@link #update},
+   * e.g. while the session was paused or the camera was not tracking. May be called on any thread.
+   */
+  public void requestRescan() {
+    rescanNeeded = true;
+  }
+
+  /**
+   * Returns true if {@link #requestRescan()} was called since the last {@link #clear()}, or the
+   * tracker has never been cleared. The next update must then start from {@link #clear()}, with
+   * all planes of the session.
+   */
+  public boolean isRescanNeeded() {
+    return rescanNeeded;
+  }
+
+  /**
+   * Forgets all planes, before {@link #update} with all planes of the session, and takes back
+   * {@link #requestRescan()}.
+   */
+  public void clear() {
+    rescanNeeded = false;
+    for (int i = 0; i < size; ++i) {
+      planes[i].reset();
+    }
+    size = 0;
+  }
+
+  /** Returns the number of kept planes, including planes that are paused or face away. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the number of plane updates applied since the tracker was created. */
+  public long getAppliedUpdateCount() {
+    return appliedUpdateCount;
+  }
+
+  /** Returns the number of planes {@link #update} dropped since the dropped planes were cleared. */
+  int getDroppedCount() {
+    return droppedPlanes.size();
+  }
+
+  Plane getDroppedPlane(int index) {
+    return droppedPlanes.get(index);
+  }
+
+  void clearDroppedPlanes() {
+    droppedPlanes.clear();
+  }
+
+  /** Returns the kept planes, the first {@link #size} ordered by increasing distance. */
+  TrackedPlane[] getTrackedPlanes() {
+    return planes;
+  }
+
+  /** Linear, since only the few planes updated in a frame are looked up. */
+  private int indexOf(Object id) {
+    for (int i = 0; i < size; ++i) {
+      if (planes[i].id.equals(id)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Removes a plane, keeping the order of the others. */
+  private void remove(int index) {
+    TrackedPlane removed = planes[index];
+    System.arraycopy(planes, index + 1, planes, index, size - index - 1);
+    planes[--size] = removed;
+    removed.reset();
+  }
+
+  private static TrackedPlane[] createTrackedPlanes(int count) {
+    TrackedPlane[] planes = new TrackedPlane[count];
+    for (int i = 0; i < count; ++i) {
+      planes[i] = new TrackedPlane();
+    }
+    return planes;
+  }
+}
@@ -0,0 +1,249 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLSurfaceView;
+import com.google.ar.core.PointCloud;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * Renders the feature points of the ARCore point cloud, to see how dense tracking is.
+ *
+ * <p>The points are streamed into one vertex buffer that is orphaned before every upload, so the
+ * driver hands out fresh storage instead of waiting for draws that still read the previous points.
+ * Uploads are skipped while the point cloud timestamp does not change, and at most {@link
+ * #MAX_POINTS} points are uploaded per frame so the cost stays bounded. Nothing is allocated per
+ * frame once the buffers have grown to the size of the point cloud.
+ */
+public class PointCloudRenderer {
+  private static final String TAG = PointCloudRenderer.class.getSimpleName();
+
+  // Shader names.
+  private static final String VERTEX_SHADER_NAME = "shaders/point_cloud.vert";
+  private static final String FRAGMENT_SHADER_NAME = "shaders/point_cloud.frag";
+
+  private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+  // x, y, z and confidence.
+  private static final int FLOATS_PER_POINT = 4;
+  private static final int BYTES_PER_POINT = BYTES_PER_FLOAT * FLOATS_PER_POINT;
+  private static final int INITIAL_CAPACITY_POINTS = 1000;
+
+  /** Points uploaded per frame at most, the rest of a larger point cloud is not drawn. */
+  public static final int MAX_POINTS = 8192;
+
+  private static final float[] POINT_COLOR = {
+    31.0f / 255.0f, 188.0f / 255.0f, 210.0f / 255.0f, 1.0f
+  };
+  private static final float POINT_SIZE = 5.0f;
+
+  private int vbo;
+  private int vboCapacityPoints;
+
+  private int programName;
+  private int positionAttribute;
+  private int vertexAttribArrays;
+  private int modelViewProjectionUniform;
+  private int colorUniform;
+  private int pointSizeUniform;
+
+  private int numPoints;
+  // Timestamp of the uploaded point cloud, 0 until the first upload.
+  private long lastTimestamp;
+
+  // Staging copy for point clouds that are not in a direct buffer, grown on demand.
+  private FloatBuffer stagingPoints;
+
+  // Temporary matrix allocated here to reduce number of allocations for each frame.
+  private final float[] modelViewProjection = new float[16];
+
+  private final RenderQueue.Executor drawExecutor =
+      new RenderQueue.Executor() {
+        @Override
+        public void execute(RenderQueue queue, int payload) {
+          draw(queue.getViewMatrix(), queue.getProjectionMatrix());
+        }
+      };
+
+  public PointCloudRenderer() {}
+
+  /**
+   * Allocates and initializes OpenGL resources needed by the point cloud renderer. Must be called
+   * on the OpenGL thread, typically in {@link GLSurfaceView.Renderer#onSurfaceCreated(GL10,
+   * EGLConfig)}.
+   *
+   * @param context Needed to access shader source.
+   */
+  public void createOnGlThread(Context context) throws IOException {
+    ShaderUtil.checkGLError(TAG, "before create");
+
+    // The points uploaded in a previous context are gone with its buffer.
+    invalidate();
+
+    int[] buffers = new int[1];
+    GLES20.glGenBuffers(1, buffers, 0);
+    vbo = buffers[0];
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+
+    vboCapacityPoints = INITIAL_CAPACITY_POINTS;
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER, vboCapacityPoints * BYTES_PER_POINT, null, GLES20.GL_STREAM_DRAW);
+    GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+
+    ShaderUtil.checkGLError(TAG, "buffer alloc");
+
+    programName =
+        ProgramCache.createProgram(context, TAG, VERTEX_SHADER_NAME, FRAGMENT_SHADER_NAME);
+
+    positionAttribute = GLES20.glGetAttribLocation(programName, "a_Position");
+    vertexAttribArrays = GlStateCache.vertexAttribMask(positionAttribute);
+    colorUniform = GLES20.glGetUniformLocation(programName, "u_Color");
+    modelViewProjectionUniform = GLES20.glGetUniformLocation(programName, "u_ModelViewProjection");
+    pointSizeUniform = GLES20.glGetUniformLocation(programName, "u_PointSize");
+
+    ShaderUtil.checkGLError(TAG, "program params");
+  }
+
+  /**
+   * Uploads the points of a point cloud, unless they are the ones already uploaded. Must be called
+   * on the OpenGL thread. The point cloud can be released right after this call.
+   *
+   * @param cloud The point cloud of the current frame, as returned by {@link
+   *     com.google.ar.core.Frame#acquirePointCloud()}.
+   */
+  public void update(PointCloud cloud) {
+    long timestamp = cloud.getTimestamp();
+    if (!needsUpload(timestamp)) {
+      // Redundant call.
+      return;
+    }
+
+    FloatBuffer points = cloud.getPoints();
+    int pointCount = Math.min(points.remaining() / FLOATS_PER_POINT, MAX_POINTS);
+    if (!points.isDirect()) {
+      points = stagePoints(points, pointCount);
+    }
+
+    GlStateCache.get().bindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+    if (pointCount > vboCapacityPoints) {
+      vboCapacityPoints = Math.min(MAX_POINTS, growCapacity(vboCapacityPoints, pointCount));
+    }
+    // Orphans the storage the previous points are drawn from, then fills the new storage.
+    GLES20.glBufferData(
+        GLES20.GL_ARRAY_BUFFER, vboCapacityPoints * BYTES_PER_POINT, null, GLES20.GL_STREAM_DRAW);
+    GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, 0, pointCount * BYTES_PER_POINT, points);
+
+    GlErrorPolicy.check(TAG, "after update");
+
+    markUploaded(timestamp, pointCount);
+  }
+
+  /** Returns true if the point cloud with {@code timestamp} is not the one already uploaded. */
+  boolean needsUpload(long timestamp) {
+    return timestamp != lastTimestamp;
+  }
+
+  /** Records that {@code pointCount} points of the point cloud with {@code timestamp} are drawn. */
+  void markUploaded(long timestamp, int pointCount) {
+    lastTimestamp = timestamp;
+    numPoints = pointCount;
+  }
+
+  /** Forgets the uploaded points, so nothing is drawn until the next {@link #update}. */
+  void invalidate() {
+    lastTimestamp = 0;
+    numPoints = 0;
+  }
+
+  /** Returns the number of uploaded points that {@link #draw} renders. */
+  int getPointCount() {
+    return numPoints;
+  }
+
+  /**
+   * Renders the uploaded points. Must be called on the OpenGL thread, after {@link
+   * #update(PointCloud)}.
+   *
+   * @param cameraView The camera view matrix for this frame, typically from {@link
+   *     com.google.ar.core.Camera#getViewMatrix(float[], int)}.
+   * @param cameraPerspective The camera projection matrix for this frame, typically from {@link
+   *     com.google.ar.core.Camera#getProjectionMatrix(float[], int, float, float)}.
+   */
+  public void draw(float[] cameraView, float[] cameraPerspective) {
+    if (numPoints == 0) {
+      return;
+    }
+    Matrices.multiply(modelViewProjection, 0, cameraPerspective, 0, cameraView, 0);
+
+    GlErrorPolicy.check(TAG, "Before draw");
+
+    GlStateCache state = GlStateCache.get();
+    state.enable(GLES20.GL_DEPTH_TEST);
+    state.depthMask(true);
+    state.disable(GLES20.GL_BLEND);
+    state.useProgram(programName);
+    state.setVertexAttribArrays(vertexAttribArrays);
+    state.bindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+    GLES20.glVertexAttribPointer(
+        positionAttribute, FLOATS_PER_POINT, GLES20.GL_FLOAT, false, BYTES_PER_POINT, 0);
+    GLES20.glUniform4fv(colorUniform, 1, POINT_COLOR, 0);
+    GLES20.glUniformMatrix4fv(modelViewProjectionUniform, 1, false, modelViewProjection, 0);
+    GLES20.glUniform1f(pointSizeUniform, POINT_SIZE);
+
+    GLES20.glDrawArrays(GLES20.GL_POINTS, 0, numPoints);
+
+    GlErrorPolicy.check(TAG, "Draw");
+  }
+
+  /**
+   * Adds a command to {@code queue} that renders the uploaded points like {@link #draw} when the
+   * queue is submitted, with the camera of the queue. Must be called after {@link
+   * #update(PointCloud)}.
+   */
+  public void enqueue(RenderQueue queue) {
+    if (numPoints == 0) {
+      return;
+    }
+    queue.add(RenderQueue.key(RenderQueue.PASS_OPAQUE, programName, 0, vbo, 0), drawExecutor, 0);
+  }
+
+  /**
+   * Copies the first {@code count} points into the direct staging buffer, which is grown when it
+   * is too small. {@code glBufferSubData} needs a direct buffer.
+   */
+  private FloatBuffer stagePoints(FloatBuffer points, int count) {
+    int floats = count * FLOATS_PER_POINT;
+    if (stagingPoints == null || stagingPoints.capacity() < floats) {
+      int capacity = growCapacity(stagingPoints == null ? 0 : stagingPoints.capacity(), floats);
+      stagingPoints =
+          ByteBuffer.allocateDirect(capacity * BYTES_PER_FLOAT)
+              .order(ByteOrder.nativeOrder())
+              .asFloatBuffer();
+    }
+    int limit = points.limit();
+    int position = points.position();
+    points.limit(position + floats);
+    stagingPoints.clear();
+    stagingPoints.put(points);
+    stagingPoints.flip();
+    points.limit(limit);
+    points.position(position);
+    return stagingPoints;
+  }
+
+  /**
+   * Returns a capacity of at least {@code required}, doubling {@code capacity} so that a slowly
+   * growing point cloud reallocates only a logarithmic number of times.
+   */
+  static int growCapacity(int capacity, int required) {
+    int grown = Math.max(capacity, 1);
+    while (grown < required) {
+      grown *= 2;
+    }
+    return grown;
+  }
+}
@@ -0,0 +1,281 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Creates linked shader programs, reusing program binaries saved by a previous run so that the
+ * shaders are not compiled again. Binaries are stored in the app's code cache directory, named
+ * after a hash of the shader sources and of the driver that produced them, see {@link
+ * #computeKey}. A missing, unreadable or rejected binary falls back to compiling the sources.
+ *
+ * <p>Program binaries need OpenGL ES 3.0. Android has no Java binding for
+ * OES_get_program_binary, so OpenGL ES 2.0 contexts always compile from source.
+ */
+public final class ProgramCache {
+  private static final String TAG = ProgramCache.class.getSimpleName();
+
+  private static final String CACHE_DIRECTORY = "programs";
+  private static final String EXTENSION = ".bin";
+
+  // File layout: magic, binary format, binary length, then the binary. Little endian.
+  static final int MAGIC = 0x4e494250; // "PBIN"
+  static final int HEADER_SIZE = 12;
+
+  private ProgramCache() {}
+
+  /** Creates a program from shader assets without #define values. */
+  public static int createProgram(
+      Context context, String tag, String vertexShaderName, String fragmentShaderName)
+      throws IOException {
+    return createProgram(
+        context,
+        tag,
+        vertexShaderName,
+        fragmentShaderName,
+        Collections.<String, Integer>emptyMap());
+  }
+
+  /**
+   * Creates and links a program from shader assets, or loads its cached binary. Must be called on
+   * the OpenGL thread. The program is left in use.
+   *
+   * @param context Context for loading assets and for accessing the code cache directory.
+   * @param tag Tag to report errors with.
+   * @param vertexShaderName The filename of the vertex shader asset.
+   * @param fragmentShaderName The filename of the fragment shader asset.
+   * @param defineValuesMap The #define values to add to the top of both shaders.
+   * @param vertexIncludeNames The filenames of shared code assets to add to the vertex shader,
+   *     after the #define values.
+   * @return The linked program.
+   */
+  public static int createProgram(
+      Context context,
+      String tag,
+      String vertexShaderName,
+      String fragmentShaderName,
+      Map<String, Integer> defineValuesMap,
+      String... vertexIncludeNames)
+      throws IOException {
+    String vertexSource =
+        ShaderUtil.readShaderSource(context, vertexShaderName, defineValuesMap, vertexIncludeNames);
+    String fragmentSource =
+        ShaderUtil.readShaderSource(context, fragmentShaderName, defineValuesMap);
+
+    if (!GlCapabilities.query().isGles30()) {
+      return linkProgram(tag, vertexSource, fragmentSource, false);
+    }
+
+    File cacheFile =
+        new File(
+            new File(context.getCodeCacheDir(), CACHE_DIRECTORY),
+            computeKey(vertexSource, fragmentSource, getDriverIdentity()) + EXTENSION);
+    if (cacheFile.isFile()) {
+      int program = loadProgramBinary(cacheFile);
+      if (program != 0) {
+        GLES20.glUseProgram(program);
+        return program;
+      }
+      // Rejected binaries are not retried, the driver will not accept them on the next start
+      // either.
+      cacheFile.delete();
+    }
+
+    int program = linkProgram(tag, vertexSource, fragmentSource, true);
+    try {
+      saveProgramBinary(program, cacheFile);
+    } catch (IOException e) {
+      // The cache only speeds up the next start, the program itself is fine.
+      Log.w(TAG, "Failed to write program cache " + cacheFile, e);
+    }
+    return program;
+  }
+
+  /**
+   * Returns the name of the cached binary of a program, without extension. Binaries are only valid
+   * for the driver that produced them, so its identity is part of the key.
+   *
+   * @param vertexSource The vertex shader source, including #define values.
+   * @param fragmentSource The fragment shader source, including #define values.
+   * @param driverIdentity Vendor, renderer and version of the OpenGL ES driver.
+   */
+  static String computeKey(String vertexSource, String fragmentSource, String driverIdentity) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available", e);
+    }
+    // The lengths separate the parts, so that moving text from one part to the next changes the
+    // key.
+    for (String part : new String[] {vertexSource, fragmentSource, driverIdentity}) {
+      byte[] bytes = part.getBytes(StandardCharsets.UTF_8);
+      digest.update(
+          ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(bytes.length).array());
+      digest.update(bytes);
+    }
+    StringBuilder key = new StringBuilder();
+    byte[] hash = digest.digest();
+    // 128 bits are plenty to tell a few dozen programs apart.
+    for (int i = 0; i < 16; ++i) {
+      key.append(Character.forDigit((hash[i] >> 4) & 0xf, 16));
+      key.append(Character.forDigit(hash[i] & 0xf, 16));
+    }
+    return key.toString();
+  }
+
+  /**
+   * Writes a program binary in the cache file layout.
+   *
+   * @param binaryFormat The format returned by {@code glGetProgramBinary}.
+   * @param binary The binary, from its position to its limit.
+   */
+  static ByteBuffer encode(int binaryFormat, ByteBuffer binary) {
+    ByteBuffer file =
+        ByteBuffer.allocateDirect(HEADER_SIZE + binary.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+    file.putInt(MAGIC).putInt(binaryFormat).putInt(binary.remaining());
+    file.put(binary.duplicate());
+    file.flip();
+    return file;
+  }
+
+  /**
+   * Returns the binary format of a file in the cache file layout, and leaves the position of
+   * {@code file} at the start of the binary and its limit at the end.
+   *
+   * @throws IOException If the file is truncated or not a cached program.
+   */
+  static int decode(ByteBuffer file) throws IOException {
+    file.order(ByteOrder.LITTLE_ENDIAN);
+    if (file.remaining() < HEADER_SIZE || file.getInt() != MAGIC) {
+      throw new IOException("Not a cached program");
+    }
+    int binaryFormat = file.getInt();
+    int length = file.getInt();
+    if (length < 0 || length > file.remaining()) {
+      throw new IOException("Truncated cached program");
+    }
+    file.limit(file.position() + length);
+    return binaryFormat;
+  }
+
+  private static int linkProgram(
+      String tag, String vertexSource, String fragmentSource, boolean retrievable) {
+    int vertexShader = ShaderUtil.compileShader(tag, GLES20.GL_VERTEX_SHADER, vertexSource);
+    int fragmentShader = ShaderUtil.compileShader(tag, GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+
+    int program = GLES20.glCreateProgram();
+    GLES20.glAttachShader(program, vertexShader);
+    GLES20.glAttachShader(program, fragmentShader);
+    if (retrievable) {
+      GLES30.glProgramParameteri(
+          program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GLES20.GL_TRUE);
+    }
+    GLES20.glLinkProgram(program);
+
+    // The program keeps what it needs, the shaders are deleted together with it.
+    GLES20.glDeleteShader(vertexShader);
+    GLES20.glDeleteShader(fragmentShader);
+
+    final int[] linkStatus = new int[1];
+    GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+
+    // If the link failed, delete the program, so that no binary of it is saved.
+    if (linkStatus[0] == 0) {
+      Log.e(tag, "Error linking program: " + GLES20.glGetProgramInfoLog(program));
+      GLES20.glDeleteProgram(program);
+      throw new RuntimeException("Error linking program.");
+    }
+
+    GLES20.glUseProgram(program);
+    ShaderUtil.checkGLError(tag, "Program creation");
+    return program;
+  }
+
+  /** Returns a program created from a cached binary, or 0 if the driver rejects the binary. */
+  private static int loadProgramBinary(File cacheFile) {
+    ByteBuffer binary;
+    int binaryFormat;
+    try (RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+        FileChannel channel = file.getChannel()) {
+      binary = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      binaryFormat = decode(binary);
+    } catch (IOException e) {
+      Log.w(TAG, "Ignoring unreadable program cache " + cacheFile, e);
+      return 0;
+    }
+
+    int program = GLES20.glCreateProgram();
+    // An error left by earlier calls must not count as a rejected binary.
+    int error = GLES20.glGetError();
+    if (error != GLES20.GL_NO_ERROR) {
+      Log.w(TAG, "Unchecked glError " + error + " before loading program cache");
+    }
+    GLES30.glProgramBinary(program, binaryFormat, binary, binary.remaining());
+    // glProgramBinary reports a rejected binary through the link status, and may also set
+    // GL_INVALID_ENUM for an unknown format, which must not be left for the next error check.
+    error = GLES20.glGetError();
+    int[] linkStatus = new int[1];
+    GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+    if (error != GLES20.GL_NO_ERROR || linkStatus[0] == GLES20.GL_FALSE) {
+      Log.i(TAG, "Driver rejected program cache " + cacheFile + ", glError " + error);
+      GLES20.glDeleteProgram(program);
+      return 0;
+    }
+    return program;
+  }
+
+  private static void saveProgramBinary(int program, File cacheFile) throws IOException {
+    int[] values = new int[1];
+    GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, values, 0);
+    int length = values[0];
+    if (length <= 0) {
+      // Drivers without binary formats report a length of 0.
+      return;
+    }
+    ByteBuffer binary = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+    int[] binaryFormat = new int[1];
+    GLES30.glGetProgramBinary(program, length, values, 0, binaryFormat, 0, binary);
+    binary.limit(values[0]);
+
+    File directory = cacheFile.getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    // Write to a temporary file first so an interrupted write never leaves a truncated binary.
+    File temporaryFile = new File(directory, cacheFile.getName() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(temporaryFile)) {
+      ByteBuffer file = encode(binaryFormat[0], binary);
+      while (file.hasRemaining()) {
+        out.getChannel().write(file);
+      }
+    }
+    if (!temporaryFile.renameTo(cacheFile)) {
+      temporaryFile.delete();
+      throw new IOException("Cannot rename " + temporaryFile + " to " + cacheFile);
+    }
+  }
+
+  private static String getDriverIdentity() {
+    return GLES20.glGetString(GLES20.GL_VENDOR)
+        + '\n'
+        + GLES20.glGetString(GLES20.GL_RENDERER)
+        + '\n'
+        + GLES20.glGetString(GLES20.GL_VERSION);
+  }
+}
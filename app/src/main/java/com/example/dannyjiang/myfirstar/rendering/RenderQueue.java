@@ -0,0 +1,337 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import java.util.Arrays;
+
+/**
+ * Collects the draw commands of a frame from all renderers, then sorts and executes them in one
+ * place. A command is a 64-bit sort key, the {@link Executor} that issues its GL calls and a
+ * payload, usually the offset of its parameters in the int and float arenas of the queue.
+ *
+ * <p>The key orders commands by pass first. Within most passes it groups commands by program,
+ * texture and mesh, so consecutive commands share most of their state and {@link GlStateCache}
+ * drops the redundant binds, then orders them front to back. Within the blended pass the depth
+ * comes first, back to front, since the blending result depends on the order. Commands with equal
+ * keys keep the order they were added in.
+ *
+ * <p>Commands, arenas and sort arrays are reused, so a frame does not allocate once they have
+ * grown to the number of commands. Must only be used on the OpenGL thread.
+ */
+public final class RenderQueue {
+  /** Issues the GL calls of the commands added by one renderer. */
+  public interface Executor {
+    /**
+     * Executes a command.
+     *
+     * @param queue The queue, to read the view, projection and arenas from.
+     * @param payload The payload the command was added with.
+     */
+    void execute(RenderQueue queue, int payload);
+  }
+
+  /** Notified when {@link #submit} starts and ends the commands of a pass. */
+  public interface PassListener {
+    void beginPass(int pass);
+
+    void endPass(int pass);
+  }
+
+  /** The camera image, drawn first without depth. */
+  public static final int PASS_BACKGROUND = 0;
+  /** Geometry that writes depth: points and opaque objects. */
+  public static final int PASS_OPAQUE = 1;
+  /** Planes, blended but not depth-sorted against other commands. */
+  public static final int PASS_PLANES = 2;
+  /** Blended objects and shadows, drawn back to front. */
+  public static final int PASS_BLENDED = 3;
+  public static final int PASS_COUNT = 4;
+
+  // Key layout, from the most significant bit: pass (4 bits), then program (12), texture (12),
+  // mesh (12) and depth (24), or depth, program, texture and mesh in the blended pass.
+  static final int PASS_SHIFT = 60;
+  static final int ID_BITS = 12;
+  static final int DEPTH_BITS = 24;
+  private static final int ID_MASK = (1 << ID_BITS) - 1;
+  static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+
+  private static final int INITIAL_CAPACITY = 64;
+  // Float arena allocations start at a multiple of this, the size of a 4x4 matrix.
+  private static final int FLOAT_ALIGNMENT = 16;
+
+  private long[] keys = new long[INITIAL_CAPACITY];
+  private Executor[] executors = new Executor[INITIAL_CAPACITY];
+  private int[] payloads = new int[INITIAL_CAPACITY];
+  private int count;
+
+  private long[] sortedKeys = new long[INITIAL_CAPACITY];
+  private int[] order = new int[INITIAL_CAPACITY];
+  private final KeySorter keySorter = new KeySorter();
+
+  private int[] ints = new int[INITIAL_CAPACITY];
+  private int intCount;
+  private float[] floats = new float[FLOAT_ALIGNMENT * INITIAL_CAPACITY];
+  private int floatCount;
+
+  private final float[] viewMatrix = new float[16];
+  private final float[] projectionMatrix = new float[16];
+  private float far = 1.0f;
+  private PassListener passListener;
+
+  private long submittedCommandCount;
+  private long programChangeCount;
+  private long textureChangeCount;
+  private long meshChangeCount;
+
+  /**
+   * Returns the key of a command in any pass but {@link #PASS_BLENDED}, grouped by state and then
+   * ordered front to back. The ids are usually GL object names; only their low 12 bits are used,
+   * so two objects may share an id, which costs a state change but does not affect correctness.
+   *
+   * @param pass One of the PASS_* constants.
+   * @param program Id of the program the command uses, 0 for none.
+   * @param texture Id of the texture the command samples, 0 for none.
+   * @param mesh Id of the vertex buffer the command draws, 0 for client memory.
+   * @param depth Quantized depth of the command, see {@link #quantizeDepth}.
+   */
+  public static long key(int pass, int program, int texture, int mesh, int depth) {
+    return ((long) pass << PASS_SHIFT)
+        | ((long) (program & ID_MASK) << (PASS_SHIFT - ID_BITS))
+        | ((long) (texture & ID_MASK) << (PASS_SHIFT - 2 * ID_BITS))
+        | ((long) (mesh & ID_MASK) << DEPTH_BITS)
+        | (depth & MAX_DEPTH);
+  }
+
+  /**
+   * Returns the key of a command in {@link #PASS_BLENDED}, ordered back to front and then grouped
+   * by state. See {@link #key} for the arguments.
+   */
+  public static long blendedKey(int program, int texture, int mesh, int depth) {
+    return ((long) PASS_BLENDED << PASS_SHIFT)
+        | ((long) (MAX_DEPTH - (depth & MAX_DEPTH)) << (PASS_SHIFT - DEPTH_BITS))
+        | ((long) (program & ID_MASK) << (2 * ID_BITS))
+        | ((long) (texture & ID_MASK) << ID_BITS)
+        | (mesh & ID_MASK);
+  }
+
+  /** Returns the pass of a key. */
+  public static int passOf(long key) {
+    return (int) (key >>> PASS_SHIFT);
+  }
+
+  /**
+   * Maps a view space depth to the 24-bit depth of a key, clamping depths behind the camera and
+   * beyond {@code far}.
+   *
+   * @param depth Distance from the camera along the view direction, minus the view space z.
+   * @param far The far plane distance of the projection.
+   */
+  public static int quantizeDepth(float depth, float far) {
+    if (!(depth > 0)) {
+      return 0;
+    }
+    if (depth >= far) {
+      return MAX_DEPTH;
+    }
+    return (int) (depth / far * MAX_DEPTH);
+  }
+
+  /** Sets the listener notified of the passes of {@link #submit}, e.g. to time them. */
+  public void setPassListener(PassListener passListener) {
+    this.passListener = passListener;
+  }
+
+  /**
+   * Sets the camera of the frame. Executors read the matrices through {@link #getViewMatrix} and
+   * {@link #getProjectionMatrix}, renderers compute depths with {@link #depthOf}. The matrices are
+   * copied.
+   *
+   * @param viewMatrix A 4x4 view matrix, in column-major order.
+   * @param projectionMatrix A 4x4 projection matrix, in column-major order.
+   * @param far The far plane distance of {@code projectionMatrix}.
+   */
+  public void setCamera(float[] viewMatrix, float[] projectionMatrix, float far) {
+    System.arraycopy(viewMatrix, 0, this.viewMatrix, 0, 16);
+    System.arraycopy(projectionMatrix, 0, this.projectionMatrix, 0, 16);
+    this.far = far;
+  }
+
+  /** Returns the quantized depth of a point in world space, as seen by the camera of the frame. */
+  public int depthOf(float x, float y, float z) {
+    float[] v = viewMatrix;
+    // The camera looks down -z in view space, so the depth is minus the view space z.
+    return quantizeDepth(-(v[2] * x + v[6] * y + v[10] * z + v[14]), far);
+  }
+
+  public float[] getViewMatrix() {
+    return viewMatrix;
+  }
+
+  public float[] getProjectionMatrix() {
+    return projectionMatrix;
+  }
+
+  /**
+   * Adds a command, executed by the next {@link #submit}.
+   *
+   * @param key The sort key, see {@link #key} and {@link #blendedKey}.
+   * @param executor Issues the GL calls of the command.
+   * @param payload Passed back to {@code executor}, e.g. an offset returned by {@link
+   *     #allocateInts} or {@link #allocateFloats}.
+   */
+  public void add(long key, Executor executor, int payload) {
+    if (count == keys.length) {
+      int capacity = 2 * keys.length;
+      keys = Arrays.copyOf(keys, capacity);
+      executors = Arrays.copyOf(executors, capacity);
+      payloads = Arrays.copyOf(payloads, capacity);
+      sortedKeys = new long[capacity];
+      order = new int[capacity];
+    }
+    keys[count] = key;
+    executors[count] = executor;
+    payloads[count] = payload;
+    ++count;
+  }
+
+  /**
+   * Reserves {@code size} ints in the int arena until the next {@link #submit} and returns the
+   * offset of the first one in {@link #getInts}. The arena may be replaced when it grows, so the
+   * array must be fetched again after allocating.
+   */
+  public int allocateInts(int size) {
+    if (intCount + size > ints.length) {
+      ints = Arrays.copyOf(ints, Math.max(2 * ints.length, intCount + size));
+    }
+    int offset = intCount;
+    intCount += size;
+    return offset;
+  }
+
+  /**
+   * Like {@link #allocateInts}, for the float arena returned by {@link #getFloats}. Offsets are
+   * multiples of 16, so matrices copied to the offset can be addressed by their index.
+   */
+  public int allocateFloats(int size) {
+    int alignedSize = (size + FLOAT_ALIGNMENT - 1) & -FLOAT_ALIGNMENT;
+    if (floatCount + alignedSize > floats.length) {
+      floats = Arrays.copyOf(floats, Math.max(2 * floats.length, floatCount + alignedSize));
+    }
+    int offset = floatCount;
+    floatCount += alignedSize;
+    return offset;
+  }
+
+  public int[] getInts() {
+    return ints;
+  }
+
+  public float[] getFloats() {
+    return floats;
+  }
+
+  /** Returns the number of commands added since the last {@link #submit} or {@link #clear}. */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Sorts the commands by key and executes them, then empties the queue. The queue is emptied even
+   * if an executor throws.
+   */
+  public void submit() {
+    try {
+      sort();
+      int pass = -1;
+      long previousKey = 0;
+      for (int i = 0; i < count; ++i) {
+        long key = sortedKeys[i];
+        int keyPass = passOf(key);
+        if (keyPass != pass) {
+          if (pass >= 0 && passListener != null) {
+            passListener.endPass(pass);
+          }
+          pass = keyPass;
+          if (passListener != null) {
+            passListener.beginPass(pass);
+          }
+        }
+        if (i == 0 || stateChanged(previousKey, key, PASS_SHIFT - ID_BITS)) {
+          ++programChangeCount;
+        }
+        if (i == 0 || stateChanged(previousKey, key, PASS_SHIFT - 2 * ID_BITS)) {
+          ++textureChangeCount;
+        }
+        if (i == 0 || stateChanged(previousKey, key, DEPTH_BITS)) {
+          ++meshChangeCount;
+        }
+        previousKey = key;
+        int command = order[i];
+        executors[command].execute(this, payloads[command]);
+        ++submittedCommandCount;
+      }
+      if (pass >= 0 && passListener != null) {
+        passListener.endPass(pass);
+      }
+    } finally {
+      clear();
+    }
+  }
+
+  /**
+   * Returns true if two consecutive keys differ in the id at {@code keyShift} in the layout of
+   * {@link #key}, or at its place in the layout of {@link #blendedKey}. Keys of different passes
+   * always differ.
+   */
+  private static boolean stateChanged(long previousKey, long key, int keyShift) {
+    int pass = passOf(key);
+    if (pass != passOf(previousKey)) {
+      return true;
+    }
+    int shift = pass == PASS_BLENDED ? keyShift - (PASS_SHIFT - 3 * ID_BITS) : keyShift;
+    return ((previousKey >>> shift) & ID_MASK) != ((key >>> shift) & ID_MASK);
+  }
+
+  /** Drops all commands and arena contents without executing them. */
+  public void clear() {
+    // Do not keep the executors of this frame reachable until the next one.
+    Arrays.fill(executors, 0, count, null);
+    count = 0;
+    intCount = 0;
+    floatCount = 0;
+  }
+
+  /** Returns the number of commands executed since the queue was created. */
+  public long getSubmittedCommandCount() {
+    return submittedCommandCount;
+  }
+
+  /**
+   * Returns the number of times a submitted command used a different program than the command
+   * before it, i.e. the program binds left after sorting.
+   */
+  public long getProgramChangeCount() {
+    return programChangeCount;
+  }
+
+  /** Like {@link #getProgramChangeCount}, for textures. */
+  public long getTextureChangeCount() {
+    return textureChangeCount;
+  }
+
+  /** Like {@link #getProgramChangeCount}, for meshes. */
+  public long getMeshChangeCount() {
+    return meshChangeCount;
+  }
+
+  /**
+   * Fills {@link #sortedKeys} and {@link #order} with the keys and indices of the commands, sorted
+   * by key with {@link KeySorter}. Most bytes are shared by all keys of a frame, e.g. the unused
+   * high bits of the ids, and are skipped by its radix sort.
+   */
+  private void sort() {
+    System.arraycopy(keys, 0, sortedKeys, 0, count);
+    for (int i = 0; i < count; ++i) {
+      order[i] = i;
+    }
+    keySorter.sort(sortedKeys, order, count);
+  }
+}
@@ -18,10 +18,12 @@ import android.content.Context;
 import android.opengl.GLES20;
 import android.util.Log;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
 
 /** Shader helper functions. */
 public class ShaderUtil {
@@ -34,7 +36,59 @@ public class ShaderUtil {
    */
   public static int loadGLShader(String tag, Context context, int type, String filename)
       throws IOException {
-    String code = readRawTextFileFromAssets(context, filename);
+    return loadGLShader(tag, context, type, filename, Collections.<String, Integer>emptyMap());
+  }
+
+  /**
+   * Converts a raw text file, saved as a resource, into an OpenGL ES shader, prepending a {@code
+   * #define} for each entry of {@code defineValuesMap}.
+   *
+   * @param type The type of shader we will be creating.
+   * @param filename The filename of the asset file about to be turned into a shader.
+   * @param defineValuesMap The #define values to add to the top of the shader source code.
+   * @return The shader object handler.
+   */
+  public static int loadGLShader(
+      String tag, Context context, int type, String filename, Map<String, Integer> defineValuesMap)
+      throws IOException {
+    return compileShader(tag, type, readShaderSource(context, filename, defineValuesMap));
+  }
+
+  /**
+   * Reads the source code of a shader asset, prepending a {@code #define} for each entry of {@code
+   * defineValuesMap}, then the source code of each asset in {@code includeFilenames}.
+   *
+   * @param filename The filename of the asset file containing the shader.
+   * @param defineValuesMap The #define values to add to the top of the shader source code.
+   * @param includeFilenames The filenames of asset files with code shared between shaders, added
+   *     after the #define values.
+   * @return The source code, as passed to {@link #compileShader}.
+   */
+  public static String readShaderSource(
+      Context context,
+      String filename,
+      Map<String, Integer> defineValuesMap,
+      String... includeFilenames)
+      throws IOException {
+    StringBuilder code = new StringBuilder();
+    for (Map.Entry<String, Integer> entry : defineValuesMap.entrySet()) {
+      code.append("#define ").append(entry.getKey()).append(' ').append(entry.getValue());
+      code.append('\n');
+    }
+    for (String includeFilename : includeFilenames) {
+      code.append(readRawTextFileFromAssets(context, includeFilename)).append('\n');
+    }
+    return code.append(readRawTextFileFromAssets(context, filename)).toString();
+  }
+
+  /**
+   * Compiles shader source code into an OpenGL ES shader.
+   *
+   * @param type The type of shader we will be creating.
+   * @param code The source code of the shader.
+   * @return The shader object handler.
+   */
+  public static int compileShader(String tag, int type, String code) {
     int shader = GLES20.glCreateShader(type);
     GLES20.glShaderSource(shader, code);
     GLES20.glCompileShader(shader);
@@ -77,21 +131,22 @@ public class ShaderUtil {
   }
 
   /**
-   * Converts a raw text file into a string.
+   * Converts a raw text file into a string. The file is read in one piece and decoded once, rather
+   * than line by line.
    *
    * @param filename The filename of the asset file about to be turned into a shader.
-   * @return The context of the text file, or null in case of error.
+   * @return The content of the text file.
    */
   private static String readRawTextFileFromAssets(Context context, String filename)
       throws IOException {
-    try (InputStream inputStream = context.getAssets().open(filename);
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-      StringBuilder sb = new StringBuilder();
-      String line;
-      while ((line = reader.readLine()) != null) {
-        sb.append(line).append("\n");
+    try (InputStream inputStream = context.getAssets().open(filename)) {
+      ByteArrayOutputStream content = new ByteArrayOutputStream(inputStream.available());
+      byte[] buffer = new byte[4096];
+      int count;
+      while ((count = inputStream.read(buffer)) > 0) {
+        content.write(buffer, 0, count);
       }
-      return sb.toString();
+      return new String(content.toByteArray(), StandardCharsets.UTF_8);
     }
   }
 }
@@ -0,0 +1,213 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import com.google.ar.core.Plane;
+import com.google.ar.core.Pose;
+import com.google.ar.core.TrackingState;
+
+import java.nio.FloatBuffer;
+import java.util.Collection;
+
+/**
+ * The tracked planes of one frame that face the camera, sorted by increasing distance so that
+ * closer planes are drawn first and occlude farther ones. The sort records are reused, so updating
+ * does not allocate once the list has grown to the number of planes.
+ *
+ * <p>Besides the planes, the list holds everything {@link PlaneRenderer} draws them from: their
+ * center poses and shapes, and the planes whose meshes can be released. It can be filled on one
+ * thread and drawn on another, without calling into ARCore while the other thread updates the
+ * session.
+ *
+ * @see PlaneRenderer#drawPlanes(SortedPlanes, float[], float[])
+ */
+public final class SortedPlanes {
+  private static final int INITIAL_CAPACITY = 16;
+
+  private SortablePlane[] planes = createSortablePlanes(INITIAL_CAPACITY);
+  private int size;
+  private Plane[] droppedPlanes = new Plane[INITIAL_CAPACITY];
+  private int droppedCount;
+
+  /**
+   * Replaces the list with the planes of {@code allPlanes} that are tracked, not subsumed by
+   * another plane and facing the camera. The planes that stopped tracking or were subsumed become
+   * the dropped planes.
+   *
+   * @param allPlanes The planes of the session.
+   * @param cameraPose The pose of the camera, as returned by {@link
+   *     com.google.ar.core.Camera#getDisplayOrientedPose()}.
+   */
+  public void update(Collection<Plane> allPlanes, Pose cameraPose) {
+    clear();
+    for (Plane plane : allPlanes) {
+      TrackingState state = plane.getTrackingState();
+      boolean subsumed = plane.getSubsumedBy() != null;
+      if (PlaneRenderer.isPlaneMeshStale(state, subsumed)) {
+        addDropped(plane);
+        continue;
+      }
+      if (state != TrackingState.TRACKING) {
+        continue;
+      }
+
+      Pose centerPose = plane.getCenterPose();
+      float distance = PlaneRenderer.calculateDistanceToPlane(centerPose, cameraPose);
+      if (distance < 0) { // Plane is back-facing.
+        continue;
+      }
+      add(distance, plane, centerPose)
+          .setShape(plane.getExtentX(), plane.getExtentZ(), plane.getPolygon());
+    }
+    sortByDistance(planes, size);
+  }
+
+  /**
+   * Replaces the list with the planes of {@code tracker} that are tracked and facing the camera,
+   * and takes the planes the tracker dropped since the last update as the dropped planes. The
+   * tracker already orders the planes and holds their state, so this copies references without
+   * querying ARCore.
+   */
+  public void update(PlaneTracker tracker) {
+    clear();
+    PlaneTracker.TrackedPlane[] trackedPlanes = tracker.getTrackedPlanes();
+    for (int i = 0; i < tracker.size(); ++i) {
+      PlaneTracker.TrackedPlane tracked = trackedPlanes[i];
+      if (!tracked.tracking || tracked.distance < 0) { // Paused or back-facing.
+        continue;
+      }
+      add(tracked.distance, tracked.plane, tracked.centerPose)
+          .setShape(tracked.extentX, tracked.extentZ, tracked.polygon);
+    }
+    for (int i = 0; i < tracker.getDroppedCount(); ++i) {
+      addDropped(tracker.getDroppedPlane(i));
+    }
+    tracker.clearDroppedPlanes();
+  }
+
+  /** Empties the list, so the planes of the last update are no longer reachable through it. */
+  public void clear() {
+    for (int i = 0; i < size; ++i) {
+      planes[i].reset();
+    }
+    size = 0;
+    for (int i = 0; i < droppedCount; ++i) {
+      droppedPlanes[i] = null;
+    }
+    droppedCount = 0;
+  }
+
+  private SortablePlane add(float distance, Plane plane, Pose centerPose) {
+    if (size == planes.length) {
+      SortablePlane[] grown = createSortablePlanes(2 * planes.length);
+      System.arraycopy(planes, 0, grown, 0, size);
+      planes = grown;
+    }
+    SortablePlane added = planes[size++];
+    added.set(distance, plane, centerPose);
+    return added;
+  }
+
+  private void addDropped(Plane plane) {
+    if (droppedCount == droppedPlanes.length) {
+      Plane[] grown = new Plane[2 * droppedPlanes.length];
+      System.arraycopy(droppedPlanes, 0, grown, 0, droppedCount);
+      droppedPlanes = grown;
+    }
+    droppedPlanes[droppedCount++] = plane;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public Plane getPlane(int index) {
+    return planes[index].plane;
+  }
+
+  /** Returns the center pose of a plane, as it was when the list was updated. */
+  public Pose getCenterPose(int index) {
+    return planes[index].centerPose;
+  }
+
+  /** Returns the extent of a plane along the x axis of its center pose, see {@link #getPolygon}. */
+  public float getExtentX(int index) {
+    return planes[index].extentX;
+  }
+
+  /** Returns the extent of a plane along the z axis of its center pose, see {@link #getPolygon}. */
+  public float getExtentZ(int index) {
+    return planes[index].extentZ;
+  }
+
+  /**
+   * Returns the boundary polygon of a plane as it was when the list was updated, see {@code
+   * Plane.getPolygon()}. Only its position may be changed.
+   */
+  public FloatBuffer getPolygon(int index) {
+    return planes[index].polygon;
+  }
+
+  /** Returns the number of planes that stopped tracking or were subsumed by another plane. */
+  public int getDroppedCount() {
+    return droppedCount;
+  }
+
+  /** Returns a plane that stopped tracking or was subsumed, whose mesh can be released. */
+  public Plane getDroppedPlane(int index) {
+    return droppedPlanes[index];
+  }
+
+  /** Sort record of a plane, reused across frames. */
+  static class SortablePlane {
+    float distance;
+    Plane plane;
+    Pose centerPose;
+    float extentX;
+    float extentZ;
+    // ARCore returns a new buffer on every call, so the records of both threads can share it.
+    FloatBuffer polygon;
+
+    void set(float distance, Plane plane, Pose centerPose) {
+      this.distance = distance;
+      this.plane = plane;
+      this.centerPose = centerPose;
+    }
+
+    void setShape(float extentX, float extentZ, FloatBuffer polygon) {
+      this.extentX = extentX;
+      this.extentZ = extentZ;
+      this.polygon = polygon;
+    }
+
+    /** Drops the references to the plane, so it is no longer reachable through the record. */
+    void reset() {
+      set(0.0f, null, null);
+      setShape(0.0f, 0.0f, null);
+    }
+  }
+
+  static SortablePlane[] createSortablePlanes(int count) {
+    SortablePlane[] planes = new SortablePlane[count];
+    for (int i = 0; i < count; ++i) {
+      planes[i] = new SortablePlane();
+    }
+    return planes;
+  }
+
+  /**
+   * Sorts the first {@code count} records by increasing distance, keeping the order of equal
+   * distances. An insertion sort does not allocate, unlike Collections.sort(), and is linear for
+   * the few planes of a frame, which arrive in nearly the same order every frame. Also sorts the
+   * records of {@link PlaneTracker}, which extend {@link SortablePlane}.
+   */
+  static void sortByDistance(SortablePlane[] planes, int count) {
+    for (int i = 1; i < count; ++i) {
+      SortablePlane plane = planes[i];
+      int j = i - 1;
+      while (j >= 0 && planes[j].distance > plane.distance) {
+        planes[j + 1] = planes[j];
+        --j;
+      }
+      planes[j + 1] = plane;
+    }
+  }
+}
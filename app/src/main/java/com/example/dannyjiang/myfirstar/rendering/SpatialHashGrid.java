@@ -0,0 +1,364 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import java.util.Arrays;
+
+/**
+ * Indexes points, such as the positions of anchors, in a uniform grid of cubic cells kept in a
+ * hash table. Supports nearest neighbour and radius queries, and culling all points of a cell with
+ * one frustum test, see {@link #cull}.
+ *
+ * <p>Points are identified by small non-negative ids chosen by the caller. A point only moves in
+ * the index once it is farther than a threshold from its indexed position, so poses that are
+ * refined slightly every frame cost one distance test each; queries see positions that are off by
+ * up to that threshold. Cell coordinates must stay within +-2^20 cells. No method allocates unless
+ * the index grows. Not thread-safe.
+ */
+public final class SpatialHashGrid {
+  /** Returned by {@link #findNearest} when no point is close enough. */
+  public static final int NONE = -1;
+
+  // Bits per cell coordinate in a cell key.
+  private static final int KEY_BITS = 21;
+  private static final long KEY_MASK = (1L << KEY_BITS) - 1;
+  private static final int MIN_CELL_SLOTS = 64;
+
+  private final float cellSize;
+  private final float inverseCellSize;
+  private final float moveThresholdSquared;
+
+  // Per point, by id: indexed position, cell slot or NONE, and links of the list of its cell.
+  private float[] positions = new float[3 * 16];
+  private int[] pointCells = newIntArray(16, NONE);
+  private int[] nextInCell = new int[16];
+  private int[] previousInCell = new int[16];
+  private int size;
+
+  // Open addressing hash table of cells, with linear probing. Free slots have a count of NONE,
+  // cells that became empty stay in the table until it is rebuilt.
+  private long[] cellKeys = new long[MIN_CELL_SLOTS];
+  private int[] cellHeads = newIntArray(MIN_CELL_SLOTS, NONE);
+  private int[] cellCounts = newIntArray(MIN_CELL_SLOTS, NONE);
+  private int[] cellVisibilities = new int[MIN_CELL_SLOTS];
+  private int usedCellSlots;
+
+  // Result of the last nearest neighbour scan.
+  private int nearestId;
+  private float nearestDistanceSquared;
+
+  private long moveCount;
+
+  /**
+   * @param cellSize Edge length of the cells, e.g. about the radius of typical queries.
+   * @param moveThreshold Distance a point must move before the index is updated.
+   */
+  public SpatialHashGrid(float cellSize, float moveThreshold) {
+    if (!(cellSize > 0) || moveThreshold < 0) {
+      throw new IllegalArgumentException(
+          "Invalid cell size " + cellSize + " or move threshold " + moveThreshold);
+    }
+    this.cellSize = cellSize;
+    inverseCellSize = 1.0f / cellSize;
+    moveThresholdSquared = moveThreshold * moveThreshold;
+  }
+
+  /** Returns the number of indexed points. */
+  public int size() {
+    return size;
+  }
+
+  /** Returns the number of times a point was indexed at a new position. */
+  public long getMoveCount() {
+    return moveCount;
+  }
+
+  public boolean contains(int id) {
+    return id >= 0 && id < pointCells.length && pointCells[id] != NONE;
+  }
+
+  /**
+   * Indexes a point, or moves it if it moved farther than the threshold since it was last indexed.
+   *
+   * @return Whether the indexed position changed.
+   */
+  public boolean update(int id, float x, float y, float z) {
+    if (id < 0) {
+      throw new IllegalArgumentException("Negative id " + id);
+    }
+    if (id >= pointCells.length) {
+      growPoints(Math.max(id + 1, 2 * pointCells.length));
+    }
+    int p = 3 * id;
+    if (pointCells[id] != NONE
+        && distanceSquared(positions, p, x, y, z) <= moveThresholdSquared) {
+      return false;
+    }
+    positions[p] = x;
+    positions[p + 1] = y;
+    positions[p + 2] = z;
+    ++moveCount;
+    // Look up the cell first: rebuilding the table moves the current cell of the point.
+    int slot = findCell(cellKey(x, y, z), true);
+    int cell = pointCells[id];
+    if (cell != slot) {
+      if (cell == NONE) {
+        ++size;
+      } else {
+        unlink(id, cell);
+      }
+      link(id, slot);
+    }
+    return true;
+  }
+
+  /** Removes a point, returns false if it was not indexed. */
+  public boolean remove(int id) {
+    if (!contains(id)) {
+      return false;
+    }
+    unlink(id, pointCells[id]);
+    pointCells[id] = NONE;
+    --size;
+    return true;
+  }
+
+  /** Removes all points. */
+  public void clear() {
+    Arrays.fill(pointCells, NONE);
+    size = 0;
+    Arrays.fill(cellHeads, NONE);
+    Arrays.fill(cellCounts, NONE);
+    usedCellSlots = 0;
+  }
+
+  /**
+   * Returns the id of the indexed point closest to a position, or {@link #NONE} if there is none
+   * within {@code maxDistance}. Visits every cell within {@code maxDistance}, so is meant for
+   * distances of a few cells.
+   */
+  public int findNearest(float x, float y, float z, float maxDistance) {
+    nearestId = NONE;
+    nearestDistanceSquared = maxDistance * maxDistance;
+    scan(x, y, z, maxDistance, null);
+    return nearestId;
+  }
+
+  /**
+   * Finds the indexed points within {@code radius} of a position, in no particular order.
+   *
+   * @param out Receives the ids of the first {@code out.length} points found.
+   * @return The number of points within the radius, which may exceed {@code out.length}.
+   */
+  public int findWithinRadius(float x, float y, float z, float radius, int[] out) {
+    return scan(x, y, z, radius, out);
+  }
+
+  /**
+   * Classifies every cell against the frustum of {@code culler}, for {@link #getVisibility}.
+   *
+   * @param culler A culler set to the camera of the frame.
+   * @param margin How far the objects at the points extend beyond them, plus the move threshold.
+   */
+  public void cull(FrustumCuller culler, float margin) {
+    for (int slot = 0; slot < cellCounts.length; ++slot) {
+      if (cellCounts[slot] <= 0) {
+        cellVisibilities[slot] = FrustumCuller.INTERSECTING;
+        continue;
+      }
+      long key = cellKeys[slot];
+      // Sign-extend each 21-bit coordinate.
+      float minX = (int) ((key << 1) >> (64 - KEY_BITS)) * cellSize - margin;
+      float minY = (int) ((key << (1 + KEY_BITS)) >> (64 - KEY_BITS)) * cellSize - margin;
+      float minZ = (int) ((key << (1 + 2 * KEY_BITS)) >> (64 - KEY_BITS)) * cellSize - margin;
+      float extent = cellSize + 2 * margin;
+      cellVisibilities[slot] =
+          culler.classifyBox(minX, minY, minZ, minX + extent, minY + extent, minZ + extent);
+    }
+  }
+
+  /**
+   * Returns the result of the last {@link #cull} for the cell of a point: {@link
+   * FrustumCuller#OUTSIDE} or {@link FrustumCuller#INSIDE} if the object at the point is outside
+   * or inside of the frustum as a whole, otherwise {@link FrustumCuller#INTERSECTING}, also for
+   * points that were not indexed or that moved to a new cell since.
+   */
+  public int getVisibility(int id) {
+    return contains(id) ? cellVisibilities[pointCells[id]] : FrustumCuller.INTERSECTING;
+  }
+
+  /**
+   * Visits the points within {@code radius}, storing their ids in {@code out}, or the closest one
+   * in {@link #nearestId} if {@code out} is null. Returns the number of points within the radius.
+   */
+  private int scan(float x, float y, float z, float radius, int[] out) {
+    int minX = cellCoordinate(x - radius);
+    int minY = cellCoordinate(y - radius);
+    int minZ = cellCoordinate(z - radius);
+    int maxX = cellCoordinate(x + radius);
+    int maxY = cellCoordinate(y + radius);
+    int maxZ = cellCoordinate(z + radius);
+    long rangeCells = (maxX - minX + 1L) * (maxY - minY + 1L) * (maxZ - minZ + 1L);
+    float radiusSquared = radius * radius;
+    int count = 0;
+    if (rangeCells > cellCounts.length) {
+      // Cheaper to look at every cell in the table than at every cell in range.
+      for (int slot = 0; slot < cellCounts.length; ++slot) {
+        count = scanCell(slot, x, y, z, radiusSquared, out, count);
+      }
+      return count;
+    }
+    for (int cx = minX; cx <= maxX; ++cx) {
+      for (int cy = minY; cy <= maxY; ++cy) {
+        for (int cz = minZ; cz <= maxZ; ++cz) {
+          int slot = findCell(cellKey(cx, cy, cz), false);
+          if (slot != NONE) {
+            count = scanCell(slot, x, y, z, radiusSquared, out, count);
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  private int scanCell(
+      int slot, float x, float y, float z, float radiusSquared, int[] out, int count) {
+    for (int id = cellHeads[slot]; id != NONE; id = nextInCell[id]) {
+      float distanceSquared = distanceSquared(positions, 3 * id, x, y, z);
+      if (distanceSquared > radiusSquared) {
+        continue;
+      }
+      if (out == null) {
+        if (distanceSquared <= nearestDistanceSquared) {
+          nearestId = id;
+          nearestDistanceSquared = distanceSquared;
+        }
+      } else if (count < out.length) {
+        out[count] = id;
+      }
+      ++count;
+    }
+    return count;
+  }
+
+  /** Returns the slot of a cell, or NONE if it is not in the table and {@code create} is false. */
+  private int findCell(long key, boolean create) {
+    if (create && 2 * (usedCellSlots + 1) > cellCounts.length) {
+      rebuildCells();
+    }
+    int mask = cellCounts.length - 1;
+    int slot = hash(key) & mask;
+    while (cellCounts[slot] != NONE) {
+      if (cellKeys[slot] == key) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (!create) {
+      return NONE;
+    }
+    cellKeys[slot] = key;
+    cellHeads[slot] = NONE;
+    cellCounts[slot] = 0;
+    cellVisibilities[slot] = FrustumCuller.INTERSECTING;
+    ++usedCellSlots;
+    return slot;
+  }
+
+  /** Drops the empty cells, and resizes the table to a load factor of at most 1/4. */
+  private void rebuildCells() {
+    long[] oldKeys = cellKeys;
+    int[] oldHeads = cellHeads;
+    int[] oldCounts = cellCounts;
+    int[] oldVisibilities = cellVisibilities;
+    int cellCount = 0;
+    for (int count : oldCounts) {
+      if (count > 0) {
+        ++cellCount;
+      }
+    }
+    int length = MIN_CELL_SLOTS;
+    while (length < 4 * cellCount) {
+      length *= 2;
+    }
+    cellKeys = new long[length];
+    cellHeads = newIntArray(length, NONE);
+    cellCounts = newIntArray(length, NONE);
+    cellVisibilities = new int[length];
+    usedCellSlots = 0;
+    for (int oldSlot = 0; oldSlot < oldCounts.length; ++oldSlot) {
+      if (oldCounts[oldSlot] <= 0) {
+        continue;
+      }
+      int slot = findCell(oldKeys[oldSlot], true);
+      cellHeads[slot] = oldHeads[oldSlot];
+      cellCounts[slot] = oldCounts[oldSlot];
+      cellVisibilities[slot] = oldVisibilities[oldSlot];
+      for (int id = cellHeads[slot]; id != NONE; id = nextInCell[id]) {
+        pointCells[id] = slot;
+      }
+    }
+  }
+
+  private void link(int id, int slot) {
+    int head = cellHeads[slot];
+    nextInCell[id] = head;
+    previousInCell[id] = NONE;
+    if (head != NONE) {
+      previousInCell[head] = id;
+    }
+    cellHeads[slot] = id;
+    ++cellCounts[slot];
+    pointCells[id] = slot;
+  }
+
+  private void unlink(int id, int slot) {
+    int previous = previousInCell[id];
+    int next = nextInCell[id];
+    if (previous == NONE) {
+      cellHeads[slot] = next;
+    } else {
+      nextInCell[previous] = next;
+    }
+    if (next != NONE) {
+      previousInCell[next] = previous;
+    }
+    --cellCounts[slot];
+  }
+
+  private void growPoints(int length) {
+    positions = Arrays.copyOf(positions, 3 * length);
+    int oldLength = pointCells.length;
+    pointCells = Arrays.copyOf(pointCells, length);
+    Arrays.fill(pointCells, oldLength, length, NONE);
+    nextInCell = Arrays.copyOf(nextInCell, length);
+    previousInCell = Arrays.copyOf(previousInCell, length);
+  }
+
+  private int cellCoordinate(float value) {
+    return (int) Math.floor(value * inverseCellSize);
+  }
+
+  private long cellKey(float x, float y, float z) {
+    return cellKey(cellCoordinate(x), cellCoordinate(y), cellCoordinate(z));
+  }
+
+  private static long cellKey(int cx, int cy, int cz) {
+    return ((cx & KEY_MASK) << (2 * KEY_BITS)) | ((cy & KEY_MASK) << KEY_BITS) | (cz & KEY_MASK);
+  }
+
+  private static int hash(long key) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+  }
+
+  private static float distanceSquared(float[] positions, int p, float x, float y, float z) {
+    float dx = positions[p] - x;
+    float dy = positions[p + 1] - y;
+    float dz = positions[p + 2] - z;
+    return dx * dx + dy * dy + dz * dz;
+  }
+
+  private static int[] newIntArray(int length, int value) {
+    int[] array = new int[length];
+    Arrays.fill(array, value);
+    return array;
+  }
+}
@@ -0,0 +1,319 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.opengl.GLES32;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * The pixels of a texture, decoded into direct buffers that are ready to upload. Decoding needs no
+ * OpenGL context, so it can run on any thread, and only {@link #upload} runs on the OpenGL thread.
+ *
+ * <p>Textures are either RGBA pixels decoded from a PNG, whose mipmaps are generated on upload, or
+ * pre-compressed KTX 1.1 containers with a complete pre-built mip chain, see {@link #decode}.
+ */
+public final class TextureData {
+  private static final String PNG_EXTENSION = ".png";
+
+  // Compressed variants of a PNG asset, tried in this order. "models/andy.png" may be shipped as
+  // "models/andy.astc.ktx", "models/andy.etc2.ktx" and "models/andy.etc1.ktx".
+  private static final String[] KTX_EXTENSIONS = {".astc.ktx", ".etc2.ktx", ".etc1.ktx"};
+
+  private static final String ASTC_EXTENSION = "GL_KHR_texture_compression_astc_ldr";
+  private static final String ETC1_EXTENSION = "GL_OES_compressed_ETC1_RGB8_texture";
+
+  // KTX 1.1 header: identifier, then 13 32-bit fields in the byte order of the endianness field.
+  private static final byte[] KTX_IDENTIFIER = {
+    (byte) 0xab, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xbb, '\r', '\n', 0x1a, '\n'
+  };
+  private static final int KTX_ENDIANNESS = 0x04030201;
+  static final int KTX_HEADER_SIZE = 64;
+  private static final int KTX_INTERNAL_FORMAT_OFFSET = 28;
+
+  private final int width;
+  private final int height;
+  // GL_RGBA for uncompressed pixels, otherwise the compressed format.
+  private final int internalFormat;
+  private final boolean compressed;
+  // The images of each mip level, largest first. Uncompressed textures only have level 0.
+  private final ByteBuffer[] levels;
+
+  private TextureData(
+      int width, int height, int internalFormat, boolean compressed, ByteBuffer[] levels) {
+    this.width = width;
+    this.height = height;
+    this.internalFormat = internalFormat;
+    this.compressed = compressed;
+    this.levels = levels;
+  }
+
+  /**
+   * Decodes the best variant of a texture the context can sample: a compressed KTX variant of the
+   * PNG asset if one is shipped in a supported format, and the PNG otherwise. Compressed variants
+   * must hold premultiplied colors, like the decoded PNG.
+   *
+   * @param context Context for loading the assets.
+   * @param pngAssetName Name of the PNG file.
+   * @param capabilities Capabilities of the context the texture will be uploaded to.
+   */
+  public static TextureData decode(
+      Context context, String pngAssetName, GlCapabilities capabilities) throws IOException {
+    String baseName =
+        pngAssetName.endsWith(PNG_EXTENSION)
+            ? pngAssetName.substring(0, pngAssetName.length() - PNG_EXTENSION.length())
+            : pngAssetName;
+    for (String extension : KTX_EXTENSIONS) {
+      TextureData texture = decodeKtx(context, baseName + extension, capabilities);
+      if (texture != null) {
+        return texture;
+      }
+    }
+    return decodePng(context, pngAssetName);
+  }
+
+  /**
+   * Decodes a PNG asset. Like {@code GLUtils.texImage2D}, the colors are premultiplied by alpha.
+   *
+   * @param context Context for loading the asset.
+   * @param assetName Name of the PNG file.
+   */
+  public static TextureData decodePng(Context context, String assetName) throws IOException {
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    options.inScaled = false;
+    Bitmap bitmap;
+    try (InputStream stream = context.getAssets().open(assetName)) {
+      bitmap = BitmapFactory.decodeStream(stream, null, options);
+    }
+    if (bitmap == null || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+      throw new IOException("Cannot decode " + assetName + " into RGBA pixels");
+    }
+
+    ByteBuffer pixels =
+        ByteBuffer.allocateDirect(bitmap.getByteCount()).order(ByteOrder.nativeOrder());
+    bitmap.copyPixelsToBuffer(pixels);
+    pixels.rewind();
+    TextureData texture =
+        new TextureData(
+            bitmap.getWidth(),
+            bitmap.getHeight(),
+            GLES20.GL_RGBA,
+            false,
+            new ByteBuffer[] {pixels});
+    bitmap.recycle();
+    return texture;
+  }
+
+  /**
+   * Decodes a KTX asset, or returns null if it does not exist or the context cannot sample its
+   * format. The asset is mapped straight out of the APK and the levels share the mapping, so only
+   * the header of unsupported files is read.
+   */
+  private static TextureData decodeKtx(
+      Context context, String assetName, GlCapabilities capabilities) throws IOException {
+    ByteBuffer file = MeshLoader.openAsset(context, assetName);
+    if (file == null) {
+      return null;
+    }
+    try {
+      if (file.remaining() < KTX_HEADER_SIZE) {
+        throw new IOException("Truncated KTX header");
+      }
+      int internalFormat = resolveFormat(readKtxInternalFormat(file), capabilities);
+      if (internalFormat == 0) {
+        return null;
+      }
+      TextureData texture = parseKtx(file);
+      return new TextureData(texture.width, texture.height, internalFormat, true, texture.levels);
+    } catch (IOException e) {
+      throw new IOException("Cannot decode " + assetName, e);
+    }
+  }
+
+  /**
+   * Parses a KTX 1.1 file holding a compressed 2D texture with a complete mip chain. The levels
+   * share the content of {@code file}, which should be direct.
+   *
+   * @throws IOException If the file is not such a texture, or is truncated.
+   */
+  static TextureData parseKtx(ByteBuffer file) throws IOException {
+    ByteBuffer header = file.duplicate();
+    if (header.remaining() < KTX_HEADER_SIZE) {
+      throw new IOException("Truncated KTX header");
+    }
+    byte[] identifier = new byte[KTX_IDENTIFIER.length];
+    header.get(identifier);
+    if (!Arrays.equals(identifier, KTX_IDENTIFIER)) {
+      throw new IOException("Not a KTX 1.1 file");
+    }
+    header.order(ByteOrder.LITTLE_ENDIAN);
+    if (header.getInt(header.position()) != KTX_ENDIANNESS) {
+      header.order(ByteOrder.BIG_ENDIAN);
+    }
+    if (header.getInt() != KTX_ENDIANNESS) {
+      throw new IOException("Invalid KTX endianness");
+    }
+    int glType = header.getInt();
+    header.getInt(); // glTypeSize
+    int glFormat = header.getInt();
+    int internalFormat = header.getInt();
+    header.getInt(); // glBaseInternalFormat
+    int width = header.getInt();
+    int height = header.getInt();
+    int depth = header.getInt();
+    int arrayElements = header.getInt();
+    int faces = header.getInt();
+    int levelCount = header.getInt();
+    int keyValueBytes = header.getInt();
+
+    if (glType != 0 || glFormat != 0) {
+      throw new IOException("KTX texture is not compressed");
+    }
+    if (width <= 0 || height <= 0 || depth != 0 || arrayElements != 0 || faces != 1) {
+      throw new IOException("KTX texture is not a 2D texture");
+    }
+    // glGenerateMipmap cannot generate compressed levels, so the file must have them all.
+    if (levelCount != getFullMipLevelCount(width, height)) {
+      throw new IOException("KTX texture has " + levelCount + " mip levels, needs all");
+    }
+    if (keyValueBytes < 0 || keyValueBytes > header.remaining()) {
+      throw new IOException("Truncated KTX key/value data");
+    }
+    header.position(header.position() + keyValueBytes);
+
+    ByteBuffer[] levels = new ByteBuffer[levelCount];
+    for (int level = 0; level < levelCount; ++level) {
+      int imageSize = header.remaining() >= 4 ? header.getInt() : -1;
+      if (imageSize <= 0 || imageSize > header.remaining()) {
+        throw new IOException("Truncated KTX mip level " + level);
+      }
+      ByteBuffer image = header.duplicate();
+      image.limit(header.position() + imageSize);
+      levels[level] = image.slice();
+      // Images are padded to 4 bytes, the padding of the last one may be missing.
+      header.position(Math.min(header.limit(), header.position() + ((imageSize + 3) & ~3)));
+    }
+    return new TextureData(width, height, internalFormat, true, levels);
+  }
+
+  /** Returns the number of levels of a mip chain down to 1x1. */
+  static int getFullMipLevelCount(int width, int height) {
+    return 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+  }
+
+  /**
+   * Returns the format to upload a compressed format with, or 0 if the context cannot sample it.
+   * ETC2 decoders also decode ETC1 data, so ETC1 only needs its extension on OpenGL ES 2.0.
+   */
+  private static int resolveFormat(int internalFormat, GlCapabilities capabilities) {
+    if (internalFormat == GLES11Ext.GL_ETC1_RGB8_OES) {
+      if (capabilities.hasExtension(ETC1_EXTENSION)) {
+        return internalFormat;
+      }
+      return capabilities.isGles30() ? GLES30.GL_COMPRESSED_RGB8_ETC2 : 0;
+    }
+    if (internalFormat >= GLES30.GL_COMPRESSED_R11_EAC
+        && internalFormat <= GLES30.GL_COMPRESSED_SRGB8_ALPHA8_ETC2_EAC) {
+      return capabilities.isGles30() ? internalFormat : 0;
+    }
+    if ((internalFormat >= GLES32.GL_COMPRESSED_RGBA_ASTC_4x4
+            && internalFormat <= GLES32.GL_COMPRESSED_RGBA_ASTC_12x12)
+        || (internalFormat >= GLES32.GL_COMPRESSED_SRGB8_ALPHA8_ASTC_4x4
+            && internalFormat <= GLES32.GL_COMPRESSED_SRGB8_ALPHA8_ASTC_12x12)) {
+      return capabilities.hasExtension(ASTC_EXTENSION) ? internalFormat : 0;
+    }
+    return 0;
+  }
+
+  private static int readKtxInternalFormat(ByteBuffer file) {
+    ByteBuffer header = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int start = header.position();
+    if (header.getInt(start + KTX_IDENTIFIER.length) != KTX_ENDIANNESS) {
+      header.order(ByteOrder.BIG_ENDIAN);
+    }
+    return header.getInt(start + KTX_INTERNAL_FORMAT_OFFSET);
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /** Returns true if the texture is stored compressed on the GPU. */
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+  /** Returns GL_RGBA for uncompressed textures, otherwise the compressed format. */
+  public int getInternalFormat() {
+    return internalFormat;
+  }
+
+  /** Returns the number of mip levels stored, 1 for textures whose mipmaps are generated. */
+  public int getLevelCount() {
+    return levels.length;
+  }
+
+  /** Returns the GPU memory the uploaded texture takes, including all mip levels. */
+  public long getGpuBytes() {
+    if (!compressed) {
+      // The generated mip levels add a third to the RGBA pixels of level 0.
+      return levels[0].remaining() * 4L / 3;
+    }
+    long gpuBytes = 0;
+    for (ByteBuffer level : levels) {
+      gpuBytes += level.remaining();
+    }
+    return gpuBytes;
+  }
+
+  /**
+   * Uploads the texture with all its mip levels into the texture bound to GL_TEXTURE_2D. Must be
+   * called on the OpenGL thread.
+   */
+  public void upload() {
+    if (!compressed) {
+      // Rows of RGBA pixels are always 4 byte aligned, the default unpack alignment.
+      GLES20.glTexImage2D(
+          GLES20.GL_TEXTURE_2D,
+          0,
+          GLES20.GL_RGBA,
+          width,
+          height,
+          0,
+          GLES20.GL_RGBA,
+          GLES20.GL_UNSIGNED_BYTE,
+          levels[0]);
+      GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+      return;
+    }
+
+    int levelWidth = width;
+    int levelHeight = height;
+    for (int level = 0; level < levels.length; ++level) {
+      GLES20.glCompressedTexImage2D(
+          GLES20.GL_TEXTURE_2D,
+          level,
+          internalFormat,
+          levelWidth,
+          levelHeight,
+          0,
+          levels[level].remaining(),
+          levels[level]);
+      levelWidth = Math.max(1, levelWidth / 2);
+      levelHeight = Math.max(1, levelHeight / 2);
+    }
+  }
+}
@@ -0,0 +1,360 @@
+package com.example.dannyjiang.myfirstar.utils;
+
+import java.util.Arrays;
+
+/**
+ * Holds the placed anchors, up to a capacity, together with the model placed on each and the state
+ * an {@link EvictionPolicy} needs. When the store is full, a whole batch of anchors is evicted at
+ * once, so the cost of choosing them is spread over the following placements.
+ *
+ * <p>Anchors are kept in dense arrays and removed by moving the last anchor into the hole, so
+ * removing one is O(1) and indices change on eviction. Each anchor also has an id that stays the
+ * same until it is detached, e.g. to find it in a spatial index; ids are small and reused. The
+ * store is not thread-safe: the frame pipeline only reads it while the render thread is not adding
+ * anchors.
+ *
+ * @param <T> The anchor type, e.g. {@code com.google.ar.core.Anchor}.
+ */
+public final class AnchorStore<T> {
+  /** Releases an anchor that was evicted or cleared, e.g. with {@code Anchor.detach()}. */
+  public interface Detacher<T> {
+    /** @param id The id of the anchor, which may be given to a new anchor afterwards. */
+    void detach(T anchor, int id);
+  }
+
+  /** Decides which anchors are evicted first when the store is full. */
+  public interface EvictionPolicy {
+    /** Returns how eagerly the anchor at {@code index} is evicted, the highest scores go first. */
+    double score(AnchorStore<?> store, int index);
+  }
+
+  /** Evicts the anchors placed first. */
+  public static final EvictionPolicy OLDEST_FIRST =
+      new EvictionPolicy() {
+        @Override
+        public double score(AnchorStore<?> store, int index) {
+          return store.getAge(index);
+        }
+      };
+
+  /** Evicts the anchors that have not been on screen for the most frames. */
+  public static final EvictionPolicy LEAST_RECENTLY_VISIBLE =
+      new EvictionPolicy() {
+        @Override
+        public double score(AnchorStore<?> store, int index) {
+          return store.getFramesSinceVisible(index);
+        }
+      };
+
+  /** Evicts the anchors farthest from the camera. */
+  public static final EvictionPolicy FARTHEST_FROM_CAMERA =
+      new EvictionPolicy() {
+        @Override
+        public double score(AnchorStore<?> store, int index) {
+          return store.getCameraDistance(index);
+        }
+      };
+
+  // Added to the scores of anchors that are not tracking, larger than any score of the policies
+  // above while keeping their order within both groups.
+  private static final double NOT_TRACKING_BONUS = 1e15;
+
+  /** Evicts anchors that are not tracking first, and orders each group by {@code policy}. */
+  public static EvictionPolicy notTrackingFirst(final EvictionPolicy policy) {
+    return new EvictionPolicy() {
+      @Override
+      public double score(AnchorStore<?> store, int index) {
+        double score = policy.score(store, index);
+        return store.isTracking(index) ? score : score + NOT_TRACKING_BONUS;
+      }
+    };
+  }
+
+  private final Detacher<T> detacher;
+  private EvictionPolicy policy;
+  private int capacity;
+  private int evictionBatchSize;
+
+  private int size;
+  private Object[] anchors = new Object[16];
+  private int[] models = new int[16];
+  private int[] ids = new int[16];
+  private long[] placements = new long[16];
+  private long[] lastVisibleFrames = new long[16];
+  private float[] cameraDistances = new float[16];
+  private boolean[] tracking = new boolean[16];
+  // Scratch space for choosing the anchors to evict.
+  private double[] scores = new double[16];
+  private double[] selection = new double[16];
+
+  // Ids of detached anchors, reused before new ones.
+  private int[] freeIds = new int[16];
+  private int freeIdCount;
+  private int nextId;
+
+  private long placementCount;
+  private long frameNumber;
+  private long evictionCount;
+
+  /**
+   * @param capacity Maximum number of anchors.
+   * @param evictionBatchSize Number of anchors evicted when an anchor is added to a full store.
+   * @param policy Chooses the anchors to evict.
+   * @param detacher Releases evicted anchors.
+   */
+  public AnchorStore(
+      int capacity, int evictionBatchSize, EvictionPolicy policy, Detacher<T> detacher) {
+    this.detacher = detacher;
+    setPolicy(policy);
+    setCapacity(capacity, evictionBatchSize);
+  }
+
+  /** Sets the policy of the next evictions. */
+  public void setPolicy(EvictionPolicy policy) {
+    if (policy == null) {
+      throw new NullPointerException("policy");
+    }
+    this.policy = policy;
+  }
+
+  /**
+   * Sets the maximum number of anchors and the eviction batch size. Evicts anchors right away if
+   * there are more than {@code capacity}.
+   */
+  public void setCapacity(int capacity, int evictionBatchSize) {
+    if (capacity < 1 || evictionBatchSize < 1 || evictionBatchSize > capacity) {
+      throw new IllegalArgumentException(
+          "Invalid capacity " + capacity + " or batch size " + evictionBatchSize);
+    }
+    this.capacity = capacity;
+    this.evictionBatchSize = evictionBatchSize;
+    if (size > capacity) {
+      evict(size - capacity);
+    }
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Returns the total number of anchors evicted to stay within the capacity. */
+  public long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Adds an anchor, first evicting a batch of anchors if the store is full. Evicting may move the
+   * other anchors to different indices.
+   *
+   * @param anchor The anchor.
+   * @param model The model placed on the anchor.
+   */
+  public void add(T anchor, int model) {
+    if (size == capacity) {
+      evict(evictionBatchSize);
+    }
+    if (size == anchors.length) {
+      grow(2 * size);
+    }
+    anchors[size] = anchor;
+    models[size] = model;
+    ids[size] = freeIdCount > 0 ? freeIds[--freeIdCount] : nextId++;
+    placements[size] = placementCount++;
+    // New anchors are placed where the user looks, and count as visible.
+    lastVisibleFrames[size] = frameNumber;
+    cameraDistances[size] = 0;
+    tracking[size] = true;
+    ++size;
+  }
+
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    checkIndex(index);
+    return (T) anchors[index];
+  }
+
+  /** Returns the model placed on an anchor. */
+  public int getModel(int index) {
+    checkIndex(index);
+    return models[index];
+  }
+
+  /** Returns the id of an anchor, which does not change until it is detached. */
+  public int getId(int index) {
+    checkIndex(index);
+    return ids[index];
+  }
+
+  /** Marks the start of a frame, for {@link #update} and {@link #getFramesSinceVisible}. */
+  public void beginFrame() {
+    ++frameNumber;
+  }
+
+  /**
+   * Records the state of an anchor in the current frame. Called for every anchor while preparing
+   * the frame, so it does no more than store the values.
+   *
+   * @param index The anchor.
+   * @param tracking Whether the anchor is tracking.
+   * @param cameraDistance Distance between the anchor and the camera, or any monotonic function
+   *     of it such as its square.
+   * @param visible Whether the anchor is on screen.
+   */
+  public void update(int index, boolean tracking, float cameraDistance, boolean visible) {
+    checkIndex(index);
+    this.tracking[index] = tracking;
+    cameraDistances[index] = cameraDistance;
+    if (visible) {
+      lastVisibleFrames[index] = frameNumber;
+    }
+  }
+
+  /** Returns the number of anchors placed after this one. */
+  public long getAge(int index) {
+    checkIndex(index);
+    return placementCount - 1 - placements[index];
+  }
+
+  /** Returns the number of frames since the anchor was last visible, 0 if visible now. */
+  public long getFramesSinceVisible(int index) {
+    checkIndex(index);
+    return frameNumber - lastVisibleFrames[index];
+  }
+
+  /** Returns the camera distance last passed to {@link #update}. */
+  public float getCameraDistance(int index) {
+    checkIndex(index);
+    return cameraDistances[index];
+  }
+
+  /** Returns the tracking state last passed to {@link #update}. */
+  public boolean isTracking(int index) {
+    checkIndex(index);
+    return tracking[index];
+  }
+
+  /** Detaches and removes all anchors. */
+  public void clear() {
+    for (int i = 0; i < size; ++i) {
+      detach(i);
+    }
+    Arrays.fill(anchors, 0, size, null);
+    size = 0;
+  }
+
+  /** Detaches the {@code count} anchors with the highest eviction scores. */
+  private void evict(int count) {
+    for (int i = 0; i < size; ++i) {
+      scores[i] = policy.score(this, i);
+    }
+    System.arraycopy(scores, 0, selection, 0, size);
+    double threshold = selectLargest(selection, size, count);
+    // Anchors scoring the threshold itself are evicted until count are, the others above it are.
+    int atThreshold = count;
+    for (int i = 0; i < size; ++i) {
+      if (scores[i] > threshold) {
+        --atThreshold;
+      }
+    }
+    // Backwards, so the anchor moved into a hole has already been looked at.
+    for (int i = size - 1; i >= 0; --i) {
+      boolean evicted = scores[i] > threshold;
+      if (!evicted && scores[i] == threshold && atThreshold > 0) {
+        --atThreshold;
+        evicted = true;
+      }
+      if (evicted) {
+        detach(i);
+        remove(i);
+        ++evictionCount;
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void detach(int index) {
+    int id = ids[index];
+    detacher.detach((T) anchors[index], id);
+    if (freeIdCount == freeIds.length) {
+      freeIds = Arrays.copyOf(freeIds, 2 * freeIdCount);
+    }
+    freeIds[freeIdCount++] = id;
+  }
+
+  /** Removes an anchor by moving the last one into its place. */
+  private void remove(int index) {
+    int last = --size;
+    anchors[index] = anchors[last];
+    models[index] = models[last];
+    ids[index] = ids[last];
+    placements[index] = placements[last];
+    lastVisibleFrames[index] = lastVisibleFrames[last];
+    cameraDistances[index] = cameraDistances[last];
+    tracking[index] = tracking[last];
+    anchors[last] = null;
+  }
+
+  private void grow(int length) {
+    anchors = Arrays.copyOf(anchors, length);
+    models = Arrays.copyOf(models, length);
+    ids = Arrays.copyOf(ids, length);
+    placements = Arrays.copyOf(placements, length);
+    lastVisibleFrames = Arrays.copyOf(lastVisibleFrames, length);
+    cameraDistances = Arrays.copyOf(cameraDistances, length);
+    tracking = Arrays.copyOf(tracking, length);
+    scores = new double[length];
+    selection = new double[length];
+  }
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+    }
+  }
+
+  /**
+   * Returns the {@code k}-th largest of the first {@code count} values, in expected linear time.
+   * Reorders the values.
+   */
+  static double selectLargest(double[] values, int count, int k) {
+    if (k < 1 || k > count) {
+      throw new IllegalArgumentException("k " + k + " out of range, count " + count);
+    }
+    int target = k - 1;
+    int left = 0;
+    int right = count - 1;
+    while (left < right) {
+      double pivot = values[(left + right) >>> 1];
+      int i = left;
+      int j = right;
+      // Partition into values >= pivot, then values <= pivot.
+      while (i <= j) {
+        while (values[i] > pivot) {
+          ++i;
+        }
+        while (values[j] < pivot) {
+          --j;
+        }
+        if (i <= j) {
+          double value = values[i];
+          values[i] = values[j];
+          values[j] = value;
+          ++i;
+          --j;
+        }
+      }
+      if (target <= j) {
+        right = j;
+      } else if (target >= i) {
+        left = i;
+      } else {
+        return values[target];
+      }
+    }
+    return values[left];
+  }
+}
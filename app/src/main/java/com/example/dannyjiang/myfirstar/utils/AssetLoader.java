@@ -0,0 +1,160 @@
+package com.example.dannyjiang.myfirstar.utils;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads assets on a pool of worker threads and hands them to the render thread for upload. File
+ * I/O, decoding and mesh processing run in a {@link Loader} on a worker. The result is queued until
+ * the render thread runs its {@link Uploader} from {@link #runUploads}, which spreads the uploads
+ * across frames under a time budget so no single frame stalls on all of them.
+ *
+ * <p>Except for the loaders, all methods must be called on the render thread.
+ */
+public final class AssetLoader {
+  /** Loads an asset into memory. Called on a worker thread, must not use OpenGL. */
+  public interface Loader<T> {
+    T load() throws IOException;
+  }
+
+  /** Uploads an asset returned by a {@link Loader}. Called on the render thread. */
+  public interface Uploader<T> {
+    void upload(T asset) throws IOException;
+  }
+
+  /** An asset waiting for upload, or the failure to load it. */
+  private static final class LoadedAsset<T> {
+    final int generation;
+    final Uploader<T> uploader;
+    T asset;
+    Throwable failure;
+
+    LoadedAsset(int generation, Uploader<T> uploader) {
+      this.generation = generation;
+      this.uploader = uploader;
+    }
+
+    void upload() throws IOException {
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
+      }
+      if (failure instanceof RuntimeException) {
+        throw (RuntimeException) failure;
+      }
+      if (failure instanceof Error) {
+        throw (Error) failure;
+      }
+      uploader.upload(asset);
+    }
+  }
+
+  private final ExecutorService executor;
+  private final Queue<LoadedAsset<?>> loadedAssets = new ConcurrentLinkedQueue<>();
+  // Incremented by cancel(), assets loaded for an older generation are dropped.
+  private volatile int generation;
+  // Assets of the current generation that were requested but not uploaded yet.
+  private int pendingCount;
+
+  /** @param threadCount Number of worker threads. */
+  public AssetLoader(int threadCount) {
+    executor =
+        Executors.newFixedThreadPool(
+            threadCount,
+            new ThreadFactory() {
+              private final AtomicInteger threadNumber = new AtomicInteger();
+
+              @Override
+              public Thread newThread(Runnable runnable) {
+                Thread thread =
+                    new Thread(runnable, "AssetLoader-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                // Loading must not take CPU time from the render thread.
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+              }
+            });
+  }
+
+  /**
+   * Loads an asset on a worker thread, then uploads it in a later {@link #runUploads}. Assets are
+   * uploaded in the order they finish loading.
+   */
+  public <T> void load(final Loader<T> loader, Uploader<T> uploader) {
+    final LoadedAsset<T> loadedAsset = new LoadedAsset<>(generation, uploader);
+    ++pendingCount;
+    executor.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (loadedAsset.generation != generation) {
+              return;
+            }
+            try {
+              loadedAsset.asset = loader.load();
+            } catch (Throwable t) {
+              loadedAsset.failure = t;
+            }
+            // The queue publishes the asset to the render thread.
+            loadedAssets.add(loadedAsset);
+          }
+        });
+  }
+
+  /**
+   * Uploads loaded assets until {@code budgetNanos} have passed. At least one asset is uploaded
+   * if any is loaded, so that an asset that takes longer than the budget is still uploaded.
+   *
+   * @return True if all requested assets have been uploaded.
+   * @throws IOException If loading an asset failed. The other assets are still uploaded by the
+   *     following calls.
+   */
+  public boolean runUploads(long budgetNanos) throws IOException {
+    long startNanos = System.nanoTime();
+    LoadedAsset<?> loadedAsset;
+    while ((loadedAsset = loadedAssets.poll()) != null) {
+      if (loadedAsset.generation != generation) {
+        continue;
+      }
+      --pendingCount;
+      loadedAsset.upload();
+      if (System.nanoTime() - startNanos >= budgetNanos) {
+        break;
+      }
+    }
+    return pendingCount == 0;
+  }
+
+  /** Returns true if no requested asset is waiting to be loaded or uploaded. */
+  public boolean isIdle() {
+    return pendingCount == 0;
+  }
+
+  /**
+   * Drops all requested assets that have not been uploaded yet, e.g. because the OpenGL context
+   * they were meant for was lost. Loads in progress complete, but are not uploaded.
+   */
+  public void cancel() {
+    ++generation;
+    loadedAssets.clear();
+    pendingCount = 0;
+  }
+
+  /**
+   * Stops the worker threads. No asset can be loaded afterwards. May be called on another thread
+   * once the render thread has stopped, e.g. in {@code onDestroy}.
+   */
+  public void shutdown() {
+    cancel();
+    executor.shutdownNow();
+  }
+
+  /** Returns the number of assets that are loaded and wait for upload. */
+  int getLoadedCount() {
+    return loadedAssets.size();
+  }
+}
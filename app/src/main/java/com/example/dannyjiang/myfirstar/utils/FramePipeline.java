@@ -0,0 +1,201 @@
+package com.example.dannyjiang.myfirstar.utils;
+
+/**
+ * Prepares the snapshot of the next frame on a worker thread while the render thread draws the
+ * current one. Two snapshots are recycled: the front one is read by the render thread, the back
+ * one is filled by a {@link Producer}. Nothing is allocated per frame.
+ *
+ * <p>With a latency of 0 frames the snapshot is produced on the render thread and drawn in the
+ * same frame. With a latency of 1 frame it is produced on the worker and drawn in the next frame.
+ * Longer latencies are not supported: the producer reads the ARCore frame, which is only valid
+ * until the next {@code Session.update()}.
+ *
+ * <p>Per frame, the render thread calls {@link #awaitProduced} before changing anything the
+ * producer reads, then {@link #produceNext}, then draws {@link #getFront}.
+ *
+ * @param <T> The snapshot type.
+ */
+public final class FramePipeline<T> {
+  /** Fills a snapshot. */
+  public interface Producer<T> {
+    /**
+     * Overwrites {@code snapshot} with the state of the next frame. Called on the worker thread,
+     * or on the render thread with a latency of 0 frames.
+     */
+    void produce(T snapshot);
+  }
+
+  private final Producer<T> producer;
+  private final int latencyFrames;
+  private final Object lock = new Object();
+
+  private T front;
+  private T back;
+  // The back snapshot was handed to the worker and is being produced.
+  private boolean requested;
+  // The back snapshot holds a finished snapshot that was not swapped to the front yet.
+  private boolean produced;
+  private Throwable failure;
+  private boolean shutdown;
+  private Thread worker;
+
+  /**
+   * Creates a pipeline. The worker thread is started with the first snapshot it produces.
+   *
+   * @param first Snapshot drawn until the first one is produced, should be empty.
+   * @param second The other snapshot, must not be the same object as {@code first}.
+   * @param producer Fills snapshots.
+   * @param latencyFrames 0 to produce and draw a snapshot in the same frame, 1 to draw it in the
+   *     next frame.
+   */
+  public FramePipeline(T first, T second, Producer<T> producer, int latencyFrames) {
+    if (latencyFrames != 0 && latencyFrames != 1) {
+      throw new IllegalArgumentException("Latency must be 0 or 1 frames, not " + latencyFrames);
+    }
+    if (first == second) {
+      throw new IllegalArgumentException("The snapshots must be distinct");
+    }
+    this.front = first;
+    this.back = second;
+    this.producer = producer;
+    this.latencyFrames = latencyFrames;
+  }
+
+  public int getLatencyFrames() {
+    return latencyFrames;
+  }
+
+  /**
+   * Waits until the snapshot requested by the previous {@link #produceNext} is complete and makes
+   * it the front snapshot. Rethrows, wrapped, what the producer threw.
+   */
+  public void awaitProduced() {
+    synchronized (lock) {
+      waitWhileRequested();
+      Throwable error = failure;
+      failure = null;
+      if (error != null) {
+        throw new IllegalStateException("Producing the snapshot failed", error);
+      }
+      if (produced) {
+        swap();
+        produced = false;
+      }
+    }
+  }
+
+  /**
+   * Waits until the worker is done with the snapshot it is producing, without swapping it to the
+   * front. Call before pausing what the producer reads, e.g. the ARCore session.
+   */
+  public void awaitIdle() {
+    synchronized (lock) {
+      waitWhileRequested();
+    }
+  }
+
+  /** Produces the next snapshot, on the worker thread unless the latency is 0 frames. */
+  public void produceNext() {
+    synchronized (lock) {
+      if (requested) {
+        throw new IllegalStateException("awaitProduced() was not called");
+      }
+      if (latencyFrames == 1 && !shutdown) {
+        if (worker == null) {
+          worker =
+              new Thread(
+                  new Runnable() {
+                    @Override
+                    public void run() {
+                      runWorker();
+                    }
+                  },
+                  "FramePipeline");
+          worker.setDaemon(true);
+          worker.start();
+        }
+        requested = true;
+        lock.notifyAll();
+        return;
+      }
+    }
+    // Without a worker the snapshot is produced here and drawn right away.
+    producer.produce(back);
+    swap();
+  }
+
+  /**
+   * Returns the snapshot to draw. It is not modified until the next {@link #awaitProduced}, and
+   * must not be modified by the caller.
+   */
+  public T getFront() {
+    return front;
+  }
+
+  /**
+   * Stops the worker thread once it finished its current snapshot. Later snapshots are produced
+   * on the render thread.
+   */
+  public void shutdown() {
+    synchronized (lock) {
+      shutdown = true;
+      lock.notifyAll();
+    }
+  }
+
+  private void runWorker() {
+    while (true) {
+      T snapshot;
+      synchronized (lock) {
+        while (!requested && !shutdown) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            // Nobody is waiting for a snapshot here, later ones are produced on the render thread.
+            shutdown = true;
+            return;
+          }
+        }
+        if (!requested) {
+          return;
+        }
+        snapshot = back;
+      }
+
+      Throwable error = null;
+      try {
+        producer.produce(snapshot);
+      } catch (Throwable t) {
+        error = t;
+      }
+
+      synchronized (lock) {
+        failure = error;
+        produced = error == null;
+        requested = false;
+        lock.notifyAll();
+      }
+    }
+  }
+
+  // Waits without giving up on interruption, the back snapshot is in use until the worker is done.
+  private void waitWhileRequested() {
+    boolean interrupted = false;
+    while (requested) {
+      try {
+        lock.wait();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void swap() {
+    T snapshot = front;
+    front = back;
+    back = snapshot;
+  }
+}
@@ -0,0 +1,210 @@
+package com.example.dannyjiang.myfirstar.utils;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Records the CPU time of the stages of a render loop, and optionally their GPU time, in fixed
+ * size ring buffers. Recording does not allocate and costs two {@link System#nanoTime()} calls per
+ * stage, so the profiler can stay enabled in production builds.
+ *
+ * <p>The stages are fixed when the profiler is created and addressed by index. Not thread-safe:
+ * record and query from the render thread.
+ */
+public final class FrameProfiler {
+  // Frame intervals longer than this are pauses of the app rather than dropped frames.
+  private static final long MAX_FRAME_INTERVAL_NANOS = 1000000000L;
+
+  private final String[] stageNames;
+  private final long frameBudgetNanos;
+  private final Ring frameTimes;
+  private final Ring[] cpuTimes;
+  private final Ring[] gpuTimes;
+  private final long[] stageStartNanos;
+  // Sorted copy of one ring, for percentiles.
+  private final long[] sortScratch;
+
+  private long frameStartNanos;
+  private long lastFrameStartNanos;
+  private long frameCount;
+  private long droppedFrameCount;
+
+  /**
+   * Creates a profiler.
+   *
+   * @param historySize Number of most recent samples kept per stage for the percentiles.
+   * @param frameBudgetNanos Time between two frames at the display refresh rate. A frame that
+   *     starts later than that after the previous one counts the missed refreshes as dropped.
+   * @param stageNames Names of the stages, for {@link #dump}. Their indices identify the stages.
+   */
+  public FrameProfiler(int historySize, long frameBudgetNanos, String... stageNames) {
+    if (historySize < 1) {
+      throw new IllegalArgumentException("History size must be positive");
+    }
+    this.stageNames = stageNames.clone();
+    this.frameBudgetNanos = frameBudgetNanos;
+    frameTimes = new Ring(historySize);
+    cpuTimes = new Ring[stageNames.length];
+    gpuTimes = new Ring[stageNames.length];
+    for (int i = 0; i < stageNames.length; ++i) {
+      cpuTimes[i] = new Ring(historySize);
+      gpuTimes[i] = new Ring(historySize);
+    }
+    stageStartNanos = new long[stageNames.length];
+    sortScratch = new long[historySize];
+  }
+
+  public int getStageCount() {
+    return stageNames.length;
+  }
+
+  public String getStageName(int stage) {
+    return stageNames[stage];
+  }
+
+  /** Marks the start of a frame. Counts the refreshes missed since the previous frame. */
+  public void beginFrame() {
+    long now = System.nanoTime();
+    if (lastFrameStartNanos != 0) {
+      long interval = now - lastFrameStartNanos;
+      if (interval < MAX_FRAME_INTERVAL_NANOS) {
+        long missed = (interval + frameBudgetNanos / 2) / frameBudgetNanos - 1;
+        if (missed > 0) {
+          droppedFrameCount += missed;
+        }
+      }
+    }
+    lastFrameStartNanos = now;
+    frameStartNanos = now;
+  }
+
+  /** Marks the end of a frame and records its CPU time. */
+  public void endFrame() {
+    frameTimes.add(System.nanoTime() - frameStartNanos);
+    ++frameCount;
+  }
+
+  public void beginStage(int stage) {
+    stageStartNanos[stage] = System.nanoTime();
+  }
+
+  /** Records the CPU time since the matching {@link #beginStage}. */
+  public void endStage(int stage) {
+    cpuTimes[stage].add(System.nanoTime() - stageStartNanos[stage]);
+  }
+
+  /** Records the GPU time of a stage, usually from a timer query of an earlier frame. */
+  public void recordGpuTime(int stage, long nanos) {
+    gpuTimes[stage].add(nanos);
+  }
+
+  /** Returns the number of frames recorded with {@link #endFrame}. */
+  public long getFrameCount() {
+    return frameCount;
+  }
+
+  /** Returns the number of display refreshes missed since the profiler was created. */
+  public long getDroppedFrameCount() {
+    return droppedFrameCount;
+  }
+
+  /**
+   * Returns a percentile of the recent frame times in nanoseconds, or 0 if no frame was recorded.
+   *
+   * @param percentile Between 0 and 100, e.g. 95 for the p95.
+   */
+  public long getFramePercentile(double percentile) {
+    return percentile(frameTimes, percentile);
+  }
+
+  /** Returns a percentile of the recent CPU times of a stage, see {@link #getFramePercentile}. */
+  public long getCpuPercentile(int stage, double percentile) {
+    return percentile(cpuTimes[stage], percentile);
+  }
+
+  /** Returns a percentile of the recent GPU times of a stage, see {@link #getFramePercentile}. */
+  public long getGpuPercentile(int stage, double percentile) {
+    return percentile(gpuTimes[stage], percentile);
+  }
+
+  /**
+   * Copies the recent CPU times of a stage, oldest first, for exporting raw traces.
+   *
+   * @return The number of samples copied, at most the history size.
+   */
+  public int copyCpuTimes(int stage, long[] destination) {
+    return cpuTimes[stage].copyTo(destination);
+  }
+
+  /** Copies the recent GPU times of a stage, oldest first, see {@link #copyCpuTimes}. */
+  public int copyGpuTimes(int stage, long[] destination) {
+    return gpuTimes[stage].copyTo(destination);
+  }
+
+  /**
+   * Writes a summary with the frame count, dropped frames and the p50, p95 and p99 of the frame
+   * and every stage in milliseconds, one line each. GPU percentiles are only written for stages
+   * with GPU samples. Allocates, so call it now and then rather than every frame.
+   */
+  public void dump(Appendable out) throws IOException {
+    out.append(String.format(Locale.US, "frames %d, dropped %d\n", frameCount, droppedFrameCount));
+    appendPercentiles(out, "frame", "cpu", frameTimes);
+    for (int i = 0; i < stageNames.length; ++i) {
+      appendPercentiles(out, stageNames[i], "cpu", cpuTimes[i]);
+      if (gpuTimes[i].count > 0) {
+        appendPercentiles(out, stageNames[i], "gpu", gpuTimes[i]);
+      }
+    }
+  }
+
+  private void appendPercentiles(Appendable out, String name, String clock, Ring ring)
+      throws IOException {
+    out.append(
+        String.format(
+            Locale.US,
+            "%s %s p50 %.2f ms, p95 %.2f ms, p99 %.2f ms\n",
+            name,
+            clock,
+            percentile(ring, 50) / 1e6,
+            percentile(ring, 95) / 1e6,
+            percentile(ring, 99) / 1e6));
+  }
+
+  /** Nearest-rank percentile of the samples of a ring. */
+  private long percentile(Ring ring, double percentile) {
+    int count = ring.copyTo(sortScratch);
+    if (count == 0) {
+      return 0;
+    }
+    Arrays.sort(sortScratch, 0, count);
+    int rank = (int) Math.ceil(percentile / 100.0 * count);
+    return sortScratch[Math.min(Math.max(rank, 1), count) - 1];
+  }
+
+  /** Fixed size ring buffer of samples, overwriting the oldest sample when full. */
+  private static final class Ring {
+    final long[] samples;
+    int count;
+    int next;
+
+    Ring(int size) {
+      samples = new long[size];
+    }
+
+    void add(long sample) {
+      samples[next] = sample;
+      next = (next + 1) % samples.length;
+      count = Math.min(count + 1, samples.length);
+    }
+
+    int copyTo(long[] destination) {
+      int copied = Math.min(count, destination.length);
+      int start = (next - count + samples.length) % samples.length;
+      for (int i = 0; i < copied; ++i) {
+        destination[i] = samples[(start + i) % samples.length];
+      }
+      return copied;
+    }
+  }
+}
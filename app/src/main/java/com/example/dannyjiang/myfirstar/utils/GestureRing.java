@@ -0,0 +1,185 @@
+package com.example.dannyjiang.myfirstar.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Passes gestures from one producer thread to one consumer thread, e.g. from the UI thread to the
+ * render thread, without locks. Each gesture is a record of primitives copied out of the touch
+ * events, so no {@code MotionEvent}, which Android recycles, is kept.
+ *
+ * <p>The records live in a fixed ring of slots. The producer publishes a slot by advancing the
+ * tail after writing it, the consumer frees slots by advancing the head after copying them, so
+ * each index is written by one thread only. Nothing is allocated after construction.
+ */
+public final class GestureRing {
+  /** A single tap at (x, y). */
+  public static final int TAP = 0;
+  /** A drag to (x, y) that moved the finger by (deltaX, deltaY) since the last drag record. */
+  public static final int DRAG = 1;
+  /** A pinch around the focus (x, y) that scaled the span between the fingers by scale. */
+  public static final int PINCH = 2;
+
+  private static final int FLOATS_PER_RECORD = 4;
+
+  /** Gestures copied out of the ring, reused by the consumer from frame to frame. */
+  public static final class Batch {
+    private final int[] types;
+    private final float[] values;
+    private final long[] timesMillis;
+    private int count;
+
+    /** @param capacity Maximum number of gestures, usually the capacity of the ring. */
+    public Batch(int capacity) {
+      types = new int[capacity];
+      values = new float[capacity * FLOATS_PER_RECORD];
+      timesMillis = new long[capacity];
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    /**
+     * Returns the type of the gesture: {@link GestureRing#TAP}, {@link GestureRing#DRAG} or
+     * {@link GestureRing#PINCH}.
+     */
+    public int getType(int index) {
+      checkIndex(index);
+      return types[index];
+    }
+
+    /** Returns the x coordinate of the gesture in view pixels. */
+    public float getX(int index) {
+      checkIndex(index);
+      return values[index * FLOATS_PER_RECORD];
+    }
+
+    /** Returns the y coordinate of the gesture in view pixels. */
+    public float getY(int index) {
+      checkIndex(index);
+      return values[index * FLOATS_PER_RECORD + 1];
+    }
+
+    /** Returns the horizontal movement of a drag in pixels, 0 for other gestures. */
+    public float getDeltaX(int index) {
+      checkIndex(index);
+      return types[index] == DRAG ? values[index * FLOATS_PER_RECORD + 2] : 0;
+    }
+
+    /** Returns the vertical movement of a drag in pixels, 0 for other gestures. */
+    public float getDeltaY(int index) {
+      checkIndex(index);
+      return types[index] == DRAG ? values[index * FLOATS_PER_RECORD + 3] : 0;
+    }
+
+    /** Returns the scale factor of a pinch, 1 for other gestures. */
+    public float getScale(int index) {
+      checkIndex(index);
+      return types[index] == PINCH ? values[index * FLOATS_PER_RECORD + 2] : 1;
+    }
+
+    /** Returns the time of the gesture in the {@code SystemClock.uptimeMillis()} time base. */
+    public long getTimeMillis(int index) {
+      checkIndex(index);
+      return timesMillis[index];
+    }
+
+    private void checkIndex(int index) {
+      if (index < 0 || index >= count) {
+        throw new IndexOutOfBoundsException("Index " + index + ", count " + count);
+      }
+    }
+  }
+
+  private final int mask;
+  private final int[] types;
+  private final float[] values;
+  private final long[] timesMillis;
+  // Next slot to read, written by the consumer only.
+  private final AtomicLong head = new AtomicLong();
+  // Next slot to write, written by the producer only.
+  private final AtomicLong tail = new AtomicLong();
+  // Written by the producer only.
+  private volatile long droppedCount;
+
+  /** @param capacity Number of gestures that can be pending, a power of two. */
+  public GestureRing(int capacity) {
+    if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two, not " + capacity);
+    }
+    mask = capacity - 1;
+    types = new int[capacity];
+    values = new float[capacity * FLOATS_PER_RECORD];
+    timesMillis = new long[capacity];
+  }
+
+  public int getCapacity() {
+    return types.length;
+  }
+
+  /** Returns the number of gestures dropped because the ring was full. */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /** Queues a tap. Producer thread only, see {@link #offer}. */
+  public boolean offerTap(float x, float y, long timeMillis) {
+    return offer(TAP, x, y, 0, 0, timeMillis);
+  }
+
+  /** Queues a drag. Producer thread only, see {@link #offer}. */
+  public boolean offerDrag(float x, float y, float deltaX, float deltaY, long timeMillis) {
+    return offer(DRAG, x, y, deltaX, deltaY, timeMillis);
+  }
+
+  /** Queues a pinch. Producer thread only, see {@link #offer}. */
+  public boolean offerPinch(float focusX, float focusY, float scale, long timeMillis) {
+    return offer(PINCH, focusX, focusY, scale, 0, timeMillis);
+  }
+
+  /**
+   * Queues a gesture. Must only be called by the producer thread.
+   *
+   * @return False if the ring was full and the gesture was dropped.
+   */
+  private boolean offer(int type, float x, float y, float a, float b, long timeMillis) {
+    long t = tail.get();
+    if (t - head.get() > mask) {
+      droppedCount = droppedCount + 1;
+      return false;
+    }
+    int slot = (int) t & mask;
+    types[slot] = type;
+    int v = slot * FLOATS_PER_RECORD;
+    values[v] = x;
+    values[v + 1] = y;
+    values[v + 2] = a;
+    values[v + 3] = b;
+    timesMillis[slot] = timeMillis;
+    // Publishes the slot: the writes above happen before the consumer sees the new tail.
+    tail.lazySet(t + 1);
+    return true;
+  }
+
+  /**
+   * Moves all pending gestures, oldest first, into {@code out}, as many as it holds. Must only be
+   * called by the consumer thread.
+   *
+   * @return The number of gestures in {@code out}.
+   */
+  public int drain(Batch out) {
+    long h = head.get();
+    int count = (int) Math.min(tail.get() - h, out.types.length);
+    for (int i = 0; i < count; ++i) {
+      int slot = (int) (h + i) & mask;
+      out.types[i] = types[slot];
+      System.arraycopy(
+          values, slot * FLOATS_PER_RECORD, out.values, i * FLOATS_PER_RECORD, FLOATS_PER_RECORD);
+      out.timesMillis[i] = timesMillis[slot];
+    }
+    out.count = count;
+    // Frees the slots: the reads above happen before the producer may overwrite them.
+    head.lazySet(h + count);
+    return count;
+  }
+}
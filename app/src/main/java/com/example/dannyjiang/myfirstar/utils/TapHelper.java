@@ -17,19 +17,22 @@ package com.example.dannyjiang.myfirstar.utils;
 import android.content.Context;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 import android.view.View.OnTouchListener;
 
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-
 /**
- * Helper to detect taps using Android GestureDetector, and pass the taps between UI thread and
- * render thread.
+ * Helper to detect taps, drags and pinches using Android GestureDetector and ScaleGestureDetector,
+ * and pass them between UI thread and render thread through a {@link GestureRing}. The render
+ * thread drains all pending gestures at once with {@link #drain}.
  */
 public final class TapHelper implements OnTouchListener {
+  // Enough for several seconds of gestures from a render thread that stalls.
+  private static final int RING_CAPACITY = 256;
+
   private final GestureDetector gestureDetector;
-  private final BlockingQueue<MotionEvent> queuedSingleTaps = new ArrayBlockingQueue<>(16);
+  private final ScaleGestureDetector scaleGestureDetector;
+  private final GestureRing gestures = new GestureRing(RING_CAPACITY);
 
   /**
    * Creates the tap helper.
@@ -43,8 +46,19 @@ public final class TapHelper implements OnTouchListener {
             new GestureDetector.SimpleOnGestureListener() {
               @Override
               public boolean onSingleTapUp(MotionEvent e) {
-                // Queue tap if there is space. Tap is lost if queue is full.
-                queuedSingleTaps.offer(e);
+                // Copies the tap out of the event, which is recycled after this call.
+                gestures.offerTap(e.getX(), e.getY(), e.getEventTime());
+                return true;
+              }
+
+              @Override
+              public boolean onScroll(
+                  MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+                // Pinches also move the fingers, they are reported as pinches only.
+                if (!scaleGestureDetector.isInProgress()) {
+                  gestures.offerDrag(
+                      e2.getX(), e2.getY(), -distanceX, -distanceY, e2.getEventTime());
+                }
                 return true;
               }
 
@@ -53,19 +67,46 @@ public final class TapHelper implements OnTouchListener {
                 return true;
               }
             });
+    scaleGestureDetector =
+        new ScaleGestureDetector(
+            context,
+            new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+              @Override
+              public boolean onScale(ScaleGestureDetector detector) {
+                gestures.offerPinch(
+                    detector.getFocusX(),
+                    detector.getFocusY(),
+                    detector.getScaleFactor(),
+                    detector.getEventTime());
+                return true;
+              }
+            });
   }
 
   /**
-   * Polls for a tap.
+   * Moves all gestures queued since the last call into {@code out}, oldest first. Gestures are
+   * dropped, and counted by {@link #getDroppedCount}, only if more than {@link #RING_CAPACITY} are
+   * pending.
    *
-   * @return if a tap was queued, a MotionEvent for the tap. Otherwise null if no taps are queued.
+   * @return The number of gestures in {@code out}.
    */
-  public MotionEvent poll() {
-    return queuedSingleTaps.poll();
+  public int drain(GestureRing.Batch out) {
+    return gestures.drain(out);
+  }
+
+  /** Returns a batch that can hold every gesture that can be pending. */
+  public GestureRing.Batch createBatch() {
+    return new GestureRing.Batch(gestures.getCapacity());
+  }
+
+  /** Returns the number of gestures dropped because the render thread did not drain them. */
+  public long getDroppedCount() {
+    return gestures.getDroppedCount();
   }
 
   @Override
   public boolean onTouch(View view, MotionEvent motionEvent) {
-    return gestureDetector.onTouchEvent(motionEvent);
+    boolean scaleHandled = scaleGestureDetector.onTouchEvent(motionEvent);
+    return gestureDetector.onTouchEvent(motionEvent) || scaleHandled;
   }
 }
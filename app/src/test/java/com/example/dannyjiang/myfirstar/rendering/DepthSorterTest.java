@@ -0,0 +1,120 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link DepthSorter}, run on the development machine (host).
+ */
+public class DepthSorterTest {
+    private static final float[] IDENTITY = {
+        1, 0, 0, 0,
+        0, 1, 0, 0,
+        0, 0, 1, 0,
+        0, 0, 0, 1
+    };
+
+    /** Returns translation matrices to (x, 0, z) for every given z, with x set to the index. */
+    private static float[] translations(float... zs) {
+        float[] matrices = new float[zs.length * 16];
+        for (int i = 0; i < zs.length; ++i) {
+            System.arraycopy(IDENTITY, 0, matrices, i * 16, 16);
+            matrices[i * 16 + 12] = i;
+            matrices[i * 16 + 14] = zs[i];
+        }
+        return matrices;
+    }
+
+    private static float[] indicesOf(float[] matrices, int count) {
+        float[] indices = new float[count];
+        for (int i = 0; i < count; ++i) {
+            indices[i] = matrices[i * 16 + 12];
+        }
+        return indices;
+    }
+
+    @Test
+    public void sort_frontToBackAndBackToFront() {
+        // The camera looks down -z, so z = -1 is the closest.
+        float[] matrices = translations(-5, -1, -3, 2);
+        DepthSorter sorter = new DepthSorter();
+
+        sorter.sort(matrices, 0, 4, IDENTITY, true);
+        assertArrayEquals(new float[] {3, 1, 2, 0}, indicesOf(matrices, 4), 0);
+
+        sorter.sort(matrices, 0, 4, IDENTITY, false);
+        assertArrayEquals(new float[] {0, 2, 1, 3}, indicesOf(matrices, 4), 0);
+    }
+
+    @Test
+    public void sort_onlyTouchesTheRange() {
+        float[] matrices = translations(-5, -3, -1, -4);
+
+        new DepthSorter().sort(matrices, 1, 2, IDENTITY, true);
+
+        assertArrayEquals(new float[] {0, 2, 1, 3}, indicesOf(matrices, 4), 0);
+    }
+
+    @Test
+    public void sort_keepsOrderOfEqualDepths() {
+        float[] matrices = translations(-2, -1, -2, -1);
+
+        new DepthSorter().sort(matrices, 0, 4, IDENTITY, true);
+
+        assertArrayEquals(new float[] {1, 3, 0, 2}, indicesOf(matrices, 4), 0);
+    }
+
+    @Test
+    public void sort_appliesViewMatrix() {
+        // A camera at z = -10 looking down +z: the view matrix rotates by 180 degrees around y and
+        // translates by -10 along z.
+        float[] view = {
+            -1, 0, 0, 0,
+            0, 1, 0, 0,
+            0, 0, -1, 0,
+            0, 0, -10, 1
+        };
+        float[] matrices = translations(-5, 0, -8);
+
+        new DepthSorter().sort(matrices, 0, 3, view, true);
+
+        assertArrayEquals(new float[] {2, 0, 1}, indicesOf(matrices, 3), 0);
+    }
+
+    @Test
+    public void sort_ordersManyInstancesStably() {
+        Random random = new Random(3);
+        int count = 500;
+        float[] zs = new float[count];
+        for (int i = 0; i < count; ++i) {
+            // Includes equal depths and objects behind the camera.
+            zs[i] = random.nextInt(200) * 0.25f - 40;
+        }
+        float[] matrices = translations(zs);
+
+        new DepthSorter().sort(matrices, 0, count, IDENTITY, true);
+
+        for (int i = 1; i < count; ++i) {
+            float previous = matrices[(i - 1) * 16 + 14];
+            float current = matrices[i * 16 + 14];
+            assertTrue(previous >= current);
+            if (previous == current) {
+                // Stable: equal depths keep their order.
+                assertTrue(matrices[(i - 1) * 16 + 12] < matrices[i * 16 + 12]);
+            }
+        }
+    }
+
+    @Test
+    public void sortableKey_ordersFloatsAsUnsignedIntegers() {
+        float[] values = {-100, -1.5f, -0.0f, 0.0f, 1e-20f, 2, 1e20f};
+        for (int i = 1; i < values.length; ++i) {
+            int previous = DepthSorter.sortableKey(values[i - 1]);
+            int current = DepthSorter.sortableKey(values[i]);
+            assertTrue(previous + Integer.MIN_VALUE < current + Integer.MIN_VALUE);
+        }
+    }
+}
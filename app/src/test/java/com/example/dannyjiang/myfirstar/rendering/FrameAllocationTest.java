@@ -0,0 +1,336 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import com.example.dannyjiang.myfirstar.utils.AnchorStore;
+import com.example.dannyjiang.myfirstar.utils.GestureRing;
+import com.google.ar.core.TrackingState;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the per-frame CPU work does not allocate once it is warmed up, run on the development
+ * machine (host). OpenGL and ARCore calls cannot run on the host, so each frame drives the real
+ * classes between them in the order MyFirstArActivity does: taps through {@link GestureRing},
+ * anchor placement in {@link AnchorStore} and {@link SpatialHashGrid}, plane updates through
+ * {@link PlaneTracker} and {@link SortedPlanes}, the culling and depth sorting of prepareScene(),
+ * and the sorted submission of a {@link RenderQueue} whose commands select levels of detail like
+ * ObjectRenderer. Fake anchors and plane ids stand in for the ARCore objects.
+ */
+public class FrameAllocationTest {
+    private static final int MODEL_COUNT = 2;
+    private static final int MAX_ANCHORS = 200;
+    private static final int ANCHOR_EVICTION_BATCH = 8;
+    private static final int PLANE_COUNT = 40;
+    // Planes ARCore reports as updated in each frame.
+    private static final int UPDATED_PLANES_PER_FRAME = 3;
+    private static final int RESCAN_INTERVAL_FRAMES = 500;
+    private static final int WARM_UP_FRAMES = 2000;
+    private static final int MEASURED_FRAMES = 200;
+
+    private static final float Z_FAR = 100.0f;
+    private static final float[] PROJECTION = {
+        1, 0, 0, 0,
+        0, 1, 0, 0,
+        0, 0, -1.002f, -1,
+        0, 0, -0.2002f, 0
+    };
+    private static final float[] BOUNDING_SPHERE = {0, 0.1f, 0, 0.2f};
+    private static final float ANCHOR_MOVE_THRESHOLD = 0.01f;
+    private static final float MIN_ANCHOR_SPACING = 0.05f;
+
+    /** Stands in for an ARCore anchor, reused once it was detached. */
+    private static final class FakeAnchor {
+        final int poolIndex;
+        float x;
+        float y;
+        float z;
+
+        FakeAnchor(int poolIndex) {
+            this.poolIndex = poolIndex;
+        }
+    }
+
+    private final float[] view = {
+        1, 0, 0, 0,
+        0, 1, 0, 0,
+        0, 0, 1, 0,
+        0, 0, 0, 1
+    };
+    private final float[] cameraPosition = new float[3];
+
+    private final GestureRing gestureRing = new GestureRing(16);
+    private final GestureRing.Batch gestures = new GestureRing.Batch(16);
+
+    // One more anchor than the store keeps, for the one placed while it is full.
+    private final FakeAnchor[] anchorPool = new FakeAnchor[MAX_ANCHORS + 1];
+    // Pool indices of the anchors not in the store.
+    private final int[] freeAnchors = new int[MAX_ANCHORS + 1];
+    private int freeAnchorCount;
+    private final SpatialHashGrid anchorGrid = new SpatialHashGrid(0.5f, ANCHOR_MOVE_THRESHOLD);
+    private final AnchorStore<FakeAnchor> anchors =
+            new AnchorStore<>(
+                    MAX_ANCHORS,
+                    ANCHOR_EVICTION_BATCH,
+                    AnchorStore.notTrackingFirst(AnchorStore.LEAST_RECENTLY_VISIBLE),
+                    new AnchorStore.Detacher<FakeAnchor>() {
+                        @Override
+                        public void detach(FakeAnchor anchor, int id) {
+                            freeAnchors[freeAnchorCount++] = anchor.poolIndex;
+                            anchorGrid.remove(id);
+                        }
+                    });
+    private int nextModel;
+
+    private final String[] planeIds = new String[PLANE_COUNT];
+    private final float[] planePose = new float[7];
+    private final PlaneTracker planeTracker = new PlaneTracker();
+
+    // The fields of MyFirstArActivity's SceneSnapshot.
+    private final SortedPlanes scenePlanes = new SortedPlanes();
+    private final float[] anchorMatrices = new float[MAX_ANCHORS * 16];
+    private final float[] shadowMatrices = new float[MAX_ANCHORS * 16];
+    private final int[] modelFirstAnchor = new int[MODEL_COUNT + 1];
+    private int anchorCount;
+
+    private final FrustumCuller frustumCuller = new FrustumCuller();
+    private final DepthSorter depthSorter = new DepthSorter();
+
+    private final RenderQueue renderQueue = new RenderQueue();
+    private final float[] colorCorrectionRgba = {1, 1, 1, 0.5f};
+    private final RenderQueue.Executor emptyExecutor =
+            new RenderQueue.Executor() {
+                @Override
+                public void execute(RenderQueue queue, int payload) {
+                    checksum += payload;
+                }
+            };
+    // Selects the level of detail of each instance, like ObjectRenderer.
+    private final RenderQueue.Executor instancesExecutor =
+            new RenderQueue.Executor() {
+                @Override
+                public void execute(RenderQueue queue, int payload) {
+                    int[] ints = queue.getInts();
+                    int offset = ints[payload];
+                    int count = ints[payload + 1];
+                    for (int i = 0; i < count; ++i) {
+                        float screenSize =
+                                LevelOfDetail.computeScreenSize(
+                                        queue.getFloats(),
+                                        offset + i * 16,
+                                        BOUNDING_SPHERE,
+                                        queue.getViewMatrix(),
+                                        queue.getProjectionMatrix());
+                        checksum += LevelOfDetail.selectLevel(screenSize, 3) + 1;
+                    }
+                }
+            };
+    private long checksum;
+
+    @Test
+    public void drawFrame_doesNotAllocate() {
+        for (int i = 0; i < anchorPool.length; ++i) {
+            anchorPool[i] = new FakeAnchor(i);
+            freeAnchors[i] = i;
+        }
+        freeAnchorCount = anchorPool.length;
+        for (int i = 0; i < PLANE_COUNT; ++i) {
+            planeIds[i] = "plane " + i;
+        }
+        for (int frame = 0; frame < WARM_UP_FRAMES; ++frame) {
+            drawFrame(frame);
+        }
+
+        // One-off work of the JVM, like class loading or deoptimization, can show up in a single
+        // measurement, so the best of a few measurements counts.
+        long allocated = Long.MAX_VALUE;
+        for (int attempt = 0; attempt < 3 && allocated != 0; ++attempt) {
+            allocated = measureAllocatedBytes();
+        }
+
+        assertEquals("bytes allocated in " + MEASURED_FRAMES + " frames", 0, allocated);
+        assertTrue(checksum != 0);
+        // The anchors were evicted and placed again, so the measured frames include both.
+        assertTrue(anchors.getEvictionCount() > 0);
+        assertTrue(anchorCount > 0);
+        assertTrue(scenePlanes.size() > 0);
+    }
+
+    private long measureAllocatedBytes() {
+        // Reading the counter may allocate itself, so measure that first.
+        long start = allocatedBytes();
+        long overhead = allocatedBytes() - start;
+        start = allocatedBytes();
+        for (int frame = 0; frame < MEASURED_FRAMES; ++frame) {
+            drawFrame(frame);
+        }
+        return allocatedBytes() - start - overhead;
+    }
+
+    /** The CPU side of one MyFirstArActivity.drawFrame(), with prepareScene() run in place. */
+    private void drawFrame(int frame) {
+        // Camera slowly moving sideways and back, so the plane order, culling and levels change.
+        view[12] = 0.01f * (frame % 500);
+        view[14] = 0.02f * (frame % 200);
+        cameraPosition[0] = -view[12];
+        cameraPosition[2] = -view[14];
+
+        // A tap from the UI thread, drained on the render thread.
+        gestureRing.offerTap(frame % 37, frame % 23, frame);
+        int gestureCount = gestureRing.drain(gestures);
+        for (int i = 0; i < gestureCount; ++i) {
+            if (gestures.getType(i) == GestureRing.TAP) {
+                placeAnchor(gestures.getX(i), gestures.getY(i));
+            }
+        }
+
+        prepareScene(frame);
+
+        renderQueue.clear();
+        renderQueue.setCamera(view, PROJECTION, Z_FAR);
+        renderQueue.add(
+                RenderQueue.key(RenderQueue.PASS_BACKGROUND, 1, 1, 0, 0), emptyExecutor, 0);
+        renderQueue.add(
+                RenderQueue.key(RenderQueue.PASS_PLANES, 2, 2, 0, 0),
+                emptyExecutor,
+                scenePlanes.size());
+        for (int model = 0; model < MODEL_COUNT; ++model) {
+            int first = modelFirstAnchor[model];
+            enqueueInstances(3, model, anchorMatrices, first, modelFirstAnchor[model + 1] - first);
+        }
+        enqueueInstances(4, -1, shadowMatrices, 0, anchorCount);
+        renderQueue.submit();
+    }
+
+    /** Places an anchor on the point a tap hit, as MyFirstArActivity.placeAnchor() does. */
+    private void placeAnchor(float tapX, float tapY) {
+        float x = tapX * 0.2f - 3.0f;
+        float y = 0;
+        float z = -tapY * 0.2f - 0.5f;
+        if (anchorGrid.findNearest(x, y, z, MIN_ANCHOR_SPACING) != SpatialHashGrid.NONE) {
+            return;
+        }
+        FakeAnchor anchor = anchorPool[freeAnchors[--freeAnchorCount]];
+        anchor.x = x;
+        anchor.y = y;
+        anchor.z = z;
+        // A full store detaches a batch of anchors, which returns them to the pool.
+        anchors.add(anchor, nextModel);
+        nextModel = (nextModel + 1) % MODEL_COUNT;
+        anchorGrid.update(anchors.getId(anchors.size() - 1), x, y, z);
+    }
+
+    /** MyFirstArActivity.prepareScene(), with the fake anchors and plane ids. */
+    private void prepareScene(int frame) {
+        // A few planes are reported as updated in each frame, now and then one is dropped, and
+        // after a pause all planes are scanned again.
+        if (frame % RESCAN_INTERVAL_FRAMES == 0) {
+            planeTracker.requestRescan();
+        }
+        int updatedPlanes = UPDATED_PLANES_PER_FRAME;
+        int firstUpdatedPlane = frame * UPDATED_PLANES_PER_FRAME;
+        if (planeTracker.isRescanNeeded()) {
+            planeTracker.clear();
+            updatedPlanes = PLANE_COUNT;
+            firstUpdatedPlane = 0;
+        }
+        for (int i = 0; i < updatedPlanes; ++i) {
+            int plane = (firstUpdatedPlane + i) % PLANE_COUNT;
+            planePose[0] = plane % 7;
+            planePose[1] = -1.5f + 0.05f * (plane % 9) + 0.001f * (frame % 10);
+            planePose[2] = -plane;
+            planePose[6] = 1;
+            TrackingState state =
+                    (plane + frame) % 97 == 0 ? TrackingState.STOPPED : TrackingState.TRACKING;
+            planeTracker.apply(planeIds[plane], state, false, planePose, 0);
+        }
+        planeTracker.updateDistances(cameraPosition[0], cameraPosition[1], cameraPosition[2]);
+        scenePlanes.update(planeTracker);
+
+        frustumCuller.setCamera(view, PROJECTION);
+        anchors.beginFrame();
+        anchorGrid.cull(frustumCuller, BOUNDING_SPHERE[3] + ANCHOR_MOVE_THRESHOLD);
+        int instanceCount = 0;
+        for (int model = 0; model < MODEL_COUNT; ++model) {
+            modelFirstAnchor[model] = instanceCount;
+            for (int i = 0; i < anchors.size(); ++i) {
+                if (anchors.getModel(i) != model) {
+                    continue;
+                }
+                FakeAnchor anchor = anchors.get(i);
+                // Some anchors lose tracking for a while.
+                if ((anchor.poolIndex + frame / 50) % 11 == 0) {
+                    anchors.update(i, false, anchors.getCameraDistance(i), false);
+                    continue;
+                }
+
+                int offset = instanceCount * 16;
+                setTranslation(anchorMatrices, offset, anchor.x, anchor.y, anchor.z);
+                // Anchors drift as tracking improves, only some of them past the move threshold.
+                anchorMatrices[offset + 13] += 0.0005f * (frame % 40);
+                int id = anchors.getId(i);
+                anchorGrid.update(
+                        id,
+                        anchorMatrices[offset + 12],
+                        anchorMatrices[offset + 13],
+                        anchorMatrices[offset + 14]);
+                int cellVisibility = anchorGrid.getVisibility(id);
+                boolean visible = cellVisibility == FrustumCuller.INSIDE
+                        || (cellVisibility == FrustumCuller.INTERSECTING
+                        && frustumCuller.isSphereVisible(anchorMatrices, offset, BOUNDING_SPHERE));
+                float dx = anchor.x - cameraPosition[0];
+                float dz = anchor.z - cameraPosition[2];
+                anchors.update(i, true, dx * dx + dz * dz, visible);
+                if (visible) {
+                    instanceCount++;
+                }
+            }
+            int first = modelFirstAnchor[model];
+            depthSorter.sort(anchorMatrices, first, instanceCount - first, view, true);
+        }
+        modelFirstAnchor[MODEL_COUNT] = instanceCount;
+        anchorCount = instanceCount;
+        System.arraycopy(anchorMatrices, 0, shadowMatrices, 0, instanceCount * 16);
+        depthSorter.sort(shadowMatrices, 0, instanceCount, view, false);
+    }
+
+    /** ObjectRenderer.enqueueInstances(), opaque for models and blended for the shadows. */
+    private void enqueueInstances(int program, int model, float[] matrices, int first, int count) {
+        if (count <= 0) {
+            return;
+        }
+        int floatCount = count * 16;
+        int offset = renderQueue.allocateFloats(floatCount + 4);
+        float[] floats = renderQueue.getFloats();
+        System.arraycopy(matrices, first * 16, floats, offset, floatCount);
+        System.arraycopy(colorCorrectionRgba, 0, floats, offset + floatCount, 4);
+        int payload = renderQueue.allocateInts(2);
+        int[] ints = renderQueue.getInts();
+        ints[payload] = offset;
+        ints[payload + 1] = count;
+        int depth =
+                renderQueue.depthOf(floats[offset + 12], floats[offset + 13], floats[offset + 14]);
+        long key =
+                model >= 0
+                        ? RenderQueue.key(RenderQueue.PASS_OPAQUE, program, model + 1, 1, depth)
+                        : RenderQueue.blendedKey(program, 1, 2, depth);
+        renderQueue.add(key, instancesExecutor, payload);
+    }
+
+    private static void setTranslation(float[] matrices, int offset, float x, float y, float z) {
+        for (int i = 0; i < 16; ++i) {
+            matrices[offset + i] = i % 5 == 0 ? 1 : 0;
+        }
+        matrices[offset + 12] = x;
+        matrices[offset + 13] = y;
+        matrices[offset + 14] = z;
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link FrustumCuller}, run on the development machine (host).
+ */
+public class FrustumCullerTest {
+    private static final float[] IDENTITY = {
+        1, 0, 0, 0,
+        0, 1, 0, 0,
+        0, 0, 1, 0,
+        0, 0, 0, 1
+    };
+    // Perspective projection with a 90 degree field of view, near plane 1 and far plane 100.
+    private static final float[] PROJECTION = {
+        1, 0, 0, 0,
+        0, 1, 0, 0,
+        0, 0, -101f / 99f, -1,
+        0, 0, -200f / 99f, 0
+    };
+    private static final float[] UNIT_SPHERE = {0, 0, 0, 1};
+
+    private FrustumCuller culler;
+
+    @Before
+    public void setUp() {
+        culler = new FrustumCuller();
+        culler.setCamera(IDENTITY, PROJECTION);
+    }
+
+    @Test
+    public void isSphereVisible_inFrontOfCamera() {
+        assertTrue(culler.isSphereVisible(translation(0, 0, -10), 0, UNIT_SPHERE));
+    }
+
+    @Test
+    public void isSphereVisible_behindCameraIsCulled() {
+        assertFalse(culler.isSphereVisible(translation(0, 0, 10), 0, UNIT_SPHERE));
+        // Straddling the near plane is still visible.
+        assertTrue(culler.isSphereVisible(translation(0, 0, -0.5f), 0, UNIT_SPHERE));
+    }
+
+    @Test
+    public void isSphereVisible_besideFrustum() {
+        // The right plane is x = -z; a unit sphere at depth 10 touches it up to x = 10 + sqrt(2).
+        assertTrue(culler.isSphereVisible(translation(11.3f, 0, -10), 0, UNIT_SPHERE));
+        assertFalse(culler.isSphereVisible(translation(11.5f, 0, -10), 0, UNIT_SPHERE));
+        assertFalse(culler.isSphereVisible(translation(0, -11.5f, -10), 0, UNIT_SPHERE));
+    }
+
+    @Test
+    public void isSphereVisible_beyondFarPlaneIsCulled() {
+        assertTrue(culler.isSphereVisible(translation(0, 0, -100.5f), 0, UNIT_SPHERE));
+        assertFalse(culler.isSphereVisible(translation(0, 0, -101.5f), 0, UNIT_SPHERE));
+    }
+
+    @Test
+    public void isSphereVisible_appliesScaleAndSphereCenter() {
+        float[] scaled = translation(0, 0, 10);
+        scaled[0] = 8;
+        scaled[5] = 8;
+        scaled[10] = 8;
+
+        // Scaled by 8, the sphere reaches from z = 2 to z = 18, behind the camera.
+        assertFalse(culler.isSphereVisible(scaled, 0, UNIT_SPHERE));
+        // Scaled by 8, the sphere reaches from z = -6 to z = 10.
+        assertTrue(culler.isSphereVisible(scaled, 0, new float[] {0, 0, -2, 1}));
+    }
+
+    @Test
+    public void setCamera_appliesViewMatrix() {
+        // Camera turned around the y axis by 180 degrees, looking down +z.
+        float[] view = IDENTITY.clone();
+        view[0] = -1;
+        view[10] = -1;
+        culler.setCamera(view, PROJECTION);
+
+        assertTrue(culler.isSphereVisible(translation(0, 0, 10), 0, UNIT_SPHERE));
+        assertFalse(culler.isSphereVisible(translation(0, 0, -10), 0, UNIT_SPHERE));
+    }
+
+    @Test
+    public void cull_movesVisibleMatricesToFront() {
+        float[] matrices = new float[64];
+        float[][] positions = {{0, 0, -10}, {0, 0, 10}, {1, 0, -5}, {50, 0, -5}};
+        for (int i = 0; i < positions.length; ++i) {
+            float[] matrix = translation(positions[i][0], positions[i][1], positions[i][2]);
+            System.arraycopy(matrix, 0, matrices, i * 16, 16);
+        }
+
+        int visibleCount = culler.cull(matrices, 4, UNIT_SPHERE);
+
+        assertEquals(2, visibleCount);
+        assertEquals(-10, matrices[14], 0.0f);
+        assertEquals(1, matrices[16 + 12], 0.0f);
+        assertEquals(-5, matrices[16 + 14], 0.0f);
+    }
+
+    @Test
+    public void classifyBox_outsideInsideAndIntersecting() {
+        assertEquals(FrustumCuller.INSIDE, culler.classifyBox(-1, -1, -11, 1, 1, -9));
+        assertEquals(FrustumCuller.INTERSECTING, culler.classifyBox(-1, -1, -1, 1, 1, 1));
+        assertEquals(FrustumCuller.OUTSIDE, culler.classifyBox(-1, -1, 1, 1, 1, 3));
+        assertEquals(FrustumCuller.OUTSIDE, culler.classifyBox(12, -1, -11, 14, 1, -9));
+    }
+
+    @Test
+    public void encloseSpheres_containsBoth() {
+        float[] out = new float[4];
+        FrustumCuller.encloseSpheres(new float[] {0, 1, 0, 1}, new float[] {4, 1, 0, 1}, out);
+
+        assertArrayEquals(new float[] {2, 1, 0, 3}, out, 1e-6f);
+    }
+
+    @Test
+    public void encloseSpheres_keepsSphereContainingTheOther() {
+        float[] big = {0, 0, 0, 2};
+        float[] small = {0, -1, 0, 0.5f};
+
+        FrustumCuller.encloseSpheres(small, big, small);
+
+        assertArrayEquals(big, small, 0.0f);
+    }
+
+    private static float[] translation(float x, float y, float z) {
+        float[] matrix = IDENTITY.clone();
+        matrix[12] = x;
+        matrix[13] = y;
+        matrix[14] = z;
+        return matrix;
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link GlErrorPolicy}, run on the development machine (host).
+ */
+public class GlErrorPolicyTest {
+    @After
+    public void tearDown() {
+        GlErrorPolicy.setMode(GlErrorPolicy.Mode.FULL, 1);
+        GlErrorPolicy.beginFrame();
+    }
+
+    @Test
+    public void full_checksEveryFrame() {
+        GlErrorPolicy.setMode(GlErrorPolicy.Mode.FULL, 10);
+
+        for (int i = 0; i < 5; ++i) {
+            GlErrorPolicy.beginFrame();
+            assertTrue(GlErrorPolicy.isCheckingFrame());
+        }
+    }
+
+    @Test
+    public void off_checksNoFrame() {
+        GlErrorPolicy.setMode(GlErrorPolicy.Mode.OFF, 1);
+
+        for (int i = 0; i < 5; ++i) {
+            GlErrorPolicy.beginFrame();
+            assertFalse(GlErrorPolicy.isCheckingFrame());
+        }
+    }
+
+    @Test
+    public void sampled_checksOneFrameInInterval() {
+        GlErrorPolicy.setMode(GlErrorPolicy.Mode.SAMPLED, 4);
+
+        int checkedFrames = 0;
+        for (int i = 0; i < 40; ++i) {
+            GlErrorPolicy.beginFrame();
+            if (GlErrorPolicy.isCheckingFrame()) {
+                ++checkedFrames;
+            }
+        }
+        assertEquals(10, checkedFrames);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void setMode_rejectsEmptyInterval() {
+        GlErrorPolicy.setMode(GlErrorPolicy.Mode.SAMPLED, 0);
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link GpuResourceCache}, run on the development machine (host).
+ */
+public class GpuResourceCacheTest {
+    /** A resource of a fixed size that records whether it was released. */
+    private static class FakeResource implements GpuResourceCache.Resource {
+        final long gpuBytes;
+        boolean released;
+
+        FakeResource(long gpuBytes) {
+            this.gpuBytes = gpuBytes;
+        }
+
+        @Override
+        public long getGpuBytes() {
+            return gpuBytes;
+        }
+
+        @Override
+        public void release() {
+            assertFalse("Released twice", released);
+            released = true;
+        }
+    }
+
+    @Test
+    public void acquire_sharesCachedResource() {
+        GpuResourceCache cache = new GpuResourceCache(100);
+        FakeResource mesh = new FakeResource(40);
+
+        assertNull(cache.acquire("mesh"));
+        cache.put("mesh", mesh);
+
+        assertSame(mesh, cache.<FakeResource>acquire("mesh"));
+        assertEquals(40, cache.getGpuBytes());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void referencedResourcesAreNeverEvicted() {
+        GpuResourceCache cache = new GpuResourceCache(0);
+        FakeResource mesh = new FakeResource(40);
+        cache.put("mesh", mesh);
+        cache.acquire("mesh");
+
+        cache.release("mesh");
+        assertFalse(mesh.released);
+
+        cache.release("mesh");
+        assertTrue(mesh.released);
+        assertEquals(0, cache.getGpuBytes());
+        assertNull(cache.acquire("mesh"));
+    }
+
+    @Test
+    public void unusedResourcesStayCachedWithinBudget() {
+        GpuResourceCache cache = new GpuResourceCache(100);
+        FakeResource texture = new FakeResource(60);
+        cache.put("texture", texture);
+        cache.release("texture");
+
+        assertFalse(texture.released);
+        assertSame(texture, cache.<FakeResource>acquire("texture"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFirst() {
+        GpuResourceCache cache = new GpuResourceCache(100);
+        FakeResource a = new FakeResource(40);
+        FakeResource b = new FakeResource(40);
+        cache.put("a", a);
+        cache.put("b", b);
+        cache.release("a");
+        cache.release("b");
+        // Using "a" again makes "b" the least recently used.
+        cache.acquire("a");
+        cache.release("a");
+
+        cache.put("c", new FakeResource(40));
+
+        assertFalse(a.released);
+        assertTrue(b.released);
+        assertEquals(80, cache.getGpuBytes());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void setBudgetBytes_evictsDownToBudget() {
+        GpuResourceCache cache = new GpuResourceCache(100);
+        FakeResource a = new FakeResource(30);
+        FakeResource b = new FakeResource(30);
+        cache.put("a", a);
+        cache.put("b", b);
+        cache.release("a");
+
+        cache.setBudgetBytes(0);
+
+        assertTrue(a.released);
+        assertFalse(b.released);
+        assertEquals(30, cache.getGpuBytes());
+    }
+
+    @Test
+    public void clear_forgetsWithoutReleasing() {
+        GpuResourceCache cache = new GpuResourceCache(100);
+        FakeResource mesh = new FakeResource(40);
+        cache.put("mesh", mesh);
+
+        cache.clear();
+
+        assertFalse(mesh.released);
+        assertEquals(0, cache.getGpuBytes());
+        assertNull(cache.acquire("mesh"));
+    }
+
+    @Test
+    public void release_rejectsUnreferencedKeys() {
+        GpuResourceCache cache = new GpuResourceCache(100);
+        cache.put("mesh", new FakeResource(40));
+        cache.release("mesh");
+
+        try {
+            cache.release("mesh");
+            fail("Expected an unbalanced release to be rejected");
+        } catch (IllegalStateException expected) {
+        }
+        try {
+            cache.release("texture");
+            fail("Expected an unknown key to be rejected");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
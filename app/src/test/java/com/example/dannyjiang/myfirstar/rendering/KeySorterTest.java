@@ -0,0 +1,114 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link KeySorter}, run on the development machine (host).
+ */
+public class KeySorterTest {
+    private static int[] identity(int count) {
+        int[] indices = new int[count];
+        for (int i = 0; i < count; ++i) {
+            indices[i] = i;
+        }
+        return indices;
+    }
+
+    @Test
+    public void insertionSort_intKeysAreUnsignedAndStable() {
+        int[] keys = {5, -1, 0, 5, Integer.MIN_VALUE, 1};
+        int[] indices = identity(keys.length);
+
+        KeySorter.insertionSort(keys, indices, 5);
+
+        // Negative keys are large unsigned integers. The key past the count is left alone.
+        assertArrayEquals(new int[] {0, 5, 5, Integer.MIN_VALUE, -1, 1}, keys);
+        assertArrayEquals(new int[] {2, 0, 3, 4, 1, 5}, indices);
+    }
+
+    @Test
+    public void insertionSort_longKeysAreUnsignedAndStable() {
+        long[] keys = {5, -1, 0, 5, Long.MIN_VALUE, 1};
+        int[] indices = identity(keys.length);
+
+        KeySorter.insertionSort(keys, indices, 5);
+
+        assertArrayEquals(new long[] {0, 5, 5, Long.MIN_VALUE, -1, 1}, keys);
+        assertArrayEquals(new int[] {2, 0, 3, 4, 1, 5}, indices);
+    }
+
+    @Test
+    public void radixSort_intKeysMatchInsertionSort() {
+        Random random = new Random(3);
+        KeySorter sorter = new KeySorter();
+        // Keys differing in one byte, so the sorted keys end up in the scratch array and are copied
+        // back, in two and in four bytes, and in none.
+        int[] masks = {0xff, 0xff00ff, 0xffffffff, 0};
+        for (int mask : masks) {
+            int count = 500;
+            int[] keys = new int[count];
+            for (int i = 0; i < count; ++i) {
+                // Few distinct values, so there are equal keys.
+                keys[i] = (random.nextInt(64) * 0x01030507) & mask;
+            }
+            int[] expectedKeys = keys.clone();
+            int[] expectedIndices = identity(count);
+            KeySorter.insertionSort(expectedKeys, expectedIndices, count);
+            int[] indices = identity(count);
+
+            sorter.radixSort(keys, indices, count);
+
+            assertArrayEquals(expectedKeys, keys);
+            assertArrayEquals(expectedIndices, indices);
+        }
+    }
+
+    @Test
+    public void radixSort_longKeysMatchInsertionSort() {
+        Random random = new Random(4);
+        KeySorter sorter = new KeySorter();
+        long[] masks = {0xffL, 0xff00ff00000000ffL, 0xffffffffffffffffL, 0L};
+        for (long mask : masks) {
+            int count = 500;
+            long[] keys = new long[count];
+            for (int i = 0; i < count; ++i) {
+                keys[i] = (random.nextInt(64) * 0x0103050709111315L) & mask;
+            }
+            long[] expectedKeys = keys.clone();
+            int[] expectedIndices = identity(count);
+            KeySorter.insertionSort(expectedKeys, expectedIndices, count);
+            int[] indices = identity(count);
+
+            sorter.radixSort(keys, indices, count);
+
+            assertArrayEquals(expectedKeys, keys);
+            assertArrayEquals(expectedIndices, indices);
+        }
+    }
+
+    @Test
+    public void sort_reusesScratchAcrossCounts() {
+        KeySorter sorter = new KeySorter();
+        Random random = new Random(5);
+        int[] counts = {1000, 40, 2, 0, 100};
+        for (int count : counts) {
+            long[] keys = new long[count + 1];
+            for (int i = 0; i < keys.length; ++i) {
+                keys[i] = random.nextLong();
+            }
+            long last = keys[count];
+            int[] indices = identity(count);
+
+            sorter.sort(keys, indices, count);
+
+            for (int i = 1; i < count; ++i) {
+                assertTrue(keys[i - 1] + Long.MIN_VALUE <= keys[i] + Long.MIN_VALUE);
+            }
+            assertEquals(last, keys[count]);
+        }
+    }
+}
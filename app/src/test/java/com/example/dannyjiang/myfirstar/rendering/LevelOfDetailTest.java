@@ -0,0 +1,86 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link LevelOfDetail}, run on the development machine (host).
+ */
+public class LevelOfDetailTest {
+    private static final float[] IDENTITY = {
+        1, 0, 0, 0,
+        0, 1, 0, 0,
+        0, 0, 1, 0,
+        0, 0, 0, 1
+    };
+    // Perspective projection with a 90 degree vertical field of view.
+    private static final float[] PROJECTION = {
+        1, 0, 0, 0,
+        0, 1, 0, 0,
+        0, 0, -1, -1,
+        0, 0, -0.2f, 0
+    };
+    private static final float[] UNIT_SPHERE = {0, 0, 0, 1};
+
+    @Test
+    public void computeScreenSize_matchesAngularSize() {
+        // A unit sphere 10 units in front of the camera spans a half angle of asin(1 / 10).
+        float[] model = translation(0, 0, -10);
+
+        float size =
+                LevelOfDetail.computeScreenSize(model, 0, UNIT_SPHERE, IDENTITY, PROJECTION);
+
+        assertEquals(Math.tan(Math.asin(0.1)), size, 1e-6);
+    }
+
+    @Test
+    public void computeScreenSize_appliesScaleAndOffset() {
+        float[] models = new float[32];
+        float[] scaled = translation(0, 0, -10);
+        scaled[0] = 2;
+        scaled[5] = 2;
+        scaled[10] = 2;
+        System.arraycopy(scaled, 0, models, 16, 16);
+
+        float size =
+                LevelOfDetail.computeScreenSize(models, 16, UNIT_SPHERE, IDENTITY, PROJECTION);
+
+        assertEquals(Math.tan(Math.asin(0.2)), size, 1e-6);
+    }
+
+    @Test
+    public void computeScreenSize_insideSphereIsInfinite() {
+        float size =
+                LevelOfDetail.computeScreenSize(
+                        translation(0, 0, -0.5f), 0, UNIT_SPHERE, IDENTITY, PROJECTION);
+
+        assertEquals(Float.POSITIVE_INFINITY, size, 0.0f);
+    }
+
+    @Test
+    public void selectLevel_halvesThresholdPerLevel() {
+        assertEquals(0, LevelOfDetail.selectLevel(Float.POSITIVE_INFINITY, 3));
+        assertEquals(0, LevelOfDetail.selectLevel(0.25f, 3));
+        assertEquals(1, LevelOfDetail.selectLevel(0.2f, 3));
+        assertEquals(2, LevelOfDetail.selectLevel(0.1f, 3));
+        assertEquals(2, LevelOfDetail.selectLevel(0.001f, 3));
+        assertEquals(0, LevelOfDetail.selectLevel(0.001f, 1));
+    }
+
+    @Test
+    public void getTargetIndexCount_keepsQuarterPerLevel() {
+        assertEquals(3000, LevelOfDetail.getTargetIndexCount(3000, 0));
+        assertEquals(750, LevelOfDetail.getTargetIndexCount(3000, 1));
+        assertEquals(186, LevelOfDetail.getTargetIndexCount(3000, 2));
+        assertEquals(3, LevelOfDetail.getTargetIndexCount(3, 4));
+    }
+
+    private static float[] translation(float x, float y, float z) {
+        float[] matrix = IDENTITY.clone();
+        matrix[12] = x;
+        matrix[13] = y;
+        matrix[14] = z;
+        return matrix;
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link Matrices}, run on the development machine (host).
+ */
+public class MatricesTest {
+    private static final float EPSILON = 1e-5f;
+
+    private static float[] randomMatrices(Random random, int count) {
+        float[] matrices = new float[count * 16];
+        for (int i = 0; i < matrices.length; ++i) {
+            matrices[i] = random.nextFloat() * 2 - 1;
+        }
+        return matrices;
+    }
+
+    /** The textbook product of two column-major matrices, to compare against. */
+    private static float[] referenceMultiply(
+            float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        float[] product = new float[16];
+        for (int column = 0; column < 4; ++column) {
+            for (int row = 0; row < 4; ++row) {
+                float sum = 0;
+                for (int k = 0; k < 4; ++k) {
+                    sum += lhs[lhsOffset + k * 4 + row] * rhs[rhsOffset + column * 4 + k];
+                }
+                product[column * 4 + row] = sum;
+            }
+        }
+        return product;
+    }
+
+    private static void assertMatrixEquals(float[] expected, float[] actual, int actualOffset) {
+        for (int i = 0; i < 16; ++i) {
+            assertEquals(expected[i], actual[actualOffset + i], EPSILON);
+        }
+    }
+
+    /** A rotation by {@code angle} radians around the x axis, followed by a translation. */
+    private static float[] rigidTransform(float angle, float tx, float ty, float tz) {
+        float cos = (float) Math.cos(angle);
+        float sin = (float) Math.sin(angle);
+        return new float[] {
+            1, 0, 0, 0,
+            0, cos, sin, 0,
+            0, -sin, cos, 0,
+            tx, ty, tz, 1
+        };
+    }
+
+    @Test
+    public void multiplyBatch_matchesReference() {
+        Random random = new Random(7);
+        float[] lhs = randomMatrices(random, 1);
+        float[] matrices = randomMatrices(random, 5);
+        float[] out = new float[5 * 16];
+
+        Matrices.multiplyBatch(out, 0, lhs, 0, matrices, 16, 4);
+
+        for (int i = 0; i < 4; ++i) {
+            assertMatrixEquals(referenceMultiply(lhs, 0, matrices, (i + 1) * 16), out, i * 16);
+        }
+        // Nothing is written past the count.
+        assertMatrixEquals(new float[16], out, 4 * 16);
+    }
+
+    @Test
+    public void multiplyBatch_inPlace() {
+        Random random = new Random(8);
+        float[] lhs = randomMatrices(random, 1);
+        float[] matrices = randomMatrices(random, 3);
+        float[] expected = referenceMultiply(lhs, 0, matrices, 32);
+
+        Matrices.multiplyBatch(matrices, 0, lhs, 0, matrices, 0, 3);
+
+        assertMatrixEquals(expected, matrices, 32);
+    }
+
+    @Test
+    public void concatenate_computesModelViewAndModelViewProjection() {
+        Random random = new Random(9);
+        float[] view = randomMatrices(random, 1);
+        float[] projection = randomMatrices(random, 1);
+        float[] models = randomMatrices(random, 3);
+        float[] modelViews = new float[2 * 16];
+        float[] modelViewProjections = new float[2 * 16];
+
+        Matrices.concatenate(view, projection, models, 1, 2, modelViews, modelViewProjections);
+
+        for (int i = 0; i < 2; ++i) {
+            float[] modelView = referenceMultiply(view, 0, models, (i + 1) * 16);
+            assertMatrixEquals(modelView, modelViews, i * 16);
+            assertMatrixEquals(
+                    referenceMultiply(projection, 0, modelView, 0), modelViewProjections, i * 16);
+        }
+    }
+
+    @Test
+    public void transformNormals_rotatesAndNormalizes() {
+        float[] matrices = new float[2 * 16];
+        System.arraycopy(rigidTransform((float) (Math.PI / 2), 1, 2, 3), 0, matrices, 0, 16);
+        Matrices.setIdentity(matrices, 16);
+        // A uniform scale does not change the direction of normals.
+        for (int i = 16; i < 27; ++i) {
+            matrices[i] *= 4;
+        }
+        float[] normals = new float[6];
+
+        Matrices.transformNormals(normals, 0, matrices, 0, 2, new float[] {0, 1, 0}, 0);
+
+        assertArrayEquals(new float[] {0, 0, 1, 0, 1, 0}, normals, EPSILON);
+    }
+
+    @Test
+    public void invertRigid_invertsPose() {
+        float[] pose = rigidTransform(0.7f, 1, -2, 3);
+        float[] inverse = new float[16];
+        float[] identity = new float[16];
+        Matrices.setIdentity(identity, 0);
+
+        Matrices.invertRigid(inverse, 0, pose, 0);
+
+        assertMatrixEquals(identity, referenceMultiply(pose, 0, inverse, 0), 0);
+        assertMatrixEquals(identity, referenceMultiply(inverse, 0, pose, 0), 0);
+    }
+
+    @Test
+    public void extractFrustumPlanes_ofIdentityIsClipVolume() {
+        float[] identity = new float[16];
+        Matrices.setIdentity(identity, 0);
+        float[] planes = new float[24];
+
+        Matrices.extractFrustumPlanes(planes, 0, identity, 0);
+
+        assertArrayEquals(
+                new float[] {
+                    1, 0, 0, 1,
+                    -1, 0, 0, 1,
+                    0, 1, 0, 1,
+                    0, -1, 0, 1,
+                    0, 0, 1, 1,
+                    0, 0, -1, 1
+                },
+                planes,
+                EPSILON);
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link MeshFile}, run on the development machine (host).
+ */
+public class MeshFileTest {
+    private static final long SOURCE_STAMP = 0x123456789abcdefL;
+
+    /** A quantized mesh of two triangles with decode transforms that are not the identity. */
+    private static MeshData createMesh() {
+        MeshData mesh =
+                MeshData.allocate(
+                        MeshData.FORMAT_QUANTIZED,
+                        4,
+                        6,
+                        new float[] {2, 3, 4},
+                        new float[] {-1, 0.5f, 7},
+                        new float[] {0.5f, 0.25f},
+                        new float[] {0.125f, 0});
+        ByteBuffer vertices = mesh.getVertices();
+        for (int i = 0; i < vertices.limit(); ++i) {
+            vertices.put(i, (byte) (i * 7));
+        }
+        ByteBuffer indices = mesh.getIndexBytes();
+        short[] triangles = {0, 1, 2, 2, 1, 3};
+        for (int i = 0; i < triangles.length; ++i) {
+            indices.putShort(2 * i, triangles[i]);
+        }
+        return mesh;
+    }
+
+    private static ByteBuffer write(MeshData mesh) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MeshFile.write(mesh, SOURCE_STAMP, Channels.newChannel(out));
+        return ByteBuffer.wrap(out.toByteArray());
+    }
+
+    private static void assertReadFails(ByteBuffer file) {
+        try {
+            MeshFile.read(file);
+            fail("Reading a broken mesh file did not throw an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void read_returnsWrittenMesh() throws IOException {
+        MeshData mesh = createMesh();
+
+        ByteBuffer file = write(mesh);
+        MeshData read = MeshFile.read(file);
+
+        assertEquals(MeshFile.HEADER_SIZE + 4 * 16 + 6 * 2, file.limit());
+        assertEquals(MeshData.FORMAT_QUANTIZED, read.getFormat());
+        assertEquals(4, read.getVertexCount());
+        assertEquals(6, read.getIndexCount());
+        assertEquals(mesh.getVertices(), read.getVertices());
+        assertEquals(mesh.getIndexBytes(), read.getIndexBytes());
+        assertArrayEquals(mesh.getPositionScale(), read.getPositionScale(), 0.0f);
+        assertArrayEquals(mesh.getPositionBias(), read.getPositionBias(), 0.0f);
+        assertArrayEquals(mesh.getTexCoordScale(), read.getTexCoordScale(), 0.0f);
+        assertArrayEquals(mesh.getTexCoordBias(), read.getTexCoordBias(), 0.0f);
+        assertEquals(SOURCE_STAMP, MeshFile.readSourceStamp(file));
+    }
+
+    @Test
+    public void write_storesVersion2Header() throws IOException {
+        ByteBuffer header = write(createMesh()).order(ByteOrder.LITTLE_ENDIAN);
+
+        assertEquals('A', header.get(0));
+        assertEquals('M', header.get(1));
+        assertEquals('S', header.get(2));
+        assertEquals('H', header.get(3));
+        assertEquals(2, header.getInt(4));
+        assertEquals(MeshData.FORMAT_QUANTIZED, header.getInt(8));
+        assertEquals(4, header.getInt(12));
+        assertEquals(6, header.getInt(16));
+        assertEquals(0, header.getInt(20));
+        assertEquals(SOURCE_STAMP, header.getLong(24));
+        assertEquals(2.0f, header.getFloat(32), 0.0f);
+        assertEquals(7.0f, header.getFloat(52), 0.0f);
+        assertEquals(0.125f, header.getFloat(64), 0.0f);
+    }
+
+    @Test
+    public void read_rejectsTruncatedFiles() throws IOException {
+        ByteBuffer file = write(createMesh());
+
+        // Within the header, and within the index block.
+        assertReadFails(ByteBuffer.wrap(Arrays.copyOf(file.array(), MeshFile.HEADER_SIZE - 1)));
+        assertReadFails(ByteBuffer.wrap(Arrays.copyOf(file.array(), file.limit() - 1)));
+    }
+
+    @Test
+    public void read_rejectsCorruptHeaders() throws IOException {
+        // Offset and value of a broken header field: magic, version, vertex format, vertex count
+        // beyond the index range, negative index count, partial triangle, and an index count
+        // whose size in bytes overflows an int.
+        int[][] corruptions = {
+            {0, 0x4853_4d42},
+            {4, 1},
+            {8, 2},
+            {12, MeshData.MAX_VERTICES + 1},
+            {16, -3},
+            {16, 5},
+            {16, Integer.MAX_VALUE / 3 * 3},
+        };
+        for (int[] corruption : corruptions) {
+            ByteBuffer file = write(createMesh()).order(ByteOrder.LITTLE_ENDIAN);
+            file.putInt(corruption[0], corruption[1]);
+            assertReadFails(file);
+        }
+    }
+}
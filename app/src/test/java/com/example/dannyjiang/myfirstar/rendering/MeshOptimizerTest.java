@@ -0,0 +1,217 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link MeshOptimizer}, run on the development machine (host).
+ */
+public class MeshOptimizerTest {
+    private static final int GRID_SIZE = 40;
+
+    @Test
+    public void analyzeVertexCache_singleTriangle() {
+        MeshOptimizer.VertexCacheReport report =
+                MeshOptimizer.analyzeVertexCache(new int[] {0, 1, 2}, 3, 16);
+        assertEquals(3, report.getTransformCount());
+        assertEquals(3.0f, report.getAcmr(), 1e-6f);
+        assertEquals(1.0f, report.getAtvr(), 1e-6f);
+    }
+
+    @Test
+    public void analyzeVertexCache_evictsInFifoOrder() {
+        // Hits do not refresh FIFO entries: vertex 3 evicts 0, which then evicts 1 and so on,
+        // although 1 and 2 were used by the previous triangle.
+        int[] indices = {0, 1, 2, 2, 1, 3, 0, 1, 2};
+        MeshOptimizer.VertexCacheReport report = MeshOptimizer.analyzeVertexCache(indices, 4, 3);
+        assertEquals(7, report.getTransformCount());
+        assertEquals(7.0f / 4.0f, report.getAtvr(), 1e-6f);
+    }
+
+    @Test
+    public void optimizeVertexCache_improvesShuffledGrid() {
+        int[] indices = shuffleTriangles(createGridIndices(), new Random(42));
+        int vertexCount = GRID_SIZE * GRID_SIZE;
+        float before = MeshOptimizer.analyzeVertexCache(indices, vertexCount, 16).getAcmr();
+
+        int[] optimized = MeshOptimizer.optimizeVertexCache(indices, vertexCount);
+        float after = MeshOptimizer.analyzeVertexCache(optimized, vertexCount, 16).getAcmr();
+
+        assertTrue("shuffled ACMR " + before, before > 2.0f);
+        assertTrue("optimized ACMR " + after, after < 0.8f);
+        assertArrayEquals(canonicalTriangles(indices), canonicalTriangles(optimized));
+    }
+
+    @Test
+    public void optimizeOverdraw_keepsTrianglesAndCacheEfficiency() {
+        float[] positions = createSpherePositions();
+        int[] indices =
+                MeshOptimizer.optimizeVertexCache(
+                        shuffleTriangles(createSphereIndices(), new Random(7)),
+                        positions.length / 3);
+        int vertexCount = positions.length / 3;
+        float cacheOnly = MeshOptimizer.analyzeVertexCache(indices, vertexCount, 16).getAcmr();
+
+        int[] sorted = MeshOptimizer.optimizeOverdraw(indices, positions, 1.05f);
+        float withOverdraw = MeshOptimizer.analyzeVertexCache(sorted, vertexCount, 16).getAcmr();
+
+        assertArrayEquals(canonicalTriangles(indices), canonicalTriangles(sorted));
+        assertTrue(
+                "ACMR " + cacheOnly + " -> " + withOverdraw, withOverdraw <= cacheOnly * 1.1f);
+    }
+
+    @Test
+    public void optimizeVertexFetch_numbersVerticesInFirstUseOrder() {
+        MeshData mesh = MeshData.allocate(MeshData.FORMAT_FLOAT, 5, 6);
+        ByteBuffer vertices = mesh.getVertices();
+        for (int v = 0; v < 5; ++v) {
+            for (int c = 0; c < 8; ++c) {
+                vertices.putFloat(10 * v + c);
+            }
+        }
+
+        // Vertex 1 is unreferenced and dropped.
+        MeshData optimized =
+                MeshOptimizer.optimizeVertexFetch(mesh, new int[] {4, 2, 0, 0, 2, 3});
+
+        assertEquals(4, optimized.getVertexCount());
+        ShortBuffer indices = optimized.getIndices();
+        short[] actualIndices = new short[6];
+        indices.get(actualIndices);
+        assertArrayEquals(new short[] {0, 1, 2, 2, 1, 3}, actualIndices);
+        ByteBuffer optimizedVertices = optimized.getVertices();
+        int[] expectedSources = {4, 2, 0, 3};
+        for (int v = 0; v < 4; ++v) {
+            for (int c = 0; c < 8; ++c) {
+                assertEquals(
+                        10 * expectedSources[v] + c,
+                        optimizedVertices.getFloat(32 * v + 4 * c),
+                        0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void optimize_keepsTrianglePositions() {
+        float[] positions = createSpherePositions();
+        int[] indices = shuffleTriangles(createSphereIndices(), new Random(3));
+        int vertexCount = positions.length / 3;
+        MeshData mesh = MeshData.allocate(MeshData.FORMAT_FLOAT, vertexCount, indices.length);
+        ByteBuffer vertices = mesh.getVertices();
+        for (int v = 0; v < vertexCount; ++v) {
+            vertices.putFloat(positions[3 * v]);
+            vertices.putFloat(positions[3 * v + 1]);
+            vertices.putFloat(positions[3 * v + 2]);
+            vertices.position(vertices.position() + 20);
+        }
+        ShortBuffer meshIndices = mesh.getIndices();
+        for (int index : indices) {
+            meshIndices.put((short) index);
+        }
+
+        MeshData optimized = MeshOptimizer.optimize(mesh, 1.05f);
+
+        assertTrue(
+                MeshOptimizer.analyzeVertexCache(optimized, 16).getAcmr()
+                        < MeshOptimizer.analyzeVertexCache(mesh, 16).getAcmr());
+        assertEquals(
+                Arrays.toString(trianglePositions(mesh)),
+                Arrays.toString(trianglePositions(optimized)));
+    }
+
+    private static int[] createGridIndices() {
+        int quads = GRID_SIZE - 1;
+        int[] indices = new int[quads * quads * 6];
+        int i = 0;
+        for (int y = 0; y < quads; ++y) {
+            for (int x = 0; x < quads; ++x) {
+                int corner = y * GRID_SIZE + x;
+                indices[i++] = corner;
+                indices[i++] = corner + 1;
+                indices[i++] = corner + GRID_SIZE;
+                indices[i++] = corner + 1;
+                indices[i++] = corner + GRID_SIZE + 1;
+                indices[i++] = corner + GRID_SIZE;
+            }
+        }
+        return indices;
+    }
+
+    /** Unit sphere with GRID_SIZE rings and GRID_SIZE segments, without shared seam vertices. */
+    private static float[] createSpherePositions() {
+        float[] positions = new float[GRID_SIZE * GRID_SIZE * 3];
+        for (int ring = 0; ring < GRID_SIZE; ++ring) {
+            double theta = Math.PI * ring / (GRID_SIZE - 1);
+            for (int segment = 0; segment < GRID_SIZE; ++segment) {
+                double phi = 2 * Math.PI * segment / (GRID_SIZE - 1);
+                int v = 3 * (ring * GRID_SIZE + segment);
+                positions[v] = (float) (Math.sin(theta) * Math.cos(phi));
+                positions[v + 1] = (float) Math.cos(theta);
+                positions[v + 2] = (float) (Math.sin(theta) * Math.sin(phi));
+            }
+        }
+        return positions;
+    }
+
+    private static int[] createSphereIndices() {
+        return createGridIndices();
+    }
+
+    private static int[] shuffleTriangles(int[] indices, Random random) {
+        int[] shuffled = indices.clone();
+        for (int t = shuffled.length / 3 - 1; t > 0; --t) {
+            int other = random.nextInt(t + 1);
+            for (int k = 0; k < 3; ++k) {
+                int swap = shuffled[3 * t + k];
+                shuffled[3 * t + k] = shuffled[3 * other + k];
+                shuffled[3 * other + k] = swap;
+            }
+        }
+        return shuffled;
+    }
+
+    /** Returns the triangles rotated to start at their smallest index, in sorted order. */
+    private static long[] canonicalTriangles(int[] indices) {
+        long[] triangles = new long[indices.length / 3];
+        for (int t = 0; t < triangles.length; ++t) {
+            int a = indices[3 * t];
+            int b = indices[3 * t + 1];
+            int c = indices[3 * t + 2];
+            // Rotating keeps the winding order, which the optimizer must not change.
+            while (a > b || a > c) {
+                int swap = a;
+                a = b;
+                b = c;
+                c = swap;
+            }
+            triangles[t] = ((long) a << 40) | ((long) b << 20) | c;
+        }
+        Arrays.sort(triangles);
+        return triangles;
+    }
+
+    /** Returns the vertex positions of every triangle as sorted strings. */
+    private static String[] trianglePositions(MeshData mesh) {
+        ByteBuffer vertices = mesh.getVertices();
+        ShortBuffer indices = mesh.getIndices();
+        String[] triangles = new String[mesh.getIndexCount() / 3];
+        for (int t = 0; t < triangles.length; ++t) {
+            StringBuilder triangle = new StringBuilder();
+            for (int k = 0; k < 3; ++k) {
+                int base = (indices.get(3 * t + k) & 0xffff) * mesh.getVertexStride();
+                triangle.append(vertices.getFloat(base)).append(',')
+                        .append(vertices.getFloat(base + 4)).append(',')
+                        .append(vertices.getFloat(base + 8)).append(';');
+            }
+            triangles[t] = triangle.toString();
+        }
+        Arrays.sort(triangles);
+        return triangles;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link MeshQuantizer}, run on the development machine (host).
+ */
+public class MeshQuantizerTest {
+    private static final int VERTEX_COUNT = 200;
+    // Largest angle between a unit normal and its decoded encoding, as the cosine.
+    private static final float MIN_NORMAL_COSINE = 0.99999f;
+
+    /** A float mesh of random vertices, all normals pointing along +z. */
+    private static MeshData createFloatMesh(Random random) {
+        MeshData mesh = MeshData.allocate(MeshData.FORMAT_FLOAT, VERTEX_COUNT, 0);
+        ByteBuffer vertices = mesh.getVertices();
+        for (int i = 0; i < VERTEX_COUNT; ++i) {
+            // Position in [-3, 5] x [10, 10.5] x [-0.01, 0.01], texture coordinates in [0.25, 2].
+            vertices.putFloat(random.nextFloat() * 8 - 3);
+            vertices.putFloat(10 + random.nextFloat() * 0.5f);
+            vertices.putFloat(random.nextFloat() * 0.02f - 0.01f);
+            vertices.putFloat(0.25f + random.nextFloat() * 1.75f);
+            vertices.putFloat(0.25f + random.nextFloat() * 1.75f);
+            vertices.putFloat(0);
+            vertices.putFloat(0);
+            vertices.putFloat(1);
+        }
+        return mesh;
+    }
+
+    private static void assertNormalRoundTrips(float x, float y, float z) {
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        x /= length;
+        y /= length;
+        z /= length;
+        short[] encoded = new short[2];
+        float[] decoded = new float[3];
+
+        MeshQuantizer.encodeOctahedral(x, y, z, encoded);
+        MeshQuantizer.decodeOctahedral(encoded[0], encoded[1], decoded);
+
+        float cosine = x * decoded[0] + y * decoded[1] + z * decoded[2];
+        assertTrue(
+                "normal " + x + ", " + y + ", " + z + " decoded with cosine " + cosine,
+                cosine >= MIN_NORMAL_COSINE);
+    }
+
+    @Test
+    public void quantize_positionsAreWithinHalfASnorm16Step() {
+        MeshData mesh = createFloatMesh(new Random(3));
+
+        MeshData quantized = MeshQuantizer.quantize(mesh);
+
+        ByteBuffer source = mesh.getVertices();
+        ByteBuffer target = quantized.getVertices();
+        float[] scale = quantized.getPositionScale();
+        float[] bias = quantized.getPositionBias();
+        for (int i = 0; i < VERTEX_COUNT; ++i) {
+            for (int c = 0; c < 3; ++c) {
+                float expected = source.getFloat(i * 32 + 4 * c);
+                short stored = target.getShort(i * 16 + 2 * c);
+                float decoded = Math.max(stored / 32767.0f, -1.0f) * scale[c] + bias[c];
+                // Half a step of the half extent, plus float rounding of the extent itself.
+                float bound = 0.5f / 32767.0f * scale[c] + Math.ulp(expected) * 4;
+                assertEquals(expected, decoded, bound);
+            }
+        }
+    }
+
+    @Test
+    public void quantize_texCoordsAreWithinHalfAUnorm16Step() {
+        MeshData mesh = createFloatMesh(new Random(4));
+
+        MeshData quantized = MeshQuantizer.quantize(mesh);
+
+        ByteBuffer source = mesh.getVertices();
+        ByteBuffer target = quantized.getVertices();
+        float[] scale = quantized.getTexCoordScale();
+        float[] bias = quantized.getTexCoordBias();
+        for (int i = 0; i < VERTEX_COUNT; ++i) {
+            for (int c = 0; c < 2; ++c) {
+                float expected = source.getFloat(i * 32 + 12 + 4 * c);
+                int stored = target.getShort(i * 16 + 8 + 2 * c) & 0xffff;
+                float decoded = stored / 65535.0f * scale[c] + bias[c];
+                float bound = 0.5f / 65535.0f * scale[c] + Math.ulp(expected) * 4;
+                assertEquals(expected, decoded, bound);
+            }
+        }
+    }
+
+    @Test
+    public void quantize_mapsBoundsToFullRange() {
+        MeshData quantized = MeshQuantizer.quantize(createFloatMesh(new Random(5)));
+
+        ByteBuffer target = quantized.getVertices();
+        short min = Short.MAX_VALUE;
+        short max = Short.MIN_VALUE;
+        for (int i = 0; i < VERTEX_COUNT; ++i) {
+            short stored = target.getShort(i * 16);
+            min = (short) Math.min(min, stored);
+            max = (short) Math.max(max, stored);
+        }
+        assertEquals(-32767, min);
+        assertEquals(32767, max);
+    }
+
+    @Test
+    public void octahedral_axisAlignedNormalsRoundTrip() {
+        assertNormalRoundTrips(1, 0, 0);
+        assertNormalRoundTrips(-1, 0, 0);
+        assertNormalRoundTrips(0, 1, 0);
+        assertNormalRoundTrips(0, -1, 0);
+        assertNormalRoundTrips(0, 0, 1);
+        assertNormalRoundTrips(0, 0, -1);
+    }
+
+    @Test
+    public void octahedral_negativeZNormalsRoundTrip() {
+        assertNormalRoundTrips(0.3f, -0.4f, -0.866f);
+        assertNormalRoundTrips(-0.7f, 0.1f, -0.2f);
+        assertNormalRoundTrips(-0.5f, -0.5f, -0.01f);
+        Random random = new Random(6);
+        for (int i = 0; i < 1000; ++i) {
+            assertNormalRoundTrips(
+                    random.nextFloat() * 2 - 1,
+                    random.nextFloat() * 2 - 1,
+                    -0.001f - random.nextFloat());
+        }
+    }
+
+    @Test
+    public void octahedral_foldsNegativeZToCorners() {
+        short[] encoded = new short[2];
+
+        MeshQuantizer.encodeOctahedral(0, 0, 1, encoded);
+        assertArrayEquals(new short[] {0, 0}, encoded);
+
+        // The lower pole is folded onto the corners of the square.
+        MeshQuantizer.encodeOctahedral(0, 0, -1, encoded);
+        assertEquals(32767, Math.abs(encoded[0]));
+        assertEquals(32767, Math.abs(encoded[1]));
+    }
+}
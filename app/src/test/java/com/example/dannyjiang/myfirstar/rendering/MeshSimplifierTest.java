@@ -0,0 +1,178 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link MeshSimplifier}, run on the development machine (host).
+ */
+public class MeshSimplifierTest {
+    private static final int GRID_SIZE = 33;
+
+    @Test
+    public void simplify_sphereReachesTargetWithoutFolds() {
+        MeshData sphere = createSphere();
+        int target = sphere.getIndexCount() / 4;
+
+        MeshData simplified = MeshSimplifier.simplify(sphere, target);
+
+        assertTrue(
+                "index count " + simplified.getIndexCount(),
+                simplified.getIndexCount() <= target && simplified.getIndexCount() > target / 2);
+        assertTrue(simplified.getVertexCount() < sphere.getVertexCount());
+        // Every remaining triangle of a convex mesh around the origin still faces outwards.
+        ByteBuffer vertices = simplified.getVertices();
+        ShortBuffer indices = simplified.getIndices();
+        for (int t = 0; t < simplified.getIndexCount() / 3; ++t) {
+            float[][] corners = new float[3][];
+            for (int k = 0; k < 3; ++k) {
+                corners[k] = readPosition(vertices, indices.get(3 * t + k) & 0xffff);
+            }
+            float[] normal =
+                    cross(subtract(corners[1], corners[0]), subtract(corners[2], corners[0]));
+            float[] center = new float[3];
+            for (int c = 0; c < 3; ++c) {
+                center[c] = corners[0][c] + corners[1][c] + corners[2][c];
+            }
+            assertTrue("triangle " + t + " folded", dot(normal, center) > 0.0f);
+        }
+    }
+
+    @Test
+    public void simplify_keepsBorderOfPlane() {
+        MeshData plane = createPlane();
+
+        MeshData simplified = MeshSimplifier.simplify(plane, plane.getIndexCount() / 8);
+
+        assertTrue(simplified.getIndexCount() < plane.getIndexCount() / 2);
+        Set<String> remaining = new HashSet<>();
+        ByteBuffer vertices = simplified.getVertices();
+        for (int v = 0; v < simplified.getVertexCount(); ++v) {
+            float[] position = readPosition(vertices, v);
+            remaining.add(position[0] + "," + position[1]);
+        }
+        for (int i = 0; i < GRID_SIZE; ++i) {
+            assertTrue(remaining.contains(i + ".0,0.0"));
+            assertTrue(remaining.contains(i + ".0," + (GRID_SIZE - 1) + ".0"));
+            assertTrue(remaining.contains("0.0," + i + ".0"));
+            assertTrue(remaining.contains((GRID_SIZE - 1) + ".0," + i + ".0"));
+        }
+    }
+
+    @Test
+    public void simplify_keepsAttributesOfRemainingVertices() {
+        MeshData sphere = createSphere();
+
+        MeshData simplified = MeshSimplifier.simplify(sphere, sphere.getIndexCount() / 4);
+
+        // The texture coordinates are derived from the position, see createSphere().
+        ByteBuffer vertices = simplified.getVertices();
+        for (int v = 0; v < simplified.getVertexCount(); ++v) {
+            float[] position = readPosition(vertices, v);
+            assertEquals(position[1], vertices.getFloat(32 * v + 16), 1e-6f);
+            assertEquals(position[0], vertices.getFloat(32 * v + 20), 1e-6f);
+        }
+    }
+
+    /**
+     * Unit sphere with a texture seam at segment 0 and vertices duplicated at the poles, like OBJ
+     * conversion produces them. The texture coordinate v and the normal are derived from the
+     * position.
+     */
+    private static MeshData createSphere() {
+        int vertexCount = GRID_SIZE * GRID_SIZE;
+        MeshData mesh =
+                MeshData.allocate(MeshData.FORMAT_FLOAT, vertexCount, createGridIndexCount());
+        ByteBuffer vertices = mesh.getVertices();
+        for (int ring = 0; ring < GRID_SIZE; ++ring) {
+            double theta = Math.PI * ring / (GRID_SIZE - 1);
+            for (int segment = 0; segment < GRID_SIZE; ++segment) {
+                double phi = 2 * Math.PI * segment / (GRID_SIZE - 1);
+                float x = (float) (Math.sin(theta) * Math.cos(phi));
+                float y = (float) Math.cos(theta);
+                float z = (float) (Math.sin(theta) * Math.sin(phi));
+                if (ring == 0 || ring == GRID_SIZE - 1) {
+                    // sin(PI) is not exactly zero, the poles must share one position.
+                    x = 0.0f;
+                    z = 0.0f;
+                } else if (segment == GRID_SIZE - 1) {
+                    // Bit-identical to segment 0, so the seam shares positions.
+                    x = (float) Math.sin(theta);
+                    z = 0.0f;
+                }
+                vertices.putFloat(x).putFloat(y).putFloat(z);
+                vertices.putFloat((float) segment / (GRID_SIZE - 1)).putFloat(y);
+                vertices.putFloat(x).putFloat(y).putFloat(z);
+            }
+        }
+        fillGridIndices(mesh.getIndices(), true);
+        return mesh;
+    }
+
+    /** Flat square grid in the z = 0 plane, facing +z. */
+    private static MeshData createPlane() {
+        MeshData mesh =
+                MeshData.allocate(
+                        MeshData.FORMAT_FLOAT, GRID_SIZE * GRID_SIZE, createGridIndexCount());
+        ByteBuffer vertices = mesh.getVertices();
+        for (int y = 0; y < GRID_SIZE; ++y) {
+            for (int x = 0; x < GRID_SIZE; ++x) {
+                vertices.putFloat(x).putFloat(y).putFloat(0.0f);
+                vertices.putFloat(x).putFloat(y);
+                vertices.putFloat(0.0f).putFloat(0.0f).putFloat(1.0f);
+            }
+        }
+        fillGridIndices(mesh.getIndices(), false);
+        return mesh;
+    }
+
+    private static int createGridIndexCount() {
+        return (GRID_SIZE - 1) * (GRID_SIZE - 1) * 6;
+    }
+
+    private static void fillGridIndices(ShortBuffer indices, boolean outwardOnSphere) {
+        for (int row = 0; row < GRID_SIZE - 1; ++row) {
+            for (int column = 0; column < GRID_SIZE - 1; ++column) {
+                int a = row * GRID_SIZE + column;
+                int b = a + 1;
+                int c = a + GRID_SIZE;
+                int d = c + 1;
+                if (outwardOnSphere) {
+                    indices.put((short) a).put((short) b).put((short) c);
+                    indices.put((short) b).put((short) d).put((short) c);
+                } else {
+                    indices.put((short) a).put((short) b).put((short) d);
+                    indices.put((short) a).put((short) d).put((short) c);
+                }
+            }
+        }
+    }
+
+    private static float[] readPosition(ByteBuffer vertices, int vertex) {
+        return new float[] {
+            vertices.getFloat(32 * vertex),
+            vertices.getFloat(32 * vertex + 4),
+            vertices.getFloat(32 * vertex + 8)
+        };
+    }
+
+    private static float[] subtract(float[] a, float[] b) {
+        return new float[] {a[0] - b[0], a[1] - b[1], a[2] - b[2]};
+    }
+
+    private static float[] cross(float[] a, float[] b) {
+        return new float[] {
+            a[1] * b[2] - a[2] * b[1], a[2] * b[0] - a[0] * b[2], a[0] * b[1] - a[1] * b[0]
+        };
+    }
+
+    private static float dot(float[] a, float[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import com.google.ar.core.TrackingState;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CPU side of {@link PlaneRenderer}, run on the development machine (host).
+ */
+public class PlaneRendererTest {
+    private static final float[] POLYGON = {-0.5f, -0.25f, 0.5f, -0.25f, 0.5f, 0.25f, -0.5f, 0.25f};
+
+    @Test
+    public void hashPolygon_sameContentSameHash() {
+        int hash = PlaneRenderer.hashPolygon(1.0f, 0.5f, FloatBuffer.wrap(POLYGON.clone()));
+
+        assertEquals(hash, PlaneRenderer.hashPolygon(1.0f, 0.5f, FloatBuffer.wrap(POLYGON)));
+    }
+
+    @Test
+    public void hashPolygon_seesSmallChanges() {
+        int hash = PlaneRenderer.hashPolygon(1.0f, 0.5f, FloatBuffer.wrap(POLYGON));
+        float[] moved = POLYGON.clone();
+        moved[3] += 0.002f;
+
+        assertNotEquals(hash, PlaneRenderer.hashPolygon(1.0f, 0.5f, FloatBuffer.wrap(moved)));
+        assertNotEquals(hash, PlaneRenderer.hashPolygon(1.0f, 0.502f, FloatBuffer.wrap(POLYGON)));
+        assertNotEquals(
+                hash, PlaneRenderer.hashPolygon(1.0f, 0.5f, FloatBuffer.wrap(POLYGON, 0, 6)));
+    }
+
+    @Test
+    public void hashPolygon_ignoresBufferPosition() {
+        FloatBuffer polygon = FloatBuffer.wrap(POLYGON);
+        int hash = PlaneRenderer.hashPolygon(1.0f, 0.5f, polygon);
+        polygon.position(4);
+
+        assertEquals(hash, PlaneRenderer.hashPolygon(1.0f, 0.5f, polygon));
+    }
+
+    private static PlaneRenderer.PlaneMesh mesh(int vertexBufferId) {
+        PlaneRenderer.PlaneMesh mesh = new PlaneRenderer.PlaneMesh();
+        mesh.vertexBufferId = vertexBufferId;
+        mesh.indexBufferId = vertexBufferId + 1;
+        return mesh;
+    }
+
+    @Test
+    public void planeMeshCache_invalidateForgetsMeshes() {
+        PlaneRenderer.PlaneMeshCache<String> cache = new PlaneRenderer.PlaneMeshCache<>();
+        cache.put("floor", mesh(1));
+        cache.put("table", mesh(3));
+
+        cache.invalidate();
+
+        assertEquals(0, cache.size());
+        assertNull(cache.get("floor"));
+        assertNull(cache.get("table"));
+        // A plane seen again after the context was recreated gets a new mesh.
+        PlaneRenderer.PlaneMesh rebuilt = mesh(1);
+        cache.put("floor", rebuilt);
+        assertSame(rebuilt, cache.get("floor"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void planeMeshCache_removeMovesLastPlaneIntoGap() {
+        PlaneRenderer.PlaneMeshCache<String> cache = new PlaneRenderer.PlaneMeshCache<>();
+        PlaneRenderer.PlaneMesh floor = mesh(1);
+        cache.put("floor", floor);
+        cache.put("table", mesh(3));
+        cache.put("wall", mesh(5));
+
+        assertSame(floor, cache.remove(0));
+
+        assertEquals(2, cache.size());
+        assertEquals("wall", cache.getKey(0));
+        assertEquals("table", cache.getKey(1));
+        assertNull(cache.get("floor"));
+    }
+
+    @Test
+    public void planeMeshCache_indexOfFollowsRemovals() {
+        PlaneRenderer.PlaneMeshCache<String> cache = new PlaneRenderer.PlaneMeshCache<>();
+        cache.put("floor", mesh(1));
+        cache.put("table", mesh(3));
+        cache.put("wall", mesh(5));
+
+        cache.remove(cache.indexOf("floor"));
+
+        assertEquals(-1, cache.indexOf("floor"));
+        assertEquals(0, cache.indexOf("wall"));
+        assertEquals(1, cache.indexOf("table"));
+        assertEquals(-1, cache.indexOf("door"));
+    }
+
+    @Test
+    public void isPlaneMeshStale_onlyForStoppedOrSubsumedPlanes() {
+        assertFalse(PlaneRenderer.isPlaneMeshStale(TrackingState.TRACKING, false));
+        assertFalse(PlaneRenderer.isPlaneMeshStale(TrackingState.PAUSED, false));
+        assertTrue(PlaneRenderer.isPlaneMeshStale(TrackingState.STOPPED, false));
+        assertTrue(PlaneRenderer.isPlaneMeshStale(TrackingState.TRACKING, true));
+        assertTrue(PlaneRenderer.isPlaneMeshStale(TrackingState.PAUSED, true));
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import com.google.ar.core.TrackingState;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CPU side of {@link PlaneTracker}, run on the development machine (host).
+ */
+public class PlaneTrackerTest {
+    /** The center pose of a horizontal, upward facing plane at height {@code y}. */
+    private static float[] floorPose(float y) {
+        return new float[] {0, y, 0, 0, 0, 0, 1};
+    }
+
+    private static void applyFloor(PlaneTracker tracker, String id, float y) {
+        tracker.apply(id, TrackingState.TRACKING, false, floorPose(y), 0);
+    }
+
+    /** Returns the ids of the kept planes, in their order. */
+    private static String ids(PlaneTracker tracker) {
+        StringBuilder ids = new StringBuilder();
+        PlaneTracker.TrackedPlane[] planes = tracker.getTrackedPlanes();
+        for (int i = 0; i < tracker.size(); ++i) {
+            ids.append(i == 0 ? "" : " ").append(planes[i].id);
+        }
+        return ids.toString();
+    }
+
+    @Test
+    public void trackedPlane_takesNormalFromCenterPose() {
+        PlaneTracker.TrackedPlane plane = new PlaneTracker.TrackedPlane();
+        // A quarter turn around z, which turns the y axis to -x.
+        float half = (float) Math.sqrt(0.5);
+
+        plane.set("wall", true, new float[] {9, 1, 2, 3, 0, 0, half, half}, 1);
+
+        assertEquals(1.0f, plane.centerX, 0.0f);
+        assertEquals(-1.0f, plane.normalX, 1e-6f);
+        assertEquals(0.0f, plane.normalY, 1e-6f);
+        assertEquals(0.0f, plane.normalZ, 1e-6f);
+        assertTrue(plane.tracking);
+    }
+
+    @Test
+    public void apply_addsNewPlanesAndUpdatesKnownOnes() {
+        PlaneTracker tracker = new PlaneTracker();
+        tracker.clear();
+        applyFloor(tracker, "floor", 0.0f);
+        applyFloor(tracker, "table", 0.8f);
+
+        int index = tracker.apply("floor", TrackingState.PAUSED, false, floorPose(-0.1f), 0);
+
+        assertEquals(2, tracker.size());
+        assertEquals(3, tracker.getAppliedUpdateCount());
+        PlaneTracker.TrackedPlane floor = tracker.getTrackedPlanes()[index];
+        assertEquals("floor", floor.id);
+        assertEquals(-0.1f, floor.centerY, 0.0f);
+        // Paused planes are kept, but not drawn.
+        assertFalse(floor.tracking);
+    }
+
+    @Test
+    public void apply_dropsStoppedAndSubsumedPlanes() {
+        PlaneTracker tracker = new PlaneTracker();
+        tracker.clear();
+        applyFloor(tracker, "floor", 0.0f);
+        applyFloor(tracker, "table", 0.8f);
+        applyFloor(tracker, "shelf", 1.5f);
+        applyFloor(tracker, "stool", 0.5f);
+
+        assertEquals(-1, tracker.apply("table", TrackingState.STOPPED, false, null, 0));
+        assertEquals(-1, tracker.apply("floor", TrackingState.TRACKING, true, null, 0));
+        // Planes that were never kept are not added.
+        assertEquals(-1, tracker.apply("chair", TrackingState.STOPPED, false, null, 0));
+
+        assertEquals("shelf stool", ids(tracker));
+        // The records of dropped planes no longer reference them.
+        assertNull(tracker.getTrackedPlanes()[2].id);
+        assertNull(tracker.getTrackedPlanes()[3].id);
+    }
+
+    @Test
+    public void updateDistances_ordersByDistanceFromCamera() {
+        PlaneTracker tracker = new PlaneTracker();
+        tracker.clear();
+        applyFloor(tracker, "floor", 0.0f);
+        applyFloor(tracker, "table", 0.8f);
+        applyFloor(tracker, "shelf", 1.5f);
+
+        tracker.updateDistances(0, 1.0f, 0);
+
+        // The shelf is above the camera, so it faces away.
+        assertEquals("shelf table floor", ids(tracker));
+        assertEquals(-0.5f, tracker.getTrackedPlanes()[0].distance, 1e-6f);
+        assertEquals(0.2f, tracker.getTrackedPlanes()[1].distance, 1e-6f);
+
+        // Only the moved plane is updated, the order of the others carries over.
+        applyFloor(tracker, "floor", 0.9f);
+        tracker.updateDistances(0, 1.0f, 0);
+
+        assertEquals("shelf floor table", ids(tracker));
+    }
+
+    @Test
+    public void updateDistances_growsPastInitialCapacity() {
+        PlaneTracker tracker = new PlaneTracker();
+        tracker.clear();
+        for (int i = 0; i < 40; ++i) {
+            applyFloor(tracker, "plane " + i, i * 0.01f);
+        }
+
+        tracker.updateDistances(0, 1.0f, 0);
+
+        assertEquals(40, tracker.size());
+        assertEquals("plane 39", tracker.getTrackedPlanes()[0].id);
+        assertEquals("plane 0", tracker.getTrackedPlanes()[39].id);
+    }
+
+    @Test
+    public void rescan_isNeededUntilClearedAndAfterRequests() {
+        PlaneTracker tracker = new PlaneTracker();
+        assertTrue(tracker.isRescanNeeded());
+
+        tracker.clear();
+        assertFalse(tracker.isRescanNeeded());
+
+        applyFloor(tracker, "floor", 0.0f);
+        tracker.requestRescan();
+        // Updates do not take back a request, only the clear() before a full rescan does.
+        applyFloor(tracker, "table", 0.8f);
+        assertTrue(tracker.isRescanNeeded());
+
+        tracker.clear();
+        assertFalse(tracker.isRescanNeeded());
+        assertEquals(0, tracker.size());
+    }
+
+    @Test
+    public void clear_emptiesTracker() {
+        PlaneTracker tracker = new PlaneTracker();
+        applyFloor(tracker, "floor", 0.0f);
+
+        tracker.clear();
+
+        assertEquals(0, tracker.size());
+        assertNull(tracker.getTrackedPlanes()[0].id);
+        SortedPlanes sorted = new SortedPlanes();
+        sorted.update(tracker);
+        assertEquals(0, sorted.size());
+    }
+}
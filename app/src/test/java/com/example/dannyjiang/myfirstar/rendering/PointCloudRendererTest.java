@@ -0,0 +1,51 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CPU side of {@link PointCloudRenderer}, run on the development machine (host).
+ */
+public class PointCloudRendererTest {
+    @Test
+    public void growCapacity_keepsLargeEnoughCapacity() {
+        assertEquals(1000, PointCloudRenderer.growCapacity(1000, 1000));
+        assertEquals(1000, PointCloudRenderer.growCapacity(1000, 10));
+    }
+
+    @Test
+    public void growCapacity_doubles() {
+        assertEquals(2000, PointCloudRenderer.growCapacity(1000, 1001));
+        assertEquals(8000, PointCloudRenderer.growCapacity(1000, 5000));
+    }
+
+    @Test
+    public void growCapacity_growsFromEmpty() {
+        assertEquals(64, PointCloudRenderer.growCapacity(0, 40));
+    }
+
+    @Test
+    public void needsUpload_skipsPointCloudAlreadyUploaded() {
+        PointCloudRenderer renderer = new PointCloudRenderer();
+        assertTrue(renderer.needsUpload(100));
+
+        renderer.markUploaded(100, 50);
+
+        assertFalse(renderer.needsUpload(100));
+        assertTrue(renderer.needsUpload(200));
+        assertEquals(50, renderer.getPointCount());
+    }
+
+    @Test
+    public void invalidate_forgetsUploadedPoints() {
+        PointCloudRenderer renderer = new PointCloudRenderer();
+        renderer.markUploaded(100, 50);
+
+        renderer.invalidate();
+
+        // The same point cloud is uploaded again into the buffer of the new context.
+        assertTrue(renderer.needsUpload(100));
+        assertEquals(0, renderer.getPointCount());
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the CPU side of {@link ProgramCache}, run on the development machine (host).
+ */
+public class ProgramCacheTest {
+    private static final String VERTEX = "void main() { gl_Position = vec4(0.0); }\n";
+    private static final String FRAGMENT = "void main() { gl_FragColor = vec4(1.0); }\n";
+    private static final String DRIVER = "Qualcomm\nAdreno (TM) 540\nOpenGL ES 3.2 V@258.0";
+
+    @Test
+    public void computeKey_isStable() {
+        String key = ProgramCache.computeKey(VERTEX, FRAGMENT, DRIVER);
+
+        assertEquals(key, ProgramCache.computeKey(VERTEX, FRAGMENT, DRIVER));
+        assertEquals(32, key.length());
+        assertTrue(key.matches("[0-9a-f]+"));
+    }
+
+    @Test
+    public void computeKey_changesWithSourceAndDriver() {
+        String key = ProgramCache.computeKey(VERTEX, FRAGMENT, DRIVER);
+
+        assertNotEquals(key, ProgramCache.computeKey("#define A 1\n" + VERTEX, FRAGMENT, DRIVER));
+        assertNotEquals(key, ProgramCache.computeKey(VERTEX, FRAGMENT, DRIVER + ".1"));
+        // Moving text from one shader to the other is a different program.
+        assertNotEquals(
+                ProgramCache.computeKey("ab", "c", DRIVER),
+                ProgramCache.computeKey("a", "bc", DRIVER));
+    }
+
+    @Test
+    public void encode_decodeRoundTrip() throws IOException {
+        ByteBuffer binary = ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5});
+
+        ByteBuffer file = ProgramCache.encode(0x8740, binary);
+        int binaryFormat = ProgramCache.decode(file);
+
+        assertEquals(0x8740, binaryFormat);
+        assertEquals(5, file.remaining());
+        for (int i = 1; i <= 5; ++i) {
+            assertEquals(i, file.get());
+        }
+        assertEquals(0, binary.position());
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsOtherFiles() throws IOException {
+        byte[] meshHeader = {'M', 'E', 'S', 'H', 0, 0, 0, 0, 0, 0, 0, 0};
+
+        ProgramCache.decode(ByteBuffer.wrap(meshHeader));
+    }
+
+    @Test(expected = IOException.class)
+    public void decode_rejectsTruncatedFiles() throws IOException {
+        ByteBuffer file = ProgramCache.encode(1, ByteBuffer.wrap(new byte[16]));
+        file.limit(file.limit() - 1);
+
+        ProgramCache.decode(file);
+    }
+}
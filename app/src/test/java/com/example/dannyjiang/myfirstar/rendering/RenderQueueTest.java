@@ -0,0 +1,169 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link RenderQueue}, run on the development machine (host).
+ */
+public class RenderQueueTest {
+    /** Records the payloads of the commands it executes, and the passes they were in. */
+    private static class Recorder implements RenderQueue.Executor, RenderQueue.PassListener {
+        final List<Integer> payloads = new ArrayList<>();
+        final List<String> passes = new ArrayList<>();
+
+        @Override
+        public void execute(RenderQueue queue, int payload) {
+            payloads.add(payload);
+        }
+
+        @Override
+        public void beginPass(int pass) {
+            passes.add("begin " + pass);
+        }
+
+        @Override
+        public void endPass(int pass) {
+            passes.add("end " + pass);
+        }
+    }
+
+    @Test
+    public void submit_ordersByPassThenStateThenDepth() {
+        RenderQueue queue = new RenderQueue();
+        Recorder recorder = new Recorder();
+        queue.add(RenderQueue.blendedKey(1, 1, 1, 10), recorder, 0);
+        queue.add(RenderQueue.key(RenderQueue.PASS_OPAQUE, 2, 1, 1, 5), recorder, 1);
+        queue.add(RenderQueue.key(RenderQueue.PASS_OPAQUE, 1, 1, 1, 9), recorder, 2);
+        queue.add(RenderQueue.key(RenderQueue.PASS_BACKGROUND, 3, 3, 0, 0), recorder, 3);
+        queue.add(RenderQueue.key(RenderQueue.PASS_OPAQUE, 1, 1, 1, 2), recorder, 4);
+        queue.add(RenderQueue.blendedKey(1, 1, 1, 20), recorder, 5);
+
+        queue.submit();
+
+        // Blended commands are drawn back to front, after all others.
+        assertEquals(Arrays.asList(3, 4, 2, 1, 5, 0), recorder.payloads);
+    }
+
+    @Test
+    public void submit_keepsOrderOfEqualKeys() {
+        RenderQueue queue = new RenderQueue();
+        Recorder recorder = new Recorder();
+        long key = RenderQueue.key(RenderQueue.PASS_PLANES, 1, 1, 0, 0);
+        for (int i = 0; i < 5; ++i) {
+            queue.add(key, recorder, i);
+        }
+
+        queue.submit();
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), recorder.payloads);
+    }
+
+    @Test
+    public void submit_notifiesPassesAndCountsStateChanges() {
+        RenderQueue queue = new RenderQueue();
+        Recorder recorder = new Recorder();
+        queue.setPassListener(recorder);
+        queue.add(RenderQueue.key(RenderQueue.PASS_OPAQUE, 1, 2, 3, 0), recorder, 0);
+        queue.add(RenderQueue.key(RenderQueue.PASS_OPAQUE, 1, 2, 4, 0), recorder, 1);
+        queue.add(RenderQueue.key(RenderQueue.PASS_OPAQUE, 1, 2, 4, 1), recorder, 2);
+        queue.add(RenderQueue.blendedKey(1, 2, 4, 0), recorder, 3);
+
+        queue.submit();
+
+        assertEquals(Arrays.asList("begin 1", "end 1", "begin 3", "end 3"), recorder.passes);
+        assertEquals(4, queue.getSubmittedCommandCount());
+        // The first command and the change of pass count as changes of everything.
+        assertEquals(2, queue.getProgramChangeCount());
+        assertEquals(2, queue.getTextureChangeCount());
+        assertEquals(3, queue.getMeshChangeCount());
+    }
+
+    @Test
+    public void submit_emptiesQueueEvenIfAnExecutorThrows() {
+        RenderQueue queue = new RenderQueue();
+        queue.add(
+                0L,
+                new RenderQueue.Executor() {
+                    @Override
+                    public void execute(RenderQueue queue, int payload) {
+                        throw new IllegalStateException();
+                    }
+                },
+                0);
+        queue.allocateInts(3);
+
+        try {
+            queue.submit();
+            fail("The exception of the executor was not rethrown");
+        } catch (IllegalStateException expected) {
+        }
+
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.allocateInts(1));
+    }
+
+    @Test
+    public void submit_ordersManyCommandsByKey() {
+        Random random = new Random(5);
+        int count = 300;
+        long[] keys = new long[count];
+        int[] indices = new int[count];
+        RenderQueue queue = new RenderQueue();
+        Recorder recorder = new Recorder();
+        for (int i = 0; i < count; ++i) {
+            // Few distinct states and depths, so there are equal keys, in all passes.
+            long key =
+                    random.nextBoolean()
+                            ? RenderQueue.key(
+                                    random.nextInt(RenderQueue.PASS_COUNT),
+                                    random.nextInt(4),
+                                    random.nextInt(3),
+                                    random.nextInt(3),
+                                    random.nextInt(50))
+                            : RenderQueue.blendedKey(
+                                    random.nextInt(4), 0, 0, random.nextInt(50));
+            keys[i] = key;
+            indices[i] = i;
+            queue.add(key, recorder, i);
+        }
+        KeySorter.insertionSort(keys, indices, count);
+
+        queue.submit();
+
+        for (int i = 0; i < count; ++i) {
+            assertEquals(indices[i], (int) recorder.payloads.get(i));
+        }
+    }
+
+    @Test
+    public void allocateFloats_alignsToMatricesAndKeepsContentsWhenGrowing() {
+        RenderQueue queue = new RenderQueue();
+        int first = queue.allocateFloats(5);
+        queue.getFloats()[first + 4] = 42.0f;
+
+        int second = queue.allocateFloats(100000);
+
+        assertEquals(0, first);
+        assertEquals(16, second);
+        assertEquals(42.0f, queue.getFloats()[4], 0.0f);
+    }
+
+    @Test
+    public void depthOf_quantizesViewSpaceDepth() {
+        RenderQueue queue = new RenderQueue();
+        float[] identity = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+        queue.setCamera(identity, identity, 100.0f);
+
+        assertEquals(0, queue.depthOf(0, 0, 1));
+        assertEquals(RenderQueue.MAX_DEPTH / 2, queue.depthOf(5, 5, -50), 1);
+        assertEquals(RenderQueue.MAX_DEPTH, queue.depthOf(0, 0, -200));
+        assertEquals(0, RenderQueue.quantizeDepth(Float.NaN, 100.0f));
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link SortedPlanes}, run on the development machine (host).
+ */
+public class SortedPlanesTest {
+    @Test
+    public void sortByDistance_isStable() {
+        SortedPlanes.SortablePlane[] planes = SortedPlanes.createSortablePlanes(5);
+        float[] distances = {3.0f, 1.0f, 2.0f, 1.0f, 0.5f};
+        for (int i = 0; i < distances.length; ++i) {
+            planes[i].set(distances[i], null, null);
+        }
+        SortedPlanes.SortablePlane firstOne = planes[1];
+        SortedPlanes.SortablePlane secondOne = planes[3];
+
+        SortedPlanes.sortByDistance(planes, 4);
+
+        assertEquals(1.0f, planes[0].distance, 0.0f);
+        assertSame(firstOne, planes[0]);
+        assertSame(secondOne, planes[1]);
+        assertEquals(2.0f, planes[2].distance, 0.0f);
+        assertEquals(3.0f, planes[3].distance, 0.0f);
+        // Records past the count are left alone.
+        assertEquals(0.5f, planes[4].distance, 0.0f);
+    }
+
+    @Test
+    public void sortablePlane_resetDropsShape() {
+        SortedPlanes.SortablePlane plane = SortedPlanes.createSortablePlanes(1)[0];
+        plane.set(1.0f, null, null);
+        plane.setShape(2.0f, 3.0f, FloatBuffer.wrap(new float[] {-1, -1, 1, -1, 0, 1}));
+
+        plane.reset();
+
+        assertEquals(0.0f, plane.distance, 0.0f);
+        assertEquals(0.0f, plane.extentX, 0.0f);
+        assertEquals(0.0f, plane.extentZ, 0.0f);
+        assertNull(plane.polygon);
+    }
+
+    @Test
+    public void sortByDistance_reordersNearlySortedTrackedPlanes() {
+        // The order of the previous frame, after the camera moved past the second plane.
+        float[] distances = {1.0f, 2.5f, 2.0f, 3.0f, 4.0f};
+        PlaneTracker.TrackedPlane[] planes = new PlaneTracker.TrackedPlane[distances.length];
+        for (int i = 0; i < distances.length; ++i) {
+            planes[i] = new PlaneTracker.TrackedPlane();
+            planes[i].distance = distances[i];
+        }
+        PlaneTracker.TrackedPlane moved = planes[2];
+
+        SortedPlanes.sortByDistance(planes, planes.length);
+
+        for (int i = 1; i < planes.length; ++i) {
+            assertTrue(planes[i - 1].distance <= planes[i].distance);
+        }
+        assertSame(moved, planes[1]);
+    }
+}
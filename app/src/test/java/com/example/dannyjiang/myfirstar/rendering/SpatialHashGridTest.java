@@ -0,0 +1,153 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link SpatialHashGrid}, run on the development machine (host).
+ */
+public class SpatialHashGridTest {
+    private static final float[] IDENTITY = {
+        1, 0, 0, 0,
+        0, 1, 0, 0,
+        0, 0, 1, 0,
+        0, 0, 0, 1
+    };
+    // Perspective projection with a 90 degree field of view, near plane 1 and far plane 100.
+    private static final float[] PROJECTION = {
+        1, 0, 0, 0,
+        0, 1, 0, 0,
+        0, 0, -101f / 99f, -1,
+        0, 0, -200f / 99f, 0
+    };
+
+    @Test
+    public void findNearest_returnsClosestWithinDistance() {
+        SpatialHashGrid grid = new SpatialHashGrid(1, 0);
+        grid.update(0, 0, 0, 0);
+        grid.update(1, 0.9f, 0, 0);
+        grid.update(2, -3, 0, 0);
+
+        assertEquals(1, grid.findNearest(1.2f, 0, 0, 1));
+        assertEquals(0, grid.findNearest(-0.2f, 0.1f, 0, 1));
+        assertEquals(SpatialHashGrid.NONE, grid.findNearest(-1.5f, 0, 0, 1));
+    }
+
+    @Test
+    public void findWithinRadius_crossesCells() {
+        SpatialHashGrid grid = new SpatialHashGrid(0.5f, 0);
+        grid.update(0, 0.1f, 0.1f, 0.1f);
+        grid.update(1, -0.1f, -0.1f, -0.1f);
+        grid.update(2, 0.7f, 0, 0);
+        grid.update(3, 2, 0, 0);
+        int[] out = new int[4];
+
+        int count = grid.findWithinRadius(0, 0, 0, 0.8f, out);
+
+        assertEquals(3, count);
+        Arrays.sort(out, 0, count);
+        assertArrayEquals(new int[] {0, 1, 2}, Arrays.copyOf(out, count));
+    }
+
+    @Test
+    public void findWithinRadius_countsBeyondOutput() {
+        SpatialHashGrid grid = new SpatialHashGrid(1, 0);
+        for (int id = 0; id < 5; ++id) {
+            grid.update(id, id * 0.1f, 0, 0);
+        }
+
+        assertEquals(5, grid.findWithinRadius(0, 0, 0, 1, new int[2]));
+        // A radius spanning more cells than the table holds scans the table instead.
+        assertEquals(5, grid.findWithinRadius(0, 0, 0, 1000, new int[0]));
+    }
+
+    @Test
+    public void update_ignoresMovesWithinThreshold() {
+        SpatialHashGrid grid = new SpatialHashGrid(1, 0.1f);
+        assertTrue(grid.update(0, 0.95f, 0, 0));
+
+        assertFalse(grid.update(0, 1.02f, 0, 0));
+        assertEquals(0, grid.findNearest(0.9f, 0, 0, 0.06f));
+
+        assertTrue(grid.update(0, 1.5f, 0, 0));
+        assertEquals(SpatialHashGrid.NONE, grid.findNearest(0.9f, 0, 0, 0.06f));
+        assertEquals(0, grid.findNearest(1.5f, 0, 0, 0.01f));
+        assertEquals(2, grid.getMoveCount());
+    }
+
+    @Test
+    public void remove_forgetsPoint() {
+        SpatialHashGrid grid = new SpatialHashGrid(1, 0);
+        grid.update(0, 0, 0, 0);
+        grid.update(1, 0.1f, 0, 0);
+
+        assertTrue(grid.remove(0));
+        assertFalse(grid.remove(0));
+
+        assertEquals(1, grid.size());
+        assertFalse(grid.contains(0));
+        assertEquals(1, grid.findNearest(0, 0, 0, 1));
+    }
+
+    @Test
+    public void manyMovingPoints_matchBruteForce() {
+        Random random = new Random(7);
+        SpatialHashGrid grid = new SpatialHashGrid(0.5f, 0);
+        int count = 500;
+        float[] positions = new float[3 * count];
+        for (int round = 0; round < 4; ++round) {
+            for (int id = 0; id < count; ++id) {
+                for (int axis = 0; axis < 3; ++axis) {
+                    positions[3 * id + axis] = random.nextFloat() * 20 - 10;
+                }
+                grid.update(id, positions[3 * id], positions[3 * id + 1], positions[3 * id + 2]);
+            }
+        }
+
+        for (int query = 0; query < 50; ++query) {
+            float x = random.nextFloat() * 20 - 10;
+            float y = random.nextFloat() * 20 - 10;
+            float z = random.nextFloat() * 20 - 10;
+            int expectedNearest = SpatialHashGrid.NONE;
+            float nearestDistanceSquared = 4;
+            int expectedCount = 0;
+            for (int id = 0; id < count; ++id) {
+                float dx = positions[3 * id] - x;
+                float dy = positions[3 * id + 1] - y;
+                float dz = positions[3 * id + 2] - z;
+                float distanceSquared = dx * dx + dy * dy + dz * dz;
+                if (distanceSquared <= 4) {
+                    ++expectedCount;
+                }
+                if (distanceSquared <= nearestDistanceSquared) {
+                    expectedNearest = id;
+                    nearestDistanceSquared = distanceSquared;
+                }
+            }
+            assertEquals(expectedNearest, grid.findNearest(x, y, z, 2));
+            assertEquals(expectedCount, grid.findWithinRadius(x, y, z, 2, new int[count]));
+        }
+    }
+
+    @Test
+    public void cull_classifiesCellsOfPoints() {
+        SpatialHashGrid grid = new SpatialHashGrid(1, 0);
+        grid.update(0, 0.5f, 0.5f, -10.5f);
+        grid.update(1, 0.5f, 0.5f, 10.5f);
+        grid.update(2, 0.5f, 0.5f, -0.5f);
+        FrustumCuller culler = new FrustumCuller();
+        culler.setCamera(IDENTITY, PROJECTION);
+
+        grid.cull(culler, 0.1f);
+
+        assertEquals(FrustumCuller.INSIDE, grid.getVisibility(0));
+        assertEquals(FrustumCuller.OUTSIDE, grid.getVisibility(1));
+        assertEquals(FrustumCuller.INTERSECTING, grid.getVisibility(2));
+        // Points that were not indexed must be tested one by one.
+        assertEquals(FrustumCuller.INTERSECTING, grid.getVisibility(3));
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.dannyjiang.myfirstar.rendering;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the KTX parsing of {@link TextureData}, run on the development machine (host).
+ */
+public class TextureDataTest {
+    private static final byte[] IDENTIFIER = {
+        (byte) 0xab, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xbb, '\r', '\n', 0x1a, '\n'
+    };
+    private static final int ETC2_RGBA = 0x9278;
+
+    /**
+     * Writes a compressed 2D KTX file whose mip level i has {@code levelSizes[i]} bytes, all set
+     * to i, preceded by {@code keyValueBytes} bytes of key/value data.
+     */
+    private static ByteBuffer ktx(
+            ByteOrder order, int width, int height, int keyValueBytes, int... levelSizes) {
+        int size = TextureData.KTX_HEADER_SIZE + keyValueBytes;
+        for (int levelSize : levelSizes) {
+            size += 4 + ((levelSize + 3) & ~3);
+        }
+        ByteBuffer file = ByteBuffer.allocateDirect(size).order(order);
+        file.put(IDENTIFIER);
+        file.putInt(0x04030201);
+        file.putInt(0); // glType
+        file.putInt(1); // glTypeSize
+        file.putInt(0); // glFormat
+        file.putInt(ETC2_RGBA);
+        file.putInt(0x1908); // glBaseInternalFormat, GL_RGBA
+        file.putInt(width);
+        file.putInt(height);
+        file.putInt(0); // pixelDepth
+        file.putInt(0); // numberOfArrayElements
+        file.putInt(1); // numberOfFaces
+        file.putInt(levelSizes.length);
+        file.putInt(keyValueBytes);
+        file.position(file.position() + keyValueBytes);
+        for (int level = 0; level < levelSizes.length; ++level) {
+            file.putInt(levelSizes[level]);
+            for (int i = 0; i < levelSizes[level]; ++i) {
+                file.put((byte) level);
+            }
+            file.position(file.position() + ((levelSizes[level] + 3) & ~3) - levelSizes[level]);
+        }
+        file.flip();
+        return file;
+    }
+
+    @Test
+    public void getFullMipLevelCount_goesDownTo1x1() {
+        assertEquals(1, TextureData.getFullMipLevelCount(1, 1));
+        assertEquals(9, TextureData.getFullMipLevelCount(256, 256));
+        assertEquals(9, TextureData.getFullMipLevelCount(256, 16));
+        assertEquals(9, TextureData.getFullMipLevelCount(300, 200));
+    }
+
+    @Test
+    public void parseKtx_readsEveryMipLevel() throws IOException {
+        // 8x4 ETC2 RGBA: 2x1 blocks of 16 bytes, then 1x1 blocks down to 1x1.
+        ByteBuffer file = ktx(ByteOrder.LITTLE_ENDIAN, 8, 4, 12, 32, 16, 16, 16);
+
+        TextureData texture = TextureData.parseKtx(file);
+
+        assertEquals(8, texture.getWidth());
+        assertEquals(4, texture.getHeight());
+        assertTrue(texture.isCompressed());
+        assertEquals(ETC2_RGBA, texture.getInternalFormat());
+        assertEquals(4, texture.getLevelCount());
+        assertEquals(0, file.position());
+    }
+
+    @Test
+    public void parseKtx_readsBigEndianFiles() throws IOException {
+        TextureData texture = TextureData.parseKtx(ktx(ByteOrder.BIG_ENDIAN, 2, 2, 0, 16, 16));
+
+        assertEquals(2, texture.getWidth());
+        assertEquals(ETC2_RGBA, texture.getInternalFormat());
+        assertEquals(2, texture.getLevelCount());
+    }
+
+    @Test
+    public void parseKtx_handlesUnalignedLevels() throws IOException {
+        // ETC1-like sizes that are not multiples of 4 are padded in the file.
+        TextureData texture = TextureData.parseKtx(ktx(ByteOrder.LITTLE_ENDIAN, 2, 1, 0, 6, 3));
+
+        assertEquals(2, texture.getLevelCount());
+    }
+
+    @Test
+    public void parseKtx_rejectsIncompleteMipChain() {
+        try {
+            TextureData.parseKtx(ktx(ByteOrder.LITTLE_ENDIAN, 8, 8, 0, 64, 16));
+            fail("Expected an incomplete mip chain to be rejected");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void parseKtx_rejectsTruncatedAndForeignFiles() {
+        ByteBuffer truncated = ktx(ByteOrder.LITTLE_ENDIAN, 2, 2, 0, 16, 16);
+        truncated.limit(truncated.limit() - 8);
+        ByteBuffer png = ByteBuffer.allocate(TextureData.KTX_HEADER_SIZE);
+        png.put(new byte[] {(byte) 0x89, 'P', 'N', 'G'}).rewind();
+
+        for (ByteBuffer file : new ByteBuffer[] {truncated, png}) {
+            try {
+                TextureData.parseKtx(file);
+                fail("Expected an invalid file to be rejected");
+            } catch (IOException expected) {
+            }
+        }
+    }
+}
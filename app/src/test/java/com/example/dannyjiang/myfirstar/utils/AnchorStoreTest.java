@@ -0,0 +1,200 @@
+package com.example.dannyjiang.myfirstar.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link AnchorStore}, run on the development machine (host).
+ */
+public class AnchorStoreTest {
+    /** Records the anchors it detaches. */
+    private static class RecordingDetacher implements AnchorStore.Detacher<String> {
+        final List<String> detached = new ArrayList<>();
+
+        @Override
+        public void detach(String anchor, int id) {
+            assertFalse("Detached twice: " + anchor, detached.contains(anchor));
+            detached.add(anchor);
+        }
+    }
+
+    private static List<String> anchors(AnchorStore<String> store) {
+        List<String> anchors = new ArrayList<>();
+        for (int i = 0; i < store.size(); ++i) {
+            anchors.add(store.get(i));
+        }
+        return anchors;
+    }
+
+    @Test
+    public void add_keepsModels() {
+        AnchorStore<String> store =
+                new AnchorStore<>(4, 1, AnchorStore.OLDEST_FIRST, new RecordingDetacher());
+
+        store.add("a", 0);
+        store.add("b", 1);
+
+        assertEquals(2, store.size());
+        assertEquals("b", store.get(1));
+        assertEquals(1, store.getModel(1));
+        assertEquals(1, store.getAge(0));
+        assertEquals(0, store.getAge(1));
+    }
+
+    @Test
+    public void oldestFirst_evictsWholeBatch() {
+        RecordingDetacher detacher = new RecordingDetacher();
+        AnchorStore<String> store = new AnchorStore<>(4, 2, AnchorStore.OLDEST_FIRST, detacher);
+        for (String anchor : new String[] {"a", "b", "c", "d"}) {
+            store.add(anchor, 0);
+        }
+
+        store.add("e", 0);
+
+        assertEquals(2, detacher.detached.size());
+        assertTrue(detacher.detached.containsAll(Arrays.asList("a", "b")));
+        assertEquals(3, store.size());
+        List<String> kept = anchors(store);
+        assertTrue(kept.containsAll(Arrays.asList("c", "d", "e")));
+        assertEquals(2, store.getEvictionCount());
+    }
+
+    @Test
+    public void leastRecentlyVisible_evictsLongestOffScreen() {
+        RecordingDetacher detacher = new RecordingDetacher();
+        AnchorStore<String> store =
+                new AnchorStore<>(3, 1, AnchorStore.LEAST_RECENTLY_VISIBLE, detacher);
+        store.add("a", 0);
+        store.add("b", 0);
+        store.add("c", 0);
+        for (int frame = 0; frame < 3; ++frame) {
+            store.beginFrame();
+            // "b" leaves the screen first, "a" one frame later.
+            store.update(0, true, 1, frame < 1);
+            store.update(1, true, 1, false);
+            store.update(2, true, 1, true);
+        }
+
+        store.add("d", 0);
+
+        assertEquals(Arrays.asList("b"), detacher.detached);
+    }
+
+    @Test
+    public void farthestFromCamera_evictsFarthest() {
+        RecordingDetacher detacher = new RecordingDetacher();
+        AnchorStore<String> store =
+                new AnchorStore<>(3, 2, AnchorStore.FARTHEST_FROM_CAMERA, detacher);
+        store.add("a", 0);
+        store.add("b", 0);
+        store.add("c", 0);
+        store.update(0, true, 9, true);
+        store.update(1, true, 1, true);
+        store.update(2, true, 4, true);
+
+        store.add("d", 0);
+
+        assertEquals(2, detacher.detached.size());
+        assertTrue(detacher.detached.containsAll(Arrays.asList("a", "c")));
+        assertEquals(Arrays.asList("b", "d"), anchors(store));
+    }
+
+    @Test
+    public void notTrackingFirst_thenFallsBackToPolicy() {
+        RecordingDetacher detacher = new RecordingDetacher();
+        AnchorStore<String> store = new AnchorStore<>(
+                3, 2, AnchorStore.notTrackingFirst(AnchorStore.OLDEST_FIRST), detacher);
+        store.add("a", 0);
+        store.add("b", 0);
+        store.add("c", 0);
+        store.update(2, false, 0, false);
+
+        store.add("d", 0);
+
+        assertEquals(2, detacher.detached.size());
+        assertTrue(detacher.detached.containsAll(Arrays.asList("c", "a")));
+    }
+
+    @Test
+    public void equalScores_evictExactlyTheBatch() {
+        RecordingDetacher detacher = new RecordingDetacher();
+        AnchorStore<String> store =
+                new AnchorStore<>(5, 2, AnchorStore.FARTHEST_FROM_CAMERA, detacher);
+        for (String anchor : new String[] {"a", "b", "c", "d", "e"}) {
+            store.add(anchor, 0);
+        }
+
+        store.add("f", 0);
+
+        assertEquals(2, detacher.detached.size());
+        assertEquals(4, store.size());
+    }
+
+    @Test
+    public void setCapacity_evictsDownToCapacity() {
+        RecordingDetacher detacher = new RecordingDetacher();
+        AnchorStore<String> store = new AnchorStore<>(8, 1, AnchorStore.OLDEST_FIRST, detacher);
+        for (String anchor : new String[] {"a", "b", "c", "d"}) {
+            store.add(anchor, 0);
+        }
+
+        store.setCapacity(1, 1);
+
+        assertEquals(Arrays.asList("d"), anchors(store));
+        assertEquals(3, detacher.detached.size());
+    }
+
+    @Test
+    public void ids_stayStableAndAreReused() {
+        final List<Integer> detachedIds = new ArrayList<>();
+        AnchorStore<String> store = new AnchorStore<>(3, 1, AnchorStore.OLDEST_FIRST,
+                new AnchorStore.Detacher<String>() {
+                    @Override
+                    public void detach(String anchor, int id) {
+                        detachedIds.add(id);
+                    }
+                });
+        store.add("a", 0);
+        store.add("b", 0);
+        store.add("c", 0);
+        int idOfC = store.getId(2);
+
+        // Evicting "a" moves "c" to index 0.
+        store.add("d", 0);
+
+        assertEquals("c", store.get(0));
+        assertEquals(idOfC, store.getId(0));
+        assertEquals(detachedIds.get(0).intValue(), store.getId(2));
+    }
+
+    @Test
+    public void clear_detachesEverything() {
+        RecordingDetacher detacher = new RecordingDetacher();
+        AnchorStore<String> store = new AnchorStore<>(4, 1, AnchorStore.OLDEST_FIRST, detacher);
+        store.add("a", 0);
+        store.add("b", 0);
+
+        store.clear();
+
+        assertEquals(0, store.size());
+        assertEquals(Arrays.asList("a", "b"), detacher.detached);
+        assertEquals(0, store.getEvictionCount());
+    }
+
+    @Test
+    public void selectLargest_findsKthLargest() {
+        double[] values = {5, 1, 4, 4, 9, 2, 7, 3};
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        for (int k = 1; k <= values.length; ++k) {
+            assertEquals(sorted[values.length - k],
+                    AnchorStore.selectLargest(values.clone(), values.length, k), 0);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.dannyjiang.myfirstar.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link AssetLoader}, run on the development machine (host).
+ */
+public class AssetLoaderTest {
+    private final AssetLoader loader = new AssetLoader(2);
+    private final List<String> uploaded = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        loader.shutdown();
+    }
+
+    /** Loads {@code value} on a worker and records it, and the uploading thread, on upload. */
+    private void load(final String value) {
+        loader.load(
+                new AssetLoader.Loader<String>() {
+                    @Override
+                    public String load() {
+                        return value + "@" + Thread.currentThread().getName();
+                    }
+                },
+                new AssetLoader.Uploader<String>() {
+                    @Override
+                    public void upload(String asset) {
+                        uploaded.add(asset + ">" + Thread.currentThread().getName());
+                    }
+                });
+    }
+
+    private void awaitLoaded(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (loader.getLoadedCount() < count) {
+            assertTrue("Assets not loaded in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void loadsOnWorkerAndUploadsOnCaller() throws Exception {
+        load("mesh");
+        awaitLoaded(1);
+
+        assertTrue(loader.runUploads(Long.MAX_VALUE));
+        assertEquals(1, uploaded.size());
+        assertTrue(uploaded.get(0).startsWith("mesh@AssetLoader-"));
+        assertTrue(uploaded.get(0).endsWith(">" + Thread.currentThread().getName()));
+        assertTrue(loader.isIdle());
+    }
+
+    @Test
+    public void runUploads_zeroBudgetUploadsOneAssetPerCall() throws Exception {
+        load("a");
+        load("b");
+        load("c");
+        awaitLoaded(3);
+
+        assertFalse(loader.runUploads(0));
+        assertEquals(1, uploaded.size());
+        assertFalse(loader.runUploads(0));
+        assertEquals(2, uploaded.size());
+        assertTrue(loader.runUploads(0));
+        assertEquals(3, uploaded.size());
+        assertTrue(loader.runUploads(0));
+        assertEquals(3, uploaded.size());
+    }
+
+    @Test
+    public void runUploads_rethrowsLoadFailure() throws Exception {
+        final IOException failure = new IOException("missing asset");
+        loader.load(
+                new AssetLoader.Loader<String>() {
+                    @Override
+                    public String load() throws IOException {
+                        throw failure;
+                    }
+                },
+                new AssetLoader.Uploader<String>() {
+                    @Override
+                    public void upload(String asset) {
+                        fail("Failed asset must not be uploaded");
+                    }
+                });
+        awaitLoaded(1);
+
+        try {
+            loader.runUploads(Long.MAX_VALUE);
+            fail("Expected the load failure");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+        assertTrue(loader.isIdle());
+    }
+
+    @Test
+    public void cancel_dropsAssetsNotUploaded() throws Exception {
+        load("stale");
+        awaitLoaded(1);
+        loader.cancel();
+        assertTrue(loader.isIdle());
+
+        load("fresh");
+        awaitLoaded(1);
+        assertTrue(loader.runUploads(Long.MAX_VALUE));
+        assertEquals(1, uploaded.size());
+        assertTrue(uploaded.get(0).startsWith("fresh@"));
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.dannyjiang.myfirstar.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link FramePipeline}, run on the development machine (host).
+ */
+public class FramePipelineTest {
+    /** Writes an increasing frame number and the producing thread into the snapshot. */
+    private static class CountingProducer implements FramePipeline.Producer<Object[]> {
+        volatile int frame;
+
+        @Override
+        public void produce(Object[] snapshot) {
+            snapshot[0] = ++frame;
+            snapshot[1] = Thread.currentThread();
+        }
+    }
+
+    @Test
+    public void latency0_drawsSnapshotOfSameFrame() {
+        CountingProducer producer = new CountingProducer();
+        FramePipeline<Object[]> pipeline =
+                new FramePipeline<>(new Object[2], new Object[2], producer, 0);
+
+        for (int frame = 1; frame <= 3; ++frame) {
+            pipeline.awaitProduced();
+            pipeline.produceNext();
+
+            assertEquals(frame, pipeline.getFront()[0]);
+            assertSame(Thread.currentThread(), pipeline.getFront()[1]);
+        }
+    }
+
+    @Test
+    public void latency1_drawsSnapshotOfPreviousFrame() {
+        CountingProducer producer = new CountingProducer();
+        Object[] first = new Object[2];
+        FramePipeline<Object[]> pipeline =
+                new FramePipeline<>(first, new Object[2], producer, 1);
+
+        pipeline.awaitProduced();
+        pipeline.produceNext();
+        assertSame(first, pipeline.getFront());
+        assertNull(first[0]);
+
+        for (int frame = 2; frame <= 5; ++frame) {
+            pipeline.awaitProduced();
+            pipeline.produceNext();
+
+            assertEquals(frame - 1, pipeline.getFront()[0]);
+            assertNotSame(Thread.currentThread(), pipeline.getFront()[1]);
+        }
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void awaitProduced_rethrowsProducerFailure() {
+        final RuntimeException failure = new RuntimeException("no frame");
+        FramePipeline<Object[]> pipeline =
+                new FramePipeline<>(
+                        new Object[2],
+                        new Object[2],
+                        new FramePipeline.Producer<Object[]>() {
+                            @Override
+                            public void produce(Object[] snapshot) {
+                                throw failure;
+                            }
+                        },
+                        1);
+        pipeline.produceNext();
+
+        try {
+            pipeline.awaitProduced();
+            fail("Expected the failure of the producer");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e.getCause());
+        }
+        // The failure is reported once, and the pipeline can go on.
+        pipeline.awaitProduced();
+        pipeline.shutdown();
+    }
+
+    @Test
+    public void produceNext_withoutAwaitFails() {
+        FramePipeline<Object[]> pipeline =
+                new FramePipeline<>(new Object[2], new Object[2], new BlockingProducer(), 1);
+        pipeline.produceNext();
+
+        try {
+            pipeline.produceNext();
+            fail("Expected produceNext() to fail while a snapshot is produced");
+        } catch (IllegalStateException e) {
+            // Expected.
+        } finally {
+            BlockingProducer.release();
+            pipeline.shutdown();
+        }
+    }
+
+    @Test
+    public void shutdown_producesOnCallingThread() {
+        CountingProducer producer = new CountingProducer();
+        FramePipeline<Object[]> pipeline =
+                new FramePipeline<>(new Object[2], new Object[2], producer, 1);
+        pipeline.shutdown();
+
+        pipeline.awaitProduced();
+        pipeline.produceNext();
+
+        assertEquals(1, pipeline.getFront()[0]);
+        assertSame(Thread.currentThread(), pipeline.getFront()[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsLongerLatency() {
+        new FramePipeline<>(new Object[2], new Object[2], new CountingProducer(), 2);
+    }
+
+    /** Blocks until released, so that a snapshot stays in production. */
+    private static class BlockingProducer implements FramePipeline.Producer<Object[]> {
+        private static final Object lock = new Object();
+        private static boolean released;
+
+        static void release() {
+            synchronized (lock) {
+                released = true;
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        public void produce(Object[] snapshot) {
+            synchronized (lock) {
+                while (!released) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.dannyjiang.myfirstar.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link FrameProfiler}, run on the development machine (host).
+ */
+public class FrameProfilerTest {
+    private static final long MILLISECOND = 1000000L;
+
+    @Test
+    public void percentiles_useNearestRank() {
+        FrameProfiler profiler = new FrameProfiler(100, 16 * MILLISECOND, "draw");
+        for (int i = 1; i <= 100; ++i) {
+            profiler.recordGpuTime(0, i);
+        }
+
+        assertEquals(50, profiler.getGpuPercentile(0, 50));
+        assertEquals(95, profiler.getGpuPercentile(0, 95));
+        assertEquals(99, profiler.getGpuPercentile(0, 99));
+        assertEquals(100, profiler.getGpuPercentile(0, 100));
+        assertEquals(1, profiler.getGpuPercentile(0, 0));
+        assertEquals(0, profiler.getCpuPercentile(0, 50));
+    }
+
+    @Test
+    public void ring_keepsMostRecentSamplesOldestFirst() {
+        FrameProfiler profiler = new FrameProfiler(4, 16 * MILLISECOND, "draw");
+        for (int i = 1; i <= 6; ++i) {
+            profiler.recordGpuTime(0, 10 * i);
+        }
+        long[] samples = new long[8];
+
+        int count = profiler.copyGpuTimes(0, samples);
+
+        assertEquals(4, count);
+        assertEquals(30, samples[0]);
+        assertEquals(60, samples[3]);
+        // The oldest samples were overwritten, so the median only sees the recent ones.
+        assertEquals(40, profiler.getGpuPercentile(0, 50));
+    }
+
+    @Test
+    public void stages_recordCpuTimePerStage() throws InterruptedException {
+        FrameProfiler profiler = new FrameProfiler(16, 16 * MILLISECOND, "fast", "slow");
+
+        profiler.beginFrame();
+        profiler.beginStage(0);
+        profiler.endStage(0);
+        profiler.beginStage(1);
+        Thread.sleep(5);
+        profiler.endStage(1);
+        profiler.endFrame();
+
+        assertEquals(1, profiler.getFrameCount());
+        assertEquals(1, profiler.copyCpuTimes(0, new long[16]));
+        assertTrue(profiler.getCpuPercentile(1, 50) >= 5 * MILLISECOND);
+        assertTrue(profiler.getCpuPercentile(0, 50) < profiler.getCpuPercentile(1, 50));
+        assertTrue(profiler.getFramePercentile(50) >= profiler.getCpuPercentile(1, 50));
+    }
+
+    @Test
+    public void beginFrame_countsMissedRefreshes() throws InterruptedException {
+        FrameProfiler profiler = new FrameProfiler(16, MILLISECOND, "draw");
+
+        profiler.beginFrame();
+        profiler.endFrame();
+        Thread.sleep(20);
+        profiler.beginFrame();
+        profiler.endFrame();
+
+        assertTrue(profiler.getDroppedFrameCount() >= 10);
+    }
+
+    @Test
+    public void beginFrame_onTimeFramesAreNotDropped() {
+        FrameProfiler profiler = new FrameProfiler(16, 500 * MILLISECOND, "draw");
+
+        for (int i = 0; i < 10; ++i) {
+            profiler.beginFrame();
+            profiler.endFrame();
+        }
+
+        assertEquals(10, profiler.getFrameCount());
+        assertEquals(0, profiler.getDroppedFrameCount());
+    }
+
+    @Test
+    public void dump_writesOneLinePerStageAndClock() throws Exception {
+        FrameProfiler profiler = new FrameProfiler(16, 16 * MILLISECOND, "planes", "objects");
+        profiler.recordGpuTime(1, 2 * MILLISECOND);
+        StringBuilder out = new StringBuilder();
+
+        profiler.dump(out);
+
+        String[] lines = out.toString().split("\n");
+        assertEquals(5, lines.length);
+        assertEquals("frames 0, dropped 0", lines[0]);
+        assertTrue(lines[2].startsWith("planes cpu p50"));
+        assertEquals("objects gpu p50 2.00 ms, p95 2.00 ms, p99 2.00 ms", lines[4]);
+    }
+}
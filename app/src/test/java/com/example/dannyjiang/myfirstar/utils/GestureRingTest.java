@@ -0,0 +1,115 @@
+package com.example.dannyjiang.myfirstar.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for {@link GestureRing}, run on the development machine (host).
+ */
+public class GestureRingTest {
+    @Test
+    public void drain_returnsGesturesInOrder() {
+        GestureRing ring = new GestureRing(8);
+        GestureRing.Batch batch = new GestureRing.Batch(8);
+        ring.offerTap(1, 2, 100);
+        ring.offerDrag(3, 4, 5, 6, 101);
+        ring.offerPinch(7, 8, 1.5f, 102);
+
+        assertEquals(3, ring.drain(batch));
+
+        assertEquals(GestureRing.TAP, batch.getType(0));
+        assertEquals(1, batch.getX(0), 0);
+        assertEquals(2, batch.getY(0), 0);
+        assertEquals(100, batch.getTimeMillis(0));
+        assertEquals(GestureRing.DRAG, batch.getType(1));
+        assertEquals(5, batch.getDeltaX(1), 0);
+        assertEquals(6, batch.getDeltaY(1), 0);
+        assertEquals(1, batch.getScale(1), 0);
+        assertEquals(GestureRing.PINCH, batch.getType(2));
+        assertEquals(7, batch.getX(2), 0);
+        assertEquals(1.5f, batch.getScale(2), 0);
+        assertEquals(0, batch.getDeltaX(2), 0);
+        assertEquals(0, ring.drain(batch));
+        assertEquals(0, batch.getCount());
+    }
+
+    @Test
+    public void offer_dropsAndCountsWhenFull() {
+        GestureRing ring = new GestureRing(2);
+        GestureRing.Batch batch = new GestureRing.Batch(2);
+
+        assertTrue(ring.offerTap(0, 0, 0));
+        assertTrue(ring.offerTap(1, 0, 1));
+        assertFalse(ring.offerTap(2, 0, 2));
+
+        assertEquals(1, ring.getDroppedCount());
+        assertEquals(2, ring.drain(batch));
+        assertEquals(1, batch.getX(1), 0);
+        assertTrue(ring.offerTap(3, 0, 3));
+    }
+
+    @Test
+    public void drain_leavesWhatDoesNotFitInBatch() {
+        GestureRing ring = new GestureRing(4);
+        GestureRing.Batch batch = new GestureRing.Batch(2);
+        for (int i = 0; i < 3; ++i) {
+            ring.offerTap(i, 0, i);
+        }
+
+        assertEquals(2, ring.drain(batch));
+        assertEquals(1, ring.drain(batch));
+        assertEquals(2, batch.getX(0), 0);
+    }
+
+    @Test
+    public void wrapsAroundRepeatedly() {
+        GestureRing ring = new GestureRing(4);
+        GestureRing.Batch batch = new GestureRing.Batch(4);
+        int next = 0;
+        for (int round = 0; round < 10; ++round) {
+            for (int i = 0; i < 3; ++i) {
+                ring.offerTap(next + i, 0, 0);
+            }
+            assertEquals(3, ring.drain(batch));
+            for (int i = 0; i < 3; ++i) {
+                assertEquals(next + i, batch.getX(i), 0);
+            }
+            next += 3;
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void producerAndConsumerThreads_loseNothing() throws Exception {
+        final int total = 200000;
+        final GestureRing ring = new GestureRing(64);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < total; ++i) {
+                    while (!ring.offerTap(i, -i, i)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        GestureRing.Batch batch = new GestureRing.Batch(16);
+        int expected = 0;
+        while (expected < total) {
+            int count = ring.drain(batch);
+            for (int i = 0; i < count; ++i) {
+                assertEquals(expected, batch.getTimeMillis(i));
+                assertEquals(-expected, batch.getY(i), 0);
+                ++expected;
+            }
+            if (count == 0) {
+                Thread.yield();
+            }
+        }
+        producer.join();
+
+        assertEquals(0, ring.drain(batch));
+    }
+}
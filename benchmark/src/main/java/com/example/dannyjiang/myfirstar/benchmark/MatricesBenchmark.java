@@ -0,0 +1,128 @@
+package com.example.dannyjiang.myfirstar.benchmark;
+
+import com.example.dannyjiang.myfirstar.rendering.Matrices;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link Matrices} with a plain Java port of {@code android.opengl.Matrix.multiplyMM}, on
+ * the work of one frame: the model view and model view projection matrices of {@code count}
+ * objects.
+ *
+ * <p>The baseline leaves out what multiplyMM costs on a device beyond its arithmetic, the JNI
+ * transition and the argument checks, so it only measures the loops. Whether the JIT unrolls or
+ * vectorizes either version depends on the VM; these numbers are from the host JVM, not ART.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatricesBenchmark {
+  private static final int FLOATS_PER_MATRIX = 16;
+
+  /** Number of objects, a few anchors up to a crowded scene. */
+  @Param({"4", "64", "512"})
+  public int count;
+
+  private float[] viewMatrix;
+  private float[] projectionMatrix;
+  private float[] modelMatrices;
+  private float[] modelViewMatrices;
+  private float[] modelViewProjectionMatrices;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    viewMatrix = randomMatrices(random, 1);
+    projectionMatrix = randomMatrices(random, 1);
+    modelMatrices = randomMatrices(random, count);
+    modelViewMatrices = new float[count * FLOATS_PER_MATRIX];
+    modelViewProjectionMatrices = new float[count * FLOATS_PER_MATRIX];
+  }
+
+  /** Two multiplyMM calls per object, as the renderers made before {@link Matrices}. */
+  @Benchmark
+  public float[] multiplyMmPerObject() {
+    for (int i = 0; i < count; ++i) {
+      int offset = i * FLOATS_PER_MATRIX;
+      multiplyMM(modelViewMatrices, offset, viewMatrix, 0, modelMatrices, offset);
+      multiplyMM(
+          modelViewProjectionMatrices, offset, projectionMatrix, 0, modelViewMatrices, offset);
+    }
+    return modelViewProjectionMatrices;
+  }
+
+  /** Two {@link Matrices#multiply} calls per object. */
+  @Benchmark
+  public float[] multiplyPerObject() {
+    for (int i = 0; i < count; ++i) {
+      int offset = i * FLOATS_PER_MATRIX;
+      Matrices.multiply(modelViewMatrices, offset, viewMatrix, 0, modelMatrices, offset);
+      Matrices.multiply(
+          modelViewProjectionMatrices, offset, projectionMatrix, 0, modelViewMatrices, offset);
+    }
+    return modelViewProjectionMatrices;
+  }
+
+  /** All objects at once, as the renderers do. */
+  @Benchmark
+  public float[] concatenate() {
+    Matrices.concatenate(
+        viewMatrix,
+        projectionMatrix,
+        modelMatrices,
+        0,
+        count,
+        modelViewMatrices,
+        modelViewProjectionMatrices);
+    return modelViewProjectionMatrices;
+  }
+
+  /**
+   * The product loop of {@code android.opengl.Matrix.multiplyMM}, which is native on Android:
+   * column {@code i} of the result is the sum of the columns of {@code lhs} weighted by column
+   * {@code i} of {@code rhs}. {@code result} must not overlap {@code lhs} or {@code rhs}.
+   */
+  static void multiplyMM(
+      float[] result, int resultOffset, float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+    for (int i = 0; i < 4; ++i) {
+      float rhsI0 = rhs[rhsOffset + 4 * i];
+      float ri0 = lhs[lhsOffset] * rhsI0;
+      float ri1 = lhs[lhsOffset + 1] * rhsI0;
+      float ri2 = lhs[lhsOffset + 2] * rhsI0;
+      float ri3 = lhs[lhsOffset + 3] * rhsI0;
+      for (int j = 1; j < 4; ++j) {
+        float rhsIj = rhs[rhsOffset + 4 * i + j];
+        ri0 += lhs[lhsOffset + 4 * j] * rhsIj;
+        ri1 += lhs[lhsOffset + 4 * j + 1] * rhsIj;
+        ri2 += lhs[lhsOffset + 4 * j + 2] * rhsIj;
+        ri3 += lhs[lhsOffset + 4 * j + 3] * rhsIj;
+      }
+      result[resultOffset + 4 * i] = ri0;
+      result[resultOffset + 4 * i + 1] = ri1;
+      result[resultOffset + 4 * i + 2] = ri2;
+      result[resultOffset + 4 * i + 3] = ri3;
+    }
+  }
+
+  private static float[] randomMatrices(Random random, int count) {
+    float[] matrices = new float[count * FLOATS_PER_MATRIX];
+    for (int i = 0; i < matrices.length; ++i) {
+      matrices[i] = random.nextFloat() * 2 - 1;
+    }
+    return matrices;
+  }
+}